@@ -6,42 +6,65 @@
 package com.bxtz;
 
 import com.bxtz.entity.Message;
-import com.bxtz.entity.Prompt;
-import com.bxtz.utils.AIUtils;
+import com.bxtz.entity.ChatPrompt;
+import com.bxtz.utils.AiBackend;
+import com.bxtz.utils.ChatSession;
+import com.bxtz.utils.EmbeddingClient;
 import com.bxtz.utils.MarkdownUtils;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.bxtz.utils.PromptContextBuilder;
+import com.bxtz.utils.ResponseCache;
+import com.bxtz.utils.VectorIndex;
 import javafx.application.Platform;
-import javafx.collections.ListChangeListener;
-import javafx.collections.ObservableList;
+import javafx.beans.binding.Bindings;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
 import javafx.scene.chart.*;
 import javafx.scene.control.*;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.VBox;
-import javafx.scene.text.Text;
-import javafx.scene.text.TextFlow;
-import javafx.scene.web.WebEngine;
-import javafx.scene.web.WebView;
 
+import java.net.http.HttpTimeoutException;
+import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 public class AnalysePage {
+    private static final int MINUTES_PER_DAY = 24 * 60;
+    /** Texts most similar to a question whose bills are listed in the prompt */
+    private static final int SIMILAR_TEXTS = 20;
+    private static final long RETRIEVAL_TIMEOUT_SECONDS = 3;
+    /** Estimated tokens of related bills sent with each question */
+    private static final int RELATED_TOKEN_BUDGET = 600;
+
     private Commons commons = new Commons();
     private BarChart<String, Number> timeBarChart;
     private PieChart categoryPieChart;
-    private AIUtils aiUtils = new AIUtils();
+    private ChartAggregator chartAggregator;
+    private DatePicker rangeFrom;
+    private DatePicker rangeTo;
+    /** Chosen with the {@code ai.backend} system property */
+    private AiBackend aiBackend = AiBackend.configured();
+    private ResponseCache responseCache = ResponseCache.onDisk();
+    private BillRetriever retriever;
     private MarkdownUtils markdownUtils = new MarkdownUtils();
+    /** Answers still being written */
+    private final List<CompletableFuture<ChatSession.Turn>> pending = new ArrayList<>();
 
     /**
      * Creates and returns the complete analysis page with charts and AI chat.
      *
-     * @param bills The observable list of bills to analyze
+     * @param ledger The bills to analyze
      * @return VBox containing the complete analysis interface
      */
-    public VBox getAnalysisPage(ObservableList<Bill> bills) {
+    public VBox getAnalysisPage(BillStore ledger) {
         HBox mainLayout = new HBox(10);
         mainLayout.setPadding(new Insets(10));
         mainLayout.setStyle("-fx-background-color: #ffffff;");
@@ -52,56 +75,48 @@ public class AnalysePage {
         chartsBox.setPadding(new Insets(10));
         chartsBox.setStyle("-fx-background-color: #f9f9f9; -fx-border-color: #ddd; -fx-border-width: 1;");
 
-        // Create charts
-        createBarChart(bills);
-        createPieChart(bills);
+        // Create charts; the aggregator fills them and keeps them updated from ledger changes
+        createBarChart();
+        createPieChart();
+        chartAggregator = new ChartAggregator(ledger, timeBarChart.getData().get(0), categoryPieChart.getData());
 
-        chartsBox.getChildren().addAll(timeBarChart, categoryPieChart, new Separator());
+        chartsBox.getChildren().addAll(createRangeSelector(), createZoomBar(), timeBarChart, categoryPieChart, new Separator());
 
         // Create AI chat interface
-        VBox aiBox = createAIChatBox(bills);
+        EmbeddingClient embeddings = new EmbeddingClient();
+        retriever = new BillRetriever(ledger, embeddings::embed, embeddings.getModel(), VectorIndex::flat,
+                Path.of(System.getProperty("user.home"), ".bills-manager", "embeddings.bin"));
+        VBox aiBox = createAIChatBox(ledger);
         aiBox.setPrefWidth(300);
         aiBox.setStyle("-fx-background-color: #f4f4f4; -fx-border-color: #ddd; -fx-border-width: 1;");
 
         // Add charts and AI area to main layout
         mainLayout.getChildren().addAll(chartsBox, aiBox);
 
-        // Set up listeners for bill changes
-        bills.addListener((ListChangeListener<Bill>) change -> {
-            while (change.next()) {
-                if (change.wasAdded() || change.wasRemoved() || change.wasUpdated() || change.wasReplaced()) {
-                    createBarChart(bills);
-                    createPieChart(bills);
-                }
-            }
-        });
-
-        // Set up property change listeners for individual bills
-        for (Bill bill : bills) {
-            bill.costProperty().addListener((observable, oldValue, newValue) -> {
-                createBarChart(bills);
-                createPieChart(bills);
-            });
-
-            bill.typeProperty().addListener((observable, oldValue, newValue) -> {
-                createPieChart(bills);
-            });
-        }
-
         // Wrap in outer VBox
         VBox container = new VBox(mainLayout);
         container.setPadding(new Insets(10));
         return container;
     }
 
+    /**
+     * Stops every answer the page is still waiting for, such as when the user leaves the page.
+     * Must be called on the FX thread.
+     */
+    public void cancelPendingAnswers() {
+        new ArrayList<>(pending).forEach(reply -> reply.cancel(true));
+    }
+
     /**
      * Creates the AI chat interface box.
      *
-     * @param bills The list of bills to use for AI analysis
+     * @param ledger The bills to use for AI analysis
      * @return VBox containing the complete AI chat interface
      */
-    private VBox createAIChatBox(ObservableList<Bill> bills) {
-        ObjectMapper mapper = new ObjectMapper();
+    private VBox createAIChatBox(BillStore ledger) {
+        PromptContextBuilder contextBuilder = new PromptContextBuilder();
+        PromptContextBuilder relatedBuilder = new PromptContextBuilder(RELATED_TOKEN_BUDGET);
+        ChatSession session = new ChatSession(new ChatPrompt().getModel());
 
         VBox box = new VBox(10);
         box.setStyle("-fx-background-color: #f4f4f4; -fx-padding: 10; -fx-border-color: #ccc; -fx-border-radius: 5;");
@@ -110,15 +125,9 @@ public class AnalysePage {
         Label label = new Label("💬 Ask AI about your expenses:");
         label.setStyle("-fx-font-weight: bold; -fx-font-size: 14px;");
 
-        // Chat message area
-        VBox chatMessages = new VBox(8);
-        chatMessages.setPrefWidth(500);
-        chatMessages.setStyle("-fx-padding: 5;");
-
-        ScrollPane scrollPane = new ScrollPane(chatMessages);
-        scrollPane.setFitToWidth(true);
-        scrollPane.setPrefHeight(250);
-        scrollPane.setVbarPolicy(ScrollPane.ScrollBarPolicy.ALWAYS);
+        // Chat message area: one web view for the whole conversation
+        ChatTranscript transcript = new ChatTranscript(markdownUtils);
+        transcript.getView().setPrefHeight(250);
 
         // Input area
         TextField inputField = new TextField();
@@ -128,165 +137,256 @@ public class AnalysePage {
         Button sendButton = new Button("Send");
         sendButton.setDefaultButton(true);
 
-        HBox inputBox = new HBox(10, inputField, sendButton);
+        // Cancels every answer this page is still waiting for
+        Button stopButton = new Button("Stop");
+        stopButton.setDisable(true);
+        stopButton.setOnAction(e -> cancelPendingAnswers());
+
+        // Forgets the conversation so far; the next question starts from the ledger summary alone
+        Button newChatButton = new Button("New Chat");
+        newChatButton.setOnAction(e -> {
+            cancelPendingAnswers();
+            if (!session.isEmpty()) {
+                session.clear();
+                transcript.addText("New conversation", ChatTranscript.Style.NOTE);
+            }
+        });
+
+        HBox inputBox = new HBox(10, inputField, sendButton, stopButton, newChatButton);
         inputBox.setAlignment(Pos.CENTER_LEFT);
 
         Runnable sendMessage = () -> {
             String question = inputField.getText().trim();
-            ArrayList<Bill> billList = new ArrayList<>(bills);
-
-            Prompt prompt = new Prompt();
-            Message message = new Message();
-            try {
-                message.setBills(mapper.writeValueAsString(billList));
-                message.setMsg(question);
-                prompt.setPrompt(mapper.writeValueAsString(message));
-            } catch (Exception exception) {
-                exception.printStackTrace();
-            }
 
-            if (!question.isEmpty()) {
-                addMessage(chatMessages, "You: " + question, Pos.BASELINE_RIGHT, "#d0f0c0");
+            // One question at a time, so each is asked with the answers before it in the history
+            if (!question.isEmpty() && pending.isEmpty()) {
+                transcript.addText("You: " + question, ChatTranscript.Style.QUESTION);
                 inputField.clear();
-                new Thread(() -> {
-                    String reply = aiUtils.getResponse(prompt);
-                    Platform.runLater(() -> {
-                        addMarkdownMessage(chatMessages, "AI: " + reply, Pos.BASELINE_LEFT);
-                        scrollPane.setVvalue(1.0); // Scroll to bottom
-                    });
-                }).start();
+
+                // The first question on unchanged bills is answered from the cache; follow-ups
+                // depend on the conversation, so they always go to the model
+                boolean firstTurn = session.isEmpty();
+                long fingerprint = ledger.contentHash();
+                String cached = firstTurn ? responseCache.get(session.getModel(), question, fingerprint) : null;
+                if (cached != null) {
+                    transcript.addMarkdown("AI: " + cached, ChatTranscript.Style.ANSWER);
+                    // Follow-ups build on the cached answer like on any other
+                    session.record(new ChatSession.Turn(question, cached, 0, new AiBackend.ChatReply(cached, 0, 0, 0, 0), -1, 0));
+                    return;
+                }
+
+                // The answer is rendered block by block while it streams in, then as a whole
+                int streaming = transcript.addStreaming("AI: ", ChatTranscript.Style.ANSWER);
+                CompletableFuture<ChatSession.Turn> reply = new CompletableFuture<>();
+                pending.add(reply);
+                stopButton.setDisable(false);
+                sendButton.setDisable(true);
+
+                // Bills similar in meaning to the question are looked up first; if embeddings are
+                // unavailable the prompt goes out without them
+                retriever.similarTextsAsync(question, SIMILAR_TEXTS)
+                        .completeOnTimeout(List.of(), RETRIEVAL_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                        .exceptionally(e -> List.of())
+                        .thenAcceptAsync(similar -> {
+                            if (reply.isDone()) {
+                                return; // stopped while looking up
+                            }
+                            // A compact summary of the ledger instead of every bill, so the prompt stays
+                            // small; it opens every request unchanged, so the model only evaluates it once
+                            ChatPrompt prompt = session.prepare(
+                                    new Message().getPrompt() + "\n\n" + contextBuilder.buildSummary(ledger), question,
+                                    relatedBuilder.buildRelated(ledger, question, retriever.rowsFor(similar)));
+                            int promptTokens = ChatSession.estimateTokens(prompt);
+                            long sent = System.nanoTime();
+                            AtomicLong firstWords = new AtomicLong(-1);
+                            Consumer<String> append = fragmentAppender(fragment -> transcript.appendMarkdown(streaming, fragment));
+                            CompletableFuture<AiBackend.ChatReply> answer = aiBackend.streamChatAsync(prompt, fragment -> {
+                                firstWords.compareAndSet(-1, System.nanoTime());
+                                append.accept(fragment);
+                            });
+                            reply.whenComplete((turn, error) -> {
+                                if (reply.isCancelled()) {
+                                    answer.cancel(true);
+                                }
+                            });
+                            answer.whenComplete((chat, error) -> {
+                                if (error == null) {
+                                    long first = firstWords.get();
+                                    reply.complete(new ChatSession.Turn(question, chat.content(), promptTokens, chat,
+                                            first < 0 ? -1 : (first - sent) / 1_000_000, (System.nanoTime() - sent) / 1_000_000));
+                                } else {
+                                    reply.completeExceptionally(error instanceof CompletionException ? error.getCause() : error);
+                                }
+                            });
+                        }, Platform::runLater);
+                reply.whenComplete((turn, error) -> Platform.runLater(() -> {
+                    pending.remove(reply);
+                    stopButton.setDisable(pending.isEmpty());
+                    sendButton.setDisable(!pending.isEmpty());
+                    if (error == null) {
+                        session.record(turn);
+                        if (firstTurn && ledger.contentHash() == fingerprint) {
+                            responseCache.put(session.getModel(), question, fingerprint, turn.answer());
+                        }
+                        transcript.setMarkdown(streaming, "AI: " + turn.answer(), ChatTranscript.Style.ANSWER);
+                        transcript.addText(turn.describe(), ChatTranscript.Style.NOTE);
+                    } else if (reply.isCancelled()) {
+                        transcript.appendText(streaming, " (stopped)");
+                    } else {
+                        Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                        transcript.remove(streaming);
+                        transcript.addText("AI: " + describeFailure(cause), ChatTranscript.Style.ERROR);
+                    }
+                }));
             }
         };
 
         sendButton.setOnAction(e -> sendMessage.run());
         inputField.setOnAction(e -> sendMessage.run());
 
-        box.getChildren().addAll(label, scrollPane, inputBox);
+        box.getChildren().addAll(label, transcript.getView(), inputBox);
         return box;
     }
 
     /**
-     * Creates/updates the bar chart showing expenses by date.
-     *
-     * @param bills The list of bills to visualize
+     * Returns a consumer, safe to call from any thread, that passes streamed fragments on to
+     * {@code append} on the FX thread. Fragments arriving between two FX pulses are joined and
+     * appended together, so a fast stream costs one page update per pulse rather than one per
+     * token.
      */
-    private void createBarChart(ObservableList<Bill> bills) {
-        if (this.timeBarChart == null) {
-            CategoryAxis xAxis = new CategoryAxis();
-            NumberAxis yAxis = new NumberAxis();
-            xAxis.setLabel("Date");
-            yAxis.setLabel("Total Cost");
-            this.timeBarChart = new BarChart<>(xAxis, yAxis);
-            this.timeBarChart.setTitle("Total Cost by Date");
-
-            XYChart.Series<String, Number> series = new XYChart.Series<>();
-            series.setName("Total Cost");
-            this.timeBarChart.getData().add(series);
-        }
-
-        XYChart.Series<String, Number> series = this.timeBarChart.getData().get(0);
-        series.getData().clear();
-
-        Map<String, Double> dateCostMap = new HashMap<>();
+    private static Consumer<String> fragmentAppender(Consumer<String> append) {
+        ConcurrentLinkedQueue<String> fragments = new ConcurrentLinkedQueue<>();
+        AtomicBoolean scheduled = new AtomicBoolean();
+        return fragment -> {
+            fragments.add(fragment);
+            if (scheduled.compareAndSet(false, true)) {
+                Platform.runLater(() -> {
+                    scheduled.set(false);
+                    StringBuilder batch = new StringBuilder();
+                    for (String next; (next = fragments.poll()) != null; ) {
+                        batch.append(next);
+                    }
+                    append.accept(batch.toString());
+                });
+            }
+        };
+    }
 
-        for (Bill bill : bills) {
-            String date = bill.getDate().split(" ")[0];
-            double cost = Double.parseDouble(bill.getCost().replace(" RMB", ""));
-            dateCostMap.put(date, dateCostMap.getOrDefault(date, 0.0) + cost);
+    /**
+     * @return a chat line explaining why the AI did not answer
+     */
+    private static String describeFailure(Throwable cause) {
+        if (cause instanceof RejectedExecutionException) {
+            return "Still answering earlier questions, please wait a moment.";
         }
-
-        for (Map.Entry<String, Double> entry : dateCostMap.entrySet()) {
-            XYChart.Data<String, Number> data = new XYChart.Data<>(entry.getKey(), entry.getValue());
-            Platform.runLater(() -> {
-                if (data.getNode() != null) {
-                    data.getNode().setStyle("-fx-bar-fill: #a8d5ba;"); // Light green
-                }
-            });
-            series.getData().add(data);
+        if (cause instanceof HttpTimeoutException) {
+            return "The model took too long to answer.";
         }
+        return "Could not reach the model (" + cause.getClass().getSimpleName() + ").";
+    }
+
+    /**
+     * Creates the bar chart showing expenses by date.
+     */
+    private void createBarChart() {
+        CategoryAxis xAxis = new CategoryAxis();
+        NumberAxis yAxis = new NumberAxis();
+        xAxis.setLabel("Date");
+        yAxis.setLabel("Total Cost");
+        this.timeBarChart = new BarChart<>(xAxis, yAxis);
+        this.timeBarChart.setTitle("Total Cost by Date");
+
+        XYChart.Series<String, Number> series = new XYChart.Series<>();
+        series.setName("Total Cost");
+        this.timeBarChart.getData().add(series);
     }
 
     /**
-     * Creates/updates the pie chart showing expenses by category.
+     * Creates the date range selector. Applying a range scopes the bar chart, the pie chart and
+     * the total shown next to it to the chosen days; "Show All" below clears it.
      *
-     * @param bills The list of bills to visualize
+     * @return HBox with the date pickers and the total of the visible range
      */
-    private void createPieChart(ObservableList<Bill> bills) {
-        if (this.categoryPieChart == null) {
-            this.categoryPieChart = new PieChart();
-            this.categoryPieChart.setTitle("Total Cost by Category");
-        }
-        categoryPieChart.setPrefWidth(800);
-        categoryPieChart.setPrefHeight(800);
+    private HBox createRangeSelector() {
+        rangeFrom = new DatePicker();
+        rangeTo = new DatePicker();
+        rangeFrom.setPromptText("From");
+        rangeTo.setPromptText("To");
+        rangeFrom.setPrefWidth(130);
+        rangeTo.setPrefWidth(130);
+
+        Button apply = new Button("Apply");
+        apply.setOnAction(e -> {
+            TimeIndex index = chartAggregator.getTimeIndex();
+            if (index.isEmpty() && (rangeFrom.getValue() == null || rangeTo.getValue() == null)) {
+                return;
+            }
+            int from = rangeFrom.getValue() != null
+                    ? toMinute(rangeFrom.getValue().toEpochDay() * MINUTES_PER_DAY) : index.firstMinute();
+            int to = rangeTo.getValue() != null
+                    ? toMinute((rangeTo.getValue().toEpochDay() + 1) * MINUTES_PER_DAY - 1) : index.lastMinute();
+            chartAggregator.setWindow(from, to);
+        });
 
-        Map<String, Double> categoryCostMap = new HashMap<>();
+        Label totalLabel = new Label();
+        totalLabel.setStyle("-fx-font-weight: bold;");
+        totalLabel.textProperty().bind(Bindings.createStringBinding(
+                () -> Commons.formatTotalCost(chartAggregator.getWindowTotalMinor()),
+                chartAggregator.windowTotalMinorProperty()));
 
-        for (Bill bill : bills) {
-            String type = bill.getType();
-            double cost = Double.parseDouble(bill.getCost().replace(" RMB", ""));
-            categoryCostMap.put(type, categoryCostMap.getOrDefault(type, 0.0) + cost);
-        }
+        HBox rangeBar = new HBox(10, rangeFrom, rangeTo, apply, totalLabel);
+        rangeBar.setAlignment(Pos.CENTER_LEFT);
+        return rangeBar;
+    }
 
-        ObservableList<PieChart.Data> dataList = this.categoryPieChart.getData();
-        dataList.clear();
+    /**
+     * Creates the controls for zooming the bar chart. Scrolling over the chart zooms as well;
+     * the aggregator picks the time resolution that fits the visible range.
+     *
+     * @return HBox with the zoom buttons and the current resolution
+     */
+    private HBox createZoomBar() {
+        Button zoomIn = new Button("Zoom In");
+        Button zoomOut = new Button("Zoom Out");
+        Button reset = new Button("Show All");
+        zoomIn.setOnAction(e -> chartAggregator.zoom(0.5));
+        zoomOut.setOnAction(e -> chartAggregator.zoom(2));
+        reset.setOnAction(e -> {
+            rangeFrom.setValue(null);
+            rangeTo.setValue(null);
+            chartAggregator.resetWindow();
+        });
+        timeBarChart.setOnScroll(e -> {
+            if (e.getDeltaY() != 0) {
+                chartAggregator.zoom(e.getDeltaY() > 0 ? 0.8 : 1.25);
+            }
+        });
 
-        for (Map.Entry<String, Double> entry : categoryCostMap.entrySet()) {
-            dataList.add(new PieChart.Data(entry.getKey(), entry.getValue()));
-        }
+        Label resolutionLabel = new Label();
+        resolutionLabel.textProperty().bind(Bindings.createStringBinding(
+                () -> "Per " + chartAggregator.getResolution().name().toLowerCase(),
+                chartAggregator.resolutionProperty()));
+
+        HBox zoomBar = new HBox(10, zoomIn, zoomOut, reset, resolutionLabel);
+        zoomBar.setAlignment(Pos.CENTER_LEFT);
+        return zoomBar;
     }
 
     /**
-     * Adds a text message to the chat interface.
-     *
-     * @param chatMessages The container for chat messages
-     * @param message The message text to display
-     * @param alignment The alignment of the message bubble
-     * @param bgColor The background color of the message bubble
+     * Creates the pie chart showing expenses by category.
      */
-    private void addMessage(VBox chatMessages, String message, Pos alignment, String bgColor) {
-        Text text = new Text(message);
-        text.setWrappingWidth(450);
-        text.setStyle("-fx-font-size: 13px;");
-
-        TextFlow bubble = new TextFlow(text);
-        bubble.setPadding(new Insets(8));
-        bubble.setStyle("-fx-background-color: " + bgColor + "; -fx-background-radius: 10;");
-        bubble.setMaxWidth(480);
-
-        HBox container = new HBox(bubble);
-        container.setAlignment(alignment);
-        chatMessages.getChildren().add(container);
+    private void createPieChart() {
+        this.categoryPieChart = new PieChart();
+        this.categoryPieChart.setTitle("Total Cost by Category");
+        categoryPieChart.setPrefWidth(800);
+        categoryPieChart.setPrefHeight(800);
     }
 
     /**
-     * Adds a markdown-formatted message to the chat interface (rendered as HTML).
-     *
-     * @param chatMessages The container for chat messages
-     * @param markdown The markdown content to display
-     * @param alignment The alignment of the message bubble
+     * Clamps epoch minutes of a picked date to those a bill can have, so dates far in the past
+     * or future do not wrap around, nor select the bills without a date ({@link Bill#NO_MINUTE}).
      */
-    private void addMarkdownMessage(VBox chatMessages, String markdown, Pos alignment) {
-        String html = markdownUtils.markdownToHtml(markdown);
-        String htmlPage = """
-            <html>
-            <head>
-                <style>
-                    body { font-family: Arial; padding: 10px; margin: 0; }
-                    pre { background: #f0f0f0; padding: 5px; border-radius: 3px; }
-                    code { font-family: monospace; }
-                </style>
-            </head>
-            <body>%s</body>
-            </html>
-            """.formatted(html);
-
-        WebView webView = new WebView();
-        webView.setMaxWidth(400);
-        WebEngine engine = webView.getEngine();
-        engine.loadContent(htmlPage);
-
-        HBox container = new HBox(webView);
-        container.setAlignment(alignment);
-        chatMessages.getChildren().add(container);
+    private static int toMinute(long minute) {
+        return (int) Math.max(Bill.NO_MINUTE + 1L, Math.min(Integer.MAX_VALUE, minute));
     }
-}
\ No newline at end of file
+}
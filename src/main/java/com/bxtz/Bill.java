@@ -1,43 +1,82 @@
 /**
- * Represents a bill/expense record with properties bound for CSV serialization.
- * This class serves as a model for financial transactions with properties that can be
- * easily displayed in JavaFX TableView and exported to/from CSV files.
+ * Represents a bill/expense record.
+ * This class serves as a model for financial transactions that can be displayed in a JavaFX
+ * TableView and exported to/from CSV files.
+ * <p>
+ * To keep large ledgers small, a bill stores its date as epoch minutes, its cost as a long
+ * number of minor units (fen) and its category as a dictionary id. The original strings are
+ * only kept when they are not in the canonical {@code yyyy-MM-dd HH:mm} / {@code "12.50 RMB"}
+ * form, so every getter returns exactly what was stored. JavaFX properties are created the
+ * first time one of the {@code *Property()} methods is called (by a table cell or an edit
+ * dialog); code that only needs to observe a bill should use {@link #addListener} instead.
  */
 package com.bxtz;
 
-import com.opencsv.bean.CsvBindByPosition;
+import com.bxtz.utils.LedgerFormat;
+import com.bxtz.utils.StringDictionary;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import javafx.beans.InvalidationListener;
+import javafx.beans.Observable;
 import javafx.beans.property.SimpleStringProperty;
+import javafx.util.Callback;
+
+import java.util.Arrays;
+
+public class Bill implements Observable {
+    /**
+     * Value of {@link #getEpochMinute()} when the date is not a valid {@code yyyy-MM-dd HH:mm} string
+     */
+    public static final int NO_MINUTE = LedgerFormat.INVALID_MINUTE;
+
+    /**
+     * Category names shared by all bills
+     */
+    public static final StringDictionary TYPES = new StringDictionary();
+
+    private static final String COST_SUFFIX = " RMB";
+
+    /**
+     * Minutes since 1970-01-01 00:00 (local time, no zone), or {@link #NO_MINUTE}
+     */
+    private int minute;
 
-public class Bill {
     /**
-     * The date of the bill in string format, bound to position 0 in CSV
+     * The date string when it cannot be rebuilt from {@link #minute}, otherwise null
      */
-    @CsvBindByPosition(position = 0)
-    private final SimpleStringProperty date;
+    private String rawDate;
 
     /**
-     * The name/payee of the bill, bound to position 1 in CSV
+     * The cost in minor units (1/100 RMB)
      */
-    @CsvBindByPosition(position = 1)
-    private final SimpleStringProperty name;
+    private long costMinor;
 
     /**
-     * Additional details about the bill, bound to position 2 in CSV
+     * Decimal places of the canonical cost string, or -1 when {@link #rawCost} holds it
      */
-    @CsvBindByPosition(position = 2)
-    private final SimpleStringProperty details;
+    private byte costScale;
 
     /**
-     * The cost amount of the bill, bound to position 3 in CSV
+     * The cost string when it is not canonical, otherwise null
      */
-    @CsvBindByPosition(position = 3)
-    private final SimpleStringProperty cost;
+    private String rawCost;
 
     /**
-     * The category/type of the bill, bound to position 4 in CSV
+     * Id of the category in {@link #TYPES}, or -1 for a null category
      */
-    @CsvBindByPosition(position = 4)
-    private final SimpleStringProperty type;
+    private int typeId;
+
+    private String name;
+    private String details;
+
+    /**
+     * JavaFX properties, created on first request
+     */
+    private Properties properties;
+
+    /**
+     * Null, a single {@link InvalidationListener}, or an array of them
+     */
+    private Object listeners;
 
     /**
      * Constructs a new Bill with all properties specified.
@@ -49,95 +88,400 @@ public class Bill {
      * @param type The category of the bill
      */
     public Bill(String date, String name, String details, String cost, String type) {
-        this.date = new SimpleStringProperty(date);
-        this.name = new SimpleStringProperty(name);
-        this.details = new SimpleStringProperty(details);
-        this.cost = new SimpleStringProperty(cost);
-        this.type = new SimpleStringProperty(type);
+        encodeDate(date);
+        this.name = name;
+        this.details = details;
+        encodeCost(cost);
+        encodeType(type);
     }
 
     /**
      * Constructs a new Bill from a string array (typically from CSV import).
-     * Array positions must match CSV binding positions.
+     * Array positions must match CSV column positions.
      *
      * @param strings String array containing bill properties in order:
      *                [date, name, details, cost, type]
      */
     public Bill(String[] strings) {
-        this.date = new SimpleStringProperty(strings[0]);
-        this.name = new SimpleStringProperty(strings[1]);
-        this.details = new SimpleStringProperty(strings[2]);
-        this.cost = new SimpleStringProperty(strings[3]);
-        this.type = new SimpleStringProperty(strings[4]);
+        this(strings[0], strings[1], strings[2], strings[3], strings[4]);
+    }
+
+    /**
+     * Rebuilds a bill from already encoded fields (see {@link BillStore}).
+     */
+    Bill(int minute, String rawDate, long costMinor, byte costScale, String rawCost,
+         int typeId, String name, String details) {
+        this.minute = minute;
+        this.rawDate = rawDate;
+        this.costMinor = costMinor;
+        this.costScale = costScale;
+        this.rawCost = rawCost;
+        this.typeId = typeId;
+        this.name = name;
+        this.details = details;
     }
 
     /**
      * @return The date of the bill as String
      */
     public String getDate() {
-        return date.get();
+        if (properties != null && properties.date != null) {
+            return properties.date.get();
+        }
+        if (minute == NO_MINUTE) {
+            return rawDate;
+        }
+        return LedgerFormat.formatMinute(minute);
     }
 
     /**
      * @return The name/payee of the bill as String
      */
     public String getName() {
-        return name.get();
+        return name;
     }
 
     /**
      * @return The details of the bill as String
      */
     public String getDetails() {
-        return details.get();
+        return details;
     }
 
     /**
      * @return The cost amount of the bill as String (with "RMB" suffix)
      */
     public String getCost() {
-        return cost.get();
+        if (properties != null && properties.cost != null) {
+            return properties.cost.get();
+        }
+        if (costScale < 0) {
+            return rawCost;
+        }
+        return formatCost(costMinor, costScale);
     }
 
     /**
      * @return The category/type of the bill as String
      */
     public String getType() {
-        return type.get();
+        return typeId < 0 ? null : TYPES.valueOf(typeId);
+    }
+
+    /**
+     * @return The date as minutes since the epoch, or {@link #NO_MINUTE} if it is not a valid date
+     */
+    @JsonIgnore
+    public int getEpochMinute() {
+        return minute;
+    }
+
+    /**
+     * @return The cost in minor units (1/100 RMB); unparseable costs count as 0
+     */
+    @JsonIgnore
+    public long getCostMinor() {
+        return costMinor;
+    }
+
+    /**
+     * @return The id of the category in {@link #TYPES}, or -1 if the category is null
+     */
+    @JsonIgnore
+    public int getTypeId() {
+        return typeId;
+    }
+
+    /**
+     * @return the date string if it is not canonical, otherwise null
+     */
+    String rawDate() {
+        return rawDate;
+    }
+
+    /**
+     * @return the cost string if it is not canonical, otherwise null
+     */
+    String rawCost() {
+        return rawCost;
+    }
+
+    /**
+     * @return decimals shown in the canonical cost string, or -1 if {@link #rawCost()} is used
+     */
+    byte costScale() {
+        return costScale;
+    }
+
+    public void setDate(String date) {
+        if (properties != null && properties.date != null) {
+            properties.date.set(date);
+        } else {
+            encodeDate(date);
+            fireInvalidated();
+        }
+    }
+
+    public void setName(String name) {
+        if (properties != null && properties.name != null) {
+            properties.name.set(name);
+        } else {
+            this.name = name;
+            fireInvalidated();
+        }
+    }
+
+    public void setDetails(String details) {
+        if (properties != null && properties.details != null) {
+            properties.details.set(details);
+        } else {
+            this.details = details;
+            fireInvalidated();
+        }
+    }
+
+    public void setCost(String cost) {
+        if (properties != null && properties.cost != null) {
+            properties.cost.set(cost);
+        } else {
+            encodeCost(cost);
+            fireInvalidated();
+        }
+    }
+
+    public void setType(String type) {
+        if (properties != null && properties.type != null) {
+            properties.type.set(type);
+        } else {
+            encodeType(type);
+            fireInvalidated();
+        }
     }
 
     /**
      * @return The date property for JavaFX binding
      */
     public SimpleStringProperty dateProperty() {
-        return date;
+        Properties p = properties();
+        if (p.date == null) {
+            p.date = new SimpleStringProperty(this, "date", getDate());
+            p.date.addListener((observable, oldValue, newValue) -> {
+                encodeDate(newValue);
+                fireInvalidated();
+            });
+        }
+        return p.date;
     }
 
     /**
      * @return The name property for JavaFX binding
      */
     public SimpleStringProperty nameProperty() {
-        return name;
+        Properties p = properties();
+        if (p.name == null) {
+            p.name = new SimpleStringProperty(this, "name", name);
+            p.name.addListener((observable, oldValue, newValue) -> {
+                name = newValue;
+                fireInvalidated();
+            });
+        }
+        return p.name;
     }
 
     /**
      * @return The details property for JavaFX binding
      */
     public SimpleStringProperty detailsProperty() {
-        return details;
+        Properties p = properties();
+        if (p.details == null) {
+            p.details = new SimpleStringProperty(this, "details", details);
+            p.details.addListener((observable, oldValue, newValue) -> {
+                details = newValue;
+                fireInvalidated();
+            });
+        }
+        return p.details;
     }
 
     /**
      * @return The cost property for JavaFX binding
      */
     public SimpleStringProperty costProperty() {
-        return cost;
+        Properties p = properties();
+        if (p.cost == null) {
+            p.cost = new SimpleStringProperty(this, "cost", getCost());
+            p.cost.addListener((observable, oldValue, newValue) -> {
+                encodeCost(newValue);
+                fireInvalidated();
+            });
+        }
+        return p.cost;
     }
 
     /**
      * @return The type property for JavaFX binding
      */
     public SimpleStringProperty typeProperty() {
-        return type;
+        Properties p = properties();
+        if (p.type == null) {
+            p.type = new SimpleStringProperty(this, "type", getType());
+            p.type.addListener((observable, oldValue, newValue) -> {
+                encodeType(newValue);
+                fireInvalidated();
+            });
+        }
+        return p.type;
+    }
+
+    /**
+     * Registers a listener that is notified whenever any field of this bill changes, whether
+     * through a setter or through one of the JavaFX properties. Unlike listening on the
+     * properties, this does not force them to be created.
+     */
+    @Override
+    public void addListener(InvalidationListener listener) {
+        if (listeners == null) {
+            listeners = listener;
+        } else if (listeners instanceof InvalidationListener single) {
+            listeners = new InvalidationListener[]{single, listener};
+        } else {
+            InvalidationListener[] array = (InvalidationListener[]) listeners;
+            array = Arrays.copyOf(array, array.length + 1);
+            array[array.length - 1] = listener;
+            listeners = array;
+        }
+    }
+
+    @Override
+    public void removeListener(InvalidationListener listener) {
+        if (listeners == listener) {
+            listeners = null;
+        } else if (listeners instanceof InvalidationListener[] array) {
+            for (int i = 0; i < array.length; i++) {
+                if (array[i] == listener) {
+                    InvalidationListener[] smaller = new InvalidationListener[array.length - 1];
+                    System.arraycopy(array, 0, smaller, 0, i);
+                    System.arraycopy(array, i + 1, smaller, i, array.length - i - 1);
+                    listeners = smaller.length == 1 ? smaller[0] : smaller;
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Extractor for {@code FXCollections.observableArrayList(Bill.extractor())}, so the list
+     * reports an update whenever one of its bills changes.
+     */
+    public static Callback<Bill, Observable[]> extractor() {
+        return bill -> new Observable[]{bill};
+    }
+
+    private void fireInvalidated() {
+        Object current = listeners;
+        if (current instanceof InvalidationListener single) {
+            single.invalidated(this);
+        } else if (current instanceof InvalidationListener[] array) {
+            for (InvalidationListener listener : array) {
+                listener.invalidated(this);
+            }
+        }
+    }
+
+    private Properties properties() {
+        if (properties == null) {
+            properties = new Properties();
+        }
+        return properties;
+    }
+
+    private void encodeDate(String date) {
+        minute = LedgerFormat.parseMinute(date);
+        rawDate = minute == NO_MINUTE ? date : null;
+    }
+
+    private void encodeType(String type) {
+        typeId = type == null ? -1 : TYPES.idOf(type);
+    }
+
+    private void encodeCost(String cost) {
+        long amount = LedgerFormat.parseAmount(cost);
+        costMinor = amount == LedgerFormat.INVALID_AMOUNT ? 0 : amount;
+        costScale = canonicalCostScale(cost);
+        rawCost = costScale < 0 ? cost : null;
+    }
+
+    /**
+     * Returns the number of decimals (0-2) if {@code cost} is exactly what {@link #formatCost}
+     * would produce for its value, otherwise -1.
+     */
+    private static byte canonicalCostScale(String cost) {
+        if (cost == null || !cost.endsWith(COST_SUFFIX)) {
+            return -1;
+        }
+        int end = cost.length() - COST_SUFFIX.length();
+        int i = 0;
+        if (i < end && cost.charAt(i) == '-') {
+            i++;
+        }
+        int intStart = i;
+        while (i < end && cost.charAt(i) >= '0' && cost.charAt(i) <= '9') {
+            i++;
+        }
+        int intDigits = i - intStart;
+        if (intDigits == 0 || intDigits > 15 || (intDigits > 1 && cost.charAt(intStart) == '0')) {
+            return -1;
+        }
+        int scale = 0;
+        if (i < end) {
+            if (cost.charAt(i) != '.') {
+                return -1;
+            }
+            i++;
+            while (i < end && cost.charAt(i) >= '0' && cost.charAt(i) <= '9') {
+                i++;
+                scale++;
+            }
+            if (i != end || scale == 0 || scale > 2) {
+                return -1;
+            }
+        }
+        if (intStart == 1 && LedgerFormat.parseAmount(cost) == 0) {
+            return -1; // "-0" cannot be rebuilt from a zero amount
+        }
+        return (byte) scale;
+    }
+
+    private static String formatCost(long minor, int scale) {
+        long abs = Math.abs(minor);
+        StringBuilder sb = new StringBuilder(24);
+        if (minor < 0) {
+            sb.append('-');
+        }
+        sb.append(abs / 100);
+        if (scale > 0) {
+            long cents = abs % 100;
+            sb.append('.');
+            if (scale == 1) {
+                sb.append(cents / 10);
+            } else {
+                if (cents < 10) {
+                    sb.append('0');
+                }
+                sb.append(cents);
+            }
+        }
+        return sb.append(COST_SUFFIX).toString();
+    }
+
+    /**
+     * Lazily created JavaFX views of the fields.
+     */
+    private static final class Properties {
+        private SimpleStringProperty date;
+        private SimpleStringProperty name;
+        private SimpleStringProperty details;
+        private SimpleStringProperty cost;
+        private SimpleStringProperty type;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,661 @@
+/**
+ * Keeps the ledger on disk as a snapshot plus an append-only journal of the changes made since.
+ * <p>
+ * Every change a {@link BillStore} reports (bills added in the dialog, edited, deleted,
+ * imported or reordered) becomes a small binary record appended to {@code ledger.journal}, so
+ * saving costs the size of the change, not of the ledger. The FX thread only copies the
+ * changed rows' columns; a background thread encodes them, writes everything that has arrived
+ * since its last write and then forces it to disk once, so records arriving during one fsync
+ * share the next. The FX thread never waits for the disk, and a crash loses at most the
+ * changes of the last few milliseconds.
+ * <p>
+ * Once the journal is estimated to be larger than the last snapshot (and than
+ * {@link #MIN_COMPACT_BYTES}), a copy of the ledger's columns is taken and written to a new {@code ledger.snapshot} and the journal starts again empty,
+ * so replaying it never costs more than loading the snapshot. Both files are replaced
+ * atomically and carry a generation number; a journal is only replayed on top of the snapshot
+ * it was started for, which keeps a crash between the two replacements harmless.
+ * <p>
+ * At startup the snapshot is read and the journal replayed on top of it. Each record carries
+ * its length and a CRC-32, so a record cut short by a crash is recognised; it is dropped and
+ * the journal continues after the last complete record.
+ * <p>
+ * If a write fails, the next change writes a snapshot instead, so saving recovers by itself
+ * once the disk does; {@link #setOnFailure} is told about the failure in the meantime.
+ */
+package com.bxtz;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+public class BillJournal implements BillStore.Listener, AutoCloseable {
+
+    /** The journal is compacted into a snapshot once it is larger than this and the snapshot */
+    static final long MIN_COMPACT_BYTES = 1 << 20;
+
+    private static final int SNAPSHOT_MAGIC = 0x42585331; // "BXS1"
+    private static final int JOURNAL_MAGIC = 0x42584A31;  // "BXJ1"
+    private static final int JOURNAL_HEADER = 12;          // magic and generation
+    private static final int RECORD_HEADER = 8;            // length and CRC of the payload
+    /** Estimated encoded size of a bill, for deciding when to compact without encoding on the FX thread */
+    private static final int BILL_BYTES = 48;
+
+    private static final byte ADD = 1;
+    private static final byte REMOVE = 2;
+    private static final byte SET = 3;
+    private static final byte PERMUTE = 4;
+
+    /** The ledger to write as a snapshot, after which the journal starts again for its generation */
+    private record Snapshot(long generation, BillStore bills) {
+    }
+
+    /** Writes the fields of a record after its op; runs on the worker, so it only reads copies */
+    private interface Body {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private record Record(byte op, Body body) {
+    }
+
+    private final Path directory;
+    private final Path snapshotFile;
+    private final Path journalFile;
+    private final long minCompactBytes;
+
+    /** The bills found at startup; null once attached */
+    private List<Bill> saved;
+    private boolean found;
+    /** End of the last complete journal record, or -1 if the journal cannot be continued */
+    private long journalEnd = -1;
+
+    // Used on the thread that modifies the ledger
+    private BillStore ledger;
+    private long generation;
+    private long snapshotBytes;
+    private long journalBytes = JOURNAL_HEADER;
+
+    /** {@link Record}s and {@link Snapshot}s, in order */
+    private final ArrayDeque<Object> queue = new ArrayDeque<>(); // guarded by this
+    private final AtomicBoolean draining = new AtomicBoolean();
+    /** Set when the journal could not be written; the next change writes a snapshot instead */
+    private volatile boolean broken;
+    private volatile long commits;
+    private volatile Consumer<String> onFailure = message -> {
+    };
+
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "bill-journal");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Used on the worker thread only
+    private FileChannel journal;
+    /** Whether the last write failed; a failure is reported once, not on every change */
+    private boolean failing;
+    private final ByteArrayOutputStream record = new ByteArrayOutputStream(256);
+    private final DataOutputStream recordOut = new DataOutputStream(record);
+
+    /**
+     * Reads the ledger saved in {@code directory}, if any. Nothing is written until
+     * {@link #attach}.
+     */
+    public BillJournal(Path directory) {
+        this(directory, MIN_COMPACT_BYTES);
+    }
+
+    BillJournal(Path directory, long minCompactBytes) {
+        this.directory = directory;
+        this.snapshotFile = directory.resolve("ledger.snapshot");
+        this.journalFile = directory.resolve("ledger.journal");
+        this.minCompactBytes = minCompactBytes;
+        this.saved = recover();
+    }
+
+    /**
+     * @return whether a ledger was found on disk, even an empty one
+     */
+    public boolean hasSavedBills() {
+        return found;
+    }
+
+    /**
+     * @return the saved bills, in order; empty if there were none
+     */
+    public List<Bill> savedBills() {
+        return saved == null ? List.of() : saved;
+    }
+
+    /**
+     * Sets what to do when changes could not be saved, e.g. show an error. It is called on the
+     * journal's thread with a message, once until saving works again.
+     */
+    public void setOnFailure(Consumer<String> onFailure) {
+        this.onFailure = onFailure;
+    }
+
+    /**
+     * Starts saving the changes of {@code ledger}. It should hold {@link #savedBills()}, or any
+     * bills at all if none were saved; those are then written as the first snapshot. Call on
+     * the thread that modifies {@code ledger}.
+     */
+    public void attach(BillStore ledger) {
+        this.ledger = ledger;
+        saved = null;
+        if (found) {
+            long end = journalEnd;
+            long continued = generation;
+            worker.execute(() -> openJournal(end, continued));
+        } else {
+            compact();
+        }
+        ledger.addListener(this);
+    }
+
+    @Override
+    public void rowsAdded(BillStore store, int from, int to) {
+        BillStore added = store.copy(from, to);
+        append(ADD, (long) added.size() * BILL_BYTES, out -> {
+            out.writeInt(from);
+            out.writeInt(added.size());
+            for (int row = 0; row < added.size(); row++) {
+                writeBill(out, added.bill(row));
+            }
+        });
+    }
+
+    @Override
+    public void rowsRemoved(BillStore store, int from, BillStore removed) {
+        append(REMOVE, 0, out -> {
+            out.writeInt(from);
+            out.writeInt(removed.size());
+        });
+    }
+
+    @Override
+    public void rowUpdated(BillStore store, int row, long oldAmount, int oldMinute, int oldTypeId, String oldName, String oldDetails) {
+        BillStore updated = store.copy(row, row + 1);
+        append(SET, BILL_BYTES, out -> {
+            out.writeInt(row);
+            writeBill(out, updated.bill(0));
+        });
+    }
+
+    @Override
+    public void rowsPermuted(BillStore store, int from, int[] newRows) {
+        append(PERMUTE, 4L * newRows.length, out -> {
+            out.writeInt(from);
+            out.writeInt(newRows.length);
+            for (int row : newRows) {
+                out.writeInt(row);
+            }
+        });
+    }
+
+    /**
+     * Waits until the changes made so far are on disk.
+     */
+    public void sync() {
+        while (draining.get() || !isQueueEmpty()) {
+            CompletableFuture.runAsync(() -> {
+            }, worker).join();
+        }
+    }
+
+    /**
+     * Stops following the ledger, writes what is pending and closes the journal.
+     */
+    @Override
+    public void close() {
+        if (ledger != null) {
+            ledger.removeListener(this);
+        }
+        sync();
+        CompletableFuture.runAsync(this::closeJournal, worker).join();
+        worker.shutdown();
+    }
+
+    /**
+     * Writes the whole ledger as a new snapshot and starts an empty journal. Happens by itself
+     * as the journal grows; call on the thread that modifies the ledger.
+     */
+    void compact() {
+        generation++;
+        snapshotBytes = (long) ledger.size() * BILL_BYTES;
+        journalBytes = JOURNAL_HEADER;
+        enqueue(new Snapshot(generation, ledger.copy(0, ledger.size())));
+    }
+
+    /**
+     * @return the number of fsyncs of journal records so far; for tests and benchmarks
+     */
+    long commitCount() {
+        return commits;
+    }
+
+    /**
+     * Queues a record whose body is encoded later on the worker.
+     *
+     * @param bytes Estimated size of the body
+     */
+    private void append(byte op, long bytes, Body body) {
+        if (broken) {
+            broken = false;
+            compact(); // the snapshot holds this change already
+            return;
+        }
+        enqueue(new Record(op, body));
+        journalBytes += RECORD_HEADER + 9 + bytes; // op and up to two ints before the body
+        if (journalBytes > Math.max(minCompactBytes, snapshotBytes)) {
+            compact();
+        }
+    }
+
+    /**
+     * @return the record with its length and CRC in front
+     */
+    private byte[] frame(Record item) {
+        byte[] framed;
+        try {
+            record.reset();
+            recordOut.writeLong(0); // header, filled in below
+            recordOut.writeByte(item.op());
+            item.body().write(recordOut);
+            framed = record.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // not thrown by a ByteArrayOutputStream
+        }
+        CRC32 crc = new CRC32();
+        crc.update(framed, RECORD_HEADER, framed.length - RECORD_HEADER);
+        ByteBuffer.wrap(framed).putInt(0, framed.length - RECORD_HEADER).putInt(4, (int) crc.getValue());
+        return framed;
+    }
+
+    private void enqueue(Object item) {
+        synchronized (this) {
+            queue.add(item);
+        }
+        schedule();
+    }
+
+    private synchronized boolean isQueueEmpty() {
+        return queue.isEmpty();
+    }
+
+    private void schedule() {
+        if (!isQueueEmpty() && draining.compareAndSet(false, true)) {
+            worker.execute(this::drain);
+        }
+    }
+
+    /**
+     * Writes everything queued, one fsync per group of records.
+     */
+    private void drain() {
+        try {
+            List<Object> batch = new ArrayList<>();
+            List<ByteBuffer> records = new ArrayList<>();
+            while (true) {
+                synchronized (this) {
+                    batch.addAll(queue);
+                    queue.clear();
+                }
+                if (batch.isEmpty()) {
+                    break;
+                }
+                for (Object item : batch) {
+                    if (item instanceof Record r) {
+                        records.add(ByteBuffer.wrap(frame(r)));
+                    } else {
+                        commit(records);
+                        writeSnapshot((Snapshot) item);
+                    }
+                }
+                commit(records);
+                batch.clear();
+            }
+        } finally {
+            draining.set(false);
+            schedule(); // items queued after the last poll
+        }
+    }
+
+    private void commit(List<ByteBuffer> records) {
+        if (records.isEmpty()) {
+            return;
+        }
+        ByteBuffer[] buffers = records.toArray(new ByteBuffer[0]);
+        records.clear();
+        if (journal == null) {
+            return; // dropped; a snapshot follows
+        }
+        try {
+            while (buffers[buffers.length - 1].hasRemaining()) {
+                journal.write(buffers);
+            }
+            journal.force(false);
+            commits++;
+            failing = false;
+        } catch (IOException e) {
+            closeJournal();
+            broken = true;
+            fail("Could not write the journal, the next change saves a snapshot: " + e);
+        }
+    }
+
+    private void writeSnapshot(Snapshot snapshot) {
+        try {
+            Files.createDirectories(directory);
+            replace(snapshotFile, ByteBuffer.wrap(encodeSnapshot(snapshot.bills(), snapshot.generation())));
+        } catch (IOException e) {
+            if (journal == null) {
+                broken = true; // nothing holds the changes, so the next one tries again
+                fail("Could not save the ledger, the next change tries again: " + e);
+            } else {
+                // The current journal still holds every change since the previous snapshot
+                fail("Could not save the ledger snapshot: " + e);
+            }
+            return;
+        }
+        closeJournal();
+        openJournal(-1, snapshot.generation());
+    }
+
+    /**
+     * Continues the journal after its last complete record, or starts an empty one if
+     * {@code end} is negative.
+     */
+    private void openJournal(long end, long generation) {
+        try {
+            if (end < 0) {
+                Files.createDirectories(directory);
+                ByteBuffer header = ByteBuffer.allocate(JOURNAL_HEADER).putInt(JOURNAL_MAGIC).putLong(generation).flip();
+                replace(journalFile, header);
+                end = JOURNAL_HEADER;
+            }
+            journal = FileChannel.open(journalFile, StandardOpenOption.WRITE);
+            journal.truncate(end);
+            journal.position(end);
+            failing = false;
+        } catch (IOException e) {
+            closeJournal();
+            broken = true;
+            fail("Could not open the journal, the next change saves a snapshot: " + e);
+        }
+    }
+
+    private void fail(String message) {
+        System.out.println(message);
+        if (!failing) {
+            failing = true;
+            onFailure.accept(message);
+        }
+    }
+
+    private void closeJournal() {
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                System.out.println("Could not close the journal: " + e);
+            }
+            journal = null;
+        }
+    }
+
+    /**
+     * Writes {@code content} to a temporary file, forces it to disk and moves it over {@code file}.
+     */
+    private void replace(Path file, ByteBuffer content) throws IOException {
+        Path temp = Files.createTempFile(directory, "ledger", ".tmp");
+        try {
+            try (FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                while (content.hasRemaining()) {
+                    out.write(content);
+                }
+                out.force(true);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Reads the snapshot and replays the journal on top of it.
+     */
+    private List<Bill> recover() {
+        List<Bill> bills = new ArrayList<>();
+        try {
+            ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(snapshotFile));
+            generation = readSnapshot(in, bills);
+            snapshotBytes = in.capacity();
+            found = true;
+        } catch (NoSuchFileException e) {
+            return bills; // first run
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Ignoring the saved ledger, kept as ledger.snapshot.bad: " + e);
+            try {
+                Files.move(snapshotFile, directory.resolve("ledger.snapshot.bad"), StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException ignored) {
+                // it is overwritten by the next snapshot
+            }
+            bills.clear();
+            return bills;
+        }
+
+        ByteBuffer in;
+        try {
+            in = ByteBuffer.wrap(Files.readAllBytes(journalFile));
+        } catch (IOException e) {
+            return bills; // the snapshot was written, the new journal not yet
+        }
+        if (in.remaining() < JOURNAL_HEADER || in.getInt() != JOURNAL_MAGIC || in.getLong() != generation) {
+            return bills; // left from before the snapshot
+        }
+        while (in.remaining() >= RECORD_HEADER) {
+            int start = in.position();
+            int length = in.getInt();
+            int checksum = in.getInt();
+            if (length <= 0 || length > in.remaining()) {
+                in.position(start);
+                break;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(in.array(), in.position(), length);
+            ByteBuffer payload = in.slice(in.position(), length);
+            if ((int) crc.getValue() != checksum || !replay(payload, bills)) {
+                in.position(start);
+                break;
+            }
+            in.position(start + RECORD_HEADER + length);
+        }
+        if (in.hasRemaining()) {
+            System.out.println("Dropping an incomplete journal record (" + in.remaining() + " bytes)");
+        }
+        journalEnd = in.position();
+        journalBytes = journalEnd;
+        return bills;
+    }
+
+    /**
+     * Applies one journal record to {@code bills}.
+     *
+     * @return false if the record does not fit the bills, which leaves them unchanged
+     */
+    private static boolean replay(ByteBuffer in, List<Bill> bills) {
+        try {
+            byte op = in.get();
+            switch (op) {
+                case ADD -> {
+                    int from = in.getInt();
+                    int count = in.getInt();
+                    if (from < 0 || from > bills.size() || count < 0) {
+                        return false;
+                    }
+                    List<Bill> added = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        added.add(readBill(in));
+                    }
+                    bills.addAll(from, added);
+                }
+                case REMOVE -> {
+                    int from = in.getInt();
+                    int count = in.getInt();
+                    if (from < 0 || count < 0 || from + count > bills.size()) {
+                        return false;
+                    }
+                    bills.subList(from, from + count).clear();
+                }
+                case SET -> {
+                    int row = in.getInt();
+                    Bill bill = readBill(in);
+                    if (row < 0 || row >= bills.size()) {
+                        return false;
+                    }
+                    bills.set(row, bill);
+                }
+                case PERMUTE -> {
+                    int from = in.getInt();
+                    int count = in.getInt();
+                    if (from < 0 || count < 0 || from + count > bills.size()) {
+                        return false;
+                    }
+                    Bill[] moved = bills.subList(from, from + count).toArray(new Bill[0]);
+                    boolean[] taken = new boolean[count];
+                    int[] newRows = new int[count];
+                    for (int i = 0; i < count; i++) {
+                        newRows[i] = in.getInt();
+                        if (newRows[i] < from || newRows[i] >= from + count || taken[newRows[i] - from]) {
+                            return false;
+                        }
+                        taken[newRows[i] - from] = true;
+                    }
+                    for (int i = 0; i < count; i++) {
+                        bills.set(newRows[i], moved[i]);
+                    }
+                }
+                default -> {
+                    return false;
+                }
+            }
+            return true;
+        } catch (RuntimeException e) {
+            return false; // a record from a newer version, or garbage with a matching CRC
+        }
+    }
+
+    /**
+     * Snapshot layout: magic, generation, row count, the rows, then a CRC-32 of everything before it.
+     */
+    static byte[] encodeSnapshot(BillStore store, long generation) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + store.size() * 48);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeLong(generation);
+            out.writeInt(store.size());
+            for (int row = 0; row < store.size(); row++) {
+                writeBill(out, store.bill(row));
+            }
+            out.writeInt(0); // CRC, filled in below
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        byte[] snapshot = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(snapshot, 0, snapshot.length - 4);
+        ByteBuffer.wrap(snapshot).putInt(snapshot.length - 4, (int) crc.getValue());
+        return snapshot;
+    }
+
+    /**
+     * @return the generation of the snapshot in {@code in}, whose bills are added to {@code bills}
+     */
+    private static long readSnapshot(ByteBuffer in, List<Bill> bills) throws IOException {
+        if (in.remaining() < 20 || in.getInt() != SNAPSHOT_MAGIC) {
+            throw new IOException("not a ledger snapshot");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(in.array(), 0, in.limit() - 4);
+        if ((int) crc.getValue() != in.getInt(in.limit() - 4)) {
+            throw new IOException("snapshot checksum mismatch");
+        }
+        long generation = in.getLong();
+        int count = in.getInt();
+        if (bills instanceof ArrayList<Bill> list) {
+            list.ensureCapacity(count);
+        }
+        for (int i = 0; i < count; i++) {
+            bills.add(readBill(in));
+        }
+        return generation;
+    }
+
+    /**
+     * Writes the encoded fields of {@code bill}; the category by name, as ids differ between runs.
+     */
+    private static void writeBill(DataOutputStream out, Bill bill) throws IOException {
+        out.writeInt(bill.getEpochMinute());
+        out.writeLong(bill.getCostMinor());
+        out.writeByte(bill.costScale());
+        writeString(out, bill.rawDate());
+        writeString(out, bill.rawCost());
+        writeString(out, bill.getTypeId() < 0 ? null : Bill.TYPES.valueOf(bill.getTypeId()));
+        writeString(out, bill.getName());
+        writeString(out, bill.getDetails());
+    }
+
+    private static Bill readBill(ByteBuffer in) {
+        int minute = in.getInt();
+        long costMinor = in.getLong();
+        byte costScale = in.get();
+        String rawDate = readString(in);
+        String rawCost = readString(in);
+        String type = readString(in);
+        String name = readString(in);
+        String details = readString(in);
+        return new Bill(minute, rawDate, costMinor, costScale, rawCost,
+                type == null ? -1 : Bill.TYPES.idOf(type), name, details);
+    }
+
+    /**
+     * Writes a length in bytes (-1 for null) and the UTF-8 bytes; unlike
+     * {@link DataOutputStream#writeUTF} this takes strings of any length.
+     */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(utf8.length);
+        out.write(utf8);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        String value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return value;
+    }
+}
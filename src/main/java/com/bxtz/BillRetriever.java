@@ -0,0 +1,397 @@
+/**
+ * Finds the bills most similar in meaning to a question, using text embeddings.
+ * <p>
+ * Every distinct name-and-details text in the ledger is embedded once, in the background, and
+ * kept in a {@link VectorIndex}; bills that share a text share a vector. The retriever follows
+ * the deltas a {@link BillStore} reports, so added and edited bills are embedded as they
+ * appear, in batches. It counts the rows carrying each text, and a text no row carries any
+ * more is taken out of the index until a bill brings it back. A question is embedded the same
+ * way and its nearest texts are looked up in the index, then mapped back to the rows that
+ * currently carry them.
+ * <p>
+ * The vectors are saved to a file after each round of embedding and loaded again at startup,
+ * so only texts that are new since the last run reach the model. The file is a cache: texts
+ * of deleted bills stay in it, and it is ignored if it was written for another model.
+ * <p>
+ * If the embedding model cannot be reached, the texts waiting to be embedded are dropped; they
+ * are queued again when their bills change or on the next start.
+ */
+package com.bxtz;
+
+import com.bxtz.utils.VectorIndex;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.IntFunction;
+
+public class BillRetriever implements BillStore.Listener {
+
+    /**
+     * Turns texts into vectors, normally {@code EmbeddingClient::embed}.
+     */
+    public interface Embedder {
+        float[][] embed(List<String> texts) throws Exception;
+    }
+
+    /** Texts embedded per request */
+    static final int BATCH_SIZE = 64;
+
+    private static final int FILE_MAGIC = 0x42584531;  // "BXE1"
+    private static final int MAX_TEXT_LENGTH = 16_000; // DataOutput.writeUTF takes at most 64 KB
+
+    private final BillStore ledger;
+    private final Embedder embedder;
+    private final String model;
+    private final IntFunction<VectorIndex> newIndex;
+    private final Path file;
+
+    /** Embedded texts and their keys in the index; key i is texts.get(i) */
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private final List<String> texts = new ArrayList<>(); // guarded by this
+    /** Number of rows carrying each text; only texts in use are in the index */
+    private final Map<String, Integer> uses = new HashMap<>(); // guarded by this
+    /** Vectors of embedded texts that are not in use, kept for the file */
+    private final Map<Integer, float[]> unused = new HashMap<>(); // guarded by this
+    private volatile VectorIndex index; // created with the dimensions of the first vector
+
+    private final Set<String> queued = ConcurrentHashMap.newKeySet();
+    private final ConcurrentLinkedQueue<String> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private volatile boolean dirty;
+
+    /** Loads, embeds and saves, in that order */
+    private final ExecutorService worker = daemonExecutor("bill-embedder");
+    /** Embeds questions, so they do not wait behind a large import */
+    private final ExecutorService questions = daemonExecutor("question-embedder");
+
+    /**
+     * Loads the saved vectors, then embeds whatever the ledger holds beyond them. Call on the
+     * thread that modifies {@code ledger}.
+     *
+     * @param model    Name of the embedding model; saved vectors of other models are ignored
+     * @param newIndex Creates the index for a number of dimensions, e.g. {@code VectorIndex::flat}
+     * @param file     Where vectors are kept across runs, or null to keep them in memory only
+     */
+    public BillRetriever(BillStore ledger, Embedder embedder, String model, IntFunction<VectorIndex> newIndex, Path file) {
+        this.ledger = ledger;
+        this.embedder = embedder;
+        this.model = model;
+        this.newIndex = newIndex;
+        this.file = file;
+        worker.execute(this::load);
+        rowsAdded(ledger, 0, ledger.size());
+        ledger.addListener(this);
+    }
+
+    @Override
+    public void rowsAdded(BillStore store, int from, int to) {
+        for (int row = from; row < to; row++) {
+            use(text(store, row));
+        }
+        schedule();
+    }
+
+    @Override
+    public void rowsRemoved(BillStore store, int from, BillStore removed) {
+        for (int row = 0; row < removed.size(); row++) {
+            release(text(removed, row));
+        }
+    }
+
+    @Override
+    public void rowUpdated(BillStore store, int row, long oldAmount, int oldMinute, int oldTypeId, String oldName, String oldDetails) {
+        release(text(oldName, oldDetails));
+        use(text(store, row));
+        schedule();
+    }
+
+    /**
+     * @return the number of distinct texts of current bills with a vector
+     */
+    public int indexedCount() {
+        VectorIndex current = index;
+        return current == null ? 0 : current.size();
+    }
+
+    /**
+     * Embeds {@code question} and finds the {@code k} most similar texts.
+     *
+     * @return a future of the texts, most similar first; empty if nothing is indexed yet. It
+     * fails if the question could not be embedded.
+     */
+    public CompletableFuture<List<String>> similarTextsAsync(String question, int k) {
+        return CompletableFuture.supplyAsync(() -> {
+            VectorIndex current = index;
+            if (current == null || current.size() == 0) {
+                return List.of();
+            }
+            float[] query;
+            try {
+                query = embedder.embed(List.of(question))[0];
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+            if (query.length != current.dimensions()) {
+                return List.of();
+            }
+            List<String> similar = new ArrayList<>();
+            synchronized (this) {
+                for (VectorIndex.Hit hit : current.search(query, k)) {
+                    similar.add(texts.get(hit.key()));
+                }
+            }
+            return similar;
+        }, questions);
+    }
+
+    /**
+     * Finds the rows that carry {@code similar} texts. Call on the thread that modifies the ledger.
+     *
+     * @return the rows, ordered by the rank of their text and then by amount, largest first
+     */
+    public List<Integer> rowsFor(List<String> similar) {
+        Map<String, Integer> rank = new HashMap<>();
+        for (int i = 0; i < similar.size(); i++) {
+            rank.putIfAbsent(similar.get(i), i);
+        }
+        List<int[]> found = new ArrayList<>(); // {row, rank of its text}
+        for (int row = 0; row < ledger.size() && !rank.isEmpty(); row++) {
+            Integer r = rank.get(text(ledger, row));
+            if (r != null) {
+                found.add(new int[]{row, r});
+            }
+        }
+        found.sort(Comparator.<int[]>comparingInt(f -> f[1]).thenComparingLong(f -> -ledger.amount(f[0])));
+        List<Integer> rows = new ArrayList<>(found.size());
+        for (int[] f : found) {
+            rows.add(f[0]);
+        }
+        return rows;
+    }
+
+    /**
+     * Waits until the texts queued so far are embedded and saved; for tests.
+     */
+    void awaitIdle() throws Exception {
+        while (draining.get() || !queue.isEmpty()) {
+            worker.submit(() -> {
+            }).get();
+        }
+    }
+
+    static String text(BillStore store, int row) {
+        return text(store.name(row), store.details(row));
+    }
+
+    private static String text(String name, String details) {
+        return (name == null ? "" : name) + "\n" + (details == null ? "" : details);
+    }
+
+    /**
+     * Counts one more row carrying {@code text}, and puts its vector back in the index or has
+     * it embedded if this is the first.
+     */
+    private synchronized void use(String text) {
+        int count = uses.merge(text, 1, Integer::sum);
+        Integer id = ids.get(text);
+        if (id == null) {
+            if (queued.add(text)) { // also when the text was in use before, in case its embedding failed
+                queue.add(text);
+            }
+        } else if (count == 1) {
+            index.add(id, unused.remove(id));
+        }
+    }
+
+    /**
+     * Counts one row fewer carrying {@code text}, and takes its vector out of the index if that
+     * was the last.
+     */
+    private synchronized void release(String text) {
+        Integer count = uses.get(text);
+        if (count == null) {
+            return;
+        }
+        if (count > 1) {
+            uses.put(text, count - 1);
+            return;
+        }
+        uses.remove(text);
+        Integer id = ids.get(text);
+        if (id != null) {
+            unused.put(id, index.vector(id));
+            index.remove(id);
+        }
+    }
+
+    /**
+     * Drops a polled text that needs no embedding, because it has one or no row carries it.
+     */
+    private synchronized boolean skip(String text) {
+        if (ids.containsKey(text) || !uses.containsKey(text)) {
+            queued.remove(text);
+            return true;
+        }
+        return false;
+    }
+
+    private void schedule() {
+        if (!queue.isEmpty() && draining.compareAndSet(false, true)) {
+            worker.execute(this::drain);
+        }
+    }
+
+    private void drain() {
+        try {
+            List<String> batch = new ArrayList<>(BATCH_SIZE);
+            while (true) {
+                batch.clear();
+                for (String text; batch.size() < BATCH_SIZE && (text = queue.poll()) != null; ) {
+                    if (!skip(text)) {
+                        batch.add(text);
+                    }
+                }
+                if (batch.isEmpty()) {
+                    break;
+                }
+                float[][] vectors;
+                try {
+                    vectors = embedder.embed(batch);
+                } catch (Exception e) {
+                    System.out.println("Embedding failed, retrieval uses what is indexed so far: " + e);
+                    batch.forEach(queued::remove);
+                    for (String text; (text = queue.poll()) != null; ) {
+                        queued.remove(text);
+                    }
+                    break;
+                }
+                for (int i = 0; i < batch.size(); i++) {
+                    add(batch.get(i), vectors[i]);
+                    queued.remove(batch.get(i));
+                }
+            }
+            if (dirty) {
+                save();
+            }
+        } finally {
+            draining.set(false);
+            schedule(); // texts queued after the last poll
+        }
+    }
+
+    private synchronized void add(String text, float[] vector) {
+        if (index == null) {
+            index = newIndex.apply(vector.length);
+        }
+        if (vector.length != index.dimensions() || ids.containsKey(text)) {
+            return;
+        }
+        int id = texts.size();
+        texts.add(text);
+        if (uses.containsKey(text)) {
+            index.add(id, vector);
+        } else {
+            unused.put(id, vector);
+        }
+        ids.put(text, id);
+        dirty = true;
+    }
+
+    private synchronized float[] vector(int id) {
+        float[] vector = unused.get(id);
+        return vector != null ? vector : index.vector(id);
+    }
+
+    private void load() {
+        if (file == null) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != FILE_MAGIC || !in.readUTF().equals(model)) {
+                return;
+            }
+            int dims = in.readInt();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String text = in.readUTF();
+                float[] vector = new float[dims];
+                for (int d = 0; d < dims; d++) {
+                    vector[d] = in.readFloat();
+                }
+                add(text, vector);
+            }
+        } catch (NoSuchFileException e) {
+            // first run
+        } catch (IOException e) {
+            System.out.println("Ignoring saved embeddings: " + e);
+        }
+        dirty = false;
+    }
+
+    private void save() {
+        if (file == null) {
+            return;
+        }
+        try {
+            Files.createDirectories(file.toAbsolutePath().getParent());
+            Path temp = Files.createTempFile(file.toAbsolutePath().getParent(), "embeddings", ".tmp");
+            List<String> snapshot;
+            int dims;
+            synchronized (this) {
+                snapshot = new ArrayList<>(texts);
+                dims = index.dimensions();
+                dirty = false;
+            }
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+                out.writeInt(FILE_MAGIC);
+                out.writeUTF(model);
+                out.writeInt(dims);
+                int count = 0;
+                for (String text : snapshot) {
+                    count += text.length() <= MAX_TEXT_LENGTH ? 1 : 0;
+                }
+                out.writeInt(count);
+                for (int id = 0; id < snapshot.size(); id++) {
+                    String text = snapshot.get(id);
+                    if (text.length() <= MAX_TEXT_LENGTH) {
+                        out.writeUTF(text);
+                        for (float v : vector(id)) {
+                            out.writeFloat(v);
+                        }
+                    }
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.out.println("Could not save embeddings: " + e);
+        }
+    }
+
+    private static ExecutorService daemonExecutor(String name) {
+        return Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
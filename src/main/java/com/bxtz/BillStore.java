@@ -0,0 +1,671 @@
+/**
+ * Columnar (struct-of-arrays) storage for bills.
+ * <p>
+ * Each field is kept in its own primitive column: amount in minor units, date in epoch
+ * minutes, category id, and dictionary ids for name and details. Columns grow by appending
+ * fixed-size segments, so adding rows never copies existing data. Aggregations such as
+ * {@link #totalMinor()} scan these arrays instead of parsing cost and date strings.
+ * <p>
+ * A store can be filled directly, or it can {@link #mirror} an observable bill list and stay
+ * in sync with it. Either way, {@link Listener}s are told exactly which rows changed together
+ * with their previous values, so aggregations built on top of the store can update
+ * incrementally. {@link #asList()} exposes the rows as a read-only {@link ObservableList}
+ * whose {@link Bill} objects are created on demand, so a {@code TableView} backed by it only
+ * holds objects for the rows it shows; changes go through the store's own methods.
+ * <p>
+ * The store is not thread-safe; like the rest of the UI model it is used from the FX thread.
+ */
+package com.bxtz;
+
+import com.bxtz.utils.StringDictionary;
+import javafx.collections.ListChangeListener;
+import javafx.collections.ObservableList;
+import javafx.collections.ObservableListBase;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+public class BillStore {
+
+    private static final int SEGMENT_BITS = 14;
+    private static final int SEGMENT_SIZE = 1 << SEGMENT_BITS;
+    private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+    private static final int MINUTES_PER_DAY = 24 * 60;
+
+    /**
+     * Receives row-level changes. Callbacks run after the store has been updated.
+     */
+    public interface Listener {
+        /**
+         * Rows {@code [from, to)} were inserted.
+         */
+        default void rowsAdded(BillStore store, int from, int to) {
+        }
+
+        /**
+         * Rows starting at {@code from} were removed; {@code removed} holds their values.
+         */
+        default void rowsRemoved(BillStore store, int from, BillStore removed) {
+        }
+
+        /**
+         * Row {@code row} was changed in place; the arguments are its previous values.
+         */
+        default void rowUpdated(BillStore store, int row, long oldAmount, int oldMinute, int oldTypeId, String oldName, String oldDetails) {
+        }
+
+        /**
+         * Rows were reordered: the row that was at {@code from + i} is now at {@code newRows[i]}.
+         * The contents are unchanged, so listeners that do not depend on row order ignore this.
+         */
+        default void rowsPermuted(BillStore store, int from, int[] newRows) {
+        }
+    }
+
+    /**
+     * Dictionary for names, details and non-canonical date/cost strings
+     */
+    private final StringDictionary strings;
+
+    private long[][] amounts = new long[0][];
+    private int[][] minutes = new int[0][];
+    private int[][] types = new int[0][];
+    private int[][] names = new int[0][];
+    private int[][] details = new int[0][];
+    private int[][] rawDates = new int[0][];
+    private int[][] rawCosts = new int[0][];
+    private byte[][] costScales = new byte[0][];
+
+    private int size;
+    private long version;
+    private long contentHash;
+    private final List<Listener> listeners = new ArrayList<>();
+    private View view;
+
+    public BillStore() {
+        this(new StringDictionary());
+    }
+
+    private BillStore(StringDictionary strings) {
+        this.strings = strings;
+    }
+
+    /**
+     * Creates a store that follows {@code bills}: additions, removals, replacements and
+     * permutations are applied to the columns as they happen. To see edits of individual
+     * bills, the list must be created with {@link Bill#extractor()}.
+     *
+     * @param bills the list to mirror
+     * @return a store holding the current contents of {@code bills}
+     */
+    public static BillStore mirror(ObservableList<Bill> bills) {
+        BillStore store = new BillStore();
+        store.insert(0, bills);
+        bills.addListener((ListChangeListener<Bill>) change -> {
+            while (change.next()) {
+                if (change.wasPermutated()) {
+                    int[] newRows = new int[change.getTo() - change.getFrom()];
+                    for (int i = 0; i < newRows.length; i++) {
+                        newRows[i] = change.getPermutation(change.getFrom() + i);
+                    }
+                    store.permute(change.getFrom(), newRows);
+                } else if (change.wasUpdated()) {
+                    for (int i = change.getFrom(); i < change.getTo(); i++) {
+                        store.set(i, bills.get(i));
+                    }
+                } else {
+                    if (change.wasRemoved()) {
+                        store.remove(change.getFrom(), change.getFrom() + change.getRemovedSize());
+                    }
+                    if (change.wasAdded()) {
+                        store.insert(change.getFrom(), change.getAddedSubList());
+                    }
+                }
+            }
+        });
+        return store;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return a counter that increases on every change, usable as a cheap content version
+     */
+    public long version() {
+        return version;
+    }
+
+    /**
+     * Returns a fingerprint of the rows' dates, amounts, categories, names and details. Unlike
+     * {@link #version()} it depends only on the contents, not on the order of the rows or on
+     * how they got there, so it is equal across runs for the same bills. It is maintained as
+     * rows change and costs nothing to read.
+     */
+    public long contentHash() {
+        return contentHash;
+    }
+
+    public void add(Bill bill) {
+        insert(size, List.of(bill));
+    }
+
+    public void addAll(List<? extends Bill> bills) {
+        insert(size, bills);
+    }
+
+    /**
+     * Inserts {@code bills} before row {@code index}.
+     */
+    public void insert(int index, List<? extends Bill> bills) {
+        Objects.checkIndex(index, size + 1);
+        int count = bills.size();
+        if (count == 0) {
+            return;
+        }
+        ensureCapacity(size + count);
+        if (index < size) {
+            copyRows(index, index + count, size - index);
+        }
+        for (int i = 0; i < count; i++) {
+            write(index + i, bills.get(i));
+            contentHash += rowHash(index + i);
+        }
+        size += count;
+        version++;
+        if (view != null) {
+            view.rowsAdded(index, index + count);
+        }
+        for (Listener listener : listeners) {
+            listener.rowsAdded(this, index, index + count);
+        }
+    }
+
+    /**
+     * Replaces the values of row {@code row} with those of {@code bill}.
+     */
+    public void set(int row, Bill bill) {
+        Objects.checkIndex(row, size);
+        long oldAmount = amount(row);
+        int oldMinute = minute(row);
+        int oldType = typeId(row);
+        String oldName = name(row);
+        String oldDetails = details(row);
+        contentHash -= rowHash(row);
+        write(row, bill);
+        contentHash += rowHash(row);
+        version++;
+        if (view != null) {
+            view.rowUpdated(row);
+        }
+        for (Listener listener : listeners) {
+            listener.rowUpdated(this, row, oldAmount, oldMinute, oldType, oldName, oldDetails);
+        }
+    }
+
+    /**
+     * Removes rows {@code [from, to)}.
+     */
+    public void remove(int from, int to) {
+        Objects.checkFromToIndex(from, to, size);
+        int count = to - from;
+        if (count == 0) {
+            return;
+        }
+        BillStore removed = copy(from, to);
+        for (int i = 0; i < count; i++) {
+            contentHash -= rowHash(from + i);
+        }
+
+        copyRows(to, from, size - to);
+        size -= count;
+        version++;
+        if (view != null) {
+            view.rowsRemoved(from, removed);
+        }
+        for (Listener listener : listeners) {
+            listener.rowsRemoved(this, from, removed);
+        }
+    }
+
+    public void clear() {
+        remove(0, size);
+    }
+
+    /**
+     * Reorders rows in place: the row at {@code from + i} moves to {@code newRows[i]}, which
+     * must be a permutation of {@code [from, from + newRows.length)}.
+     */
+    public void permute(int from, int[] newRows) {
+        int count = newRows.length;
+        Objects.checkFromIndexSize(from, count, size);
+        boolean[] taken = new boolean[count];
+        for (int row : newRows) {
+            if (row < from || row >= from + count || taken[row - from]) {
+                throw new IllegalArgumentException("Not a permutation of rows " + from + " to " + (from + count - 1));
+            }
+            taken[row - from] = true;
+        }
+        BillStore moved = copy(from, from + count);
+        for (int i = 0; i < count; i++) {
+            copyRowFrom(moved, i, newRows[i]);
+        }
+        version++;
+        if (view != null) {
+            view.rowsPermuted(from, newRows);
+        }
+        for (Listener listener : listeners) {
+            listener.rowsPermuted(this, from, newRows);
+        }
+    }
+
+    /**
+     * Reorders all rows by {@code comparator}, keeping the order of equal rows. The bills are
+     * created for the duration of the sort only.
+     */
+    public void sort(Comparator<? super Bill> comparator) {
+        Bill[] bills = new Bill[size];
+        Integer[] order = new Integer[size];
+        for (int row = 0; row < size; row++) {
+            bills[row] = bill(row);
+            order[row] = row;
+        }
+        Arrays.sort(order, (a, b) -> comparator.compare(bills[a], bills[b]));
+        int[] newRows = new int[size];
+        boolean moved = false;
+        for (int i = 0; i < size; i++) {
+            newRows[order[i]] = i;
+            moved |= order[i] != i;
+        }
+        if (moved) {
+            permute(0, newRows);
+        }
+    }
+
+    /**
+     * @return the cost of row {@code row} in minor units
+     */
+    public long amount(int row) {
+        return amounts[row >>> SEGMENT_BITS][row & SEGMENT_MASK];
+    }
+
+    /**
+     * @return the date of row {@code row} in epoch minutes, or {@link Bill#NO_MINUTE}
+     */
+    public int minute(int row) {
+        return minutes[row >>> SEGMENT_BITS][row & SEGMENT_MASK];
+    }
+
+    /**
+     * @return the category id of row {@code row} in {@link Bill#TYPES}, or -1
+     */
+    public int typeId(int row) {
+        return types[row >>> SEGMENT_BITS][row & SEGMENT_MASK];
+    }
+
+    public String name(int row) {
+        return string(names[row >>> SEGMENT_BITS][row & SEGMENT_MASK]);
+    }
+
+    public String details(int row) {
+        return string(details[row >>> SEGMENT_BITS][row & SEGMENT_MASK]);
+    }
+
+    /**
+     * Creates a new {@link Bill} holding the values of row {@code row}.
+     */
+    public Bill bill(int row) {
+        Objects.checkIndex(row, size);
+        int s = row >>> SEGMENT_BITS;
+        int o = row & SEGMENT_MASK;
+        return new Bill(minutes[s][o], string(rawDates[s][o]), amounts[s][o], costScales[s][o],
+                string(rawCosts[s][o]), types[s][o], string(names[s][o]), string(details[s][o]));
+    }
+
+    /**
+     * @return a copy of the amount column, safe to read from another thread
+     */
+    public long[] copyAmounts() {
+        long[] copy = new long[size];
+        for (int s = 0; s * SEGMENT_SIZE < size; s++) {
+            System.arraycopy(amounts[s], 0, copy, s * SEGMENT_SIZE, Math.min(SEGMENT_SIZE, size - s * SEGMENT_SIZE));
+        }
+        return copy;
+    }
+
+    /**
+     * @return a copy of the minute column, safe to read from another thread
+     */
+    public int[] copyMinutes() {
+        return copy(minutes);
+    }
+
+    /**
+     * @return a copy of the category id column, safe to read from another thread
+     */
+    public int[] copyTypeIds() {
+        return copy(types);
+    }
+
+    private int[] copy(int[][] column) {
+        int[] copy = new int[size];
+        for (int s = 0; s * SEGMENT_SIZE < size; s++) {
+            System.arraycopy(column[s], 0, copy, s * SEGMENT_SIZE, Math.min(SEGMENT_SIZE, size - s * SEGMENT_SIZE));
+        }
+        return copy;
+    }
+
+    /**
+     * Copies rows {@code [from, to)} into a new store, safe to read from another thread. The
+     * copy shares this store's string dictionary, which only ever grows, and should not be
+     * modified.
+     */
+    public BillStore copy(int from, int to) {
+        Objects.checkFromToIndex(from, to, size);
+        int count = to - from;
+        BillStore copy = new BillStore(strings);
+        int segments = (count + SEGMENT_SIZE - 1) >>> SEGMENT_BITS;
+        copy.amounts = new long[segments][];
+        copy.minutes = new int[segments][];
+        copy.types = new int[segments][];
+        copy.names = new int[segments][];
+        copy.details = new int[segments][];
+        copy.rawDates = new int[segments][];
+        copy.rawCosts = new int[segments][];
+        copy.costScales = new byte[segments][];
+        for (int s = 0; s < segments; s++) {
+            int length = Math.min(SEGMENT_SIZE, count - s * SEGMENT_SIZE); // never grown, so sized exactly
+            copy.amounts[s] = new long[length];
+            copy.minutes[s] = new int[length];
+            copy.types[s] = new int[length];
+            copy.names[s] = new int[length];
+            copy.details[s] = new int[length];
+            copy.rawDates[s] = new int[length];
+            copy.rawCosts[s] = new int[length];
+            copy.costScales[s] = new byte[length];
+        }
+        for (int done = 0; done < count; ) {
+            int row = from + done;
+            int n = Math.min(count - done, Math.min(SEGMENT_SIZE - (row & SEGMENT_MASK), SEGMENT_SIZE - (done & SEGMENT_MASK)));
+            int ss = row >>> SEGMENT_BITS;
+            int so = row & SEGMENT_MASK;
+            int s = done >>> SEGMENT_BITS;
+            int o = done & SEGMENT_MASK;
+            System.arraycopy(amounts[ss], so, copy.amounts[s], o, n);
+            System.arraycopy(minutes[ss], so, copy.minutes[s], o, n);
+            System.arraycopy(types[ss], so, copy.types[s], o, n);
+            System.arraycopy(names[ss], so, copy.names[s], o, n);
+            System.arraycopy(details[ss], so, copy.details[s], o, n);
+            System.arraycopy(rawDates[ss], so, copy.rawDates[s], o, n);
+            System.arraycopy(rawCosts[ss], so, copy.rawCosts[s], o, n);
+            System.arraycopy(costScales[ss], so, copy.costScales[s], o, n);
+            done += n;
+        }
+        copy.size = count;
+        return copy;
+    }
+
+    /**
+     * @return the sum of all amounts in minor units
+     */
+    public long totalMinor() {
+        long total = 0;
+        for (int s = 0; s * SEGMENT_SIZE < size; s++) {
+            long[] segment = amounts[s];
+            int end = Math.min(SEGMENT_SIZE, size - s * SEGMENT_SIZE);
+            for (int o = 0; o < end; o++) {
+                total += segment[o];
+            }
+        }
+        return total;
+    }
+
+    /**
+     * @return amounts summed per category, indexed by category id in {@link Bill#TYPES}
+     */
+    public long[] sumByType() {
+        long[] sums = new long[Bill.TYPES.size()];
+        for (int s = 0; s * SEGMENT_SIZE < size; s++) {
+            long[] amountSegment = amounts[s];
+            int[] typeSegment = types[s];
+            int end = Math.min(SEGMENT_SIZE, size - s * SEGMENT_SIZE);
+            for (int o = 0; o < end; o++) {
+                int type = typeSegment[o];
+                if (type >= 0) {
+                    if (type >= sums.length) {
+                        sums = Arrays.copyOf(sums, Bill.TYPES.size());
+                    }
+                    sums[type] += amountSegment[o];
+                }
+            }
+        }
+        return sums;
+    }
+
+    /**
+     * @return amounts summed per calendar day, keyed by epoch day; rows without a valid
+     * date are left out
+     */
+    public TreeMap<Integer, Long> sumByDay() {
+        TreeMap<Integer, Long> sums = new TreeMap<>();
+        for (int s = 0; s * SEGMENT_SIZE < size; s++) {
+            long[] amountSegment = amounts[s];
+            int[] minuteSegment = minutes[s];
+            int end = Math.min(SEGMENT_SIZE, size - s * SEGMENT_SIZE);
+            for (int o = 0; o < end; o++) {
+                int minute = minuteSegment[o];
+                if (minute != Bill.NO_MINUTE) {
+                    sums.merge(Math.floorDiv(minute, MINUTES_PER_DAY), amountSegment[o], Long::sum);
+                }
+            }
+        }
+        return sums;
+    }
+
+    /**
+     * Returns a read-only list view of the rows. {@link Bill} objects are created when a row
+     * is requested and a few hundred recently used ones are cached, so a table only pays for
+     * the rows it shows. The returned bills are copies: editing them does not change the store.
+     */
+    public ObservableList<Bill> asList() {
+        if (view == null) {
+            view = new View();
+        }
+        return view;
+    }
+
+    private String string(int id) {
+        return id < 0 ? null : strings.valueOf(id);
+    }
+
+    private int stringId(String value) {
+        return value == null ? -1 : strings.idOf(value);
+    }
+
+    /**
+     * Hash of one row; rows are combined by addition so the total is order-independent and
+     * duplicate rows do not cancel out.
+     */
+    private long rowHash(int row) {
+        int s = row >>> SEGMENT_BITS;
+        int o = row & SEGMENT_MASK;
+        long h = mix(amounts[s][o]);
+        h = mix(h + minutes[s][o]);
+        int type = types[s][o];
+        h = mix(h + (type < 0 ? 0 : Bill.TYPES.valueOf(type).hashCode()));
+        h = mix(h + Objects.hashCode(string(names[s][o])));
+        return mix(h + Objects.hashCode(string(details[s][o])));
+    }
+
+    /**
+     * The SplitMix64 finalizer
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    private void write(int row, Bill bill) {
+        int s = row >>> SEGMENT_BITS;
+        int o = row & SEGMENT_MASK;
+        amounts[s][o] = bill.getCostMinor();
+        minutes[s][o] = bill.getEpochMinute();
+        types[s][o] = bill.getTypeId();
+        names[s][o] = stringId(bill.getName());
+        details[s][o] = stringId(bill.getDetails());
+        rawDates[s][o] = stringId(bill.rawDate());
+        rawCosts[s][o] = stringId(bill.rawCost());
+        costScales[s][o] = bill.costScale();
+    }
+
+    private void copyRowFrom(BillStore source, int sourceRow, int row) {
+        int ss = sourceRow >>> SEGMENT_BITS;
+        int so = sourceRow & SEGMENT_MASK;
+        int s = row >>> SEGMENT_BITS;
+        int o = row & SEGMENT_MASK;
+        amounts[s][o] = source.amounts[ss][so];
+        minutes[s][o] = source.minutes[ss][so];
+        types[s][o] = source.types[ss][so];
+        names[s][o] = source.names[ss][so];
+        details[s][o] = source.details[ss][so];
+        rawDates[s][o] = source.rawDates[ss][so];
+        rawCosts[s][o] = source.rawCosts[ss][so];
+        costScales[s][o] = source.costScales[ss][so];
+    }
+
+    /**
+     * Moves {@code count} rows from {@code from} to {@code to}; the ranges may overlap.
+     */
+    private void copyRows(int from, int to, int count) {
+        if (to > from) {
+            for (int i = count - 1; i >= 0; i--) {
+                copyRowFrom(this, from + i, to + i);
+            }
+        } else {
+            for (int i = 0; i < count; i++) {
+                copyRowFrom(this, from + i, to + i);
+            }
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        int segments = amounts.length;
+        int needed = (capacity + SEGMENT_SIZE - 1) >>> SEGMENT_BITS;
+        if (segments > 0 && amounts[segments - 1].length < SEGMENT_SIZE) {
+            growLastSegment(); // a copy, sized exactly
+        }
+        if (needed <= segments) {
+            return;
+        }
+        amounts = Arrays.copyOf(amounts, needed);
+        minutes = Arrays.copyOf(minutes, needed);
+        types = Arrays.copyOf(types, needed);
+        names = Arrays.copyOf(names, needed);
+        details = Arrays.copyOf(details, needed);
+        rawDates = Arrays.copyOf(rawDates, needed);
+        rawCosts = Arrays.copyOf(rawCosts, needed);
+        costScales = Arrays.copyOf(costScales, needed);
+        for (int s = segments; s < needed; s++) {
+            amounts[s] = new long[SEGMENT_SIZE];
+            minutes[s] = new int[SEGMENT_SIZE];
+            types[s] = new int[SEGMENT_SIZE];
+            names[s] = new int[SEGMENT_SIZE];
+            details[s] = new int[SEGMENT_SIZE];
+            rawDates[s] = new int[SEGMENT_SIZE];
+            rawCosts[s] = new int[SEGMENT_SIZE];
+            costScales[s] = new byte[SEGMENT_SIZE];
+        }
+    }
+
+    private void growLastSegment() {
+        int s = amounts.length - 1;
+        amounts[s] = Arrays.copyOf(amounts[s], SEGMENT_SIZE);
+        minutes[s] = Arrays.copyOf(minutes[s], SEGMENT_SIZE);
+        types[s] = Arrays.copyOf(types[s], SEGMENT_SIZE);
+        names[s] = Arrays.copyOf(names[s], SEGMENT_SIZE);
+        details[s] = Arrays.copyOf(details[s], SEGMENT_SIZE);
+        rawDates[s] = Arrays.copyOf(rawDates[s], SEGMENT_SIZE);
+        rawCosts[s] = Arrays.copyOf(rawCosts[s], SEGMENT_SIZE);
+        costScales[s] = Arrays.copyOf(costScales[s], SEGMENT_SIZE);
+    }
+
+    /**
+     * Read-only list of rows that materialises {@link Bill} objects on demand.
+     */
+    private final class View extends ObservableListBase<Bill> {
+        private static final int CACHE_SIZE = 512;
+
+        private final Map<Integer, Bill> cache = new LinkedHashMap<>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Bill> eldest) {
+                return size() > CACHE_SIZE;
+            }
+        };
+
+        @Override
+        public Bill get(int index) {
+            Objects.checkIndex(index, size);
+            return cache.computeIfAbsent(index, BillStore.this::bill);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        void rowsAdded(int from, int to) {
+            cache.clear();
+            beginChange();
+            nextAdd(from, to);
+            endChange();
+        }
+
+        void rowsRemoved(int from, BillStore removed) {
+            cache.clear();
+            beginChange();
+            nextRemove(from, new AbstractList<Bill>() {
+                @Override
+                public Bill get(int index) {
+                    return removed.bill(index);
+                }
+
+                @Override
+                public int size() {
+                    return removed.size();
+                }
+            });
+            endChange();
+        }
+
+        void rowUpdated(int row) {
+            cache.remove(row);
+            beginChange();
+            nextUpdate(row);
+            endChange();
+        }
+
+        void rowsPermuted(int from, int[] newRows) {
+            cache.clear();
+            beginChange();
+            nextPermutation(from, from + newRows.length, newRows);
+            endChange();
+        }
+    }
+}
@@ -0,0 +1,493 @@
+/**
+ * Maintains the spending timeline and per-category cost sums for the analysis charts incrementally.
+ * <p>
+ * Costs over time are kept in a {@link TimeRollup} pyramid and per-category sums and row counts
+ * in buckets, both adjusted by the deltas a {@link BillStore} reports. The bar chart shows the
+ * rollup level whose resolution suits the visible time window: the whole ledger by default,
+ * or a window chosen with {@link #setWindow}. Zooming only switches to another precomputed
+ * level, so the chart never draws more than a few dozen bars and never rescans the bills.
+ * While a window is chosen, the pie chart and {@link #windowTotalMinorProperty()} cover only
+ * that window; they are answered from a {@link TimeIndex} in logarithmic time.
+ * <p>
+ * Only the buckets touched by a change are pushed to the charts, and they are updated in
+ * place: an existing {@link XYChart.Data} or {@link PieChart.Data} gets a new value, a bucket
+ * that appears gets one new datum at its sorted position, and a bucket whose last bill is gone
+ * has its datum removed. Nothing is cleared and re-added unless the resolution changes, so the
+ * charts do not re-animate or re-layout every bar and slice on each edit.
+ * <p>
+ * Bursts of changes are coalesced: deltas only mark buckets dirty, and the charts are updated
+ * once, in a single runnable posted to the FX thread. Bulk changes such as an import are not
+ * applied row by row at all; the affected columns are copied and re-aggregated on a
+ * background thread, and only the finished buckets are published back to the FX thread.
+ */
+package com.bxtz;
+
+import javafx.application.Platform;
+import javafx.beans.property.ReadOnlyLongProperty;
+import javafx.beans.property.ReadOnlyLongWrapper;
+import javafx.beans.property.ReadOnlyObjectProperty;
+import javafx.beans.property.ReadOnlyObjectWrapper;
+import javafx.collections.ObservableList;
+import javafx.scene.chart.PieChart;
+import javafx.scene.chart.XYChart;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+public class ChartAggregator implements BillStore.Listener {
+    private static final int MINUTES_PER_DAY = 24 * 60;
+    private static final String BAR_STYLE = "-fx-bar-fill: #a8d5ba;"; // Light green
+
+    /** Changes touching more rows than this are re-aggregated in the background */
+    static final int BULK_ROWS = 5_000;
+
+    /** The timeline uses the finest resolution that shows at most this many bars for its window */
+    static final int TARGET_BARS = 60;
+
+    private static final Executor BACKGROUND = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "chart-aggregation");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Sum and row count of one category over the whole ledger
+     */
+    private static final class Bucket {
+        private long sum;
+        private int count;
+    }
+
+    private TimeRollup rollup = new TimeRollup();
+    private final TreeMap<Integer, XYChart.Data<String, Number>> bars = new TreeMap<>();
+    private final Map<Integer, Bucket> types = new HashMap<>();
+    private final Map<Integer, PieChart.Data> slices = new HashMap<>();
+    private final Set<Integer> dirtyBars = new LinkedHashSet<>();
+    private final Set<Integer> dirtyTypes = new LinkedHashSet<>();
+    private long ledgerTotalMinor;
+
+    private final ReadOnlyObjectWrapper<TimeRollup.Resolution> resolution =
+            new ReadOnlyObjectWrapper<>(this, "resolution", TimeRollup.Resolution.DAY);
+    private boolean zoomed;
+    private int windowFrom;
+    private int windowTo;
+    private final ReadOnlyLongWrapper windowTotalMinor = new ReadOnlyLongWrapper(this, "windowTotalMinor");
+
+    private final BillStore ledger;
+    private final TimeIndex index;
+    private final XYChart.Series<String, Number> timeSeries;
+    private final ObservableList<PieChart.Data> typeData;
+    private final Executor fxThread;
+    private final Executor background;
+
+    private boolean flushScheduled;
+    private boolean rebuildRunning;
+    private boolean rebuildAgain;
+
+    /**
+     * Attaches to {@code ledger} and fills the charts with its current contents.
+     *
+     * @param ledger The bills to aggregate
+     * @param timeSeries The bar chart series showing cost over time
+     * @param typeData The pie chart data showing cost per category
+     */
+    public ChartAggregator(BillStore ledger, XYChart.Series<String, Number> timeSeries,
+                           ObservableList<PieChart.Data> typeData) {
+        this(ledger, timeSeries, typeData, Platform::runLater, BACKGROUND);
+    }
+
+    /**
+     * @param fxThread Runs tasks on the FX thread, later
+     * @param background Runs bulk re-aggregations
+     */
+    ChartAggregator(BillStore ledger, XYChart.Series<String, Number> timeSeries,
+                    ObservableList<PieChart.Data> typeData, Executor fxThread, Executor background) {
+        this.ledger = ledger;
+        this.timeSeries = timeSeries;
+        this.typeData = typeData;
+        this.fxThread = fxThread;
+        this.background = background;
+        this.index = new TimeIndex(ledger); // registered first, so it is current whenever this flushes
+        ledger.addListener(this);
+        rebuild();
+    }
+
+    /**
+     * @return the sum of the given day in minor units
+     */
+    public long daySum(LocalDate day) {
+        return rollup.sum(TimeRollup.Resolution.DAY, (int) (day.toEpochDay() * MINUTES_PER_DAY));
+    }
+
+    /**
+     * @return the sum of the given category in minor units
+     */
+    public long typeSum(String type) {
+        Bucket bucket = types.get(Bill.TYPES.lookup(type));
+        return bucket == null ? 0 : bucket.sum;
+    }
+
+    /**
+     * @return the resolution the timeline is currently shown at
+     */
+    public TimeRollup.Resolution getResolution() {
+        return resolution.get();
+    }
+
+    public ReadOnlyObjectProperty<TimeRollup.Resolution> resolutionProperty() {
+        return resolution.getReadOnlyProperty();
+    }
+
+    /**
+     * @return the first epoch minute of the visible window
+     */
+    public int getWindowFrom() {
+        return windowFrom;
+    }
+
+    /**
+     * @return the last epoch minute of the visible window
+     */
+    public int getWindowTo() {
+        return windowTo;
+    }
+
+    /**
+     * @return the total of the bills in the visible window in minor units; the whole ledger,
+     * including undated bills, while no window is chosen
+     */
+    public long getWindowTotalMinor() {
+        return windowTotalMinor.get();
+    }
+
+    public ReadOnlyLongProperty windowTotalMinorProperty() {
+        return windowTotalMinor.getReadOnlyProperty();
+    }
+
+    /**
+     * @return the index of bill timestamps behind the windowed sums
+     */
+    public TimeIndex getTimeIndex() {
+        return index;
+    }
+
+    /**
+     * @return whether the timeline shows a chosen window rather than the whole ledger
+     */
+    public boolean isZoomed() {
+        return zoomed;
+    }
+
+    /**
+     * Shows only {@code [fromMinute, toMinute]} on the timeline, at the finest resolution that
+     * keeps the bar count within {@link #TARGET_BARS}. Must be called on the FX thread.
+     */
+    public void setWindow(int fromMinute, int toMinute) {
+        zoomed = true;
+        windowFrom = Math.min(fromMinute, toMinute);
+        windowTo = Math.max(fromMinute, toMinute);
+        showWindow(TimeRollup.pick(windowFrom, windowTo, TARGET_BARS, TimeRollup.Resolution.HOUR));
+        showTypes();
+    }
+
+    /**
+     * Shows the whole ledger on the timeline again. Must be called on the FX thread.
+     */
+    public void resetWindow() {
+        zoomed = false;
+        fitWindowToLedger();
+        showWindow(TimeRollup.pick(windowFrom, windowTo, TARGET_BARS, TimeRollup.Resolution.DAY));
+        dirtyTypes.addAll(types.keySet());
+        dirtyTypes.addAll(slices.keySet());
+        showTypes();
+    }
+
+    /**
+     * Scales the visible window around its centre; a {@code factor} below 1 zooms in. Zooming
+     * out past the whole ledger goes back to showing all of it. Must be called on the FX thread.
+     */
+    public void zoom(double factor) {
+        if (rollup.isEmpty()) {
+            return;
+        }
+        long centre = ((long) windowFrom + windowTo) / 2;
+        long half = Math.max(30, (long) (((long) windowTo - windowFrom) * factor / 2));
+        long from = centre - half;
+        long to = centre + half;
+        if (from <= rollup.firstMinute() && to >= rollup.lastMinute()) {
+            resetWindow();
+        } else {
+            setWindow((int) Math.max(from, Integer.MIN_VALUE + 1), (int) Math.min(to, Integer.MAX_VALUE));
+        }
+    }
+
+    @Override
+    public void rowsAdded(BillStore store, int from, int to) {
+        if (rebuildRunning || to - from > BULK_ROWS) {
+            rebuild();
+            return;
+        }
+        for (int row = from; row < to; row++) {
+            add(store.amount(row), store.minute(row), store.typeId(row), 1);
+        }
+        scheduleFlush();
+    }
+
+    @Override
+    public void rowsRemoved(BillStore store, int from, BillStore removed) {
+        if (rebuildRunning || removed.size() > BULK_ROWS) {
+            rebuild();
+            return;
+        }
+        for (int row = 0; row < removed.size(); row++) {
+            add(-removed.amount(row), removed.minute(row), removed.typeId(row), -1);
+        }
+        scheduleFlush();
+    }
+
+    @Override
+    public void rowUpdated(BillStore store, int row, long oldAmount, int oldMinute, int oldTypeId, String oldName, String oldDetails) {
+        if (rebuildRunning) {
+            rebuild();
+            return;
+        }
+        add(-oldAmount, oldMinute, oldTypeId, -1);
+        add(store.amount(row), store.minute(row), store.typeId(row), 1);
+        scheduleFlush();
+    }
+
+    /**
+     * Re-aggregates the whole ledger in the background. Changes that arrive while a rebuild is
+     * running are not applied on their own; they trigger one more rebuild once it finishes.
+     */
+    private void rebuild() {
+        if (rebuildRunning) {
+            rebuildAgain = true;
+            return;
+        }
+        rebuildRunning = true;
+        long[] amounts = ledger.copyAmounts();
+        int[] minutes = ledger.copyMinutes();
+        int[] typeIds = ledger.copyTypeIds();
+        background.execute(() -> {
+            TimeRollup timeSums = new TimeRollup();
+            Map<Integer, long[]> typeSums = new HashMap<>();
+            long total = 0;
+            for (int row = 0; row < amounts.length; row++) {
+                total += amounts[row];
+                timeSums.add(minutes[row], amounts[row], 1);
+                if (typeIds[row] >= 0) {
+                    long[] bucket = typeSums.computeIfAbsent(typeIds[row], k -> new long[2]);
+                    bucket[0] += amounts[row];
+                    bucket[1]++;
+                }
+            }
+            long totalMinor = total;
+            fxThread.execute(() -> publish(timeSums, typeSums, totalMinor));
+        });
+    }
+
+    /**
+     * Replaces all bucket values with the result of a rebuild, keeping the existing chart data.
+     */
+    private void publish(TimeRollup timeSums, Map<Integer, long[]> typeSums, long totalMinor) {
+        rollup = timeSums;
+        ledgerTotalMinor = totalMinor;
+        dirtyBars.addAll(bars.keySet());
+        for (Integer start : timeSums.buckets(getResolution(), Integer.MIN_VALUE, Integer.MAX_VALUE).keySet()) {
+            dirtyBars.add(start);
+        }
+        for (Map.Entry<Integer, Bucket> entry : types.entrySet()) {
+            entry.getValue().sum = 0;
+            entry.getValue().count = 0;
+            dirtyTypes.add(entry.getKey());
+        }
+        for (Map.Entry<Integer, long[]> entry : typeSums.entrySet()) {
+            Bucket bucket = types.computeIfAbsent(entry.getKey(), k -> new Bucket());
+            bucket.sum = entry.getValue()[0];
+            bucket.count = (int) entry.getValue()[1];
+            dirtyTypes.add(entry.getKey());
+        }
+        flush();
+        rebuildRunning = false;
+        if (rebuildAgain) {
+            rebuildAgain = false;
+            rebuild();
+        }
+    }
+
+    private void scheduleFlush() {
+        if (!flushScheduled) {
+            flushScheduled = true;
+            fxThread.execute(() -> {
+                flushScheduled = false;
+                if (!rebuildRunning) {
+                    flush();
+                }
+            });
+        }
+    }
+
+    private void add(long amount, int minute, int typeId, int count) {
+        ledgerTotalMinor += amount;
+        if (minute != Bill.NO_MINUTE) {
+            rollup.add(minute, amount, count);
+            dirtyBars.add(getResolution().bucketStart(minute));
+        }
+        if (typeId >= 0) {
+            Bucket bucket = types.computeIfAbsent(typeId, k -> new Bucket());
+            bucket.sum += amount;
+            bucket.count += count;
+            dirtyTypes.add(typeId);
+        }
+    }
+
+    /**
+     * Pushes the changed buckets to the charts.
+     */
+    private void flush() {
+        if (!zoomed) {
+            fitWindowToLedger();
+            TimeRollup.Resolution fitting = TimeRollup.pick(windowFrom, windowTo, TARGET_BARS, TimeRollup.Resolution.DAY);
+            if (fitting != getResolution()) {
+                showWindow(fitting);
+            }
+        }
+        int firstBar = getResolution().bucketStart(windowFrom);
+        for (Integer start : dirtyBars) {
+            // Without a chosen window every bucket is visible, including ones just emptied
+            if (!zoomed || (start >= firstBar && start <= windowTo)) {
+                updateBar(start);
+            }
+        }
+        dirtyBars.clear();
+        showTypes();
+    }
+
+    /**
+     * Pushes the changed categories to the pie chart and updates the window total. With a
+     * window chosen every category is re-read from the index, as any edit can move a bill in
+     * or out of the window.
+     */
+    private void showTypes() {
+        if (zoomed) {
+            Map<Integer, long[]> inWindow = index.sumByType(windowFrom, windowTo);
+            for (Integer type : new ArrayList<>(slices.keySet())) {
+                if (!inWindow.containsKey(type)) {
+                    showSlice(type, 0, 0);
+                }
+            }
+            for (Map.Entry<Integer, long[]> entry : inWindow.entrySet()) {
+                showSlice(entry.getKey(), entry.getValue()[0], entry.getValue()[1]);
+            }
+            windowTotalMinor.set(index.sum(windowFrom, windowTo));
+        } else {
+            for (Integer type : dirtyTypes) {
+                Bucket bucket = types.get(type);
+                showSlice(type, bucket == null ? 0 : bucket.sum, bucket == null ? 0 : bucket.count);
+                if (bucket != null && bucket.count == 0) {
+                    types.remove(type);
+                }
+            }
+            windowTotalMinor.set(ledgerTotalMinor);
+        }
+        dirtyTypes.clear();
+    }
+
+    private void showSlice(int type, long sum, long count) {
+        PieChart.Data slice = slices.get(type);
+        if (count == 0) {
+            if (slice != null) {
+                typeData.remove(slice);
+                slices.remove(type);
+            }
+        } else if (slice != null) {
+            slice.setPieValue(sum / 100.0);
+        } else {
+            slice = new PieChart.Data(Bill.TYPES.valueOf(type), sum / 100.0);
+            slices.put(type, slice);
+            typeData.add(slice);
+        }
+    }
+
+    private void fitWindowToLedger() {
+        if (rollup.isEmpty()) {
+            windowFrom = 0;
+            windowTo = 0;
+        } else {
+            windowFrom = rollup.firstMinute();
+            windowTo = rollup.lastMinute();
+        }
+    }
+
+    /**
+     * Brings the bars in line with the current window at {@code target} resolution. Bars that
+     * stay visible at the same resolution are kept and updated; a new resolution replaces all
+     * bars in one change.
+     */
+    private void showWindow(TimeRollup.Resolution target) {
+        NavigableMap<Integer, long[]> visible = rollup.buckets(target, windowFrom, windowTo);
+        dirtyBars.clear();
+        if (target != getResolution()) {
+            resolution.set(target);
+            bars.clear();
+            List<XYChart.Data<String, Number>> data = new ArrayList<>(visible.size());
+            for (Map.Entry<Integer, long[]> entry : visible.entrySet()) {
+                XYChart.Data<String, Number> bar = newBar(entry.getKey(), entry.getValue()[0]);
+                bars.put(entry.getKey(), bar);
+                data.add(bar);
+            }
+            timeSeries.getData().setAll(data);
+            return;
+        }
+        for (Iterator<Map.Entry<Integer, XYChart.Data<String, Number>>> it = bars.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<Integer, XYChart.Data<String, Number>> entry = it.next();
+            if (!visible.containsKey(entry.getKey())) {
+                timeSeries.getData().remove(entry.getValue());
+                it.remove();
+            }
+        }
+        for (Integer start : visible.keySet()) {
+            updateBar(start);
+        }
+    }
+
+    /**
+     * Shows, updates or removes the bar for the bucket starting at {@code start}.
+     */
+    private void updateBar(int start) {
+        XYChart.Data<String, Number> bar = bars.get(start);
+        if (rollup.count(getResolution(), start) == 0) {
+            if (bar != null) {
+                timeSeries.getData().remove(bar);
+                bars.remove(start);
+            }
+        } else if (bar != null) {
+            bar.setYValue(rollup.sum(getResolution(), start) / 100.0);
+        } else {
+            bar = newBar(start, rollup.sum(getResolution(), start));
+            timeSeries.getData().add(bars.headMap(start, false).size(), bar);
+            bars.put(start, bar);
+        }
+    }
+
+    private XYChart.Data<String, Number> newBar(int start, long sum) {
+        XYChart.Data<String, Number> bar = new XYChart.Data<>(getResolution().label(start), sum / 100.0);
+        bar.nodeProperty().addListener((observable, oldNode, node) -> {
+            if (node != null) {
+                node.setStyle(BAR_STYLE);
+            }
+        });
+        return bar;
+    }
+}
@@ -0,0 +1,280 @@
+/**
+ * The AI chat transcript, rendered in a single {@link WebView}.
+ * <p>
+ * The page is loaded once; every message after that is a DOM update made through a few script
+ * functions on the page, so the transcript costs one WebKit instance however long the session
+ * runs. Plain-text messages are inserted as text nodes, markdown answers as HTML rendered by
+ * {@link MarkdownUtils}. A streamed answer is rendered as it grows: finished blocks are appended
+ * once and only the block still being written is replaced on each fragment (see
+ * {@link MarkdownUtils.Incremental}); the whole answer is rendered again when complete.
+ * <p>
+ * Only the last {@code maxMessages} messages are kept in the page; older ones are removed and
+ * counted in a note at the top, which keeps layout and memory flat in long sessions.
+ * <p>
+ * Calls made before the page has finished loading are queued and replayed in order. All
+ * methods must be called on the FX thread.
+ */
+package com.bxtz;
+
+import com.bxtz.utils.MarkdownUtils;
+import javafx.concurrent.Worker;
+import javafx.scene.web.WebEngine;
+import javafx.scene.web.WebView;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class ChatTranscript {
+
+    /**
+     * How a message is shown.
+     */
+    public enum Style {
+        QUESTION("question"), ANSWER("answer"), ERROR("error"),
+        /** Small grey text, such as what an answer cost */
+        NOTE("note");
+
+        private final String cssClass;
+
+        Style(String cssClass) {
+            this.cssClass = cssClass;
+        }
+    }
+
+    public static final int DEFAULT_MAX_MESSAGES = 200;
+
+    private static final String PAGE = """
+            <html>
+            <head>
+                <style>
+                    body { font-family: Arial; font-size: 13px; margin: 0; padding: 5px; background: #ffffff; }
+                    #trimmed { color: #888888; text-align: center; margin-bottom: 8px; }
+                    #trimmed:empty { display: none; }
+                    #log { display: flex; flex-direction: column; }
+                    .msg { max-width: 85%%; padding: 8px; margin-bottom: 8px; border-radius: 10px; word-wrap: break-word; }
+                    .text { white-space: pre-wrap; }
+                    .question { align-self: flex-end; background: #d0f0c0; }
+                    .answer { align-self: flex-start; background: #eeeeee; }
+                    .error { align-self: flex-start; background: #f8d7da; }
+                    .note { align-self: flex-start; color: #888888; font-size: 11px; padding: 0 8px; margin-top: -4px; }
+                    .msg p:first-child { margin-top: 0; }
+                    .msg p:last-child { margin-bottom: 0; }
+                    pre { background: #f0f0f0; padding: 5px; border-radius: 3px; white-space: pre-wrap; }
+                    code { font-family: monospace; }
+                </style>
+                <script>
+                    var max = %d;
+                    var dropped = 0;
+                    function log() { return document.getElementById('log'); }
+                    function bottom() { window.scrollTo(0, document.body.scrollHeight); }
+                    function fill(m, cls, content, html) {
+                        m.className = 'msg ' + cls + (html ? '' : ' text');
+                        if (html) { m.innerHTML = content; } else { m.textContent = content; }
+                        bottom();
+                    }
+                    function add(id, cls, content, html) {
+                        var m = document.createElement('div');
+                        m.id = 'm' + id;
+                        log().appendChild(m);
+                        trim();
+                        fill(m, cls, content, html);
+                    }
+                    function replace(id, cls, content, html) {
+                        var m = document.getElementById('m' + id);
+                        if (m) { fill(m, cls, content, html); }
+                    }
+                    function append(id, text) {
+                        var m = document.getElementById('m' + id);
+                        if (m) { m.appendChild(document.createTextNode(text)); bottom(); }
+                    }
+                    function stream(id, completed, tail) {
+                        var m = document.getElementById('m' + id);
+                        if (!m) { return; }
+                        var t = document.getElementById('t' + id);
+                        if (!t) {
+                            t = document.createElement('div');
+                            t.id = 't' + id;
+                            m.appendChild(t);
+                        }
+                        if (completed) { t.insertAdjacentHTML('beforebegin', completed); }
+                        t.innerHTML = tail;
+                        bottom();
+                    }
+                    function remove(id) {
+                        var m = document.getElementById('m' + id);
+                        if (m) { m.parentNode.removeChild(m); }
+                    }
+                    function trim() {
+                        var l = log();
+                        while (l.children.length > max) { l.removeChild(l.firstChild); dropped++; }
+                        document.getElementById('trimmed').textContent =
+                            dropped ? dropped + (dropped == 1 ? ' earlier message' : ' earlier messages') + ' not shown' : '';
+                    }
+                </script>
+            </head>
+            <body><div id="trimmed"></div><div id="log"></div></body>
+            </html>
+            """;
+
+    private final WebView view = new WebView();
+    private final WebEngine engine = view.getEngine();
+    private final MarkdownUtils markdownUtils;
+    /** Renderers of the answers still streaming, by message id */
+    private final Map<Integer, MarkdownUtils.Incremental> streams = new HashMap<>();
+    /** Scripts waiting for the page to load; null once it has */
+    private List<String> queued = new ArrayList<>();
+    private int nextId;
+
+    public ChatTranscript(MarkdownUtils markdownUtils) {
+        this(markdownUtils, DEFAULT_MAX_MESSAGES);
+    }
+
+    /**
+     * @param maxMessages Messages kept in the page; older ones are removed
+     */
+    public ChatTranscript(MarkdownUtils markdownUtils, int maxMessages) {
+        this.markdownUtils = markdownUtils;
+        view.setContextMenuEnabled(false);
+        engine.getLoadWorker().stateProperty().addListener((obs, old, state) -> {
+            if (state == Worker.State.SUCCEEDED && queued != null) {
+                List<String> scripts = queued;
+                queued = null;
+                scripts.forEach(engine::executeScript);
+            }
+        });
+        engine.loadContent(PAGE.formatted(maxMessages));
+    }
+
+    /**
+     * @return the node showing the transcript
+     */
+    public WebView getView() {
+        return view;
+    }
+
+    /**
+     * Adds a plain-text message.
+     *
+     * @return the id of the message
+     */
+    public int addText(String text, Style style) {
+        int id = nextId++;
+        run("add(" + id + ", " + quote(style.cssClass) + ", " + quote(text) + ", false)");
+        return id;
+    }
+
+    /**
+     * Adds a message rendered from markdown.
+     *
+     * @return the id of the message
+     */
+    public int addMarkdown(String markdown, Style style) {
+        int id = nextId++;
+        run("add(" + id + ", " + quote(style.cssClass) + ", " + quote(markdownUtils.markdownToHtml(markdown)) + ", true)");
+        return id;
+    }
+
+    /**
+     * Adds a message whose markdown arrives in fragments through {@link #appendMarkdown}.
+     *
+     * @param prefix The start of the text, shown until the first fragment arrives
+     * @return the id of the message
+     */
+    public int addStreaming(String prefix, Style style) {
+        int id = nextId++;
+        run("add(" + id + ", " + quote(style.cssClass) + ", '', true)");
+        streams.put(id, markdownUtils.incremental());
+        appendMarkdown(id, prefix);
+        return id;
+    }
+
+    /**
+     * Appends a fragment to a message added with {@link #addStreaming}, re-rendering only its
+     * last block.
+     */
+    public void appendMarkdown(int id, String fragment) {
+        MarkdownUtils.Incremental stream = streams.get(id);
+        if (stream != null) {
+            MarkdownUtils.Update update = stream.append(fragment);
+            run("stream(" + id + ", " + quote(update.completed()) + ", " + quote(update.tail()) + ")");
+        }
+    }
+
+    /**
+     * Appends plain text to the end of a message, such as a note that it was cut short. A
+     * streamed message takes no more fragments after this.
+     */
+    public void appendText(int id, String text) {
+        streams.remove(id);
+        run("append(" + id + ", " + quote(text) + ")");
+    }
+
+    /**
+     * Replaces the content of a message with rendered markdown. Does nothing if the message has
+     * been trimmed or removed.
+     */
+    public void setMarkdown(int id, String markdown, Style style) {
+        streams.remove(id);
+        run("replace(" + id + ", " + quote(style.cssClass) + ", " + quote(markdownUtils.markdownToHtml(markdown)) + ", true)");
+    }
+
+    public void remove(int id) {
+        streams.remove(id);
+        run("remove(" + id + ")");
+    }
+
+    /**
+     * @return the number of messages in the page, or -1 while it is loading; for tests
+     */
+    int shownCount() {
+        return queued != null ? -1 : (Integer) engine.executeScript("log().children.length");
+    }
+
+    /**
+     * @return the text of the page; for tests
+     */
+    String shownText() {
+        return queued != null ? null : (String) engine.executeScript("document.body.textContent");
+    }
+
+    /**
+     * Runs a script in the loaded page; for tests.
+     */
+    Object evaluate(String script) {
+        return engine.executeScript(script);
+    }
+
+    private void run(String script) {
+        if (queued != null) {
+            queued.add(script);
+        } else {
+            engine.executeScript(script);
+        }
+    }
+
+    /**
+     * @return {@code text} as a JavaScript string literal
+     */
+    static String quote(String text) {
+        StringBuilder literal = new StringBuilder(text.length() + 2).append('\'');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '\'' -> literal.append("\\'");
+                case '\\' -> literal.append("\\\\");
+                case '\n' -> literal.append("\\n");
+                case '\r' -> literal.append("\\r");
+                default -> {
+                    if (c < 0x20 || c == 0x2028 || c == 0x2029 || c == '<') {
+                        literal.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        literal.append(c);
+                    }
+                }
+            }
+        }
+        return literal.append('\'').toString();
+    }
+}
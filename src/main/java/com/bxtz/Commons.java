@@ -1,8 +1,14 @@
 package com.bxtz;
 
+import com.bxtz.utils.AIUtils;
 import com.bxtz.utils.BillUtils;
-import javafx.collections.FXCollections;
+import com.bxtz.utils.CategorizeTask;
+import com.bxtz.utils.ExportTask;
+import com.bxtz.utils.ImportMerger;
+import com.bxtz.utils.LedgerFormat;
+import javafx.beans.binding.Bindings;
 import javafx.collections.ObservableList;
+import javafx.concurrent.Worker;
 import javafx.geometry.Insets;
 import javafx.scene.control.*;
 import javafx.scene.layout.GridPane;
@@ -11,14 +17,26 @@ import javafx.stage.FileChooser;
 import javafx.stage.Stage;
 
 import java.io.File;
+import java.math.BigDecimal;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 // import java.util.regex.Matcher; // regex.Matcher and Pattern not used
 // import java.util.regex.Pattern;
 
 public class Commons {
+    /** Import modes offered when the table already has bills */
+    private static final ButtonType MERGE = new ButtonType("Merge", ButtonBar.ButtonData.YES);
+    private static final ButtonType REPLACE = new ButtonType("Replace", ButtonBar.ButtonData.NO);
+
+    /** Incremental total shown in the label passed to {@link #bindTotalCost}, if any */
+    private RunningTotal runningTotal;
+    /** Categories the AI has given each merchant name, kept across categorisation runs */
+    private final Map<String, String> merchantCategories = new ConcurrentHashMap<>();
+
     /**
      * Updates the total cost label by summing all bill amounts in the list.
      *
@@ -26,24 +44,36 @@ public class Commons {
      * @param totalCost The label to display the calculated total
      */
     public void updateTotalCost(ObservableList<Bill> bills, Label totalCost) {
-        double sum = 0.0;
+        long sum = 0; // Exact sum in minor units (1/100 RMB); unparseable costs count as 0
         for (Bill b : bills) {
-            if ("".equals(b.getCost()) || b.getCost() == null) { // Added null check for safety
-                continue;
-            }
-            // Ensure " RMB" is removed before parsing, handle cases where it might be missing
-            String costString = b.getCost().toLowerCase().replace("rmb", "").trim();
-            if (costString.isEmpty()) {
-                continue;
-            }
-            try {
-                sum += Double.parseDouble(costString);
-            } catch (NumberFormatException e) {
-                System.err.println("Could not parse cost: " + b.getCost());
-                // Optionally handle this error more gracefully
-            }
+            sum += b.getCostMinor();
+        }
+        totalCost.setText(formatTotalCost(sum));
+    }
+
+    /**
+     * Binds the total cost label to a running total of the ledger, which is updated from
+     * change deltas instead of rescanning every bill. Once bound, adding, editing, deleting
+     * and importing bills no longer recompute the total themselves.
+     *
+     * @param ledger The store backing the table
+     * @param totalCost The label to display the total
+     */
+    public void bindTotalCost(BillStore ledger, Label totalCost) {
+        RunningTotal total = new RunningTotal(ledger);
+        totalCost.textProperty().bind(Bindings.createStringBinding(
+                () -> formatTotalCost(total.getTotalMinor()), total.totalMinorProperty()));
+        runningTotal = total;
+    }
+
+    static String formatTotalCost(long minor) {
+        return "Total Cost: " + BigDecimal.valueOf(minor, 2).toPlainString() + " RMB"; // Always 2 decimal places
+    }
+
+    private void refreshTotalCost(BillStore ledger, Label totalCost) {
+        if (runningTotal == null) {
+            totalCost.setText(formatTotalCost(ledger.totalMinor()));
         }
-        totalCost.setText("Total Cost: " + String.format("%.2f", sum) + " RMB"); // Format to 2 decimal places
     }
 
     // ... (styleButton methods remain the same) ...
@@ -68,7 +98,11 @@ public class Commons {
     }
 
 
-    public void showEditDialog(Bill bill, TableView<Bill> table, Label totalCost) {
+    /**
+     * Lets the user edit or delete row {@code row} of {@code ledger}.
+     */
+    public void showEditDialog(BillStore ledger, int row, Label totalCost) {
+        Bill bill = ledger.bill(row);
         Dialog<Bill> dialog = new Dialog<>();
         dialog.setTitle("Edit Bill");
 
@@ -98,11 +132,8 @@ public class Commons {
         Button deleteBtn = new Button("Delete Bill");
         styleButton4(deleteBtn); //
         deleteBtn.setOnAction(event -> { // Changed variable name from edited to event
-            ObservableList<Bill> bills = table.getItems();
-            bills.remove(bill);
-            // No need to call table.setItems(bills) if bills is the original list from table.getItems()
-            updateTotalCost(bills, totalCost);
-            table.refresh();
+            ledger.remove(row, row + 1); // The table's list is a view of the ledger and follows it
+            refreshTotalCost(ledger, totalCost);
             dialog.close(); // Close dialog after delete
         });
         grid.add(deleteBtn, 1, 5);
@@ -121,17 +152,14 @@ public class Commons {
                     showErrorDialog("Format error: Invalid date format. Please use yyyy-MM-dd HH:mm.");
                     return null;
                 }
-                // For cost, check if it's a valid number part, then ensure " RMB" is appended
-                String numericCostPart = costStr.toLowerCase().replace("rmb", "").trim();
-                if (!isValidCost(numericCostPart)) { // Validate only the numeric part
+                // For cost, check it's a number with or without the unit, then ensure " RMB" is appended
+                if (LedgerFormat.parseAmount(costStr) == LedgerFormat.INVALID_AMOUNT) {
                     showErrorDialog("Format error: Invalid cost format. Please enter a valid number.");
                     return null;
                 }
                 // Ensure " RMB" suffix, avoid double suffix
-                if (!numericCostPart.isEmpty() && !costStr.toLowerCase().endsWith("rmb")) {
-                    costStr = numericCostPart + " RMB";
-                } else if (numericCostPart.isEmpty()) {
-                    costStr = "0 RMB"; // Default if empty after stripping
+                if (!LedgerFormat.hasCurrencySuffix(costStr)) {
+                    costStr = costStr.trim() + " RMB";
                 }
 
 
@@ -149,52 +177,153 @@ public class Commons {
         Optional<Bill> result = dialog.showAndWait();
 
         result.ifPresent(editedBill -> { // Changed variable name
-            bill.dateProperty().set(editedBill.getDate());
-            bill.nameProperty().set(editedBill.getName());
-            bill.detailsProperty().set(editedBill.getDetails());
-            bill.costProperty().set(editedBill.getCost());
-            bill.typeProperty().set(editedBill.getType());
-            updateTotalCost(table.getItems(), totalCost);
-            table.refresh();
+            ledger.set(row, editedBill);
+            refreshTotalCost(ledger, totalCost);
         });
     }
 
-    public Button createExportButton(TableView<Bill> table, Label totalCost, Stage stage) {
+    public Button createExportButton(BillStore ledger, Label totalCost, Stage stage) {
         Button exportBtn = new Button("Download Bills");
+        ExportTask[] running = new ExportTask[1];
         exportBtn.setOnAction(e -> {
+            // While an export is in progress the button cancels it
+            if (running[0] != null) {
+                running[0].cancel();
+                return;
+            }
             FileChooser fileChooser = new FileChooser();
             fileChooser.setTitle("Save CSV file"); // Corrected title
-            fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("CSV file (*.csv)", "*.csv"));
+            FileChooser.ExtensionFilter ledgerFilter = new FileChooser.ExtensionFilter(
+                    "Bills ledger, fast to reload (*" + BillUtils.LEDGER_EXTENSION + ")", "*" + BillUtils.LEDGER_EXTENSION);
+            fileChooser.getExtensionFilters().addAll(new FileChooser.ExtensionFilter("CSV file (*.csv)", "*.csv"), ledgerFilter);
             File file = fileChooser.showSaveDialog(stage);
             if (file != null) {
-                // Ensure filename ends with .csv
-                if (!file.getName().toLowerCase().endsWith(".csv")) {
-                    file = new File(file.getAbsolutePath() + ".csv");
+                // Ensure filename ends with .csv, or the ledger extension if that format was chosen
+                String extension = fileChooser.getSelectedExtensionFilter() == ledgerFilter ? BillUtils.LEDGER_EXTENSION : ".csv";
+                if (!BillUtils.isLedgerFile(file) && !file.getName().toLowerCase().endsWith(".csv")) {
+                    file = new File(file.getAbsolutePath() + extension);
                 }
-                BillUtils.exportToCSV(table.getItems(), file);
+                ExportTask task = new ExportTask(ledger.asList(), file); // Snapshots the rows on the FX thread
+                running[0] = task;
+
+                Tooltip progress = new Tooltip();
+                progress.textProperty().bind(task.messageProperty());
+                exportBtn.setTooltip(progress);
+                exportBtn.textProperty().bind(Bindings.createStringBinding(
+                        () -> String.format("Cancel Export (%.0f%%)", Math.max(0, task.getProgress()) * 100),
+                        task.progressProperty()));
+
+                task.stateProperty().addListener((obs, oldState, state) -> {
+                    if (state == Worker.State.SUCCEEDED || state == Worker.State.FAILED || state == Worker.State.CANCELLED) {
+                        running[0] = null;
+                        exportBtn.textProperty().unbind();
+                        exportBtn.setText("Download Bills");
+                        exportBtn.setTooltip(null);
+                        if (state == Worker.State.FAILED) {
+                            showErrorDialog("Export failed: " + task.getException().getMessage());
+                        }
+                    }
+                });
+
+                Thread thread = new Thread(task, "bill-export");
+                thread.setDaemon(true);
+                thread.start();
             }
         });
         return exportBtn;
     }
 
-    public Button createImportButton(TableView<Bill> table, Label totalCost, Stage stage) {
+    /**
+     * Creates a button that asks the AI model for the category of every bill without one
+     * ("Others" included). The work runs in the background in batches, the table updates as
+     * batches finish, and clicking the button again cancels it.
+     */
+    public Button createCategorizeButton(BillStore ledger) {
+        Button categorizeBtn = new Button("AI Categorize");
+        CategorizeTask[] running = new CategorizeTask[1];
+        AIUtils aiUtils = new AIUtils();
+        categorizeBtn.setOnAction(e -> {
+            if (running[0] != null) {
+                running[0].cancel();
+                return;
+            }
+            CategorizeTask task = new CategorizeTask(ledger, merchantCategories, aiUtils::getResponseAsync);
+            if (task.billCount() == 0) {
+                showInfoDialog("Every bill already has a category.");
+                return;
+            }
+            running[0] = task;
+
+            Tooltip progress = new Tooltip();
+            progress.textProperty().bind(task.messageProperty());
+            categorizeBtn.setTooltip(progress);
+            categorizeBtn.textProperty().bind(Bindings.createStringBinding(
+                    () -> String.format("Cancel Categorize (%.0f%%)", Math.max(0, task.getProgress()) * 100),
+                    task.progressProperty()));
+
+            task.stateProperty().addListener((obs, oldState, state) -> {
+                if (state == Worker.State.SUCCEEDED || state == Worker.State.FAILED || state == Worker.State.CANCELLED) {
+                    running[0] = null;
+                    categorizeBtn.textProperty().unbind();
+                    categorizeBtn.setText("AI Categorize");
+                    categorizeBtn.setTooltip(null);
+                    if (state == Worker.State.FAILED) {
+                        showErrorDialog("Categorizing failed: " + task.getException().getMessage());
+                    }
+                }
+            });
+
+            Thread thread = new Thread(task, "bill-categorize");
+            thread.setDaemon(true);
+            thread.start();
+        });
+        return categorizeBtn;
+    }
+
+    public Button createImportButton(BillStore ledger, Label totalCost, Stage stage) {
         Button importBtn = new Button("Upload Bills");
         importBtn.setOnAction(e -> {
             FileChooser fileChooser = new FileChooser();
             fileChooser.setTitle("Open CSV file"); // Corrected title
-            fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("CSV file (*.csv)", "*.csv"));
+            fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter(
+                    "CSV file or bills ledger (*.csv, *" + BillUtils.LEDGER_EXTENSION + ")", "*.csv", "*" + BillUtils.LEDGER_EXTENSION));
             File file = fileChooser.showOpenDialog(stage);
-            if (file != null) {
-                List<Bill> newBills = BillUtils.importFromCSV(file);
-                ObservableList<Bill> bills = FXCollections.observableArrayList(newBills);
-                table.setItems(bills); // This replaces all existing bills. If appending is desired, use table.getItems().addAll(bills);
-                updateTotalCost(bills, totalCost);
+            if (file == null) {
+                return;
             }
+            Optional<ButtonType> mode = ledger.size() == 0 ? Optional.of(REPLACE) : askImportMode();
+            if (mode.isEmpty() || mode.get() == ButtonType.CANCEL) {
+                return;
+            }
+            List<Bill> newBills = BillUtils.importFile(file);
+            if (mode.get() == MERGE) {
+                ImportMerger.Result result = ImportMerger.merge(ledger.asList(), newBills);
+                ledger.addAll(result.inserted()); // One change, so the listeners and journal see a single insert
+                refreshTotalCost(ledger, totalCost);
+                showInfoDialog(result.describe());
+                return;
+            }
+            ledger.clear(); // The store's listeners, and the table's view, stay attached
+            ledger.addAll(newBills);
+            refreshTotalCost(ledger, totalCost);
         });
         return importBtn;
     }
 
-    public void showAddDialog(TableView<Bill> table, Label totalCost) {
+    /**
+     * Asks whether imported bills are merged into the table or replace it.
+     *
+     * @return {@link #MERGE}, {@link #REPLACE} or {@link ButtonType#CANCEL}
+     */
+    private Optional<ButtonType> askImportMode() {
+        Alert alert = new Alert(Alert.AlertType.CONFIRMATION, "", MERGE, REPLACE, ButtonType.CANCEL);
+        alert.setTitle("Upload Bills");
+        alert.setHeaderText("Merge the file into the current bills, or replace them?");
+        alert.setContentText("Merging adds only the bills not already in the table (same date, name, amount and details).");
+        return alert.showAndWait();
+    }
+
+    public void showAddDialog(BillStore ledger, Label totalCost) {
         Dialog<Bill> dialog = new Dialog<>();
         dialog.setTitle("Add Bill");
 
@@ -285,11 +414,8 @@ public class Commons {
         Optional<Bill> result = dialog.showAndWait();
 
         result.ifPresent(newBill -> { // Changed variable name
-            ObservableList<Bill> bills = table.getItems();
-            bills.add(newBill);
-            // table.setItems(bills); // Not necessary if bills is obtained from getItems() and modified
-            updateTotalCost(bills, totalCost);
-            table.refresh();
+            ledger.add(newBill);
+            refreshTotalCost(ledger, totalCost);
         });
     }
 
@@ -303,35 +429,27 @@ public class Commons {
 
     // Make public for testing
     public boolean isValidDate(String date) {
-        if (date == null || date.trim().isEmpty()) {
-            return false;
-        }
-        try {
-            LocalDateTime.parse(date.trim(), DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm"));
-            return true;
-        } catch (Exception e) {
-            return false;
-        }
+        return LedgerFormat.isValidDate(date);
     }
 
     // Make public for testing
     public boolean isValidCost(String cost) {
-        if (cost == null || cost.trim().isEmpty()) {
-            return false; // Or treat empty as 0, depending on requirements
-        }
-        try {
-            Double.parseDouble(cost.trim());
-            return true;
-        } catch (NumberFormatException e) {
-            return false;
-        }
+        return LedgerFormat.parseNumber(cost) != LedgerFormat.INVALID_AMOUNT; // Number only, no " RMB"
     }
 
-    private void showErrorDialog(String message) {
+    void showErrorDialog(String message) {
         Alert alert = new Alert(Alert.AlertType.ERROR);
         alert.setTitle("Error");
         alert.setHeaderText(null);
         alert.setContentText(message);
         alert.showAndWait();
     }
-}
\ No newline at end of file
+
+    private void showInfoDialog(String message) {
+        Alert alert = new Alert(Alert.AlertType.INFORMATION);
+        alert.setTitle("Information");
+        alert.setHeaderText(null);
+        alert.setContentText(message);
+        alert.showAndWait();
+    }
+}
@@ -1,6 +1,7 @@
 package com.bxtz;
 
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
 import javafx.scene.Scene;
@@ -13,9 +14,10 @@ import javafx.scene.layout.*;
 import javafx.scene.paint.Color;
 import javafx.scene.text.Font;
 import javafx.stage.Stage;
-import javafx.collections.*;
 import javafx.scene.image.Image;
 
+import java.nio.file.Path;
+import java.util.List;
 import java.util.Objects;
 
 /**
@@ -32,6 +34,12 @@ public class Main extends Application {
     /** Label to show total cost */
     private Label totalCostLabel = new Label("Total Cost: 0 RMB");
 
+    /** Columnar mirror of the table's bills, used for totals and charts */
+    private BillStore ledger;
+
+    /** Saves every change of {@link #ledger} to {@code ~/.bills-manager} */
+    private BillJournal journal;
+
     /** Shared utility class for styling and dialogs */
     private Commons commons = new Commons();
 
@@ -86,8 +94,8 @@ public class Main extends Application {
         btnDetails.setEffect(shadow); // Highlight default page
 
         // Functional buttons
-        Button uploadBtn = commons.createImportButton(table, totalCostLabel, primaryStage);
-        Button downloadBtn = commons.createExportButton(table, totalCostLabel, primaryStage);
+        Button uploadBtn = commons.createImportButton(ledger, totalCostLabel, primaryStage);
+        Button downloadBtn = commons.createExportButton(ledger, totalCostLabel, primaryStage);
         Button addBtn = new Button("Add Bill");
 
         // Style them
@@ -158,6 +166,16 @@ public class Main extends Application {
         primaryStage.show();
     }
 
+    /**
+     * Writes the last changes to disk before the application exits.
+     */
+    @Override
+    public void stop() {
+        if (journal != null) {
+            journal.close();
+        }
+    }
+
     /**
      * Creates a reusable column for the bill table.
      *
@@ -187,23 +205,40 @@ public class Main extends Application {
      * @return a VBox containing the details view
      */
     private VBox getDetailsPage(Stage primaryStage) {
+        // The bills of the last run, or a few samples on the first start
+        ledger = new BillStore();
+        journal = new BillJournal(Path.of(System.getProperty("user.home"), ".bills-manager"));
+        if (journal.hasSavedBills()) {
+            ledger.addAll(journal.savedBills());
+        } else {
+            ledger.addAll(List.of(
+                    new Bill("2025-02-01 12:00", "Mei Tuan", "Takeout", "50 RMB", "Food"),
+                    new Bill("2025-02-02 20:45", "Amazon", "Shopping", "120 RMB", "Shopping"),
+                    new Bill("2025-02-06 01:00", "ApplePay", "Online Pay", "648 RMB", "Entertainment")
+            ));
+        }
+        journal.setOnFailure(message -> Platform.runLater(() -> commons.showErrorDialog(message)));
+        journal.attach(ledger);
+
         // Top action buttons
         HBox topButtons = new HBox(15);
         topButtons.setPadding(new Insets(15));
         topButtons.setStyle("-fx-background-color: #ecf0f1;");
 
-        Button uploadBtn = commons.createImportButton(table, totalCostLabel, primaryStage);
-        Button downloadBtn = commons.createExportButton(table, totalCostLabel, primaryStage);
+        Button uploadBtn = commons.createImportButton(ledger, totalCostLabel, primaryStage);
+        Button downloadBtn = commons.createExportButton(ledger, totalCostLabel, primaryStage);
         Button addBtn = new Button("Add Bill");
+        Button categorizeBtn = commons.createCategorizeButton(ledger);
 
-        addBtn.setOnAction(e -> commons.showAddDialog(table, totalCostLabel));
+        addBtn.setOnAction(e -> commons.showAddDialog(ledger, totalCostLabel));
 
         commons.styleButton1(uploadBtn);
         commons.styleButton2(downloadBtn);
         commons.styleButton2(addBtn);
+        commons.styleButton2(categorizeBtn);
 
         totalCostLabel.setFont(Font.font(14));
-        topButtons.getChildren().addAll(uploadBtn, downloadBtn, addBtn, totalCostLabel);
+        topButtons.getChildren().addAll(uploadBtn, downloadBtn, addBtn, categorizeBtn, totalCostLabel);
 
         // Setup table
         table.setStyle("-fx-background-color: white; -fx-border-color: #bdc3c7;");
@@ -255,9 +290,9 @@ public class Main extends Application {
             {
                 commons.styleButton1(btn);
                 btn.setOnAction(event -> {
-                    Bill bill = getTableView().getItems().get(getIndex());
-                    commons.showEditDialog(bill, table, totalCostLabel);
-                    System.out.println("Edit bill: " + bill.getName());
+                    // Without a SortedList in between, the table index is the ledger row
+                    System.out.println("Edit bill: " + ledger.name(getIndex()));
+                    commons.showEditDialog(ledger, getIndex(), totalCostLabel);
                 });
             }
 
@@ -271,13 +306,16 @@ public class Main extends Application {
         // Add columns and data
         table.getColumns().addAll(dateCol, nameCol, detailCol, costCol, typeCol, editCol);
 
-        ObservableList<Bill> data = FXCollections.observableArrayList(
-                new Bill("2025-02-01 12:00", "Mei Tuan", "Takeout", "50 RMB", "Food"),
-                new Bill("2025-02-02 20:45", "Amazon", "Shopping", "120 RMB", "Shopping"),
-                new Bill("2025-02-06 01:00", "ApplePay", "Online Pay", "648 RMB", "Entertainment")
-        );
-        table.setItems(data);
-        commons.updateTotalCost(data, totalCostLabel);
+        // The table only shows the ledger; it holds Bill objects just for the visible rows
+        table.setItems(ledger.asList());
+        // The view is read-only, so sorting by a column reorders the ledger itself
+        table.setSortPolicy(t -> {
+            if (t.getComparator() != null) {
+                ledger.sort(t.getComparator());
+            }
+            return true;
+        });
+        commons.bindTotalCost(ledger, totalCostLabel);
 
         VBox detailsPage = new VBox();
         detailsPage.getChildren().addAll(topButtons, table);
@@ -297,12 +335,19 @@ public class Main extends Application {
         analysisTitle.setTextFill(Color.BLACK);
 
         AnalysePage analysePage = new AnalysePage();
-        VBox analysisContent = analysePage.getAnalysisPage(table.getItems());
+        VBox analysisContent = analysePage.getAnalysisPage(ledger);
 
         VBox analysisPageLayout = new VBox(20, analysisTitle, analysisContent);
         analysisPageLayout.setPadding(new Insets(20));
         analysisPageLayout.setStyle("-fx-background-color: #f9f9f9;");
 
+        // Leaving the page stops the answers still being written, so the model is not kept busy
+        analysisPageLayout.visibleProperty().addListener((obs, wasVisible, visible) -> {
+            if (!visible) {
+                analysePage.cancelPendingAnswers();
+            }
+        });
+
         return analysisPageLayout;
     }
 
@@ -329,7 +374,7 @@ public class Main extends Application {
         How to Use:
         1. Add a Bill: Click 'Add Bill' to input a new bill entry.
         2. Import/Export: Use the upload/download buttons to manage data files.
-        3. AI Type Analysis: Analyze bill types using advanced algorithms.
+        3. AI Type Analysis: Click 'AI Categorize' to let the AI fill in the type of bills without one.
         4. Edit Bills: Use the 'Edit' button in the Details page.
         
         For support, contact:  support@billsmanager.com
@@ -0,0 +1,74 @@
+/**
+ * Keeps the total cost of a ledger up to date without rescanning it.
+ * <p>
+ * The total is held in exact minor units and adjusted by the deltas a {@link BillStore}
+ * reports: added rows are summed, removed rows are subtracted and an edited row contributes
+ * only the difference between its new and old amount, so editing one bill is O(1) regardless
+ * of the ledger size. In verify mode every delta is followed by a full rescan that must agree
+ * with the running value; this is meant for tests.
+ */
+package com.bxtz;
+
+import javafx.beans.property.ReadOnlyLongProperty;
+import javafx.beans.property.ReadOnlyLongWrapper;
+
+public class RunningTotal implements BillStore.Listener {
+    private final ReadOnlyLongWrapper totalMinor = new ReadOnlyLongWrapper(this, "totalMinor");
+    private final boolean verify;
+
+    /**
+     * Attaches a running total to {@code ledger}.
+     *
+     * @param ledger The bills to total
+     * @param verify Whether to cross-check every update against a full rescan
+     */
+    public RunningTotal(BillStore ledger, boolean verify) {
+        this.verify = verify;
+        totalMinor.set(ledger.totalMinor());
+        ledger.addListener(this);
+    }
+
+    public RunningTotal(BillStore ledger) {
+        this(ledger, false);
+    }
+
+    /**
+     * @return The total cost in minor units (1/100 RMB)
+     */
+    public long getTotalMinor() {
+        return totalMinor.get();
+    }
+
+    public ReadOnlyLongProperty totalMinorProperty() {
+        return totalMinor.getReadOnlyProperty();
+    }
+
+    @Override
+    public void rowsAdded(BillStore store, int from, int to) {
+        long delta = 0;
+        for (int row = from; row < to; row++) {
+            delta += store.amount(row);
+        }
+        apply(store, delta);
+    }
+
+    @Override
+    public void rowsRemoved(BillStore store, int from, BillStore removed) {
+        apply(store, -removed.totalMinor());
+    }
+
+    @Override
+    public void rowUpdated(BillStore store, int row, long oldAmount, int oldMinute, int oldTypeId, String oldName, String oldDetails) {
+        apply(store, store.amount(row) - oldAmount);
+    }
+
+    private void apply(BillStore store, long delta) {
+        totalMinor.set(totalMinor.get() + delta);
+        if (verify) {
+            long expected = store.totalMinor();
+            if (expected != totalMinor.get()) {
+                throw new IllegalStateException("Running total " + totalMinor.get() + " != rescanned total " + expected);
+            }
+        }
+    }
+}
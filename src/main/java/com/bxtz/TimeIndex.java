@@ -0,0 +1,436 @@
+/**
+ * A sorted index of bill timestamps that answers range counts and range sums in logarithmic time.
+ * <p>
+ * Bills are keyed by epoch minute in a treap whose nodes also hold the amount and bill count
+ * of their subtree, so the sum over any {@code [from, to]} window is two root-to-leaf walks
+ * instead of a scan. One treap covers the whole ledger and one more is kept per category, which
+ * lets the per-category breakdown of a window be answered the same way. The index follows the
+ * deltas a {@link BillStore} reports; a bulk load into an empty index is sorted once and built
+ * in linear time instead of being inserted row by row.
+ */
+package com.bxtz;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+public class TimeIndex implements BillStore.Listener {
+    /** Loads of more rows than this into an empty index are sorted and built in one go */
+    private static final int BULK_ROWS = 1024;
+
+    private final Tree all = new Tree();
+    private final Map<Integer, Tree> byType = new HashMap<>();
+
+    /**
+     * Indexes the current contents of {@code ledger} and follows its changes.
+     */
+    public TimeIndex(BillStore ledger) {
+        rowsAdded(ledger, 0, ledger.size());
+        ledger.addListener(this);
+    }
+
+    /**
+     * @return the number of dated bills in {@code [fromMinute, toMinute]}
+     */
+    public long count(int fromMinute, int toMinute) {
+        return all.count(fromMinute, toMinute);
+    }
+
+    /**
+     * @return the total of the dated bills in {@code [fromMinute, toMinute]} in minor units
+     */
+    public long sum(int fromMinute, int toMinute) {
+        return all.sum(fromMinute, toMinute);
+    }
+
+    /**
+     * @return the total of one category's bills in {@code [fromMinute, toMinute]} in minor units
+     */
+    public long sum(String type, int fromMinute, int toMinute) {
+        Tree tree = byType.get(Bill.TYPES.lookup(type));
+        return tree == null ? 0 : tree.sum(fromMinute, toMinute);
+    }
+
+    /**
+     * @return {sum in minor units, bill count} per category id for the bills in
+     * {@code [fromMinute, toMinute]}; categories without bills there are left out
+     */
+    public Map<Integer, long[]> sumByType(int fromMinute, int toMinute) {
+        Map<Integer, long[]> sums = new LinkedHashMap<>();
+        for (Map.Entry<Integer, Tree> entry : byType.entrySet()) {
+            long count = entry.getValue().count(fromMinute, toMinute);
+            if (count > 0) {
+                sums.put(entry.getKey(), new long[]{entry.getValue().sum(fromMinute, toMinute), count});
+            }
+        }
+        return sums;
+    }
+
+    /**
+     * @return whether no dated bill is indexed
+     */
+    public boolean isEmpty() {
+        return all.root == 0;
+    }
+
+    /**
+     * @return the earliest indexed minute; only valid when not empty
+     */
+    public int firstMinute() {
+        return all.first();
+    }
+
+    /**
+     * @return the latest indexed minute; only valid when not empty
+     */
+    public int lastMinute() {
+        return all.last();
+    }
+
+    @Override
+    public void rowsAdded(BillStore store, int from, int to) {
+        if (isEmpty() && to - from > BULK_ROWS) {
+            load(store, from, to);
+            return;
+        }
+        for (int row = from; row < to; row++) {
+            add(store.minute(row), store.amount(row), store.typeId(row), 1);
+        }
+    }
+
+    @Override
+    public void rowsRemoved(BillStore store, int from, BillStore removed) {
+        if (store.size() == 0) {
+            all.clear();
+            byType.clear();
+            return;
+        }
+        for (int row = 0; row < removed.size(); row++) {
+            add(removed.minute(row), -removed.amount(row), removed.typeId(row), -1);
+        }
+    }
+
+    @Override
+    public void rowUpdated(BillStore store, int row, long oldAmount, int oldMinute, int oldTypeId, String oldName, String oldDetails) {
+        add(oldMinute, -oldAmount, oldTypeId, -1);
+        add(store.minute(row), store.amount(row), store.typeId(row), 1);
+    }
+
+    private void add(int minute, long amount, int typeId, int count) {
+        if (minute == Bill.NO_MINUTE) {
+            return;
+        }
+        all.add(minute, amount, count);
+        if (typeId >= 0) {
+            byType.computeIfAbsent(typeId, k -> new Tree()).add(minute, amount, count);
+        }
+    }
+
+    /**
+     * Builds the index from rows {@code [from, to)} of {@code store}: the rows are sorted by
+     * minute once, and each tree is built from its sorted run.
+     */
+    private void load(BillStore store, int from, int to) {
+        long[] order = new long[to - from];
+        int n = 0;
+        for (int row = from; row < to; row++) {
+            if (store.minute(row) != Bill.NO_MINUTE) {
+                order[n++] = (long) store.minute(row) << 32 | row;
+            }
+        }
+        Arrays.sort(order, 0, n);
+
+        Map<Integer, Tree.Builder> typeBuilders = new HashMap<>();
+        Tree.Builder allBuilder = all.builder();
+        for (int i = 0; i < n; i++) {
+            int row = (int) order[i];
+            int minute = (int) (order[i] >> 32);
+            long amount = store.amount(row);
+            allBuilder.append(minute, amount);
+            int typeId = store.typeId(row);
+            if (typeId >= 0) {
+                typeBuilders.computeIfAbsent(typeId, k -> byType.computeIfAbsent(k, t -> new Tree()).builder())
+                        .append(minute, amount);
+            }
+        }
+        allBuilder.build();
+        for (Tree.Builder builder : typeBuilders.values()) {
+            builder.build();
+        }
+    }
+
+    /**
+     * A treap over distinct minutes, stored in parallel arrays. Node 0 is the empty tree.
+     */
+    private static final class Tree {
+        private final SplittableRandom priorities = new SplittableRandom(0x5EED);
+
+        private int[] key = new int[16];
+        private int[] priority = new int[16];
+        private int[] left = new int[16];
+        private int[] right = new int[16];
+        private long[] ownSum = new long[16];
+        private long[] ownCount = new long[16];
+        private long[] subSum = new long[16];
+        private long[] subCount = new long[16];
+        private int root;
+        private int used;       // nodes 1..used have been handed out
+        private int free;       // head of the free list, chained through left[]
+
+        void clear() {
+            root = 0;
+            used = 0;
+            free = 0;
+        }
+
+        void add(int minute, long amount, long count) {
+            int node = find(minute);
+            if (node == 0) {
+                node = newNode(minute, amount, count);
+                root = insert(root, node);
+                return;
+            }
+            addOnPath(root, minute, amount, count);
+            if (ownCount[node] == 0) {
+                root = remove(root, minute);
+            }
+        }
+
+        long sum(int fromMinute, int toMinute) {
+            if (fromMinute > toMinute) {
+                return 0;
+            }
+            return sumBelow(toMinute, true) - sumBelow(fromMinute, false);
+        }
+
+        long count(int fromMinute, int toMinute) {
+            if (fromMinute > toMinute) {
+                return 0;
+            }
+            return countBelow(toMinute, true) - countBelow(fromMinute, false);
+        }
+
+        int first() {
+            int node = root;
+            while (left[node] != 0) {
+                node = left[node];
+            }
+            return key[node];
+        }
+
+        int last() {
+            int node = root;
+            while (right[node] != 0) {
+                node = right[node];
+            }
+            return key[node];
+        }
+
+        /**
+         * @return the sum of keys below {@code minute}, or up to it when {@code inclusive}
+         */
+        private long sumBelow(int minute, boolean inclusive) {
+            long total = 0;
+            int node = root;
+            while (node != 0) {
+                if (key[node] < minute || inclusive && key[node] == minute) {
+                    total += subSum[left[node]] + ownSum[node];
+                    node = right[node];
+                } else {
+                    node = left[node];
+                }
+            }
+            return total;
+        }
+
+        private long countBelow(int minute, boolean inclusive) {
+            long total = 0;
+            int node = root;
+            while (node != 0) {
+                if (key[node] < minute || inclusive && key[node] == minute) {
+                    total += subCount[left[node]] + ownCount[node];
+                    node = right[node];
+                } else {
+                    node = left[node];
+                }
+            }
+            return total;
+        }
+
+        private int find(int minute) {
+            int node = root;
+            while (node != 0 && key[node] != minute) {
+                node = minute < key[node] ? left[node] : right[node];
+            }
+            return node;
+        }
+
+        private void addOnPath(int node, int minute, long amount, long count) {
+            while (true) {
+                subSum[node] += amount;
+                subCount[node] += count;
+                if (key[node] == minute) {
+                    ownSum[node] += amount;
+                    ownCount[node] += count;
+                    return;
+                }
+                node = minute < key[node] ? left[node] : right[node];
+            }
+        }
+
+        private int insert(int tree, int node) {
+            if (tree == 0) {
+                return node;
+            }
+            if (priority[node] > priority[tree]) {
+                split(tree, key[node], node);
+                update(node);
+                return node;
+            }
+            if (key[node] < key[tree]) {
+                left[tree] = insert(left[tree], node);
+            } else {
+                right[tree] = insert(right[tree], node);
+            }
+            update(tree);
+            return tree;
+        }
+
+        /**
+         * Splits {@code tree} around {@code minute} into {@code left[into]} and {@code right[into]}.
+         */
+        private void split(int tree, int minute, int into) {
+            if (tree == 0) {
+                left[into] = 0;
+                right[into] = 0;
+                return;
+            }
+            if (key[tree] < minute) {
+                split(right[tree], minute, into);
+                right[tree] = left[into];
+                left[into] = tree;
+            } else {
+                split(left[tree], minute, into);
+                left[tree] = right[into];
+                right[into] = tree;
+            }
+            update(tree);
+        }
+
+        private int remove(int tree, int minute) {
+            if (key[tree] == minute) {
+                int merged = merge(left[tree], right[tree]);
+                left[tree] = free;
+                free = tree;
+                return merged;
+            }
+            if (minute < key[tree]) {
+                left[tree] = remove(left[tree], minute);
+            } else {
+                right[tree] = remove(right[tree], minute);
+            }
+            update(tree);
+            return tree;
+        }
+
+        private int merge(int a, int b) {
+            if (a == 0 || b == 0) {
+                return a == 0 ? b : a;
+            }
+            if (priority[a] > priority[b]) {
+                right[a] = merge(right[a], b);
+                update(a);
+                return a;
+            }
+            left[b] = merge(a, left[b]);
+            update(b);
+            return b;
+        }
+
+        private void update(int node) {
+            subSum[node] = subSum[left[node]] + ownSum[node] + subSum[right[node]];
+            subCount[node] = subCount[left[node]] + ownCount[node] + subCount[right[node]];
+        }
+
+        private int newNode(int minute, long amount, long count) {
+            int node;
+            if (free != 0) {
+                node = free;
+                free = left[node];
+            } else {
+                node = ++used;
+                if (node == key.length) {
+                    int capacity = key.length + (key.length >> 1);
+                    key = Arrays.copyOf(key, capacity);
+                    priority = Arrays.copyOf(priority, capacity);
+                    left = Arrays.copyOf(left, capacity);
+                    right = Arrays.copyOf(right, capacity);
+                    ownSum = Arrays.copyOf(ownSum, capacity);
+                    ownCount = Arrays.copyOf(ownCount, capacity);
+                    subSum = Arrays.copyOf(subSum, capacity);
+                    subCount = Arrays.copyOf(subCount, capacity);
+                }
+            }
+            key[node] = minute;
+            priority[node] = priorities.nextInt();
+            left[node] = 0;
+            right[node] = 0;
+            ownSum[node] = amount;
+            ownCount[node] = count;
+            subSum[node] = amount;
+            subCount[node] = count;
+            return node;
+        }
+
+        Builder builder() {
+            return new Builder();
+        }
+
+        /**
+         * Builds an empty tree from minutes appended in ascending order, in linear time.
+         */
+        final class Builder {
+            private int[] spine = new int[16]; // right spine of the tree built so far
+            private int depth;
+
+            void append(int minute, long amount) {
+                if (depth > 0 && key[spine[depth - 1]] == minute) {
+                    int node = spine[depth - 1];
+                    ownSum[node] += amount;
+                    ownCount[node]++;
+                    return;
+                }
+                int node = newNode(minute, amount, 1);
+                int last = 0;
+                while (depth > 0 && priority[spine[depth - 1]] < priority[node]) {
+                    last = spine[--depth];
+                }
+                left[node] = last;
+                if (depth > 0) {
+                    right[spine[depth - 1]] = node;
+                }
+                if (depth == spine.length) {
+                    spine = Arrays.copyOf(spine, depth * 2);
+                }
+                spine[depth++] = node;
+            }
+
+            void build() {
+                if (depth > 0) {
+                    root = spine[0];
+                    updateAll(root);
+                }
+            }
+
+            private void updateAll(int node) {
+                if (node != 0) {
+                    updateAll(left[node]);
+                    updateAll(right[node]);
+                    update(node);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,175 @@
+/**
+ * A pyramid of cost sums over time at several resolutions (hour, day, week, month, year).
+ * <p>
+ * Every bill contributes to one bucket per level, so a change is applied to all five levels
+ * in O(log n) each, and any time window can be charted at a resolution that keeps the number
+ * of bars small without scanning individual bills. Bucket keys are the first epoch minute of
+ * the bucket; weeks start on Monday.
+ */
+package com.bxtz;
+
+import com.bxtz.utils.LedgerFormat;
+
+import java.time.LocalDate;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+public class TimeRollup {
+    private static final int MINUTES_PER_DAY = 24 * 60;
+
+    public enum Resolution {
+        HOUR(60),
+        DAY(MINUTES_PER_DAY),
+        WEEK(7 * MINUTES_PER_DAY),
+        MONTH(43_830),   // average month, only used to estimate bar counts
+        YEAR(525_960);   // average year, likewise
+
+        private final int approximateMinutes;
+
+        Resolution(int approximateMinutes) {
+            this.approximateMinutes = approximateMinutes;
+        }
+
+        /**
+         * @return the first minute of the bucket containing {@code minute}
+         */
+        public int bucketStart(int minute) {
+            switch (this) {
+                case HOUR:
+                    return Math.floorDiv(minute, 60) * 60;
+                case DAY:
+                    return Math.floorDiv(minute, MINUTES_PER_DAY) * MINUTES_PER_DAY;
+                case WEEK: {
+                    int day = Math.floorDiv(minute, MINUTES_PER_DAY);
+                    return (day - Math.floorMod(day + 3, 7)) * MINUTES_PER_DAY; // 1970-01-01 was a Thursday
+                }
+                case MONTH:
+                    return (int) (date(minute).withDayOfMonth(1).toEpochDay() * MINUTES_PER_DAY);
+                default:
+                    return (int) (date(minute).withDayOfYear(1).toEpochDay() * MINUTES_PER_DAY);
+            }
+        }
+
+        /**
+         * @return the number of buckets of this resolution that a window of {@code minutes} spans, roughly
+         */
+        public long approximateBuckets(long minutes) {
+            return minutes / approximateMinutes + 1;
+        }
+
+        /**
+         * @return a chart label for the bucket starting at {@code start}
+         */
+        public String label(int start) {
+            LocalDate date = date(start);
+            return switch (this) {
+                case HOUR -> LedgerFormat.formatMinute(start);
+                case DAY -> date.toString();
+                case WEEK -> "Week of " + date;
+                case MONTH -> date.toString().substring(0, 7);
+                case YEAR -> String.valueOf(date.getYear());
+            };
+        }
+
+        private static LocalDate date(int minute) {
+            return LocalDate.ofEpochDay(Math.floorDiv(minute, MINUTES_PER_DAY));
+        }
+    }
+
+    /**
+     * Bucket start minute -> {sum in minor units, number of bills}, per resolution
+     */
+    private final Map<Resolution, TreeMap<Integer, long[]>> levels = new EnumMap<>(Resolution.class);
+
+    public TimeRollup() {
+        for (Resolution resolution : Resolution.values()) {
+            levels.put(resolution, new TreeMap<>());
+        }
+    }
+
+    /**
+     * Adds {@code amount} and {@code count} bills (negative to remove) at {@code minute} to every level.
+     * Bills without a valid date ({@link Bill#NO_MINUTE}) are ignored.
+     */
+    public void add(int minute, long amount, int count) {
+        if (minute == Bill.NO_MINUTE) {
+            return;
+        }
+        for (Map.Entry<Resolution, TreeMap<Integer, long[]>> level : levels.entrySet()) {
+            int start = level.getKey().bucketStart(minute);
+            long[] bucket = level.getValue().computeIfAbsent(start, k -> new long[2]);
+            bucket[0] += amount;
+            bucket[1] += count;
+            if (bucket[1] == 0) {
+                level.getValue().remove(start);
+            }
+        }
+    }
+
+    public void clear() {
+        for (TreeMap<Integer, long[]> level : levels.values()) {
+            level.clear();
+        }
+    }
+
+    /**
+     * @return the sum of the bucket starting at {@code start} in minor units
+     */
+    public long sum(Resolution resolution, int start) {
+        long[] bucket = levels.get(resolution).get(start);
+        return bucket == null ? 0 : bucket[0];
+    }
+
+    /**
+     * @return the number of bills in the bucket starting at {@code start}
+     */
+    public long count(Resolution resolution, int start) {
+        long[] bucket = levels.get(resolution).get(start);
+        return bucket == null ? 0 : bucket[1];
+    }
+
+    /**
+     * @return the non-empty buckets overlapping {@code [fromMinute, toMinute]}, keyed by start minute;
+     * each value is {sum in minor units, number of bills}
+     */
+    public NavigableMap<Integer, long[]> buckets(Resolution resolution, int fromMinute, int toMinute) {
+        // A bucket start before the first year that fits in an int would overflow
+        int start = fromMinute < Integer.MIN_VALUE + Resolution.YEAR.approximateMinutes * 2
+                ? Integer.MIN_VALUE : resolution.bucketStart(fromMinute);
+        return levels.get(resolution).subMap(start, true, toMinute, true);
+    }
+
+    public boolean isEmpty() {
+        return levels.get(Resolution.HOUR).isEmpty();
+    }
+
+    /**
+     * @return the first minute of the earliest hour with bills; only valid when not empty
+     */
+    public int firstMinute() {
+        return levels.get(Resolution.HOUR).firstKey();
+    }
+
+    /**
+     * @return the last minute of the latest hour with bills; only valid when not empty
+     */
+    public int lastMinute() {
+        return levels.get(Resolution.HOUR).lastKey() + 59;
+    }
+
+    /**
+     * Picks the finest resolution, no finer than {@code finest}, at which the window spans at
+     * most {@code targetBars} buckets. Falls back to years.
+     */
+    public static Resolution pick(int fromMinute, int toMinute, int targetBars, Resolution finest) {
+        long span = (long) toMinute - fromMinute;
+        for (Resolution resolution : Resolution.values()) {
+            if (resolution.compareTo(finest) >= 0 && resolution.approximateBuckets(span) <= targetBars) {
+                return resolution;
+            }
+        }
+        return Resolution.YEAR;
+    }
+}
@@ -0,0 +1,16 @@
+package com.bxtz.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ChatMessage {
+
+    /** "system", "user" or "assistant" */
+    private String role;
+
+    private String content;
+}
@@ -0,0 +1,27 @@
+package com.bxtz.entity;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ChatPrompt {
+
+    private String model = "qwen2.5:0.5b";
+
+    private List<ChatMessage> messages = new ArrayList<>();
+
+    private boolean stream = false;
+
+    /** Model options such as "num_ctx"; not sent when empty */
+    @JsonInclude(JsonInclude.Include.NON_EMPTY)
+    private Map<String, Object> options = new LinkedHashMap<>();
+}
@@ -1,5 +1,6 @@
 package com.bxtz.entity;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
@@ -16,4 +17,8 @@ public class Prompt {
     private boolean stream = false;
 
     private String prompt = "";
+
+    /** Output format the model must follow, such as "json"; not sent when null */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String format;
 }
@@ -1,41 +1,414 @@
 package com.bxtz.utils;
 
+import com.bxtz.entity.ChatPrompt;
 import com.bxtz.entity.Prompt;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 
+import java.io.IOException;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
-public class AIUtils {
+/**
+ * Client for the local Ollama generate and chat APIs.
+ * <p>
+ * The server is found through {@link #serverUrl()}, so the app, tests and benchmarks can point
+ * it at another machine or at an {@link OllamaStandIn}.
+ * <p>
+ * All instances share one long-lived {@link HttpClient}, so connections to Ollama are reused,
+ * and one {@link ObjectMapper}. Requests are sent asynchronously with a connect timeout and a
+ * per-request timeout, and at most {@link #MAX_IN_FLIGHT} of them may be outstanding at once;
+ * further requests fail immediately with a {@link RejectedExecutionException} instead of
+ * queueing up against the model. Cancelling a returned future aborts its HTTP exchange.
+ * <p>
+ * {@link #streamResponseAsync} asks Ollama for a streamed answer: the reply arrives as one
+ * JSON object per line, and each line's {@code response} fragment is handed on as soon as
+ * the line has arrived, so the first words can be shown long before the answer is complete.
+ * {@link #streamChatAsync} does the same for a conversation on the chat API, which sits next to
+ * the generate endpoint, and also reports the token counts and timings of the final line.
+ */
+public class AIUtils implements AiBackend {
 
-    private String url = "http://localhost:11434/api/generate";
+    /** Requests allowed to be waiting on the model at the same time */
+    static final int MAX_IN_FLIGHT = 2;
 
-    public String getResponse(Prompt prompt){
-        ObjectMapper mapper = new ObjectMapper();
+    /** Where the model server is when nothing else is configured */
+    public static final String DEFAULT_SERVER_URL = "http://localhost:11434";
+    private static final int DEFAULT_PORT = 11434;
 
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(5);
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(120);
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    /**
+     * Runs the client's I/O and response handling. Bounded and made of daemon threads so it
+     * never keeps the application alive; the project targets Java 17, so these are platform
+     * threads rather than virtual ones.
+     */
+    private static final ExecutorService EXECUTOR = newExecutor();
+
+    private static final HttpClient CLIENT = HttpClient.newBuilder()
+            .connectTimeout(CONNECT_TIMEOUT)
+            .executor(EXECUTOR)
+            .build();
+
+    /** Permits for requests in flight, shared by all instances since they share the model */
+    private static final Semaphore IN_FLIGHT = new Semaphore(MAX_IN_FLIGHT);
+
+    private final String url;
+    private final HttpClient client;
+    private final Semaphore inFlight;
+    private final Duration requestTimeout;
+
+    public AIUtils() {
+        this(serverUrl());
+    }
+
+    /**
+     * @param serverUrl The model server, such as {@code http://localhost:11434}
+     */
+    public AIUtils(String serverUrl) {
+        this(serverUrl + "/api/generate", CLIENT, IN_FLIGHT, REQUEST_TIMEOUT);
+    }
+
+    /**
+     * @param url The generate endpoint
+     */
+    AIUtils(String url, HttpClient client, Semaphore inFlight, Duration requestTimeout) {
+        this.url = url;
+        this.client = client;
+        this.inFlight = inFlight;
+        this.requestTimeout = requestTimeout;
+    }
+
+    /**
+     * Finds the model server: the {@code ollama.host} system property if set, else the
+     * {@code OLLAMA_HOST} environment variable Ollama itself reads, else
+     * {@link #DEFAULT_SERVER_URL}. Like Ollama, a value without a scheme means http and one
+     * without a port means 11434.
+     *
+     * @return the server's base URL, without a trailing slash
+     */
+    public static String serverUrl() {
+        String configured = System.getProperty("ollama.host");
+        if (configured == null || configured.isBlank()) {
+            configured = System.getenv("OLLAMA_HOST");
+        }
+        return configured == null || configured.isBlank() ? DEFAULT_SERVER_URL : normalizeServerUrl(configured);
+    }
+
+    static String normalizeServerUrl(String host) {
+        String url = host.strip();
+        while (url.endsWith("/")) {
+            url = url.substring(0, url.length() - 1);
+        }
+        if (!url.contains("://")) {
+            url = "http://" + url;
+            if (URI.create(url).getPort() < 0) {
+                url += ":" + DEFAULT_PORT;
+            }
+        }
+        return url;
+    }
+
+    /**
+     * @return the HTTP client shared by everything that talks to the local model server
+     */
+    static HttpClient sharedClient() {
+        return CLIENT;
+    }
+
+    /**
+     * @return the permits for requests in flight, shared by every backend since they share the model
+     */
+    static Semaphore sharedInFlight() {
+        return IN_FLIGHT;
+    }
+
+    /**
+     * Blocking variant of {@link #getResponseAsync}.
+     *
+     * @return the model's reply, or null if the request failed
+     */
+    public String getResponse(Prompt prompt) {
+        try {
+            return getResponseAsync(prompt).join();
+        } catch (Exception e) {
+            System.out.println(e);
+        }
+        return null;
+    }
+
+    /**
+     * Sends {@code prompt} to the model without blocking.
+     *
+     * @return a future of the model's reply. It fails with {@link RejectedExecutionException} if
+     * too many requests are already in flight, and with an {@link java.net.http.HttpTimeoutException}
+     * if the model does not answer in time. Cancelling it aborts the request.
+     */
+    public CompletableFuture<String> getResponseAsync(Prompt prompt) {
+        return send(url, prompt, false, new CompletableFuture<>(), HttpResponse.BodyHandlers.ofString(), (resp, reply) -> {
+            if (resp.statusCode() != 200) {
+                throw new IOException("Model server answered HTTP " + resp.statusCode() + ": " + resp.body());
+            }
+            reply.complete(extractContentFromJson(resp.body()));
+        }, () -> {
+        });
+    }
+
+    /**
+     * Sends {@code prompt} with streaming enabled and passes each fragment of the answer to
+     * {@code onFragment} as it arrives. Fragments are delivered in order on a client thread;
+     * the body is decoded line by line and never buffered as a whole.
+     *
+     * @return a future of the complete answer, with the same failure and cancellation
+     * behaviour as {@link #getResponseAsync}
+     */
+    public CompletableFuture<String> streamResponseAsync(Prompt prompt, Consumer<String> onFragment) {
+        return stream(url, prompt, node -> node.path("response").asText(), (answer, last) -> answer, onFragment);
+    }
+
+    /**
+     * Sends a conversation to the chat API with streaming enabled and passes each fragment of
+     * the answer to {@code onFragment} as it arrives, like {@link #streamResponseAsync}.
+     *
+     * @return a future of the complete answer with its token counts, with the same failure and
+     * cancellation behaviour as {@link #getResponseAsync}
+     */
+    @Override
+    public CompletableFuture<ChatReply> streamChatAsync(ChatPrompt prompt, Consumer<String> onFragment) {
+        return stream(chatUrl(), prompt, node -> node.path("message").path("content").asText(), AIUtils::chatReply, onFragment);
+    }
+
+    private static ChatReply chatReply(String content, JsonNode last) {
+        if (last == null) {
+            return new ChatReply(content, 0, 0, 0, 0);
+        }
+        return new ChatReply(content, last.path("prompt_eval_count").asInt(), last.path("eval_count").asInt(),
+                last.path("prompt_eval_duration").asLong() / 1_000_000, last.path("total_duration").asLong() / 1_000_000);
+    }
+
+    /**
+     * @return the chat endpoint next to the generate endpoint
+     */
+    String chatUrl() {
+        return URI.create(url).resolve("chat").toString();
+    }
+
+    private <R> CompletableFuture<R> stream(String endpoint, Object prompt, Function<JsonNode, String> fragmentOf,
+                                            BiFunction<String, JsonNode, R> result, Consumer<String> onFragment) {
+        CompletableFuture<R> reply = new CompletableFuture<>();
+        NdjsonSubscriber<R> lines = new NdjsonSubscriber<>(reply, fragmentOf, result, onFragment);
+        HttpResponse.BodyHandler<Void> handler = info -> {
+            lines.statusCode = info.statusCode();
+            return HttpResponse.BodySubscribers.fromLineSubscriber(lines);
+        };
+        return send(endpoint, prompt, true, reply, handler, (resp, done) -> lines.finish(), lines::cancel);
+    }
+
+    /**
+     * Sends {@code prompt} under the in-flight limit and completes {@code reply} through
+     * {@code finish} once the exchange is over.
+     *
+     * @param onCancel Runs when the returned future is cancelled
+     * @return a future completed like {@code reply} once the permit is released; cancelling it
+     * aborts the request
+     */
+    private <T, R> CompletableFuture<R> send(String endpoint, Object prompt, boolean stream, CompletableFuture<R> reply,
+                                             HttpResponse.BodyHandler<T> handler, ResponseFinisher<T, R> finish,
+                                             Runnable onCancel) {
+        HttpRequest req;
         try {
-            HttpRequest req = HttpRequest.newBuilder()
-                    .uri(URI.create(url))
+            ObjectNode body = MAPPER.valueToTree(prompt);
+            body.put("stream", stream);
+            req = HttpRequest.newBuilder()
+                    .uri(URI.create(endpoint))
+                    .timeout(requestTimeout)
                     .header("Content-Type", "application/json")
-                    .POST(HttpRequest.BodyPublishers.ofString(mapper.writeValueAsString(prompt)))
+                    .POST(HttpRequest.BodyPublishers.ofString(MAPPER.writeValueAsString(body)))
                     .build();
+        } catch (Exception e) {
+            reply.completeExceptionally(e);
+            return reply;
+        }
+        if (!inFlight.tryAcquire()) {
+            reply.completeExceptionally(new RejectedExecutionException("Still waiting for earlier answers"));
+            return reply;
+        }
 
-            HttpClient client = HttpClient.newHttpClient();
-            HttpResponse<String> resp = client.send(req, HttpResponse.BodyHandlers.ofString());
-            return extractContentFromJson(resp.body());
-//            return resp.body();
-        }catch (Exception e){
-            System.out.println(e);
+        AtomicBoolean released = new AtomicBoolean();
+        Runnable release = () -> {
+            if (released.compareAndSet(false, true)) {
+                inFlight.release();
+            }
+        };
+        CompletableFuture<HttpResponse<T>> exchange;
+        try {
+            exchange = client.sendAsync(req, handler);
+        } catch (RuntimeException e) {
+            release.run();
+            reply.completeExceptionally(e);
+            return reply;
+        }
+
+        exchange.whenComplete((resp, error) -> {
+            if (error != null) {
+                reply.completeExceptionally(error instanceof CompletionException ? error.getCause() : error);
+                return;
+            }
+            try {
+                finish.finish(resp, reply);
+            } catch (Exception e) {
+                reply.completeExceptionally(e);
+            }
+        });
+        exchange.whenComplete((resp, error) -> release.run());
+        // A streamed reply completes on its final line, before the exchange does; the permit is
+        // released first so a caller may send its next request as soon as it has the answer
+        CompletableFuture<R> result = new CompletableFuture<>();
+        reply.whenComplete((value, error) -> {
+            release.run();
+            if (error != null) {
+                result.completeExceptionally(error);
+            } else {
+                result.complete(value);
+            }
+        });
+        result.whenComplete((value, error) -> {
+            if (result.isCancelled()) {
+                reply.cancel(true);
+                onCancel.run();
+                exchange.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    private interface ResponseFinisher<T, R> {
+        void finish(HttpResponse<T> resp, CompletableFuture<R> reply) throws Exception;
+    }
+
+    /**
+     * Decodes an Ollama NDJSON stream line by line, forwarding each answer fragment and
+     * collecting the whole answer for the reply.
+     */
+    private static final class NdjsonSubscriber<R> implements Flow.Subscriber<String> {
+        private final CompletableFuture<R> reply;
+        private final Function<JsonNode, String> fragmentOf;
+        private final BiFunction<String, JsonNode, R> result;
+        private final Consumer<String> onFragment;
+        private final StringBuilder answer = new StringBuilder();
+        private volatile int statusCode;
+        private volatile Flow.Subscription subscription;
+
+        /**
+         * @param fragmentOf Extracts the answer fragment from a line
+         * @param result     Makes the reply from the whole answer and the final line (null if
+         *                   the body ended without one)
+         */
+        private NdjsonSubscriber(CompletableFuture<R> reply, Function<JsonNode, String> fragmentOf,
+                                 BiFunction<String, JsonNode, R> result, Consumer<String> onFragment) {
+            this.reply = reply;
+            this.fragmentOf = fragmentOf;
+            this.result = result;
+            this.onFragment = onFragment;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(String line) {
+            if (line.isBlank() || reply.isDone()) {
+                return;
+            }
+            if (statusCode != 200) {
+                answer.append(line); // an error body, reported by finish()
+                return;
+            }
+            try {
+                JsonNode node = MAPPER.readTree(line);
+                if (node.has("error")) {
+                    throw new IOException("Model server error: " + node.path("error").asText());
+                }
+                String fragment = fragmentOf.apply(node);
+                if (!fragment.isEmpty()) {
+                    answer.append(fragment);
+                    onFragment.accept(fragment);
+                }
+                if (node.path("done").asBoolean()) {
+                    reply.complete(result.apply(answer.toString(), node));
+                }
+            } catch (Exception e) {
+                reply.completeExceptionally(e);
+                cancel();
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            // The exchange future fails with the same error
+        }
+
+        @Override
+        public void onComplete() {
+            // finish() runs once the exchange future completes
+        }
+
+        /**
+         * Completes the reply when the body ended without a final {@code done} line.
+         */
+        void finish() throws IOException {
+            if (statusCode != 200) {
+                throw new IOException("Model server answered HTTP " + statusCode + ": " + answer);
+            }
+            reply.complete(result.apply(answer.toString(), null));
+        }
+
+        void cancel() {
+            Flow.Subscription current = subscription;
+            if (current != null) {
+                current.cancel();
+            }
         }
-        return null;
     }
 
     public String extractContentFromJson(String json) throws Exception {
-        ObjectMapper mapper = new ObjectMapper();
-        JsonNode root = mapper.readTree(json);
+        JsonNode root = MAPPER.readTree(json);
         return root.path("response").asText();
     }
+
+    private static ExecutorService newExecutor() {
+        AtomicInteger count = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(4, 4, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "ai-client-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
 }
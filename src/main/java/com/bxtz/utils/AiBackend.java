@@ -0,0 +1,59 @@
+package com.bxtz.utils;
+
+import com.bxtz.entity.ChatPrompt;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * Answers a conversation with the AI model, streaming the answer as it is written.
+ * <p>
+ * {@link AIUtils} talks to Ollama's HTTP API itself; {@link SpringAiBackend} goes through Spring
+ * AI's {@code ChatClient}. Both share the limit on requests in flight and the server found by
+ * {@link AIUtils#serverUrl()}, and fail, time out and cancel the same way, so either can serve
+ * the Analysis page and both can be measured against the same server.
+ */
+public interface AiBackend {
+
+    /** System property choosing the backend: {@code http} (the default) or {@code spring} */
+    String PROPERTY = "ai.backend";
+
+    /**
+     * Token counts and timings the model server reports at the end of a chat answer.
+     *
+     * @param content          The whole answer
+     * @param promptTokens     Prompt tokens the model evaluated; a prefix it still had cached
+     *                         from the previous turn is not counted again
+     * @param answerTokens     Tokens generated
+     * @param promptMillis     Time spent evaluating the prompt
+     * @param totalMillis      Time the server spent on the request, including loading the model
+     */
+    record ChatReply(String content, int promptTokens, int answerTokens, long promptMillis, long totalMillis) {
+    }
+
+    /**
+     * Sends a conversation and passes each fragment of the answer to {@code onFragment} as it
+     * arrives, in order and from one thread at a time.
+     *
+     * @return a future of the complete answer with its token counts. It fails with
+     * {@link java.util.concurrent.RejectedExecutionException} if too many requests are already
+     * in flight, and with {@link java.net.http.HttpTimeoutException} if the model does not
+     * answer in time. Cancelling it stops the generation.
+     */
+    CompletableFuture<ChatReply> streamChatAsync(ChatPrompt prompt, Consumer<String> onFragment);
+
+    /**
+     * @return the backend named by the {@value #PROPERTY} system property, talking to the
+     * configured server
+     */
+    static AiBackend configured() {
+        String name = System.getProperty(PROPERTY, "http");
+        if (name.equalsIgnoreCase("spring")) {
+            return new SpringAiBackend();
+        }
+        if (!name.equalsIgnoreCase("http")) {
+            System.out.println("Unknown " + PROPERTY + " '" + name + "', using http");
+        }
+        return new AIUtils();
+    }
+}
@@ -0,0 +1,310 @@
+package com.bxtz.utils;
+
+import com.bxtz.Bill;
+import com.bxtz.BillStore;
+import com.bxtz.entity.Prompt;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import javafx.application.Platform;
+import javafx.concurrent.Task;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Background task that asks the AI model for the category of uncategorised bills.
+ * <p>
+ * Bills without a category or filed under "Others" are snapshotted when the task is created
+ * (on the FX thread) and grouped by merchant name, since a merchant almost always belongs to one
+ * category. Merchants already in the shared memo are filled in without asking the model; the
+ * rest are sent in batches of {@link #BATCH_SIZE} numbered lines per prompt, and the model
+ * answers with one JSON object mapping line numbers to categories. Each answer is remembered
+ * in the memo, so a merchant is never sent twice, and applied to its bills on the FX thread as
+ * soon as its batch is done, so the table and charts update while the task runs. On a
+ * {@link BillStore} the answers of a batch are applied in one pass over the rows, through
+ * {@link BillStore#set}, since row numbers may change while the task runs.
+ * <p>
+ * A bill the user has categorised in the meantime is left alone. The task's value is the
+ * number of bills that got a category.
+ */
+public class CategorizeTask extends Task<Integer> {
+
+    /** Categories the model may choose from; the ones the add dialog offers */
+    public static final List<String> CATEGORIES = List.of("Food", "Shopping", "Entertainment", "Others");
+
+    static final int BATCH_SIZE = 40;
+
+    private static final String UNCATEGORIZED = "Others";
+    private static final long BUSY_RETRY_MILLIS = 500;
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    /** Number of bills to categorise per merchant name, in first-seen order */
+    private final Map<String, Integer> byMerchant = new LinkedHashMap<>();
+    /** One example of what was bought at each merchant, to help the model */
+    private final Map<String, String> examples = new LinkedHashMap<>();
+    private final Map<String, String> memo;
+    private final Function<Prompt, CompletableFuture<String>> model;
+    private int bills;
+    /** Sets the categories found for merchant names; runs on the FX thread */
+    private Consumer<Map<String, String>> applier;
+    private volatile CompletableFuture<String> pending;
+
+    /**
+     * @param bills The ledger; uncategorised bills are picked out immediately, call on the FX thread
+     * @param memo  Categories already known per merchant name; updated as answers arrive and
+     *              shared between runs, so it must be thread-safe
+     * @param model Sends a prompt to the model, normally {@code new AIUtils()::getResponseAsync}
+     */
+    public CategorizeTask(List<Bill> bills, Map<String, String> memo, Function<Prompt, CompletableFuture<String>> model) {
+        this(memo, model);
+        Map<String, List<Bill>> merchantBills = new LinkedHashMap<>();
+        for (Bill bill : bills) {
+            if (needsCategory(bill.getType())) {
+                add(bill.getName(), bill.getDetails());
+                merchantBills.computeIfAbsent(merchant(bill.getName()), k -> new ArrayList<>()).add(bill);
+            }
+        }
+        applier = categories -> categories.forEach((name, category) -> {
+            for (Bill bill : merchantBills.getOrDefault(name, List.of())) {
+                if (needsCategory(bill.getType())) {
+                    bill.setType(category);
+                }
+            }
+        });
+    }
+
+    /**
+     * @param ledger The ledger; uncategorised bills are counted immediately, call on the FX thread
+     * @param memo   As for {@link #CategorizeTask(List, Map, Function)}
+     * @param model  As for {@link #CategorizeTask(List, Map, Function)}
+     */
+    public CategorizeTask(BillStore ledger, Map<String, String> memo, Function<Prompt, CompletableFuture<String>> model) {
+        this(memo, model);
+        for (int row = 0; row < ledger.size(); row++) {
+            if (needsCategory(type(ledger, row))) {
+                add(ledger.name(row), ledger.details(row));
+            }
+        }
+        applier = categories -> {
+            for (int row = 0; row < ledger.size(); row++) {
+                String category = categories.get(merchant(ledger.name(row)));
+                if (category != null && needsCategory(type(ledger, row))) {
+                    Bill bill = ledger.bill(row);
+                    bill.setType(category);
+                    ledger.set(row, bill);
+                }
+            }
+        };
+    }
+
+    private CategorizeTask(Map<String, String> memo, Function<Prompt, CompletableFuture<String>> model) {
+        this.memo = memo;
+        this.model = model;
+    }
+
+    private void add(String name, String details) {
+        String merchant = merchant(name);
+        byMerchant.merge(merchant, 1, Integer::sum);
+        examples.putIfAbsent(merchant, details == null ? "" : details.strip());
+        bills++;
+    }
+
+    private static String merchant(String name) {
+        return name == null ? "" : name.strip();
+    }
+
+    private static String type(BillStore ledger, int row) {
+        int type = ledger.typeId(row);
+        return type < 0 ? null : Bill.TYPES.valueOf(type);
+    }
+
+    /**
+     * @return the number of bills the task will try to categorise
+     */
+    public int billCount() {
+        return bills;
+    }
+
+    @Override
+    protected Integer call() throws Exception {
+        long start = System.nanoTime();
+        int merchants = byMerchant.size();
+        int done = 0;
+        int categorised = 0;
+        List<String> batch = new ArrayList<>();
+        Map<String, String> found = new LinkedHashMap<>();
+        updateProgress(0, merchants);
+
+        for (Iterator<String> it = byMerchant.keySet().iterator(); it.hasNext() || !batch.isEmpty(); ) {
+            if (isCancelled()) {
+                break;
+            }
+            if (it.hasNext()) {
+                String name = it.next();
+                String known = memo.get(name);
+                if (known != null) {
+                    categorised += found(found, name, known);
+                    done++;
+                } else {
+                    batch.add(name);
+                }
+                if (batch.size() < BATCH_SIZE && it.hasNext()) {
+                    continue;
+                }
+            }
+            if (!batch.isEmpty()) {
+                Map<String, String> answers = ask(batch);
+                if (answers == null) {
+                    break; // cancelled
+                }
+                for (Map.Entry<String, String> answer : answers.entrySet()) {
+                    memo.put(answer.getKey(), answer.getValue());
+                    categorised += found(found, answer.getKey(), answer.getValue());
+                }
+                done += batch.size();
+                batch.clear();
+            }
+            apply(found);
+            double seconds = Math.max(1e-9, (System.nanoTime() - start) / 1e9);
+            updateProgress(done, merchants);
+            updateMessage(String.format("%,d / %,d merchants, %,d bills categorised (%,.1f merchants/s)",
+                    done, merchants, categorised, done / seconds));
+        }
+        apply(found);
+        return categorised;
+    }
+
+    @Override
+    protected void cancelled() {
+        CompletableFuture<String> current = pending;
+        if (current != null) {
+            current.cancel(true);
+        }
+    }
+
+    /**
+     * Asks the model for the categories of {@code names}, waiting while the model is busy with
+     * other requests.
+     *
+     * @return the valid answers by merchant name, or null if the task was cancelled
+     */
+    private Map<String, String> ask(List<String> names) throws Exception {
+        Prompt prompt = new Prompt();
+        prompt.setFormat("json");
+        prompt.setPrompt(buildPrompt(names));
+        while (true) {
+            CompletableFuture<String> reply = model.apply(prompt);
+            pending = reply;
+            try {
+                return parseAnswer(reply.get(), names);
+            } catch (ExecutionException e) {
+                if (!(e.getCause() instanceof RejectedExecutionException)) {
+                    throw e;
+                }
+            } catch (CancellationException | InterruptedException e) {
+                if (isCancelled()) {
+                    return null;
+                }
+                throw e;
+            }
+            Thread.sleep(BUSY_RETRY_MILLIS);
+        }
+    }
+
+    String buildPrompt(List<String> names) {
+        StringBuilder prompt = new StringBuilder("Classify each merchant below into exactly one of these categories: ")
+                .append(String.join(", ", CATEGORIES))
+                .append(". Each line is \"number. merchant - what was bought\". Answer with only a JSON object that")
+                .append(" maps every line number to its category, for example {\"1\": \"Food\", \"2\": \"Others\"}.\n");
+        for (int i = 0; i < names.size(); i++) {
+            String name = names.get(i);
+            prompt.append(i + 1).append(". ").append(name.isEmpty() ? "(no name)" : name);
+            String example = examples.get(name);
+            if (example != null && !example.isEmpty()) {
+                prompt.append(" - ").append(example);
+            }
+            prompt.append('\n');
+        }
+        return prompt.toString();
+    }
+
+    /**
+     * Reads the model's JSON answer. Lines with a missing or unknown category are left out,
+     * so those merchants are asked again next time.
+     */
+    static Map<String, String> parseAnswer(String answer, List<String> names) {
+        Map<String, String> result = new LinkedHashMap<>();
+        int open = answer == null ? -1 : answer.indexOf('{');
+        int close = answer == null ? -1 : answer.lastIndexOf('}');
+        if (open < 0 || close < open) {
+            return result;
+        }
+        JsonNode root;
+        try {
+            root = MAPPER.readTree(answer.substring(open, close + 1));
+        } catch (Exception e) {
+            return result;
+        }
+        for (int i = 0; i < names.size(); i++) {
+            JsonNode n = root.get(String.valueOf(i + 1));
+            String category = canonical(n != null && n.isTextual() ? n.textValue() : null);
+            if (category != null) {
+                result.put(names.get(i), category);
+            }
+        }
+        return result;
+    }
+
+    private static String canonical(String category) {
+        if (category == null) {
+            return null;
+        }
+        String value = category.strip().toLowerCase(Locale.ROOT);
+        for (String known : CATEGORIES) {
+            if (known.toLowerCase(Locale.ROOT).equals(value)) {
+                return known;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Adds the merchant's category to those to apply next.
+     *
+     * @return the number of bills that will get a real category
+     */
+    private int found(Map<String, String> found, String name, String category) {
+        Integer count = byMerchant.get(name);
+        if (count == null || UNCATEGORIZED.equals(category)) {
+            return 0;
+        }
+        found.put(name, category);
+        return count;
+    }
+
+    /**
+     * Sets the categories in {@code found} on the FX thread and clears it.
+     */
+    private void apply(Map<String, String> found) {
+        if (found.isEmpty()) {
+            return;
+        }
+        Map<String, String> categories = Map.copyOf(found);
+        found.clear();
+        Platform.runLater(() -> applier.accept(categories));
+    }
+
+    private static boolean needsCategory(String type) {
+        return type == null || type.isBlank() || UNCATEGORIZED.equals(type);
+    }
+}
@@ -0,0 +1,416 @@
+package com.bxtz.utils;
+
+import com.bxtz.Bill;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Categorises bills locally from keyword and regular-expression rules on their name and details.
+ * <p>
+ * Rules are tried in order and the first one that matches decides the category. Instead of
+ * testing every rule against every bill, all keywords are compiled into one case-insensitive
+ * Aho-Corasick automaton, which finds every keyword in a field in a single pass over its
+ * characters. Each automaton state knows the first (lowest-numbered) rule among the keywords
+ * ending there, so a pass yields the best keyword rule directly. Regular expressions are
+ * filtered through the same automaton: the longest literal a pattern requires is added as a
+ * trigger, and the pattern itself only runs on fields where its trigger was seen and only if
+ * it comes before the best keyword match. Patterns with no usable literal always run.
+ * <p>
+ * Rule files have one rule per line, {@code category = pattern}. The pattern is a keyword,
+ * optionally prefixed with {@code name:} or {@code details:} to limit it to one field and
+ * with {@code re:} to make it a regular expression, as in {@code Food = name:re:^kfc\b}.
+ * Blank lines and lines starting with {@code #} are ignored.
+ * <p>
+ * A compiled instance is immutable and may be used from any number of threads.
+ */
+public class CategoryRules {
+
+    /** Rules that ship with the application, used after the user's own */
+    private static final String DEFAULT_RULES = "/category-rules.txt";
+    private static final Path USER_RULES = Path.of(System.getProperty("user.home"), ".bills-manager", "category-rules.txt");
+
+    private static final int NONE = Integer.MAX_VALUE;
+    private static final int[] NO_TRIGGERS = new int[0];
+    private static final String UNCATEGORIZED = "Others";
+
+    public enum Field {
+        NAME, DETAILS, ANY
+    }
+
+    /**
+     * One rule: bills whose {@code field} contains {@code pattern} (or matches it, for a
+     * regular expression) belong to {@code category}.
+     */
+    public record Rule(String category, Field field, String pattern, boolean regex) {
+    }
+
+    private final List<Rule> rules;
+    private final Pattern[] patterns; // per rule, null for keywords
+    private final int[] alwaysRun;    // regex rules without a trigger literal
+
+    // The automaton. Node 0 is the root; the children of node n are labels[n] (sorted) and next[n].
+    private final char[][] labels;
+    private final int[][] next;
+    private final int[] fail;
+    private final int[] bestName;     // first keyword rule on a name ending at the node, or NONE
+    private final int[] bestDetails;
+    private final int[][] triggers;   // regex rules whose trigger ends at the node
+    private final int[] rootNext;     // dense root transitions for ASCII
+
+    public CategoryRules(List<Rule> rules) {
+        this.rules = List.copyOf(rules);
+        this.patterns = new Pattern[rules.size()];
+
+        List<TreeMap<Character, Integer>> children = new ArrayList<>();
+        List<int[]> keywordRules = new ArrayList<>();   // per node: {first name rule, first details rule}
+        List<List<Integer>> triggerRules = new ArrayList<>();
+        addNode(children, keywordRules, triggerRules);
+        List<Integer> untriggered = new ArrayList<>();
+
+        for (int r = 0; r < rules.size(); r++) {
+            Rule rule = rules.get(r);
+            if (rule.regex()) {
+                patterns[r] = Pattern.compile(rule.pattern(), Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+                String literal = requiredLiteral(rule.pattern());
+                if (literal == null) {
+                    untriggered.add(r);
+                } else {
+                    triggerRules.get(insert(literal, children, keywordRules, triggerRules)).add(r);
+                }
+            } else if (!rule.pattern().isEmpty()) {
+                int[] best = keywordRules.get(insert(rule.pattern(), children, keywordRules, triggerRules));
+                if (rule.field() != Field.DETAILS) {
+                    best[0] = Math.min(best[0], r);
+                }
+                if (rule.field() != Field.NAME) {
+                    best[1] = Math.min(best[1], r);
+                }
+            }
+        }
+        alwaysRun = untriggered.stream().mapToInt(Integer::intValue).toArray();
+
+        int nodes = children.size();
+        labels = new char[nodes][];
+        next = new int[nodes][];
+        fail = new int[nodes];
+        bestName = new int[nodes];
+        bestDetails = new int[nodes];
+        triggers = new int[nodes][];
+        for (int n = 0; n < nodes; n++) {
+            TreeMap<Character, Integer> map = children.get(n);
+            labels[n] = new char[map.size()];
+            next[n] = new int[map.size()];
+            int i = 0;
+            for (var child : map.entrySet()) {
+                labels[n][i] = child.getKey();
+                next[n][i++] = child.getValue();
+            }
+        }
+
+        // Breadth-first, so the failure target of a node is complete before the node itself
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        queue.add(0);
+        while (!queue.isEmpty()) {
+            int node = queue.poll();
+            int[] own = keywordRules.get(node);
+            int[] inherited = node == 0 ? new int[]{NONE, NONE} : new int[]{bestName[fail[node]], bestDetails[fail[node]]};
+            bestName[node] = Math.min(own[0], inherited[0]);
+            bestDetails[node] = Math.min(own[1], inherited[1]);
+            List<Integer> ownTriggers = triggerRules.get(node);
+            int[] tail = node == 0 ? NO_TRIGGERS : triggers[fail[node]];
+            triggers[node] = ownTriggers.isEmpty() ? tail : concat(ownTriggers, tail);
+
+            for (int i = 0; i < labels[node].length; i++) {
+                int child = next[node][i];
+                fail[child] = node == 0 ? 0 : step(fail[node], labels[node][i]);
+                queue.add(child);
+            }
+        }
+
+        rootNext = new int[128];
+        for (int i = 0; i < labels[0].length; i++) {
+            if (labels[0][i] < 128) {
+                rootNext[labels[0][i]] = next[0][i];
+            }
+        }
+    }
+
+    /**
+     * Loads the user's rules from {@code ~/.bills-manager/category-rules.txt}, if present,
+     * followed by the built-in ones. A broken user file is reported and skipped.
+     */
+    public static CategoryRules loadDefault() {
+        List<Rule> rules = new ArrayList<>();
+        if (Files.isRegularFile(USER_RULES)) {
+            try (Reader reader = Files.newBufferedReader(USER_RULES, StandardCharsets.UTF_8)) {
+                rules.addAll(parse(reader));
+            } catch (IOException | IllegalArgumentException e) {
+                System.out.println("Ignoring " + USER_RULES + ": " + e.getMessage());
+            }
+        }
+        try (InputStream in = CategoryRules.class.getResourceAsStream(DEFAULT_RULES)) {
+            if (in != null) {
+                rules.addAll(parse(new InputStreamReader(in, StandardCharsets.UTF_8)));
+            }
+        } catch (IOException e) {
+            System.out.println(e);
+        }
+        return new CategoryRules(rules);
+    }
+
+    /**
+     * Compiles rules written in the rule file format.
+     */
+    public static CategoryRules of(String text) {
+        try {
+            return new CategoryRules(parse(new StringReader(text)));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Reads rules in the rule file format.
+     *
+     * @throws IllegalArgumentException on a malformed line or regular expression
+     */
+    public static List<Rule> parse(Reader reader) throws IOException {
+        List<Rule> rules = new ArrayList<>();
+        BufferedReader lines = new BufferedReader(reader);
+        int number = 0;
+        for (String line = lines.readLine(); line != null; line = lines.readLine()) {
+            number++;
+            String text = line.strip();
+            if (text.isEmpty() || text.startsWith("#")) {
+                continue;
+            }
+            int eq = text.indexOf('=');
+            if (eq <= 0 || eq == text.length() - 1) {
+                throw new IllegalArgumentException("Line " + number + ": expected 'category = pattern'");
+            }
+            String category = text.substring(0, eq).strip();
+            String spec = text.substring(eq + 1).strip();
+            Field field = Field.ANY;
+            if (spec.startsWith("name:")) {
+                field = Field.NAME;
+                spec = spec.substring(5);
+            } else if (spec.startsWith("details:")) {
+                field = Field.DETAILS;
+                spec = spec.substring(8);
+            }
+            boolean regex = spec.startsWith("re:");
+            if (regex) {
+                spec = spec.substring(3);
+                try {
+                    Pattern.compile(spec);
+                } catch (PatternSyntaxException e) {
+                    throw new IllegalArgumentException("Line " + number + ": " + e.getDescription());
+                }
+            }
+            rules.add(new Rule(category, field, regex ? spec : spec.toLowerCase(Locale.ROOT), regex));
+        }
+        return rules;
+    }
+
+    public int size() {
+        return rules.size();
+    }
+
+    /**
+     * @return the category of the first rule matching {@code name} or {@code details}, or null
+     */
+    public String categorize(String name, String details) {
+        Triggered triggered = patterns.length == 0 ? null : new Triggered();
+        int best = NONE;
+        if (name != null) {
+            best = scan(name, bestName, triggered);
+        }
+        if (details != null) {
+            best = Math.min(best, scan(details, bestDetails, triggered));
+        }
+        if (triggered != null) {
+            best = firstRegex(best, name, details, triggered);
+        }
+        return best == NONE ? null : rules.get(best).category();
+    }
+
+    /**
+     * Gives every bill without a category (or filed under "Others") the category of the first
+     * rule it matches.
+     *
+     * @return the number of bills that were categorised
+     */
+    public int apply(List<Bill> bills) {
+        int count = 0;
+        for (Bill bill : bills) {
+            String type = bill.getType();
+            if (type == null || type.isBlank() || UNCATEGORIZED.equals(type)) {
+                String category = categorize(bill.getName(), bill.getDetails());
+                if (category != null && !category.equals(type)) {
+                    bill.setType(category);
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Runs the automaton over {@code text}, collecting regex triggers into {@code triggered}.
+     *
+     * @return the first keyword rule found through {@code best}, or NONE
+     */
+    private int scan(String text, int[] best, Triggered triggered) {
+        int node = 0;
+        int found = NONE;
+        for (int i = 0; i < text.length(); i++) {
+            char c = Character.toLowerCase(text.charAt(i));
+            node = node == 0 && c < 128 ? rootNext[c] : step(node, c);
+            found = Math.min(found, best[node]);
+            if (triggered != null && triggers[node].length > 0) {
+                triggered.add(triggers[node]);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @return the first regex rule before {@code best} that matches, or {@code best}
+     */
+    private int firstRegex(int best, String name, String details, Triggered triggered) {
+        triggered.add(alwaysRun);
+        int[] candidates = Arrays.copyOf(triggered.rules, triggered.size);
+        Arrays.sort(candidates);
+        for (int r : candidates) {
+            if (r >= best) {
+                break;
+            }
+            Field field = rules.get(r).field();
+            if (field != Field.DETAILS && name != null && patterns[r].matcher(name).find()
+                    || field != Field.NAME && details != null && patterns[r].matcher(details).find()) {
+                return r;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Regex rules whose trigger was seen during one call of {@link #categorize}.
+     */
+    private static final class Triggered {
+        int[] rules = NO_TRIGGERS;
+        int size;
+
+        void add(int[] more) {
+            if (size + more.length > rules.length) {
+                rules = Arrays.copyOf(rules, Math.max(8, 2 * (size + more.length)));
+            }
+            System.arraycopy(more, 0, rules, size, more.length);
+            size += more.length;
+        }
+    }
+
+    private int step(int node, char c) {
+        while (true) {
+            int i = Arrays.binarySearch(labels[node], c);
+            if (i >= 0) {
+                return next[node][i];
+            }
+            if (node == 0) {
+                return 0;
+            }
+            node = fail[node];
+        }
+    }
+
+    private static int addNode(List<TreeMap<Character, Integer>> children, List<int[]> keywordRules,
+                               List<List<Integer>> triggerRules) {
+        children.add(new TreeMap<>());
+        keywordRules.add(new int[]{NONE, NONE});
+        triggerRules.add(new ArrayList<>());
+        return children.size() - 1;
+    }
+
+    private static int insert(String word, List<TreeMap<Character, Integer>> children, List<int[]> keywordRules,
+                              List<List<Integer>> triggerRules) {
+        int node = 0;
+        for (int i = 0; i < word.length(); i++) {
+            char c = Character.toLowerCase(word.charAt(i));
+            Integer child = children.get(node).get(c);
+            if (child == null) {
+                child = addNode(children, keywordRules, triggerRules);
+                children.get(node).put(c, child);
+            }
+            node = child;
+        }
+        return node;
+    }
+
+    private static int[] concat(List<Integer> own, int[] tail) {
+        int[] all = Arrays.copyOf(own.stream().mapToInt(Integer::intValue).toArray(), own.size() + tail.length);
+        System.arraycopy(tail, 0, all, own.size(), tail.length);
+        return all;
+    }
+
+    /**
+     * Returns the longest run of literal characters that every match of {@code regex} must
+     * contain, lower-cased, or null if there is no run of at least two characters or the
+     * pattern is too complex to tell (alternation, flags, character class shorthands in the run).
+     */
+    static String requiredLiteral(String regex) {
+        if (regex.indexOf('|') >= 0 || regex.startsWith("(?")) {
+            return null;
+        }
+        String longest = "";
+        StringBuilder run = new StringBuilder();
+        int depth = 0;
+        for (int i = 0; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            char literal = 0;
+            if (c == '\\' && i + 1 < regex.length()) {
+                char escaped = regex.charAt(++i);
+                if (!Character.isLetterOrDigit(escaped)) {
+                    literal = escaped;
+                }
+            } else if (c == '[') {
+                int close = regex.indexOf(']', i + 2);
+                i = close < 0 ? regex.length() : close;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (".^$*+?{}".indexOf(c) < 0) {
+                literal = c;
+            }
+            boolean optionalNext = i + 1 < regex.length() && "?*{".indexOf(regex.charAt(i + 1)) >= 0;
+            if (literal != 0 && depth == 0 && !optionalNext) {
+                run.append(Character.toLowerCase(literal));
+            } else {
+                if (run.length() > longest.length()) {
+                    longest = run.toString();
+                }
+                run.setLength(0);
+            }
+        }
+        if (run.length() > longest.length()) {
+            longest = run.toString();
+        }
+        return longest.length() >= 2 ? longest : null;
+    }
+}
@@ -0,0 +1,176 @@
+package com.bxtz.utils;
+
+import com.bxtz.entity.ChatMessage;
+import com.bxtz.entity.ChatPrompt;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A conversation with the AI model on Ollama's chat API.
+ * <p>
+ * Each request carries the ledger summary as its system message, the earlier questions and
+ * answers, and the new question with the bills related to it. The system message and the
+ * history only grow at the end from one turn to the next, so Ollama finds the previous prompt
+ * still in its cache and evaluates only the new turn; the summary is evaluated once per
+ * conversation rather than once per question. Related bills are sent with their question only
+ * and not kept in the history.
+ * <p>
+ * Requests are kept within a token budget (estimated with
+ * {@link PromptContextBuilder#estimateTokens}). When the history no longer fits, the oldest
+ * turns are dropped, and their questions are kept as a one-line note so the model still knows
+ * what was discussed. Turns once dropped stay dropped, which keeps the start of the prompt
+ * stable for the cache.
+ * <p>
+ * Instances are meant to be used from one thread.
+ */
+public class ChatSession {
+
+    /** Estimated tokens a request may use, leaving room for the answer in {@link #CONTEXT_WINDOW} */
+    public static final int DEFAULT_TOKEN_BUDGET = 3000;
+    /** Context window asked of the model; Ollama's default is smaller and would cut the summary */
+    public static final int CONTEXT_WINDOW = 4096;
+
+    static final int MAX_NOTE_TOKENS = 200;
+
+    /**
+     * A question and its answer, with what it cost.
+     *
+     * @param promptTokensSent Estimated tokens of the whole request
+     * @param reply            What the model reported
+     * @param firstWordsMillis Time from sending to the first fragment, or -1 if none arrived
+     * @param totalMillis      Time from sending to the complete answer
+     */
+    public record Turn(String question, String answer, int promptTokensSent, AiBackend.ChatReply reply,
+                       long firstWordsMillis, long totalMillis) {
+
+        /**
+         * @return a one-line summary of the turn's counters
+         */
+        public String describe() {
+            return String.format("%,d prompt tokens evaluated (~%,d sent), %,d answer tokens, first words %.1f s, %.1f s total",
+                    reply.promptTokens(), promptTokensSent, reply.answerTokens(),
+                    Math.max(0, firstWordsMillis) / 1000.0, totalMillis / 1000.0);
+        }
+    }
+
+    private final String model;
+    private final int tokenBudget;
+    private final List<Turn> turns = new ArrayList<>();
+    /** Turns before this index are no longer sent */
+    private int firstSent;
+
+    public ChatSession(String model) {
+        this(model, DEFAULT_TOKEN_BUDGET);
+    }
+
+    public ChatSession(String model, int tokenBudget) {
+        this.model = model;
+        this.tokenBudget = tokenBudget;
+    }
+
+    /**
+     * Builds the request for the next question. The turn is added to the history with
+     * {@link #record} once it is answered.
+     *
+     * @param system  The instruction and ledger summary
+     * @param related Bills related to the question, or an empty string
+     */
+    public ChatPrompt prepare(String system, String question, String related) {
+        String user = related.isEmpty() ? question : related + "\nQuestion: " + question;
+        int fixed = estimateTokens(system) + estimateTokens(user) + MAX_NOTE_TOKENS;
+        int history = 0;
+        for (int i = firstSent; i < turns.size(); i++) {
+            history += estimateTokens(turns.get(i).question()) + estimateTokens(turns.get(i).answer());
+        }
+        while (firstSent < turns.size() && fixed + history > tokenBudget) {
+            history -= estimateTokens(turns.get(firstSent).question()) + estimateTokens(turns.get(firstSent).answer());
+            firstSent++;
+        }
+
+        ChatPrompt prompt = new ChatPrompt();
+        prompt.setModel(model);
+        prompt.getOptions().put("num_ctx", CONTEXT_WINDOW);
+        List<ChatMessage> messages = prompt.getMessages();
+        messages.add(new ChatMessage("system", system));
+        if (firstSent > 0) {
+            messages.add(new ChatMessage("system", droppedNote()));
+        }
+        for (int i = firstSent; i < turns.size(); i++) {
+            messages.add(new ChatMessage("user", turns.get(i).question()));
+            messages.add(new ChatMessage("assistant", turns.get(i).answer()));
+        }
+        messages.add(new ChatMessage("user", user));
+        return prompt;
+    }
+
+    /**
+     * Adds an answered question to the history.
+     */
+    public void record(Turn turn) {
+        turns.add(turn);
+    }
+
+    /**
+     * @return the answered turns, oldest first, including those no longer sent
+     */
+    public List<Turn> turns() {
+        return List.copyOf(turns);
+    }
+
+    /**
+     * @return the number of turns that no longer fit and are only mentioned in a note
+     */
+    public int droppedTurns() {
+        return firstSent;
+    }
+
+    public boolean isEmpty() {
+        return turns.isEmpty();
+    }
+
+    /**
+     * Starts a new conversation.
+     */
+    public void clear() {
+        turns.clear();
+        firstSent = 0;
+    }
+
+    public String getModel() {
+        return model;
+    }
+
+    /**
+     * @return the estimated tokens of everything {@code prompt} sends
+     */
+    public static int estimateTokens(ChatPrompt prompt) {
+        int tokens = 0;
+        for (ChatMessage message : prompt.getMessages()) {
+            tokens += estimateTokens(message.getContent());
+        }
+        return tokens;
+    }
+
+    private static int estimateTokens(String text) {
+        return PromptContextBuilder.estimateTokens(text) + 4; // role and separators
+    }
+
+    /**
+     * @return the questions of the dropped turns, the most recent ones if they do not all fit
+     */
+    private String droppedNote() {
+        String prefix = "Earlier in this conversation the user asked: ";
+        int budget = MAX_NOTE_TOKENS - PromptContextBuilder.estimateTokens(prefix);
+        List<String> questions = new ArrayList<>();
+        for (int i = firstSent - 1; i >= 0; i--) {
+            String question = turns.get(i).question();
+            budget -= PromptContextBuilder.estimateTokens(question) + 1;
+            if (budget < 0) {
+                break;
+            }
+            questions.add(0, question);
+        }
+        return prefix + (questions.isEmpty() ? "(too long to repeat)" : String.join("; ", questions));
+    }
+}
@@ -0,0 +1,78 @@
+package com.bxtz.utils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Client for the local Ollama embed API. Many texts are embedded per request; the server and
+ * the HTTP client are the ones {@link AIUtils} uses.
+ */
+public class EmbeddingClient {
+
+    public static final String DEFAULT_MODEL = "nomic-embed-text";
+
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(60);
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final String url;
+    private final String model;
+    private final HttpClient client;
+
+    public EmbeddingClient() {
+        this(AIUtils.serverUrl() + "/api/embed", DEFAULT_MODEL, AIUtils.sharedClient());
+    }
+
+    EmbeddingClient(String url, String model, HttpClient client) {
+        this.url = url;
+        this.model = model;
+        this.client = client;
+    }
+
+    public String getModel() {
+        return model;
+    }
+
+    /**
+     * Embeds {@code texts}, blocking until the model has answered.
+     *
+     * @return one vector per text, in order
+     * @throws IOException if the request fails or the answer does not hold one vector per text
+     */
+    public float[][] embed(List<String> texts) throws IOException, InterruptedException {
+        ObjectNode body = MAPPER.createObjectNode();
+        body.put("model", model);
+        texts.forEach(body.putArray("input")::add);
+        HttpRequest req = HttpRequest.newBuilder()
+                .uri(URI.create(url))
+                .timeout(REQUEST_TIMEOUT)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(MAPPER.writeValueAsString(body)))
+                .build();
+        HttpResponse<String> resp = client.send(req, HttpResponse.BodyHandlers.ofString());
+        if (resp.statusCode() != 200) {
+            throw new IOException("Model server answered HTTP " + resp.statusCode() + ": " + resp.body());
+        }
+        JsonNode embeddings = MAPPER.readTree(resp.body()).path("embeddings");
+        if (embeddings.size() != texts.size()) {
+            throw new IOException("Expected " + texts.size() + " embeddings, got " + embeddings.size());
+        }
+        float[][] vectors = new float[texts.size()][];
+        for (int i = 0; i < vectors.length; i++) {
+            JsonNode values = embeddings.get(i);
+            vectors[i] = new float[values.size()];
+            for (int d = 0; d < vectors[i].length; d++) {
+                vectors[i][d] = (float) values.get(d).asDouble();
+            }
+        }
+        return vectors;
+    }
+}
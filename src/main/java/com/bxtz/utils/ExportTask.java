@@ -0,0 +1,151 @@
+package com.bxtz.utils;
+
+import com.bxtz.Bill;
+import com.bxtz.LedgerFile;
+import javafx.concurrent.Task;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+/**
+ * Background CSV export that keeps the UI responsive on large ledgers.
+ * <p>
+ * The bills are snapshotted when the task is created (on the FX thread), so edits made while
+ * the export runs do not race with the writer. Rows are written to a temporary file next to
+ * the target in batches, reporting progress and throughput after each batch. The temporary
+ * file is synced and then renamed over the target, so a cancelled or failed export never
+ * leaves a half-written CSV behind.
+ * <p>
+ * A target ending in {@value BillUtils#LEDGER_EXTENSION} is written in the binary
+ * {@link LedgerFile} format instead, the same way.
+ * <p>
+ * The task's value is the number of rows written.
+ */
+public class ExportTask extends Task<Integer> {
+
+    private static final int BATCH_SIZE = 10_000;
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final int COLUMNS = 5;
+
+    /** Row-major snapshot: the five columns of row {@code i} start at {@code i * COLUMNS}. */
+    private final String[] cells;
+    private final int rows;
+    private final File target;
+
+    /**
+     * @param bills  the bills to export; copied immediately, call on the FX thread
+     * @param target the CSV file to create or replace
+     */
+    public ExportTask(List<Bill> bills, File target) {
+        this.rows = bills.size();
+        this.cells = new String[rows * COLUMNS];
+        int i = 0;
+        for (Bill bill : bills) {
+            cells[i++] = bill.getDate();
+            cells[i++] = bill.getName();
+            cells[i++] = bill.getDetails();
+            cells[i++] = bill.getCost();
+            cells[i++] = bill.getType();
+        }
+        this.target = target;
+    }
+
+    @Override
+    protected Integer call() throws IOException {
+        Path destination = target.toPath().toAbsolutePath();
+        Path temp = Files.createTempFile(destination.getParent(), target.getName(), ".part");
+        boolean committed = false;
+        try {
+            int written = writeRows(temp);
+            if (written < rows) {
+                return written;
+            }
+            moveIntoPlace(temp, destination);
+            committed = true;
+            updateMessage(String.format("Exported %,d rows", rows));
+            return written;
+        } finally {
+            if (!committed) {
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+
+    /**
+     * Streams the snapshot into {@code temp}, returning fewer than {@link #rows} if cancelled.
+     */
+    private int writeRows(Path temp) throws IOException {
+        if (BillUtils.isLedgerFile(target)) {
+            return writeLedger(temp);
+        }
+        long start = System.nanoTime();
+        updateProgress(0, rows);
+        try (FileOutputStream out = new FileOutputStream(temp.toFile());
+             Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE)) {
+            for (int row = 0; row < rows; row += BATCH_SIZE) {
+                if (isCancelled()) {
+                    return row;
+                }
+                int batchEnd = Math.min(rows, row + BATCH_SIZE);
+                for (int r = row; r < batchEnd; r++) {
+                    int c = r * COLUMNS;
+                    BillUtils.writeRow(writer, cells[c], cells[c + 1], cells[c + 2], cells[c + 3], cells[c + 4]);
+                }
+                reportProgress(batchEnd, start);
+            }
+            writer.flush();
+            out.getFD().sync();
+        }
+        return isCancelled() ? -1 : rows;
+    }
+
+    /**
+     * Like {@link #writeRows}, in the ledger format. The cells are parsed back into bills here,
+     * off the FX thread; the writer syncs the file when it is finished.
+     */
+    private int writeLedger(Path temp) throws IOException {
+        long start = System.nanoTime();
+        updateProgress(0, rows);
+        try (LedgerFile.Writer writer = new LedgerFile.Writer(temp)) {
+            for (int row = 0; row < rows; row += BATCH_SIZE) {
+                if (isCancelled()) {
+                    return row;
+                }
+                int batchEnd = Math.min(rows, row + BATCH_SIZE);
+                for (int r = row; r < batchEnd; r++) {
+                    int c = r * COLUMNS;
+                    writer.add(new Bill(cells[c], cells[c + 1], cells[c + 2], cells[c + 3], cells[c + 4]));
+                }
+                reportProgress(batchEnd, start);
+            }
+            if (!isCancelled()) {
+                writer.finish();
+            }
+        }
+        return isCancelled() ? -1 : rows;
+    }
+
+    private void reportProgress(int written, long start) {
+        double seconds = Math.max(1e-9, (System.nanoTime() - start) / 1e9);
+        updateProgress(written, rows);
+        updateMessage(String.format("%,d / %,d rows (%,.0f rows/s)", written, rows, written / seconds));
+    }
+
+    private static void moveIntoPlace(Path temp, Path destination) throws IOException {
+        try {
+            Files.move(temp, destination, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, destination, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.bxtz.utils;
+
+import com.bxtz.Bill;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Merges imported bills into a ledger, skipping the ones it already holds, so overlapping
+ * statements can be imported one after another without losing or double-counting bills.
+ * <p>
+ * Bills are matched on date, name, amount and details. A match with the same category is
+ * skipped; a match with a different category is counted as a conflict and the ledger's bill
+ * is kept. Matching is one to one: re-importing a statement adds nothing, but a statement
+ * with two identical payments adds both to a ledger holding neither.
+ * <p>
+ * The existing bills are indexed by a 64-bit fingerprint of those fields in an open-addressing
+ * table of primitive arrays, 25 to 50 bytes per bill whatever the length of the strings, and
+ * guarded by a Bloom filter of 10 bits per bill. When most imported bills are new, the filter
+ * turns those away after a few bit tests; the others are looked up in the table and checked
+ * against the actual bill, so fingerprint collisions never cause a wrong skip.
+ */
+public class ImportMerger {
+
+    /**
+     * What a merge found.
+     *
+     * @param inserted    Imported bills that are not in the ledger, in file order
+     * @param skipped     Imported bills already in the ledger
+     * @param conflicting Imported bills matching a ledger bill of another category, which is kept
+     */
+    public record Result(List<Bill> inserted, int skipped, int conflicting) {
+
+        /**
+         * @return a one-line summary for the user
+         */
+        public String describe() {
+            return String.format("Inserted %,d bills, skipped %,d already in the ledger, %,d conflicting "
+                    + "(same date, name, amount and details but another category; the existing bill was kept).",
+                    inserted.size(), skipped, conflicting);
+        }
+    }
+
+    private static final int BLOOM_BITS_PER_BILL = 10;
+    private static final int BLOOM_PROBES = 7;
+
+    private final List<Bill> existing;
+    private final int mask;
+    private final long[] fingerprints; // 0 = empty slot
+    private final int[] rows;          // row in existing, or ~row once matched
+    private final long[] bloom;
+    private final int bloomMask;
+
+    /**
+     * Indexes {@code existing}. The list must not change while the merger is used.
+     */
+    public ImportMerger(List<Bill> existing) {
+        this.existing = existing;
+        int capacity = Integer.highestOneBit(Math.max(16, existing.size() * 2 - 1)) << 1;
+        mask = capacity - 1;
+        fingerprints = new long[capacity];
+        rows = new int[capacity];
+        int bloomWords = Integer.highestOneBit(Math.max(1, existing.size() * BLOOM_BITS_PER_BILL / 64 - 1)) << 1;
+        bloom = new long[bloomWords];
+        bloomMask = bloomWords * 64 - 1;
+        for (int row = 0; row < existing.size(); row++) {
+            long fingerprint = fingerprint(existing.get(row));
+            int slot = (int) fingerprint & mask;
+            while (fingerprints[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            fingerprints[slot] = fingerprint;
+            rows[slot] = row;
+            addToBloom(fingerprint);
+        }
+    }
+
+    /**
+     * Shortcut for {@code new ImportMerger(existing).merge(incoming)}.
+     */
+    public static Result merge(List<Bill> existing, List<Bill> incoming) {
+        return new ImportMerger(existing).merge(incoming);
+    }
+
+    /**
+     * Sorts {@code incoming} into bills to insert, duplicates and conflicts. Nothing is
+     * modified; add {@link Result#inserted()} to the ledger to complete the merge. Each
+     * ledger bill matches at most one imported bill, also across calls.
+     */
+    public Result merge(List<Bill> incoming) {
+        List<Bill> inserted = new ArrayList<>();
+        int skipped = 0;
+        int conflicting = 0;
+        for (Bill bill : incoming) {
+            long fingerprint = fingerprint(bill);
+            int slot = mightContain(fingerprint) ? find(fingerprint, bill) : -1;
+            if (slot < 0) {
+                inserted.add(bill);
+                continue;
+            }
+            Bill match = existing.get(rows[slot]);
+            rows[slot] = ~rows[slot];
+            if (Objects.equals(match.getType(), bill.getType())) {
+                skipped++;
+            } else {
+                conflicting++;
+            }
+        }
+        return new Result(inserted, skipped, conflicting);
+    }
+
+    /**
+     * @return the slot of an unmatched ledger bill with the same key as {@code bill}, or -1
+     */
+    private int find(long fingerprint, Bill bill) {
+        for (int slot = (int) fingerprint & mask; fingerprints[slot] != 0; slot = (slot + 1) & mask) {
+            if (fingerprints[slot] == fingerprint && rows[slot] >= 0 && sameKey(existing.get(rows[slot]), bill)) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean sameKey(Bill a, Bill b) {
+        return a.getEpochMinute() == b.getEpochMinute()
+                && a.getCostMinor() == b.getCostMinor()
+                && Objects.equals(a.getName(), b.getName())
+                && Objects.equals(a.getDetails(), b.getDetails())
+                && (a.getEpochMinute() != Bill.NO_MINUTE || Objects.equals(a.getDate(), b.getDate()));
+    }
+
+    /**
+     * @return a non-zero hash of the fields {@link #sameKey} compares
+     */
+    static long fingerprint(Bill bill) {
+        int minute = bill.getEpochMinute();
+        long h = mix(minute == Bill.NO_MINUTE ? Objects.hashCode(bill.getDate()) : minute);
+        h = mix(h + bill.getCostMinor());
+        h = mix(h + Objects.hashCode(bill.getName()));
+        h = mix(h + Objects.hashCode(bill.getDetails()));
+        return h == 0 ? 1 : h;
+    }
+
+    private void addToBloom(long fingerprint) {
+        int h1 = (int) (fingerprint >>> 32);
+        int h2 = (int) fingerprint | 1;
+        for (int i = 0; i < BLOOM_PROBES; i++) {
+            int bit = (h1 + i * h2) & bloomMask;
+            bloom[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    private boolean mightContain(long fingerprint) {
+        int h1 = (int) (fingerprint >>> 32);
+        int h2 = (int) fingerprint | 1;
+        for (int i = 0; i < BLOOM_PROBES; i++) {
+            int bit = (h1 + i * h2) & bloomMask;
+            if ((bloom[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The SplitMix64 finalizer
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
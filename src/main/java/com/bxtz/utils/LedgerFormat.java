@@ -0,0 +1,243 @@
+package com.bxtz.utils;
+
+/**
+ * Parsers and formatters for the two structured bill fields: the {@code yyyy-MM-dd HH:mm}
+ * timestamp and the {@code "<number> RMB"} amount.
+ * <p>
+ * Both parsers work directly on the characters, with no intermediate strings, formatters,
+ * boxing or exceptions, so they can run once per bill on every import and validation without
+ * producing garbage. Failures are reported through the {@link #INVALID_MINUTE} and
+ * {@link #INVALID_AMOUNT} sentinels. Amounts are converted to minor units (1/100 RMB)
+ * exactly; digits beyond the second decimal are rounded half up, as {@code BigDecimal} would.
+ */
+public final class LedgerFormat {
+    /** Returned by the timestamp parser for anything that is not a valid timestamp */
+    public static final int INVALID_MINUTE = Integer.MIN_VALUE;
+
+    /** Returned by the amount parsers for anything that is not a number */
+    public static final long INVALID_AMOUNT = Long.MIN_VALUE;
+
+    private static final int TIMESTAMP_LENGTH = 16;
+    private static final long MAX_WHOLE = Long.MAX_VALUE / 100 - 1;
+
+    private LedgerFormat() {
+    }
+
+    /**
+     * @return minutes since 1970-01-01 00:00 for a {@code yyyy-MM-dd HH:mm} string, or
+     * {@link #INVALID_MINUTE} if it is malformed or names a date that does not exist
+     */
+    public static int parseMinute(CharSequence text) {
+        return text == null ? INVALID_MINUTE : parseMinute(text, 0, text.length());
+    }
+
+    /**
+     * Parses {@code text[from, to)} as a {@code yyyy-MM-dd HH:mm} timestamp.
+     */
+    public static int parseMinute(CharSequence text, int from, int to) {
+        if (to - from != TIMESTAMP_LENGTH
+                || text.charAt(from + 4) != '-' || text.charAt(from + 7) != '-'
+                || text.charAt(from + 10) != ' ' || text.charAt(from + 13) != ':') {
+            return INVALID_MINUTE;
+        }
+        int year = digits(text, from, 4);
+        int month = digits(text, from + 5, 2);
+        int day = digits(text, from + 8, 2);
+        int hour = digits(text, from + 11, 2);
+        int minute = digits(text, from + 14, 2);
+        if (year < 1 || month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month)
+                || hour < 0 || hour > 23 || minute < 0 || minute > 59) {
+            return INVALID_MINUTE;
+        }
+        long minutes = (epochDay(year, month, day) * 24 + hour) * 60 + minute;
+        return minutes > Integer.MIN_VALUE && minutes <= Integer.MAX_VALUE ? (int) minutes : INVALID_MINUTE;
+    }
+
+    /**
+     * @return whether {@code text}, ignoring surrounding whitespace, is a valid {@code yyyy-MM-dd HH:mm} timestamp
+     */
+    public static boolean isValidDate(CharSequence text) {
+        if (text == null) {
+            return false;
+        }
+        int from = skipWhitespace(text, 0, text.length());
+        int to = trimWhitespace(text, from, text.length());
+        return parseMinute(text, from, to) != INVALID_MINUTE;
+    }
+
+    /**
+     * @return {@code minute} formatted as {@code yyyy-MM-dd HH:mm}; the inverse of {@link #parseMinute(CharSequence)}
+     */
+    public static String formatMinute(int minute) {
+        long day = Math.floorDiv(minute, 24 * 60);
+        int minuteOfDay = Math.floorMod(minute, 24 * 60);
+
+        // Civil date from a day count, after H. Hinnant's algorithm
+        long z = day + 719_468;
+        long era = Math.floorDiv(z, 146_097);
+        long dayOfEra = z - era * 146_097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36_524 - dayOfEra / 146_096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long shiftedMonth = (5 * dayOfYear + 2) / 153;
+        int dayOfMonth = (int) (dayOfYear - (153 * shiftedMonth + 2) / 5 + 1);
+        int month = (int) (shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9);
+        int year = (int) (yearOfEra + era * 400 + (month <= 2 ? 1 : 0));
+
+        char[] chars = new char[TIMESTAMP_LENGTH];
+        putDigits(chars, 0, year, 4);
+        chars[4] = '-';
+        putDigits(chars, 5, month, 2);
+        chars[7] = '-';
+        putDigits(chars, 8, dayOfMonth, 2);
+        chars[10] = ' ';
+        putDigits(chars, 11, minuteOfDay / 60, 2);
+        chars[13] = ':';
+        putDigits(chars, 14, minuteOfDay % 60, 2);
+        return new String(chars);
+    }
+
+    /**
+     * Parses an amount such as {@code "12.5 RMB"}, {@code "12.5rmb"} or {@code "12.5"} into
+     * minor units. Surrounding whitespace and a trailing {@code RMB} in any case are allowed.
+     *
+     * @return the amount in minor units, or {@link #INVALID_AMOUNT}
+     */
+    public static long parseAmount(CharSequence text) {
+        if (text == null) {
+            return INVALID_AMOUNT;
+        }
+        int from = skipWhitespace(text, 0, text.length());
+        int to = trimWhitespace(text, from, text.length());
+        if (hasSuffix(text, from, to)) {
+            to = trimWhitespace(text, from, to - 3);
+        }
+        return parseDecimal(text, from, to);
+    }
+
+    /**
+     * Like {@link #parseAmount} but without the currency suffix: only a plain decimal number,
+     * optionally surrounded by whitespace, is accepted.
+     */
+    public static long parseNumber(CharSequence text) {
+        if (text == null) {
+            return INVALID_AMOUNT;
+        }
+        int from = skipWhitespace(text, 0, text.length());
+        return parseDecimal(text, from, trimWhitespace(text, from, text.length()));
+    }
+
+    /**
+     * @return whether {@code text} ends with {@code RMB} in any case, ignoring trailing whitespace
+     */
+    public static boolean hasCurrencySuffix(CharSequence text) {
+        return text != null && hasSuffix(text, 0, trimWhitespace(text, 0, text.length()));
+    }
+
+    /**
+     * Parses {@code text[from, to)} as {@code [+-]digits[.digits]} into minor units.
+     */
+    private static long parseDecimal(CharSequence text, int from, int to) {
+        int i = from;
+        boolean negative = false;
+        if (i < to && (text.charAt(i) == '-' || text.charAt(i) == '+')) {
+            negative = text.charAt(i) == '-';
+            i++;
+        }
+        long whole = 0;
+        int wholeDigits = 0;
+        for (; i < to && isDigit(text.charAt(i)); i++, wholeDigits++) {
+            int digit = text.charAt(i) - '0';
+            if (whole > (MAX_WHOLE - digit) / 10) {
+                return INVALID_AMOUNT;
+            }
+            whole = whole * 10 + digit;
+        }
+        long fraction = 0;
+        int fractionDigits = 0;
+        boolean roundUp = false;
+        if (i < to && text.charAt(i) == '.') {
+            for (i++; i < to && isDigit(text.charAt(i)); i++, fractionDigits++) {
+                int digit = text.charAt(i) - '0';
+                if (fractionDigits < 2) {
+                    fraction = fraction * 10 + digit;
+                } else if (fractionDigits == 2) {
+                    roundUp = digit >= 5; // only the first dropped digit decides HALF_UP
+                }
+            }
+        }
+        if (i != to || wholeDigits + fractionDigits == 0) {
+            return INVALID_AMOUNT;
+        }
+        if (fractionDigits == 1) {
+            fraction *= 10;
+        }
+        long minor = whole * 100 + fraction + (roundUp ? 1 : 0);
+        return negative ? -minor : minor;
+    }
+
+    private static boolean hasSuffix(CharSequence text, int from, int to) {
+        return to - from >= 3
+                && (text.charAt(to - 3) | 0x20) == 'r'
+                && (text.charAt(to - 2) | 0x20) == 'm'
+                && (text.charAt(to - 1) | 0x20) == 'b';
+    }
+
+    private static int skipWhitespace(CharSequence text, int from, int to) {
+        while (from < to && text.charAt(from) <= ' ') {
+            from++;
+        }
+        return from;
+    }
+
+    private static int trimWhitespace(CharSequence text, int from, int to) {
+        while (to > from && text.charAt(to - 1) <= ' ') {
+            to--;
+        }
+        return to;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /**
+     * @return the value of {@code count} decimal digits at {@code from}, or -1 if any is not a digit
+     */
+    private static int digits(CharSequence text, int from, int count) {
+        int value = 0;
+        for (int i = from; i < from + count; i++) {
+            char c = text.charAt(i);
+            if (!isDigit(c)) {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static void putDigits(char[] chars, int at, int value, int count) {
+        for (int i = at + count - 1; i >= at; i--) {
+            chars[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+    private static int daysInMonth(int year, int month) {
+        if (month == 2) {
+            return (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) ? 29 : 28;
+        }
+        return month == 4 || month == 6 || month == 9 || month == 11 ? 30 : 31;
+    }
+
+    /**
+     * Days since 1970-01-01 for a proleptic Gregorian date, after H. Hinnant's algorithm.
+     */
+    private static long epochDay(int year, int month, int day) {
+        int y = month <= 2 ? year - 1 : year;
+        long era = Math.floorDiv(y, 400);
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153L * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146_097 + dayOfEra - 719_468;
+    }
+}
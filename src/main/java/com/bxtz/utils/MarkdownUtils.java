@@ -1,40 +1,186 @@
 package com.bxtz.utils;
 
+import com.vladsch.flexmark.ext.autolink.AutolinkExtension;
+import com.vladsch.flexmark.ext.gfm.strikethrough.StrikethroughExtension;
+import com.vladsch.flexmark.ext.gfm.tasklist.TaskListExtension;
+import com.vladsch.flexmark.ext.tables.TablesExtension;
 import com.vladsch.flexmark.html.HtmlRenderer;
 import com.vladsch.flexmark.parser.Parser;
-import com.vladsch.flexmark.util.ast.Node;
-import javafx.scene.web.WebView;
-import javafx.scene.web.WebEngine;
+import com.vladsch.flexmark.util.data.DataHolder;
+import com.vladsch.flexmark.util.data.MutableDataSet;
 
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Renders the markdown the AI model answers with to HTML.
+ * <p>
+ * One parser and one renderer, configured with the GitHub-flavoured extensions models use
+ * (tables, strikethrough, task lists, autolinks), are shared by all callers; flexmark's parser
+ * and renderer are immutable and safe to use from several threads. Rendered HTML is kept in a
+ * small LRU cache keyed by the markdown text, so rendering the same answer again (a cached
+ * answer, a re-shown message) costs a lookup.
+ * <p>
+ * A streamed answer is rendered with an {@link Incremental}, which re-renders only the block
+ * still being written.
+ */
 public class MarkdownUtils {
 
+    public static final int CACHE_ENTRIES = 256;
+    /** Longer texts are rendered but not cached */
+    static final int MAX_CACHED_LENGTH = 64 * 1024;
+
+    private static final DataHolder OPTIONS = new MutableDataSet()
+            .set(Parser.EXTENSIONS, List.of(TablesExtension.create(), StrikethroughExtension.create(),
+                    TaskListExtension.create(), AutolinkExtension.create()))
+            .toImmutable();
+    private static final Parser PARSER = Parser.builder(OPTIONS).build();
+    private static final HtmlRenderer RENDERER = HtmlRenderer.builder(OPTIONS).build();
+
+    private static final Map<String, String> CACHE = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > CACHE_ENTRIES;
+        }
+    };
+
     public String markdownToHtml(String markdown) {
-        Parser parser = Parser.builder().build();
-        HtmlRenderer renderer = HtmlRenderer.builder().build();
-        Node document = parser.parse(markdown);
-        return renderer.render(document);
+        if (markdown.length() > MAX_CACHED_LENGTH) {
+            return render(markdown);
+        }
+        synchronized (CACHE) {
+            String html = CACHE.get(markdown);
+            if (html != null) {
+                return html;
+            }
+        }
+        String html = render(markdown);
+        synchronized (CACHE) {
+            CACHE.put(markdown, html);
+        }
+        return html;
+    }
+
+    /**
+     * @return a renderer for one streamed text
+     */
+    public Incremental incremental() {
+        return new Incremental();
+    }
+
+    static String render(String markdown) {
+        return RENDERER.render(PARSER.parse(markdown));
+    }
+
+    /**
+     * What changed in the HTML of a streamed text.
+     *
+     * @param completed HTML of blocks finished since the last update, to be appended after the
+     *                  earlier ones; often empty
+     * @param tail      HTML of the block still being written, replacing the previous tail
+     */
+    public record Update(String completed, String tail) {
     }
 
-    public WebView renderMarkdown(String markdown) {
-        String html = markdownToHtml(markdown);
-
-        WebView webView = new WebView();
-        WebEngine webEngine = webView.getEngine();
-
-        String htmlPage = """
-    <html>
-    <head>
-      <style>
-        body { font-family: 'Arial'; padding: 10px; }
-        pre { background: #f0f0f0; padding: 5px; }
-        code { font-family: monospace; }
-      </style>
-    </head>
-    <body>%s</body>
-    </html>
-    """.formatted(html);
-
-        webEngine.loadContent(htmlPage);
-        return webView;
+    /**
+     * Renders a text that arrives in fragments, such as a streamed answer.
+     * <p>
+     * The text is split at blank lines outside code fences. Blocks before the last such split
+     * are rendered once, when they are finished; only the tail after it is rendered again on
+     * every fragment, so each update costs about the size of one paragraph, table or code block
+     * however long the answer grows. A split is not made where the next line continues a list or
+     * is indented, since those can still change how the previous block renders.
+     * <p>
+     * Rendering blocks separately can differ from rendering the whole text in rare cases (a link
+     * reference defined after its use), so the finished text should be rendered with
+     * {@link #markdownToHtml} once complete. Instances are not thread-safe.
+     */
+    public static final class Incremental {
+        private final StringBuilder text = new StringBuilder();
+        /** text before this index has been rendered and handed out as completed */
+        private int completedEnd;
+        /** Start of the first line not yet scanned for fences and blank lines */
+        private int scanned;
+        /** Start of the line after the last blank line outside a fence, or -1 */
+        private int candidate = -1;
+        private String fence;
+
+        /**
+         * Adds a fragment of the text.
+         *
+         * @return the HTML to add and the new tail
+         */
+        public Update append(String fragment) {
+            text.append(fragment);
+            StringBuilder completed = new StringBuilder();
+            for (int newline; (newline = text.indexOf("\n", scanned)) >= 0; ) {
+                String line = text.substring(scanned, newline);
+                int lineStart = scanned;
+                scanned = newline + 1;
+                if (candidate >= 0 && !line.isBlank()) {
+                    if (startsNewBlock(line)) {
+                        completed.append(render(text.substring(completedEnd, lineStart)));
+                        completedEnd = lineStart;
+                    }
+                    candidate = -1;
+                }
+                String marker = fenceMarker(line);
+                if (fence == null && marker != null) {
+                    fence = marker;
+                } else if (fence != null && marker != null && marker.startsWith(fence) && line.strip().equals(marker)) {
+                    fence = null;
+                } else if (fence == null && line.isBlank()) {
+                    candidate = scanned;
+                }
+            }
+            return new Update(completed.toString(), render(text.substring(completedEnd)));
+        }
+
+        /**
+         * @return the text received so far
+         */
+        public String text() {
+            return text.toString();
+        }
+
+        private static boolean startsNewBlock(String line) {
+            char first = line.charAt(0);
+            if (first == ' ' || first == '\t') {
+                return false;
+            }
+            String stripped = line.strip();
+            if (stripped.startsWith("- ") || stripped.startsWith("* ") || stripped.startsWith("+ ")) {
+                return false;
+            }
+            int digits = 0;
+            while (digits < stripped.length() && Character.isDigit(stripped.charAt(digits))) {
+                digits++;
+            }
+            return digits == 0 || digits + 1 >= stripped.length()
+                    || ".)".indexOf(stripped.charAt(digits)) < 0 || stripped.charAt(digits + 1) != ' ';
+        }
+
+        /**
+         * @return the run of backticks or tildes opening or closing a code fence on this line, or null
+         */
+        private static String fenceMarker(String line) {
+            int indent = 0;
+            while (indent < line.length() && indent < 4 && line.charAt(indent) == ' ') {
+                indent++;
+            }
+            if (indent > 3 || indent == line.length()) {
+                return null;
+            }
+            char c = line.charAt(indent);
+            if (c != '`' && c != '~') {
+                return null;
+            }
+            int end = indent;
+            while (end < line.length() && line.charAt(end) == c) {
+                end++;
+            }
+            return end - indent >= 3 ? line.substring(indent, end) : null;
+        }
     }
 }
@@ -0,0 +1,327 @@
+package com.bxtz.utils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A stand-in for the Ollama server, for tests, benchmarks and trying the app without a model.
+ * <p>
+ * It answers {@code /api/generate}, {@code /api/chat} and {@code /api/embed} the way Ollama
+ * does, streaming one JSON line per token unless the request says {@code "stream": false},
+ * and ends with the same token counts and durations. Answers are a fixed text cut to
+ * {@link #setAnswerTokens answerTokens} words (or {@code {}} when JSON output is asked for),
+ * and embeddings are derived from the letters of the text, so similar texts get similar
+ * vectors.
+ * <p>
+ * Like a real model server it takes time: each request waits for one of
+ * {@link #setParallel parallel} slots, then {@link #setLatencyMillis latencyMillis} before
+ * the first token, then produces {@link #setTokensPerSecond tokensPerSecond}. A share of
+ * requests ({@link #setFailureRate failureRate}) fails with HTTP 500 instead. All settings can
+ * be changed while it runs.
+ * <p>
+ * Run {@code main} to start one on its own and point the app at it with
+ * {@code -Dollama.host=http://localhost:<port>}.
+ */
+public class OllamaStandIn implements AutoCloseable {
+
+    public static final int EMBEDDING_DIMENSIONS = 64;
+
+    private static final String ANSWER = "Your spending is highest on Food, which takes about a third of the total. "
+            + "Eating out on weekdays is the largest single item, followed by Shopping at a few large merchants. "
+            + "Cooking at home twice more a week and setting a monthly limit for online shopping would save the "
+            + "most. Transport and Entertainment are steady and already modest compared with last month.";
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Random random;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong abandoned = new AtomicLong();
+    private volatile Semaphore slots = new Semaphore(1, true);
+    private volatile double tokensPerSecond = 50;
+    private volatile long latencyMillis = 100;
+    private volatile double failureRate;
+    private volatile int answerTokens = 40;
+
+    /**
+     * Starts the server.
+     *
+     * @param port The port to listen on, or 0 for any free one
+     * @param seed Seed for failure injection, so runs are repeatable
+     */
+    public OllamaStandIn(int port, long seed) throws IOException {
+        random = new Random(seed);
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+        AtomicInteger threads = new AtomicInteger();
+        executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "ollama-stand-in-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext("/api/generate", exchange -> handle(exchange, false));
+        server.createContext("/api/chat", exchange -> handle(exchange, true));
+        server.createContext("/api/embed", this::embed);
+        server.start();
+    }
+
+    /**
+     * @return the base URL to give {@link AIUtils}, such as {@code http://127.0.0.1:54321}
+     */
+    public String url() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    /**
+     * Tokens produced per second once an answer has started; 0 or less sends them all at once.
+     */
+    public void setTokensPerSecond(double tokensPerSecond) {
+        this.tokensPerSecond = tokensPerSecond;
+    }
+
+    /**
+     * Time between getting a slot and producing the first token, like evaluating the prompt.
+     */
+    public void setLatencyMillis(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    /**
+     * Share of requests, between 0 and 1, that fail with HTTP 500 after the latency.
+     */
+    public void setFailureRate(double failureRate) {
+        this.failureRate = failureRate;
+    }
+
+    public void setAnswerTokens(int answerTokens) {
+        this.answerTokens = answerTokens;
+    }
+
+    /**
+     * Requests answered at the same time; the rest wait in arrival order. Ollama answers one
+     * request per model at a time unless {@code OLLAMA_NUM_PARALLEL} says otherwise.
+     */
+    public void setParallel(int parallel) {
+        slots = new Semaphore(parallel, true);
+    }
+
+    /**
+     * @return requests received so far, including failed ones
+     */
+    public long requestCount() {
+        return requests.get();
+    }
+
+    /**
+     * @return requests failed on purpose so far
+     */
+    public long failureCount() {
+        return failures.get();
+    }
+
+    /**
+     * @return answers the client stopped reading before they were complete
+     */
+    public long abandonedCount() {
+        return abandoned.get();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange, boolean chat) throws IOException {
+        requests.incrementAndGet();
+        long start = System.nanoTime();
+        Semaphore slot = slots;
+        try (exchange) {
+            JsonNode request = MAPPER.readTree(exchange.getRequestBody());
+            slot.acquire();
+            try {
+                Thread.sleep(latencyMillis);
+                if (random.nextDouble() < failureRate) {
+                    failures.incrementAndGet();
+                    send(exchange, 500, "{\"error\":\"injected failure\"}\n");
+                    return;
+                }
+                String model = request.path("model").asText();
+                List<String> tokens = tokens("json".equals(request.path("format").asText()));
+                int promptTokens = PromptContextBuilder.estimateTokens(promptText(request, chat));
+                long promptNanos = System.nanoTime() - start;
+                if (request.path("stream").asBoolean(true)) {
+                    exchange.getResponseHeaders().set("Content-Type", "application/x-ndjson");
+                    exchange.sendResponseHeaders(200, 0);
+                    OutputStream out = exchange.getResponseBody();
+                    for (String token : tokens) {
+                        pause(1);
+                        out.write((line(model, chat, token, false) + "\n").getBytes(StandardCharsets.UTF_8));
+                        out.flush();
+                    }
+                    ObjectNode done = line(model, chat, "", true);
+                    counts(done, promptTokens, tokens.size(), promptNanos, System.nanoTime() - start);
+                    out.write((done + "\n").getBytes(StandardCharsets.UTF_8));
+                } else {
+                    pause(tokens.size());
+                    ObjectNode done = line(model, chat, String.join("", tokens), true);
+                    counts(done, promptTokens, tokens.size(), promptNanos, System.nanoTime() - start);
+                    send(exchange, 200, done.toString());
+                }
+            } finally {
+                slot.release();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            abandoned.incrementAndGet(); // the client went away mid-answer
+        }
+    }
+
+    private void embed(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        try (exchange) {
+            JsonNode request = MAPPER.readTree(exchange.getRequestBody());
+            ObjectNode response = MAPPER.createObjectNode();
+            response.put("model", request.path("model").asText());
+            var embeddings = response.putArray("embeddings");
+            JsonNode input = request.path("input");
+            List<String> texts = new ArrayList<>();
+            if (input.isArray()) {
+                input.forEach(text -> texts.add(text.asText()));
+            } else {
+                texts.add(input.asText());
+            }
+            for (String text : texts) {
+                var vector = embeddings.addArray();
+                for (float value : letterVector(text)) {
+                    vector.add(value);
+                }
+            }
+            send(exchange, 200, response.toString());
+        }
+    }
+
+    private List<String> tokens(boolean json) {
+        if (json) {
+            return List.of("{", "}");
+        }
+        String[] words = ANSWER.split(" ");
+        List<String> tokens = new ArrayList<>(answerTokens);
+        for (int i = 0; i < answerTokens; i++) {
+            tokens.add((i == 0 ? "" : " ") + words[i % words.length]);
+        }
+        return tokens;
+    }
+
+    private static String promptText(JsonNode request, boolean chat) {
+        if (!chat) {
+            return request.path("prompt").asText();
+        }
+        StringBuilder text = new StringBuilder();
+        request.path("messages").forEach(message -> text.append(message.path("content").asText()).append('\n'));
+        return text.toString();
+    }
+
+    private static ObjectNode line(String model, boolean chat, String token, boolean done) {
+        ObjectNode line = MAPPER.createObjectNode();
+        line.put("model", model);
+        line.put("created_at", Instant.now().toString());
+        if (chat) {
+            ObjectNode message = line.putObject("message");
+            message.put("role", "assistant");
+            message.put("content", token);
+        } else {
+            line.put("response", token);
+        }
+        line.put("done", done);
+        return line;
+    }
+
+    private static void counts(ObjectNode done, int promptTokens, int answerTokens, long promptNanos, long totalNanos) {
+        done.put("done_reason", "stop");
+        done.put("total_duration", totalNanos);
+        done.put("prompt_eval_count", promptTokens);
+        done.put("prompt_eval_duration", promptNanos);
+        done.put("eval_count", answerTokens);
+        done.put("eval_duration", totalNanos - promptNanos);
+    }
+
+    /**
+     * Sleeps for the time {@code tokens} tokens take at the configured rate.
+     */
+    private void pause(int tokens) throws InterruptedException {
+        double rate = tokensPerSecond;
+        if (rate > 0) {
+            long nanos = (long) (tokens * 1e9 / rate);
+            Thread.sleep(nanos / 1_000_000, (int) (nanos % 1_000_000));
+        }
+    }
+
+    private static void send(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+
+    /**
+     * @return a vector of letter and letter-pair counts, so texts sharing words point the same way
+     */
+    static float[] letterVector(String text) {
+        float[] vector = new float[EMBEDDING_DIMENSIONS];
+        String lower = text.toLowerCase(Locale.ROOT);
+        for (int i = 0; i < lower.length(); i++) {
+            char c = lower.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                vector[Math.floorMod(c, EMBEDDING_DIMENSIONS)] += 1;
+                if (i + 1 < lower.length() && Character.isLetterOrDigit(lower.charAt(i + 1))) {
+                    vector[Math.floorMod(c * 31 + lower.charAt(i + 1), EMBEDDING_DIMENSIONS)] += 0.5f;
+                }
+            }
+        }
+        return vector;
+    }
+
+    /**
+     * Runs a stand-in until the process is stopped.
+     * <p>
+     * Arguments, all optional: port (default 11435), tokens per second (50), latency in
+     * milliseconds (100), failure rate (0).
+     */
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 11435;
+        OllamaStandIn standIn = new OllamaStandIn(port, System.nanoTime());
+        if (args.length > 1) {
+            standIn.setTokensPerSecond(Double.parseDouble(args[1]));
+        }
+        if (args.length > 2) {
+            standIn.setLatencyMillis(Long.parseLong(args[2]));
+        }
+        if (args.length > 3) {
+            standIn.setFailureRate(Double.parseDouble(args[3]));
+        }
+        System.out.println("Ollama stand-in listening on " + standIn.url()
+                + "; start the app with -Dollama.host=" + standIn.url());
+        Thread.currentThread().join();
+    }
+}
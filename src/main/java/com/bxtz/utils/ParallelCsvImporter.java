@@ -0,0 +1,282 @@
+package com.bxtz.utils;
+
+import com.bxtz.Bill;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Imports bill CSV files by memory-mapping them and parsing chunks in parallel.
+ * <p>
+ * The file is cut into roughly equal byte ranges, one per task. Because a quoted field may
+ * contain newlines, a range cannot simply start at the next '\n'. Each range therefore first
+ * counts its quote characters in parallel; the running parity of those counts tells every
+ * range whether it starts inside a quoted field, so it can find its first real record
+ * boundary without looking at the ranges before it. The ranges are then parsed on the
+ * fork/join pool and the results are concatenated in file order.
+ * <p>
+ * Fields follow RFC 4180 (the format written by {@link BillUtils#exportToCSV}): quoted
+ * fields use doubled quotes for a literal quote. Like the old importer, a row whose first
+ * column is {@code NAME} is treated as a header and skipped; blank lines and rows with fewer
+ * than five columns are skipped as well.
+ * <p>
+ * If {@link CategoryRules} are given, each task also categorises the bills it parsed, so rule
+ * matching runs in parallel while the rows are still in cache.
+ */
+public class ParallelCsvImporter {
+
+    /** Ranges smaller than this are not worth a task of their own. */
+    private static final int DEFAULT_MIN_CHUNK_BYTES = 1 << 20;
+
+    private static final int COLUMNS = 5;
+
+    private final ForkJoinPool pool;
+    private final int minChunkBytes;
+    private final CategoryRules rules;
+
+    public ParallelCsvImporter() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public ParallelCsvImporter(ForkJoinPool pool) {
+        this(pool, null);
+    }
+
+    /**
+     * @param rules Categorise uncategorised bills with these rules while importing, or null
+     */
+    public ParallelCsvImporter(ForkJoinPool pool, CategoryRules rules) {
+        this(pool, DEFAULT_MIN_CHUNK_BYTES, rules);
+    }
+
+    ParallelCsvImporter(ForkJoinPool pool, int minChunkBytes) {
+        this(pool, minChunkBytes, null);
+    }
+
+    ParallelCsvImporter(ForkJoinPool pool, int minChunkBytes, CategoryRules rules) {
+        this.pool = pool;
+        this.minChunkBytes = Math.max(1, minChunkBytes);
+        this.rules = rules;
+    }
+
+    /**
+     * Maps and parses the given CSV file.
+     *
+     * @param file the CSV file to read (at most 2 GB)
+     * @return the bills in file order
+     * @throws IOException if the file cannot be mapped or a parse task fails
+     */
+    public List<Bill> importFile(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size == 0) {
+                return new ArrayList<>();
+            }
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("CSV file too large to map: " + size + " bytes");
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            return parse(buffer);
+        }
+    }
+
+    /**
+     * Parses CSV content held in a buffer. Positions are read with absolute gets, so the
+     * buffer's position and limit are not modified.
+     */
+    List<Bill> parse(ByteBuffer buffer) throws IOException {
+        int end = buffer.limit();
+        int start = hasUtf8Bom(buffer) ? 3 : 0;
+        if (start >= end) {
+            return new ArrayList<>();
+        }
+
+        int length = end - start;
+        int chunks = (int) Math.max(1, Math.min((long) pool.getParallelism() * 4, length / minChunkBytes));
+        int[] rawStarts = new int[chunks + 1];
+        for (int i = 0; i < chunks; i++) {
+            rawStarts[i] = start + (int) ((long) length * i / chunks);
+        }
+        rawStarts[chunks] = end;
+
+        // Phase 1: quote parity of every range, so each one knows if it starts inside quotes.
+        List<Callable<Integer>> counters = new ArrayList<>(chunks);
+        for (int i = 0; i < chunks; i++) {
+            int from = rawStarts[i];
+            int to = rawStarts[i + 1];
+            counters.add(() -> countQuotes(buffer, from, to));
+        }
+        List<Integer> quoteCounts = invokeAll(counters);
+        boolean[] startsQuoted = new boolean[chunks];
+        int parity = 0;
+        for (int i = 0; i < chunks; i++) {
+            startsQuoted[i] = parity == 1;
+            parity ^= quoteCounts.get(i) & 1;
+        }
+
+        // Phase 2: align each range to a record boundary and parse it.
+        List<Callable<List<Bill>>> parsers = new ArrayList<>(chunks);
+        for (int i = 0; i < chunks; i++) {
+            int index = i;
+            parsers.add(() -> {
+                int from = index == 0 ? rawStarts[0] : nextRecordStart(buffer, rawStarts[index], end, startsQuoted[index]);
+                int to = index == chunks - 1 ? end : nextRecordStart(buffer, rawStarts[index + 1], end, startsQuoted[index + 1]);
+                List<Bill> bills = parseRange(buffer, from, to);
+                if (rules != null) {
+                    rules.apply(bills);
+                }
+                return bills;
+            });
+        }
+        List<List<Bill>> parts = invokeAll(parsers);
+
+        int total = 0;
+        for (List<Bill> part : parts) {
+            total += part.size();
+        }
+        List<Bill> result = new ArrayList<>(total);
+        for (List<Bill> part : parts) {
+            result.addAll(part);
+        }
+        return result;
+    }
+
+    private <T> List<T> invokeAll(List<Callable<T>> tasks) throws IOException {
+        List<T> results = new ArrayList<>(tasks.size());
+        try {
+            for (Future<T> future : pool.invokeAll(tasks)) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("CSV import interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IOException("CSV import failed", e.getCause());
+        }
+        return results;
+    }
+
+    private static boolean hasUtf8Bom(ByteBuffer buffer) {
+        return buffer.limit() >= 3
+                && buffer.get(0) == (byte) 0xEF
+                && buffer.get(1) == (byte) 0xBB
+                && buffer.get(2) == (byte) 0xBF;
+    }
+
+    static int countQuotes(ByteBuffer buffer, int from, int to) {
+        int count = 0;
+        for (int i = from; i < to; i++) {
+            if (buffer.get(i) == '"') {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the offset just after the first newline at or after {@code from} that lies outside
+     * a quoted field, or {@code end} if there is none.
+     */
+    static int nextRecordStart(ByteBuffer buffer, int from, int end, boolean quoted) {
+        for (int i = from; i < end; i++) {
+            byte b = buffer.get(i);
+            if (b == '"') {
+                quoted = !quoted;
+            } else if (b == '\n' && !quoted) {
+                return i + 1;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * Parses the complete records in {@code [from, to)}.
+     */
+    static List<Bill> parseRange(ByteBuffer buffer, int from, int to) {
+        List<Bill> bills = new ArrayList<>(Math.max(16, (to - from) / 64));
+        String[] fields = new String[COLUMNS];
+        byte[] scratch = new byte[256];
+        int fieldCount = 0;
+        boolean lineHasContent = false;
+
+        int i = from;
+        while (i < to) {
+            int len = 0;
+            byte b = buffer.get(i);
+            boolean quotedField = b == '"';
+            if (quotedField) {
+                i++;
+                while (i < to) {
+                    b = buffer.get(i);
+                    if (b == '"') {
+                        if (i + 1 < to && buffer.get(i + 1) == '"') {
+                            i++;
+                        } else {
+                            i++;
+                            break;
+                        }
+                    }
+                    if (len == scratch.length) {
+                        scratch = Arrays.copyOf(scratch, len * 2);
+                    }
+                    scratch[len++] = b;
+                    i++;
+                }
+            }
+            // Unquoted field, or stray characters after a closing quote.
+            while (i < to) {
+                b = buffer.get(i);
+                if (b == ',' || b == '\n') {
+                    break;
+                }
+                if (len == scratch.length) {
+                    scratch = Arrays.copyOf(scratch, len * 2);
+                }
+                scratch[len++] = b;
+                i++;
+            }
+
+            boolean endOfLine = i >= to || buffer.get(i) == '\n';
+            if (endOfLine && len > 0 && scratch[len - 1] == '\r') {
+                len--;
+            }
+            lineHasContent |= quotedField || len > 0 || !endOfLine;
+            if (fieldCount < COLUMNS) {
+                fields[fieldCount] = new String(scratch, 0, len, StandardCharsets.UTF_8);
+            }
+            fieldCount++;
+            i++; // skip the separator or newline
+
+            if (endOfLine) {
+                if (lineHasContent && fieldCount >= COLUMNS && !"NAME".equals(fields[0])) {
+                    bills.add(new Bill(fields[0], fields[1], fields[2], fields[3], fields[4]));
+                }
+                fieldCount = 0;
+                lineHasContent = false;
+            }
+        }
+        // A trailing separator right at the end of the range leaves one empty field pending.
+        if (fieldCount > 0) {
+            if (fieldCount < COLUMNS) {
+                fields[fieldCount] = "";
+            }
+            fieldCount++;
+            if (fieldCount >= COLUMNS && !"NAME".equals(fields[0])) {
+                bills.add(new Bill(fields[0], fields[1], fields[2], fields[3], fields[4]));
+            }
+        }
+        return bills;
+    }
+}
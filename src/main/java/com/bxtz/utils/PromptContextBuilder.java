@@ -0,0 +1,387 @@
+package com.bxtz.utils;
+
+import com.bxtz.Bill;
+import com.bxtz.BillStore;
+import com.bxtz.TimeRollup;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Summarises a ledger into a compact text context for the AI model, within a token budget.
+ * <p>
+ * Instead of serialising every bill, the context is made of aggregates that answer most
+ * questions on their own, in this order: an overview line, per-category totals, monthly
+ * totals, the top merchants, unusually large bills, and finally the raw bills that look
+ * relevant to the question: those the caller found similar to it (for example by embedding
+ * similarity), then those whose merchant, details or category is mentioned or whose date
+ * falls on a day or month named in the question. Sections are added while they fit the
+ * budget; rows of the last section are added one by one until it is used up. The two parts
+ * are also available on their own: a chat sends {@link #buildSummary} once, as its system
+ * message, and {@link #buildRelated} with each question.
+ * <p>
+ * Token counts are estimated: a quarter of a token per ASCII character and one token per
+ * other character, which is close for Qwen-style tokenizers on mixed English/Chinese text.
+ */
+public class PromptContextBuilder {
+
+    public static final int DEFAULT_TOKEN_BUDGET = 1500;
+
+    private static final int MAX_MONTHS = 24;
+    private static final int TOP_MERCHANTS = 10;
+    private static final int MAX_OUTLIERS = 5;
+    private static final int MIN_WORD_LENGTH = 3;
+    private static final int MINUTES_PER_DAY = 24 * 60;
+    private static final TimeRollup.Resolution MONTH = TimeRollup.Resolution.MONTH;
+
+    /** Question words too common to pick out bills by */
+    private static final Set<String> STOP_WORDS = Set.of("the", "and", "for", "how", "much", "many", "did", "does",
+            "what", "which", "who", "when", "where", "why", "was", "were", "are", "has", "have", "with", "from",
+            "this", "that", "last", "about", "most", "least", "spend", "spent", "spending", "money", "bill", "bills",
+            "cost", "costs", "total", "day", "days", "week", "month", "year", "you", "your", "can", "please");
+
+    private final int tokenBudget;
+
+    public PromptContextBuilder() {
+        this(DEFAULT_TOKEN_BUDGET);
+    }
+
+    /**
+     * @param tokenBudget Upper bound on the estimated tokens of the context
+     */
+    public PromptContextBuilder(int tokenBudget) {
+        this.tokenBudget = tokenBudget;
+    }
+
+    /**
+     * Builds the complete prompt: the instruction, the ledger context and the question.
+     */
+    public String buildPrompt(String instruction, BillStore ledger, String question) {
+        return buildPrompt(instruction, ledger, question, List.of());
+    }
+
+    /**
+     * Builds the complete prompt, listing {@code similarRows} first among the related bills.
+     */
+    public String buildPrompt(String instruction, BillStore ledger, String question, List<Integer> similarRows) {
+        return instruction + "\n\n" + build(ledger, question, similarRows) + "\nQuestion: " + question;
+    }
+
+    /**
+     * Builds the ledger context for {@code question}. Must be called on the thread that
+     * modifies {@code ledger}.
+     */
+    public String build(BillStore ledger, String question) {
+        return build(ledger, question, List.of());
+    }
+
+    /**
+     * Builds the ledger context for {@code question}, listing {@code similarRows} first among
+     * the related bills. Must be called on the thread that modifies {@code ledger}.
+     *
+     * @param similarRows Rows found similar to the question, most similar first
+     */
+    public String build(BillStore ledger, String question, List<Integer> similarRows) {
+        Budget out = new Budget(tokenBudget);
+        if (appendSummary(out, ledger)) {
+            appendRelated(out, ledger, question, similarRows);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Builds the part of the context that does not depend on a question: the overview,
+     * categories, months, merchants and unusually large bills. A chat sends it once as the
+     * system message. Must be called on the thread that modifies {@code ledger}.
+     */
+    public String buildSummary(BillStore ledger) {
+        Budget out = new Budget(tokenBudget);
+        appendSummary(out, ledger);
+        return out.toString();
+    }
+
+    /**
+     * Builds only the bills related to {@code question}, or an empty string if there are none.
+     * Must be called on the thread that modifies {@code ledger}.
+     *
+     * @param similarRows Rows found similar to the question, most similar first
+     */
+    public String buildRelated(BillStore ledger, String question, List<Integer> similarRows) {
+        Budget out = new Budget(tokenBudget);
+        appendRelated(out, ledger, question, similarRows);
+        return out.toString();
+    }
+
+    /**
+     * @return false if the budget ran out
+     */
+    private static boolean appendSummary(Budget out, BillStore ledger) {
+        int rows = ledger.size();
+
+        long total = 0;
+        int first = Integer.MAX_VALUE;
+        int last = Integer.MIN_VALUE;
+        Map<Integer, long[]> byType = new HashMap<>();
+        TreeMap<Integer, long[]> byMonth = new TreeMap<>();
+        Map<String, long[]> byMerchant = new HashMap<>();
+        for (int row = 0; row < rows; row++) {
+            long amount = ledger.amount(row);
+            int minute = ledger.minute(row);
+            total += amount;
+            add(byType, ledger.typeId(row), amount);
+            add(byMerchant, ledger.name(row), amount);
+            if (minute != Bill.NO_MINUTE) {
+                first = Math.min(first, minute);
+                last = Math.max(last, minute);
+                add(byMonth, MONTH.bucketStart(minute), amount);
+            }
+        }
+
+        out.line("Ledger: " + rows + " bills"
+                + (first <= last ? ", " + date(first) + " to " + date(last) : "")
+                + ", total " + money(total) + " RMB");
+
+        StringBuilder types = new StringBuilder("By category:");
+        byType.entrySet().stream()
+                .sorted(Map.Entry.<Integer, long[]>comparingByValue(Comparator.comparingLong(v -> -v[0])))
+                .forEach(e -> types.append(' ').append(e.getKey() < 0 ? "(none)" : Bill.TYPES.valueOf(e.getKey()))
+                        .append(' ').append(money(e.getValue()[0])).append(" (").append(e.getValue()[1]).append(");"));
+        if (rows > 0 && !out.line(types.toString())) {
+            return false;
+        }
+
+        StringBuilder months = new StringBuilder("By month:");
+        byMonth.descendingMap().entrySet().stream().limit(MAX_MONTHS).sorted(Map.Entry.comparingByKey())
+                .forEach(e -> months.append(' ').append(MONTH.label(e.getKey())).append(' ')
+                        .append(money(e.getValue()[0])).append(';'));
+        if (!byMonth.isEmpty() && !out.line(months.toString())) {
+            return false;
+        }
+
+        StringBuilder merchants = new StringBuilder("Top merchants:");
+        byMerchant.entrySet().stream()
+                .sorted(Map.Entry.<String, long[]>comparingByValue(Comparator.comparingLong(v -> -v[0])))
+                .limit(TOP_MERCHANTS)
+                .forEach(e -> merchants.append(' ').append(e.getKey()).append(' ')
+                        .append(money(e.getValue()[0])).append(" (").append(e.getValue()[1]).append(");"));
+        if (rows > 0 && !out.line(merchants.toString())) {
+            return false;
+        }
+
+        List<Integer> outliers = outliers(ledger, total);
+        if (!outliers.isEmpty()) {
+            if (!out.line("Unusually large bills (date | name | details | cost | category):")) {
+                return false;
+            }
+            for (int row : outliers) {
+                if (!out.line(row(ledger, row))) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static void appendRelated(Budget out, BillStore ledger, String question, List<Integer> similarRows) {
+        String q = question == null ? "" : question.toLowerCase(Locale.ROOT);
+        List<Integer> relevant = new ArrayList<>(new LinkedHashSet<>(similarRows));
+        Set<Integer> similar = new HashSet<>(relevant);
+        for (int row : relevantRows(ledger, q)) {
+            if (!similar.contains(row)) {
+                relevant.add(row);
+            }
+        }
+        if (!relevant.isEmpty() && out.line("Bills related to the question (date | name | details | cost | category):")) {
+            String more = "(" + relevant.size() + " more not shown)";
+            int reserve = relevant.size() > 1 ? estimateTokens(more) + 1 : 0; // keeps room to say rows were cut
+            for (int i = 0; i < relevant.size(); i++) {
+                if (!out.line(row(ledger, relevant.get(i)), i + 1 < relevant.size() ? reserve : 0)) {
+                    out.line("(" + (relevant.size() - i) + " more not shown)");
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return an estimate of the number of model tokens in {@code text}
+     */
+    public static int estimateTokens(CharSequence text) {
+        int ascii = 0;
+        int other = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) < 128) {
+                ascii++;
+            } else {
+                other++;
+            }
+        }
+        return (ascii + 3) / 4 + other;
+    }
+
+    /**
+     * @return rows more than three standard deviations above the mean amount, largest first
+     */
+    private static List<Integer> outliers(BillStore ledger, long total) {
+        int rows = ledger.size();
+        if (rows < 10) {
+            return List.of();
+        }
+        double mean = (double) total / rows;
+        double squares = 0;
+        for (int row = 0; row < rows; row++) {
+            double d = ledger.amount(row) - mean;
+            squares += d * d;
+        }
+        double threshold = mean + 3 * Math.sqrt(squares / rows);
+        List<Integer> outliers = new ArrayList<>();
+        for (int row = 0; row < rows; row++) {
+            if (ledger.amount(row) > threshold) {
+                outliers.add(row);
+            }
+        }
+        outliers.sort(Comparator.comparingLong(row -> -ledger.amount(row)));
+        return outliers.size() > MAX_OUTLIERS ? outliers.subList(0, MAX_OUTLIERS) : outliers;
+    }
+
+    /**
+     * @return rows whose merchant, details or category is mentioned in the question, that
+     * contain one of its longer words, or that fall on a day or month it names; largest first
+     */
+    private static List<Integer> relevantRows(BillStore ledger, String q) {
+        List<Integer> rows = new ArrayList<>();
+        if (q.isBlank()) {
+            return rows;
+        }
+        List<String> words = new ArrayList<>();
+        for (String word : q.split("[^\\p{L}\\p{N}]+")) {
+            if (word.length() >= MIN_WORD_LENGTH && !STOP_WORDS.contains(word)) {
+                words.add(word);
+            }
+        }
+        List<int[]> periods = periodsIn(q);
+        Map<String, Boolean> mentioned = new HashMap<>(); // per distinct name/details/category string
+
+        for (int row = 0; row < ledger.size(); row++) {
+            int typeId = ledger.typeId(row);
+            boolean match = matches(mentioned, ledger.name(row), q, words)
+                    || matches(mentioned, ledger.details(row), q, words)
+                    || typeId >= 0 && matches(mentioned, Bill.TYPES.valueOf(typeId), q, words);
+            int minute = ledger.minute(row);
+            for (int i = 0; !match && i < periods.size() && minute != Bill.NO_MINUTE; i++) {
+                match = minute >= periods.get(i)[0] && minute < periods.get(i)[1];
+            }
+            if (match) {
+                rows.add(row);
+            }
+        }
+        rows.sort(Comparator.comparingLong(row -> -ledger.amount(row)));
+        return rows;
+    }
+
+    private static boolean matches(Map<String, Boolean> cache, String field, String q, List<String> words) {
+        if (field == null || field.isEmpty()) {
+            return false;
+        }
+        return cache.computeIfAbsent(field, f -> {
+            String value = f.toLowerCase(Locale.ROOT);
+            if (value.length() >= 2 && q.contains(value)) {
+                return true;
+            }
+            for (String word : words) {
+                if (value.contains(word)) {
+                    return true;
+                }
+            }
+            return false;
+        });
+    }
+
+    /**
+     * @return {from, to} minute ranges for every {@code yyyy-MM-dd} or {@code yyyy-MM} in {@code q}
+     */
+    private static List<int[]> periodsIn(String q) {
+        List<int[]> periods = new ArrayList<>();
+        for (int i = 0; i + 7 <= q.length(); i++) {
+            if (i > 0 && Character.isDigit(q.charAt(i - 1))) {
+                continue;
+            }
+            int day = i + 10 <= q.length() ? LedgerFormat.parseMinute(q.substring(i, i + 10) + " 00:00") : Bill.NO_MINUTE;
+            if (day != Bill.NO_MINUTE) {
+                periods.add(new int[]{day, day + MINUTES_PER_DAY});
+                continue;
+            }
+            int month = LedgerFormat.parseMinute(q.substring(i, i + 7) + "-01 00:00");
+            if (month != Bill.NO_MINUTE && (i + 7 == q.length() || !Character.isDigit(q.charAt(i + 7)))) {
+                periods.add(new int[]{month, MONTH.bucketStart(month + 31 * MINUTES_PER_DAY)});
+            }
+        }
+        return periods;
+    }
+
+    private static String row(BillStore ledger, int row) {
+        int typeId = ledger.typeId(row);
+        int minute = ledger.minute(row);
+        return (minute == Bill.NO_MINUTE ? "?" : LedgerFormat.formatMinute(minute)) + " | " + ledger.name(row)
+                + " | " + ledger.details(row) + " | " + money(ledger.amount(row))
+                + " | " + (typeId < 0 ? "" : Bill.TYPES.valueOf(typeId));
+    }
+
+    private static <K> void add(Map<K, long[]> sums, K key, long amount) {
+        long[] sum = sums.computeIfAbsent(key, k -> new long[2]);
+        sum[0] += amount;
+        sum[1]++;
+    }
+
+    private static String date(int minute) {
+        return LedgerFormat.formatMinute(minute).substring(0, 10);
+    }
+
+    private static String money(long minor) {
+        return BigDecimal.valueOf(minor, 2).toPlainString();
+    }
+
+    /**
+     * Appends whole lines while they fit the token budget.
+     */
+    private static final class Budget {
+        private final StringBuilder text = new StringBuilder();
+        private final int limit;
+        private int used;
+
+        private Budget(int limit) {
+            this.limit = limit;
+        }
+
+        boolean line(String line) {
+            return line(line, 0);
+        }
+
+        /**
+         * @param reserve Tokens that must still be left after the line
+         */
+        boolean line(String line, int reserve) {
+            int tokens = estimateTokens(line) + 1;
+            if (used + tokens + reserve > limit) {
+                return false;
+            }
+            used += tokens;
+            text.append(line).append('\n');
+            return true;
+        }
+
+        @Override
+        public String toString() {
+            return text.toString();
+        }
+    }
+}
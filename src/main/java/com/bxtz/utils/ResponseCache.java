@@ -0,0 +1,217 @@
+package com.bxtz.utils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+/**
+ * Cache of AI answers, keyed by the normalised question, the model and a fingerprint of the
+ * ledger the answer was computed from.
+ * <p>
+ * Answers are kept in a small LRU map in memory and, if a directory is given, also as one file
+ * per answer so they survive restarts. File names are a SHA-256 of the key, and each file
+ * repeats its key on the first line so a lookup never returns another question's answer.
+ * <p>
+ * When the ledger changes its fingerprint changes, so older answers stop matching. The memory
+ * tier drops them as soon as a different fingerprint is seen; disk entries stay, because they
+ * are only ever returned for exactly the bills they were computed from (for example when the
+ * same file is imported again), and the oldest ones are pruned beyond {@code maxDiskEntries}.
+ * <p>
+ * Disk writes and pruning run on a background thread; lookups read at most one small file.
+ * Instances are meant to be used from one thread.
+ */
+public class ResponseCache {
+
+    public static final int DEFAULT_MEMORY_ENTRIES = 64;
+    public static final int DEFAULT_DISK_ENTRIES = 500;
+
+    private static final String SUFFIX = ".answer";
+
+    private final Map<String, String> memory;
+    private final Path directory;
+    private final int maxDiskEntries;
+    private final ExecutorService diskWriter;
+    private long fingerprint;
+
+    /**
+     * Creates a cache that only keeps answers in memory.
+     */
+    public ResponseCache(int maxEntries) {
+        this(maxEntries, null, 0);
+    }
+
+    /**
+     * @param maxEntries Answers kept in memory
+     * @param directory Where to keep answers across runs, or null for memory only
+     * @param maxDiskEntries Answers kept in {@code directory}
+     */
+    public ResponseCache(int maxEntries, Path directory, int maxDiskEntries) {
+        this.memory = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > maxEntries;
+            }
+        };
+        this.directory = directory;
+        this.maxDiskEntries = maxDiskEntries;
+        this.diskWriter = directory == null ? null : Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ai-cache-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Creates a cache that keeps answers in {@code ~/.bills-manager/ai-cache}.
+     */
+    public static ResponseCache onDisk() {
+        return new ResponseCache(DEFAULT_MEMORY_ENTRIES,
+                Path.of(System.getProperty("user.home"), ".bills-manager", "ai-cache"), DEFAULT_DISK_ENTRIES);
+    }
+
+    /**
+     * @param ledgerFingerprint A fingerprint of the bills, such as {@code BillStore.contentHash()}
+     * @return the cached answer, or null
+     */
+    public String get(String model, String question, long ledgerFingerprint) {
+        invalidateUnless(ledgerFingerprint);
+        String key = key(model, question, ledgerFingerprint);
+        String answer = memory.get(key);
+        if (answer != null || directory == null) {
+            return answer;
+        }
+        answer = readFile(key);
+        if (answer != null) {
+            memory.put(key, answer);
+        }
+        return answer;
+    }
+
+    public void put(String model, String question, long ledgerFingerprint, String answer) {
+        invalidateUnless(ledgerFingerprint);
+        String key = key(model, question, ledgerFingerprint);
+        memory.put(key, answer);
+        if (directory != null) {
+            diskWriter.execute(() -> writeFile(key, answer));
+        }
+    }
+
+    /**
+     * @return the number of answers held in memory
+     */
+    public int size() {
+        return memory.size();
+    }
+
+    /**
+     * Lower-cases the question, collapses whitespace and drops trailing punctuation, so trivially
+     * different spellings of a question share an answer.
+     */
+    public static String normalize(String question) {
+        String q = question.strip().toLowerCase(Locale.ROOT).replaceAll("\\s+", " ");
+        int end = q.length();
+        while (end > 0 && "?!.,;:？！。，；：".indexOf(q.charAt(end - 1)) >= 0) {
+            end--;
+        }
+        return q.substring(0, end).strip();
+    }
+
+    /**
+     * Waits for pending disk writes; for tests.
+     */
+    void flush() throws Exception {
+        if (diskWriter != null) {
+            diskWriter.submit(() -> {
+            }).get();
+        }
+    }
+
+    private void invalidateUnless(long ledgerFingerprint) {
+        if (ledgerFingerprint != fingerprint) {
+            memory.clear();
+            fingerprint = ledgerFingerprint;
+        }
+    }
+
+    private static String key(String model, String question, long ledgerFingerprint) {
+        return model + '\t' + Long.toHexString(ledgerFingerprint) + '\t' + normalize(question);
+    }
+
+    private Path file(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            return directory.resolve(HexFormat.of().formatHex(digest) + SUFFIX);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private String readFile(String key) {
+        Path file = file(key);
+        try {
+            String content = Files.readString(file);
+            int newline = content.indexOf('\n');
+            if (newline < 0 || !content.substring(0, newline).equals(key)) {
+                return null;
+            }
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            return content.substring(newline + 1);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            System.out.println(e);
+            return null;
+        }
+    }
+
+    private void writeFile(String key, String answer) {
+        try {
+            Files.createDirectories(directory);
+            Path file = file(key);
+            Path temp = Files.createTempFile(directory, "answer", ".tmp");
+            Files.writeString(temp, key + '\n' + answer);
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            prune();
+        } catch (IOException | UncheckedIOException e) {
+            System.out.println(e);
+        }
+    }
+
+    /**
+     * Deletes the least recently used answers beyond {@code maxDiskEntries}.
+     */
+    private void prune() throws IOException {
+        List<Path> files;
+        try (Stream<Path> list = Files.list(directory)) {
+            files = list.filter(path -> path.getFileName().toString().endsWith(SUFFIX)).toList();
+        }
+        if (files.size() <= maxDiskEntries) {
+            return;
+        }
+        Map<Path, Long> modified = new LinkedHashMap<>();
+        for (Path path : files) {
+            modified.put(path, Files.getLastModifiedTime(path).toMillis());
+        }
+        List<Path> oldest = files.stream().sorted(Comparator.comparing(modified::get))
+                .limit(files.size() - maxDiskEntries).toList();
+        for (Path path : oldest) {
+            Files.deleteIfExists(path);
+        }
+    }
+}
@@ -0,0 +1,341 @@
+package com.bxtz.utils;
+
+import com.bxtz.entity.ChatMessage;
+import com.bxtz.entity.ChatPrompt;
+import org.reactivestreams.Subscription;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.metadata.Usage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.model.ModelOptionsUtils;
+import org.springframework.ai.ollama.OllamaChatModel;
+import org.springframework.ai.ollama.api.OllamaApi;
+import org.springframework.ai.ollama.api.OllamaOptions;
+import org.springframework.http.client.reactive.JdkClientHttpConnector;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.BaseSubscriber;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import java.io.IOException;
+import java.net.Authenticator;
+import java.net.CookieHandler;
+import java.net.ProxySelector;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * {@link AiBackend} built on Spring AI's {@link ChatClient} for Ollama.
+ * <p>
+ * The answer arrives as a {@code Flux} of chat responses. Its fragments are joined into one
+ * batch per {@link #UPDATE_INTERVAL} (about a frame), and the subscriber asks for the next
+ * batch only once it has handed on the previous one. A fast model therefore causes at most one
+ * UI update per frame, and when the consumer falls behind, tokens wait in the pipeline, up to
+ * {@link #MAX_FRAGMENTS_PER_UPDATE}, before reading from the connection pauses.
+ * <p>
+ * Cancelling the returned future disposes the subscription and closes the connection; Ollama
+ * stops generating once its client has gone. Spring's JDK connector caches the response body
+ * and never passes a cancel on to it, so each answer is sent through its own thin
+ * {@link HttpClient} over the shared one, which keeps hold of the body and cancels it directly.
+ * Connections are still pooled by the shared client. A request fails with an
+ * {@link HttpTimeoutException} if nothing arrives for the stall timeout, and with an
+ * {@link IOException} naming the status if the server answers with an error.
+ */
+public class SpringAiBackend implements AiBackend {
+
+    /** Fragments arriving within this time reach the consumer as one */
+    static final Duration UPDATE_INTERVAL = Duration.ofMillis(16);
+    static final int MAX_FRAGMENTS_PER_UPDATE = 256;
+
+    private static final Duration STALL_TIMEOUT = Duration.ofSeconds(120);
+
+    private final String serverUrl;
+    private final HttpClient http;
+    private final Semaphore inFlight;
+    private final Duration stallTimeout;
+
+    public SpringAiBackend() {
+        this(AIUtils.serverUrl());
+    }
+
+    /**
+     * @param serverUrl The model server, such as {@code http://localhost:11434}
+     */
+    public SpringAiBackend(String serverUrl) {
+        this(serverUrl, AIUtils.sharedInFlight(), STALL_TIMEOUT);
+    }
+
+    SpringAiBackend(String serverUrl, Semaphore inFlight, Duration stallTimeout) {
+        this.serverUrl = serverUrl;
+        this.http = AIUtils.sharedClient();
+        this.inFlight = inFlight;
+        this.stallTimeout = stallTimeout;
+    }
+
+    @Override
+    public CompletableFuture<ChatReply> streamChatAsync(ChatPrompt prompt, Consumer<String> onFragment) {
+        CompletableFuture<ChatReply> reply = new CompletableFuture<>();
+        Prompt request;
+        try {
+            request = toPrompt(prompt);
+        } catch (RuntimeException e) {
+            reply.completeExceptionally(e);
+            return reply;
+        }
+        if (!inFlight.tryAcquire()) {
+            reply.completeExceptionally(new RejectedExecutionException("Still waiting for earlier answers"));
+            return reply;
+        }
+
+        AtomicBoolean released = new AtomicBoolean();
+        Runnable release = () -> {
+            if (released.compareAndSet(false, true)) {
+                inFlight.release();
+            }
+        };
+        AnswerConnection connection = new AnswerConnection(http);
+        StringBuilder answer = new StringBuilder();
+        ChatResponse[] last = new ChatResponse[1];
+        BaseSubscriber<String> subscriber = new BaseSubscriber<>() {
+            @Override
+            protected void hookOnSubscribe(Subscription subscription) {
+                request(1);
+            }
+
+            @Override
+            protected void hookOnNext(String batch) {
+                answer.append(batch);
+                onFragment.accept(batch);
+                request(1);
+            }
+
+            @Override
+            protected void hookOnError(Throwable error) {
+                release.run();
+                reply.completeExceptionally(translate(error));
+            }
+
+            @Override
+            protected void hookOnComplete() {
+                release.run();
+                reply.complete(chatReply(answer.toString(), last[0]));
+            }
+        };
+        reply.whenComplete((value, error) -> {
+            if (reply.isCancelled()) {
+                subscriber.dispose();
+                connection.cancel();
+                release.run();
+            }
+        });
+        clientFor(connection).prompt(request).stream().chatResponse()
+                .timeout(stallTimeout)
+                .doOnNext(response -> last[0] = response)
+                .map(SpringAiBackend::text)
+                .filter(text -> !text.isEmpty())
+                .bufferTimeout(MAX_FRAGMENTS_PER_UPDATE, UPDATE_INTERVAL, true)
+                .map(fragments -> String.join("", fragments))
+                .subscribe(subscriber);
+        return reply;
+    }
+
+    private ChatClient clientFor(HttpClient connection) {
+        WebClient.Builder web = WebClient.builder().clientConnector(new JdkClientHttpConnector(connection));
+        OllamaApi api = OllamaApi.builder().baseUrl(serverUrl).webClientBuilder(web).build();
+        return ChatClient.create(OllamaChatModel.builder().ollamaApi(api).build());
+    }
+
+    private static Prompt toPrompt(ChatPrompt prompt) {
+        List<Message> messages = new ArrayList<>(prompt.getMessages().size());
+        for (ChatMessage message : prompt.getMessages()) {
+            messages.add(switch (message.getRole()) {
+                case "system" -> new SystemMessage(message.getContent());
+                case "assistant" -> new AssistantMessage(message.getContent());
+                default -> new UserMessage(message.getContent());
+            });
+        }
+        // Options are named as in Ollama's API ("num_ctx"), which is how OllamaOptions maps them
+        OllamaOptions options = ModelOptionsUtils.mapToClass(prompt.getOptions(), OllamaOptions.class);
+        options.setModel(prompt.getModel());
+        return new Prompt(messages, options);
+    }
+
+    private static String text(ChatResponse response) {
+        if (response.getResult() == null || response.getResult().getOutput().getText() == null) {
+            return "";
+        }
+        return response.getResult().getOutput().getText();
+    }
+
+    private static ChatReply chatReply(String content, ChatResponse last) {
+        if (last == null) {
+            return new ChatReply(content, 0, 0, 0, 0);
+        }
+        Usage usage = last.getMetadata().getUsage();
+        Duration promptTime = last.getMetadata().get("prompt-eval-duration");
+        Duration totalTime = last.getMetadata().get("total-duration");
+        return new ChatReply(content,
+                usage.getPromptTokens() == null ? 0 : usage.getPromptTokens(),
+                usage.getCompletionTokens() == null ? 0 : usage.getCompletionTokens(),
+                promptTime == null ? 0 : promptTime.toMillis(), totalTime == null ? 0 : totalTime.toMillis());
+    }
+
+    /**
+     * @return {@code error} as {@link AIUtils} would report it
+     */
+    private Throwable translate(Throwable error) {
+        if (error instanceof TimeoutException) {
+            return new HttpTimeoutException("No answer from the model for " + stallTimeout.toSeconds() + " s");
+        }
+        if (error instanceof WebClientResponseException response) {
+            return new IOException("Model server answered HTTP " + response.getStatusCode().value() + ": "
+                    + response.getResponseBodyAsString(), error);
+        }
+        return error;
+    }
+
+    /**
+     * The shared client as seen by one answer. Response bodies are handed to the caller as
+     * usual, but their subscriptions are kept so {@link #cancel} can stop reading, which makes
+     * the JDK client close the connection.
+     */
+    private static final class AnswerConnection extends HttpClient {
+        private final HttpClient shared;
+        private final List<Flow.Subscription> bodies = new ArrayList<>(1); // guarded by this
+        private boolean cancelled; // guarded by this
+
+        private AnswerConnection(HttpClient shared) {
+            this.shared = shared;
+        }
+
+        synchronized void cancel() {
+            cancelled = true;
+            bodies.forEach(Flow.Subscription::cancel);
+            bodies.clear();
+        }
+
+        private synchronized void opened(Flow.Subscription body) {
+            if (cancelled) {
+                body.cancel();
+            } else {
+                bodies.add(body);
+            }
+        }
+
+        private <T> HttpResponse.BodyHandler<T> tracked(HttpResponse.BodyHandler<T> handler) {
+            return info -> {
+                HttpResponse.BodySubscriber<T> body = handler.apply(info);
+                return new HttpResponse.BodySubscriber<>() {
+                    @Override
+                    public CompletionStage<T> getBody() {
+                        return body.getBody();
+                    }
+
+                    @Override
+                    public void onSubscribe(Flow.Subscription subscription) {
+                        opened(subscription);
+                        body.onSubscribe(subscription);
+                    }
+
+                    @Override
+                    public void onNext(List<ByteBuffer> item) {
+                        body.onNext(item);
+                    }
+
+                    @Override
+                    public void onError(Throwable throwable) {
+                        body.onError(throwable);
+                    }
+
+                    @Override
+                    public void onComplete() {
+                        body.onComplete();
+                    }
+                };
+            };
+        }
+
+        @Override
+        public <T> HttpResponse<T> send(HttpRequest request, HttpResponse.BodyHandler<T> handler)
+                throws IOException, InterruptedException {
+            return shared.send(request, tracked(handler));
+        }
+
+        @Override
+        public <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request, HttpResponse.BodyHandler<T> handler) {
+            return shared.sendAsync(request, tracked(handler));
+        }
+
+        @Override
+        public <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request, HttpResponse.BodyHandler<T> handler,
+                                                                HttpResponse.PushPromiseHandler<T> pushPromises) {
+            return shared.sendAsync(request, tracked(handler), pushPromises);
+        }
+
+        @Override
+        public Optional<CookieHandler> cookieHandler() {
+            return shared.cookieHandler();
+        }
+
+        @Override
+        public Optional<Duration> connectTimeout() {
+            return shared.connectTimeout();
+        }
+
+        @Override
+        public Redirect followRedirects() {
+            return shared.followRedirects();
+        }
+
+        @Override
+        public Optional<ProxySelector> proxy() {
+            return shared.proxy();
+        }
+
+        @Override
+        public SSLContext sslContext() {
+            return shared.sslContext();
+        }
+
+        @Override
+        public SSLParameters sslParameters() {
+            return shared.sslParameters();
+        }
+
+        @Override
+        public Optional<Authenticator> authenticator() {
+            return shared.authenticator();
+        }
+
+        @Override
+        public Version version() {
+            return shared.version();
+        }
+
+        @Override
+        public Optional<Executor> executor() {
+            return shared.executor();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.bxtz.utils;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Assigns small, stable integer ids to strings so that repeated values (categories, merchant
+ * names) can be stored once and referenced by id.
+ * <p>
+ * Lookups of known values are lock-free; adding a new value takes a short lock. Ids are
+ * handed out densely from 0 and never reused, so they can index plain arrays.
+ */
+public class StringDictionary {
+
+    private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+    private volatile String[] values = new String[16];
+    private int size; // guarded by this
+
+    /**
+     * Returns the id of {@code value}, adding it to the dictionary if necessary.
+     *
+     * @param value a non-null string
+     */
+    public int idOf(String value) {
+        Integer id = ids.get(value);
+        if (id != null) {
+            return id;
+        }
+        synchronized (this) {
+            id = ids.get(value);
+            if (id != null) {
+                return id;
+            }
+            String[] current = values;
+            if (size == current.length) {
+                current = Arrays.copyOf(current, size * 2);
+            }
+            current[size] = value;
+            values = current;
+            ids.put(value, size);
+            return size++;
+        }
+    }
+
+    /**
+     * @return the id of {@code value}, or -1 if it has never been added
+     */
+    public int lookup(String value) {
+        Integer id = ids.get(value);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * @return the string registered under {@code id}
+     */
+    public String valueOf(int id) {
+        return values[id];
+    }
+
+    /**
+     * @return the number of distinct strings; valid ids are {@code 0 .. size() - 1}
+     */
+    public int size() {
+        return ids.size();
+    }
+}
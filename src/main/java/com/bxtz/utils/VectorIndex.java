@@ -0,0 +1,457 @@
+package com.bxtz.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.SplittableRandom;
+
+/**
+ * In-memory nearest-neighbour index over embedding vectors, keyed by int.
+ * <p>
+ * Vectors are normalised when added, so similarity is the dot product (cosine similarity).
+ * Two implementations are available:
+ * <ul>
+ *     <li>{@link #flat} keeps all vectors in one contiguous {@code float[]} and scans it for
+ *     every query. Results are exact; the inner loop reads adjacent floats into four
+ *     independent sums, so the CPU can keep several multiply-adds in flight at once.</li>
+ *     <li>{@link #hnsw} builds a Hierarchical Navigable Small World graph and answers queries
+ *     by walking it from the top layer down. Results are approximate but a query only
+ *     compares against a few hundred vectors however large the index grows.</li>
+ * </ul>
+ * Adding a vector under an existing key replaces it. Instances are thread-safe.
+ */
+public abstract class VectorIndex {
+
+    /**
+     * A search result.
+     */
+    public record Hit(int key, float score) {
+    }
+
+    final int dims;
+
+    private VectorIndex(int dims) {
+        this.dims = dims;
+    }
+
+    /**
+     * @return an exact index that scans every vector
+     */
+    public static VectorIndex flat(int dims) {
+        return new Flat(dims);
+    }
+
+    /**
+     * @return an approximate HNSW index with the usual parameters (16 links per node, 32 on
+     * the bottom layer, 100 candidates while building)
+     */
+    public static VectorIndex hnsw(int dims) {
+        return new Hnsw(dims, 16, 100, 42);
+    }
+
+    public int dimensions() {
+        return dims;
+    }
+
+    /**
+     * Adds {@code vector} under {@code key}, replacing any vector already stored for it.
+     */
+    public abstract void add(int key, float[] vector);
+
+    public abstract void remove(int key);
+
+    public abstract boolean contains(int key);
+
+    /**
+     * @return the normalised vector stored for {@code key}, or null
+     */
+    public abstract float[] vector(int key);
+
+    public abstract int size();
+
+    /**
+     * @return up to {@code k} keys most similar to {@code query}, most similar first
+     */
+    public abstract List<Hit> search(float[] query, int k);
+
+    /**
+     * @return {@code vector} scaled to unit length, as a new array
+     */
+    static float[] normalize(float[] vector) {
+        double norm = 0;
+        for (float v : vector) {
+            norm += v * v;
+        }
+        float scale = norm == 0 ? 0 : (float) (1 / Math.sqrt(norm));
+        float[] unit = new float[vector.length];
+        for (int i = 0; i < vector.length; i++) {
+            unit[i] = vector[i] * scale;
+        }
+        return unit;
+    }
+
+    /**
+     * Dot product of {@code a} with the vector starting at {@code offset} in {@code b}.
+     */
+    static float dot(float[] a, float[] b, int offset) {
+        float s0 = 0;
+        float s1 = 0;
+        float s2 = 0;
+        float s3 = 0;
+        int n = a.length;
+        int i = 0;
+        for (; i + 3 < n; i += 4) {
+            s0 += a[i] * b[offset + i];
+            s1 += a[i + 1] * b[offset + i + 1];
+            s2 += a[i + 2] * b[offset + i + 2];
+            s3 += a[i + 3] * b[offset + i + 3];
+        }
+        for (; i < n; i++) {
+            s0 += a[i] * b[offset + i];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    void checkDimensions(float[] vector) {
+        if (vector.length != dims) {
+            throw new IllegalArgumentException("Expected " + dims + " dimensions, got " + vector.length);
+        }
+    }
+
+    /**
+     * @return the hits in {@code worstFirst}, most similar first
+     */
+    private static List<Hit> best(PriorityQueue<Hit> worstFirst) {
+        List<Hit> hits = new ArrayList<>(worstFirst);
+        hits.sort((a, b) -> Float.compare(b.score(), a.score()));
+        return hits;
+    }
+
+    private static void offer(PriorityQueue<Hit> worstFirst, int k, int key, float score) {
+        if (worstFirst.size() < k) {
+            worstFirst.add(new Hit(key, score));
+        } else if (score > worstFirst.peek().score()) {
+            worstFirst.poll();
+            worstFirst.add(new Hit(key, score));
+        }
+    }
+
+    /**
+     * Brute-force index: vectors packed back to back in one array.
+     */
+    private static final class Flat extends VectorIndex {
+        private float[] data = new float[0];
+        private int[] keys = new int[0];
+        private final Map<Integer, Integer> slots = new HashMap<>();
+        private int size;
+
+        private Flat(int dims) {
+            super(dims);
+        }
+
+        @Override
+        public synchronized void add(int key, float[] vector) {
+            checkDimensions(vector);
+            Integer slot = slots.get(key);
+            if (slot == null) {
+                if (size == keys.length) {
+                    int capacity = Math.max(16, size * 2);
+                    keys = Arrays.copyOf(keys, capacity);
+                    data = Arrays.copyOf(data, capacity * dims);
+                }
+                slot = size++;
+                keys[slot] = key;
+                slots.put(key, slot);
+            }
+            System.arraycopy(normalize(vector), 0, data, slot * dims, dims);
+        }
+
+        @Override
+        public synchronized void remove(int key) {
+            Integer slot = slots.remove(key);
+            if (slot == null) {
+                return;
+            }
+            int last = --size;
+            if (slot != last) { // move the last vector into the hole
+                keys[slot] = keys[last];
+                System.arraycopy(data, last * dims, data, slot * dims, dims);
+                slots.put(keys[slot], slot);
+            }
+        }
+
+        @Override
+        public synchronized boolean contains(int key) {
+            return slots.containsKey(key);
+        }
+
+        @Override
+        public synchronized float[] vector(int key) {
+            Integer slot = slots.get(key);
+            return slot == null ? null : Arrays.copyOfRange(data, slot * dims, (slot + 1) * dims);
+        }
+
+        @Override
+        public synchronized int size() {
+            return size;
+        }
+
+        @Override
+        public synchronized List<Hit> search(float[] query, int k) {
+            checkDimensions(query);
+            if (k <= 0) {
+                return List.of();
+            }
+            float[] q = normalize(query);
+            PriorityQueue<Hit> top = new PriorityQueue<>(Math.max(1, k + 1), (a, b) -> Float.compare(a.score(), b.score()));
+            for (int slot = 0; slot < size; slot++) {
+                offer(top, k, keys[slot], dot(q, data, slot * dims));
+            }
+            return best(top);
+        }
+    }
+
+    /**
+     * Hierarchical Navigable Small World graph (Malkov and Yashunin). Nodes are never deleted
+     * from the graph, since that would break paths through them; removed and replaced
+     * vectors are marked deleted, still used for navigation, and left out of results.
+     */
+    private static final class Hnsw extends VectorIndex {
+        private final int m;
+        private final int m0;
+        private final int efConstruction;
+        private final double levelFactor;
+        private final SplittableRandom random;
+
+        private final List<float[]> vectors = new ArrayList<>();
+        private final List<int[][]> links = new ArrayList<>();   // per node, per layer: neighbour ids
+        private final List<int[]> linkCounts = new ArrayList<>(); // per node, per layer
+        private final List<Integer> keys = new ArrayList<>();
+        private final Map<Integer, Integer> nodes = new HashMap<>(); // live key -> node
+        private boolean[] deleted = new boolean[16];
+        private int[] visitedStamp = new int[16]; // node was visited by the search with this stamp
+        private int stamp;
+        private int entry = -1;
+        private int topLayer = -1;
+
+        private Hnsw(int dims, int m, int efConstruction, long seed) {
+            super(dims);
+            this.m = m;
+            this.m0 = 2 * m;
+            this.efConstruction = efConstruction;
+            this.levelFactor = 1 / Math.log(m);
+            this.random = new SplittableRandom(seed);
+        }
+
+        @Override
+        public synchronized void add(int key, float[] vector) {
+            checkDimensions(vector);
+            remove(key);
+            float[] unit = normalize(vector);
+            int node = vectors.size();
+            int level = (int) (-Math.log(1 - random.nextDouble()) * levelFactor);
+            vectors.add(unit);
+            keys.add(key);
+            int[][] nodeLinks = new int[level + 1][];
+            for (int layer = 0; layer <= level; layer++) {
+                nodeLinks[layer] = new int[(layer == 0 ? m0 : m) + 1];
+            }
+            links.add(nodeLinks);
+            linkCounts.add(new int[level + 1]);
+            if (node == deleted.length) {
+                deleted = Arrays.copyOf(deleted, node * 2);
+                visitedStamp = Arrays.copyOf(visitedStamp, node * 2);
+            }
+            nodes.put(key, node);
+
+            if (entry < 0) {
+                entry = node;
+                topLayer = level;
+                return;
+            }
+            int current = entry;
+            for (int layer = topLayer; layer > level; layer--) {
+                current = greedy(unit, current, layer);
+            }
+            for (int layer = Math.min(level, topLayer); layer >= 0; layer--) {
+                List<Hit> candidates = searchLayer(unit, current, efConstruction, layer);
+                int max = layer == 0 ? m0 : m;
+                for (Hit neighbour : diverse(candidates, m)) {
+                    connect(node, neighbour.key(), layer, max);
+                    connect(neighbour.key(), node, layer, max);
+                }
+                current = candidates.get(0).key();
+            }
+            if (level > topLayer) {
+                entry = node;
+                topLayer = level;
+            }
+        }
+
+        @Override
+        public synchronized void remove(int key) {
+            Integer node = nodes.remove(key);
+            if (node != null) {
+                deleted[node] = true;
+            }
+        }
+
+        @Override
+        public synchronized boolean contains(int key) {
+            return nodes.containsKey(key);
+        }
+
+        @Override
+        public synchronized float[] vector(int key) {
+            Integer node = nodes.get(key);
+            return node == null ? null : vectors.get(node).clone();
+        }
+
+        @Override
+        public synchronized int size() {
+            return nodes.size();
+        }
+
+        @Override
+        public synchronized List<Hit> search(float[] query, int k) {
+            checkDimensions(query);
+            if (k <= 0 || entry < 0 || nodes.isEmpty()) {
+                return List.of();
+            }
+            float[] q = normalize(query);
+            int current = entry;
+            for (int layer = topLayer; layer > 0; layer--) {
+                current = greedy(q, current, layer);
+            }
+            List<Hit> hits = new ArrayList<>();
+            for (Hit hit : searchLayer(q, current, Math.max(4 * k, 64), 0)) {
+                if (!deleted[hit.key()]) {
+                    hits.add(new Hit(keys.get(hit.key()), hit.score()));
+                    if (hits.size() == k) {
+                        break;
+                    }
+                }
+            }
+            return hits;
+        }
+
+        /**
+         * @return the node on {@code layer} reached by always moving to the closest neighbour
+         */
+        private int greedy(float[] q, int current, int layer) {
+            float best = dot(q, vectors.get(current), 0);
+            boolean moved = true;
+            while (moved) {
+                moved = false;
+                int[] neighbours = links.get(current)[layer];
+                int count = linkCounts.get(current)[layer];
+                for (int i = 0; i < count; i++) {
+                    float score = dot(q, vectors.get(neighbours[i]), 0);
+                    if (score > best) {
+                        best = score;
+                        current = neighbours[i];
+                        moved = true;
+                    }
+                }
+            }
+            return current;
+        }
+
+        /**
+         * Best-first search of one layer.
+         *
+         * @return up to {@code ef} closest nodes found (as node ids in {@link Hit#key()}), closest first
+         */
+        private List<Hit> searchLayer(float[] q, int start, int ef, int layer) {
+            if (++stamp == 0) {
+                Arrays.fill(visitedStamp, 0);
+                stamp = 1;
+            }
+            PriorityQueue<Hit> candidates = new PriorityQueue<>((a, b) -> Float.compare(b.score(), a.score()));
+            PriorityQueue<Hit> results = new PriorityQueue<>((a, b) -> Float.compare(a.score(), b.score()));
+            Hit first = new Hit(start, dot(q, vectors.get(start), 0));
+            visitedStamp[start] = stamp;
+            candidates.add(first);
+            results.add(first);
+            while (!candidates.isEmpty()) {
+                Hit closest = candidates.poll();
+                if (results.size() >= ef && closest.score() < results.peek().score()) {
+                    break;
+                }
+                int[] neighbours = links.get(closest.key())[layer];
+                int count = linkCounts.get(closest.key())[layer];
+                for (int i = 0; i < count; i++) {
+                    int neighbour = neighbours[i];
+                    if (visitedStamp[neighbour] == stamp) {
+                        continue;
+                    }
+                    visitedStamp[neighbour] = stamp;
+                    float score = dot(q, vectors.get(neighbour), 0);
+                    if (results.size() < ef || score > results.peek().score()) {
+                        Hit hit = new Hit(neighbour, score);
+                        candidates.add(hit);
+                        results.add(hit);
+                        if (results.size() > ef) {
+                            results.poll();
+                        }
+                    }
+                }
+            }
+            return best(results);
+        }
+
+        /**
+         * Links {@code from} to {@code to} on {@code layer}. If {@code from} would have more
+         * than {@code max} links, its links are chosen again with {@link #diverse}.
+         */
+        private void connect(int from, int to, int layer, int max) {
+            int[] neighbours = links.get(from)[layer];
+            int[] counts = linkCounts.get(from);
+            neighbours[counts[layer]++] = to;
+            if (counts[layer] <= max) {
+                return;
+            }
+            float[] base = vectors.get(from);
+            List<Hit> current = new ArrayList<>(counts[layer]);
+            for (int i = 0; i < counts[layer]; i++) {
+                current.add(new Hit(neighbours[i], dot(base, vectors.get(neighbours[i]), 0)));
+            }
+            current.sort((a, b) -> Float.compare(b.score(), a.score()));
+            List<Hit> kept = diverse(current, max);
+            for (int i = 0; i < kept.size(); i++) {
+                neighbours[i] = kept.get(i).key();
+            }
+            counts[layer] = kept.size();
+        }
+
+        /**
+         * Picks up to {@code max} links from {@code candidates} (closest first), skipping any
+         * candidate that is closer to an already picked one than to the node itself. Links then
+         * point in different directions instead of all into the nearest cluster, which is what
+         * keeps the graph navigable in high dimensions.
+         */
+        private List<Hit> diverse(List<Hit> candidates, int max) {
+            List<Hit> picked = new ArrayList<>(max);
+            for (Hit candidate : candidates) {
+                if (picked.size() == max) {
+                    break;
+                }
+                float[] vector = vectors.get(candidate.key());
+                boolean covered = false;
+                for (Hit other : picked) {
+                    if (dot(vector, vectors.get(other.key()), 0) > candidate.score()) {
+                        covered = true;
+                        break;
+                    }
+                }
+                if (!covered) {
+                    picked.add(candidate);
+                }
+            }
+            return picked;
+        }
+    }
+}
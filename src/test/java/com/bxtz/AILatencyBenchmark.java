@@ -0,0 +1,110 @@
+package com.bxtz.utils;
+
+import com.bxtz.entity.ChatMessage;
+import com.bxtz.entity.ChatPrompt;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Manual benchmark of the {@link AiBackend}s against an {@link OllamaStandIn}. Not picked up by
+ * surefire; run with
+ * {@code java -cp target/test-classes:target/classes:<deps> com.bxtz.utils.AILatencyBenchmark [parallel]}.
+ * <p>
+ * Streams chat answers from a stand-in that answers {@code parallel} requests at a time
+ * (default 1, like Ollama), with a number of callers each sending requests back to back, and
+ * reports time to first token, total latency and throughput per backend and number of callers.
+ * A few requests fail on purpose so the error path is measured too.
+ */
+public class AILatencyBenchmark {
+    private static final int REQUESTS_PER_CALLER = 12;
+    private static final int[] CALLERS = {1, 2, 4, 8, 16};
+
+    public static void main(String[] args) throws Exception {
+        int parallel = args.length > 0 ? Integer.parseInt(args[0]) : 1;
+        try (OllamaStandIn standIn = new OllamaStandIn(0, 7)) {
+            standIn.setParallel(parallel);
+            standIn.setLatencyMillis(40);
+            standIn.setTokensPerSecond(400);
+            standIn.setAnswerTokens(40);
+            standIn.setFailureRate(0.02);
+            System.out.printf("stand-in: %d parallel, 40 ms to first token, 400 tokens/s, 40 tokens per answer, 2%% failures%n", parallel);
+            Function<Semaphore, AiBackend> http = inFlight -> new AIUtils(standIn.url() + "/api/generate",
+                    AIUtils.sharedClient(), inFlight, Duration.ofSeconds(60));
+            Function<Semaphore, AiBackend> spring = inFlight -> new SpringAiBackend(standIn.url(), inFlight, Duration.ofSeconds(60));
+            System.out.println("backend  callers  ok/failed  first token p50/p99 ms  total p50/p99 ms   req/s  tokens/s");
+            run("http", http, 1, false); // warm-up
+            run("spring", spring, 1, false);
+            for (int callers : CALLERS) {
+                run("http", http, callers, true);
+                run("spring", spring, callers, true);
+            }
+        }
+    }
+
+    private static void run(String name, Function<Semaphore, AiBackend> backend, int callers, boolean print) {
+        AiBackend client = backend.apply(new Semaphore(callers));
+        List<Long> firstTokens = Collections.synchronizedList(new ArrayList<>());
+        List<Long> totals = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger failed = new AtomicInteger();
+        AtomicLong tokens = new AtomicLong();
+        long start = System.nanoTime();
+        List<CompletableFuture<Void>> chains = new ArrayList<>();
+        for (int c = 0; c < callers; c++) {
+            CompletableFuture<Void> chain = CompletableFuture.completedFuture(null);
+            for (int r = 0; r < REQUESTS_PER_CALLER; r++) {
+                chain = chain.thenCompose(ignored -> request(client, firstTokens, totals, failed, tokens));
+            }
+            chains.add(chain);
+        }
+        CompletableFuture.allOf(chains.toArray(new CompletableFuture<?>[0])).join();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        if (print) {
+            System.out.printf("%-7s  %7d  %5d/%-3d  %9.0f / %-9.0f  %8.0f / %-7.0f  %6.1f  %8.0f%n",
+                    name, callers, totals.size(), failed.get(),
+                    percentile(firstTokens, 50), percentile(firstTokens, 99),
+                    percentile(totals, 50), percentile(totals, 99),
+                    totals.size() / seconds, tokens.get() / seconds);
+        }
+    }
+
+    private static CompletableFuture<Void> request(AiBackend client, List<Long> firstTokens, List<Long> totals,
+                                                   AtomicInteger failed, AtomicLong tokens) {
+        ChatPrompt prompt = new ChatPrompt();
+        prompt.getMessages().add(new ChatMessage("system", "Bills: lunch 25, taxi 40, rent 3000, coffee 18"));
+        prompt.getMessages().add(new ChatMessage("user", "Where does my money go?"));
+        long sent = System.nanoTime();
+        AtomicLong first = new AtomicLong(-1);
+        return client.streamChatAsync(prompt, fragment -> first.compareAndSet(-1, System.nanoTime()))
+                .handle((reply, error) -> {
+                    if (error != null) {
+                        failed.incrementAndGet();
+                    } else {
+                        totals.add(System.nanoTime() - sent);
+                        firstTokens.add(first.get() - sent);
+                        tokens.addAndGet(reply.answerTokens());
+                    }
+                    return null;
+                });
+    }
+
+    /**
+     * @return the {@code p}th percentile of {@code nanos}, in milliseconds
+     */
+    private static double percentile(List<Long> nanos, int p) {
+        if (nanos.isEmpty()) {
+            return 0;
+        }
+        List<Long> sorted = new ArrayList<>(nanos);
+        Collections.sort(sorted);
+        int index = (int) Math.ceil(p / 100.0 * sorted.size()) - 1;
+        return sorted.get(Math.max(0, index)) / 1e6;
+    }
+}
@@ -1,6 +1,29 @@
 package com.bxtz.utils;
 
+import com.bxtz.entity.ChatMessage;
+import com.bxtz.entity.ChatPrompt;
+import com.bxtz.entity.Prompt;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.http.HttpClient;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 class AIUtilsTest {
@@ -33,4 +56,167 @@ class AIUtilsTest {
             aiUtils.extractContentFromJson(invalidJson);
         }, "Should throw an exception for invalid JSON input");
     }
-}
\ No newline at end of file
+
+    @Test
+    void testServerUrlDefaultsLikeOllama() {
+        assertEquals("http://myhost:11434", AIUtils.normalizeServerUrl("myhost"));
+        assertEquals("http://0.0.0.0:11434", AIUtils.normalizeServerUrl("0.0.0.0:11434"));
+        assertEquals("http://10.0.0.5:8080", AIUtils.normalizeServerUrl(" 10.0.0.5:8080/ "));
+        assertEquals("https://ollama.example.com", AIUtils.normalizeServerUrl("https://ollama.example.com/"));
+    }
+
+    private HttpServer server;
+    private final CountDownLatch answer = new CountDownLatch(1);
+
+    /** Starts a stand-in model server that answers each request once {@link #answer} opens. */
+    private AIUtils clientForStub(Semaphore inFlight, Duration timeout) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/api/generate", exchange -> {
+            try {
+                answer.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            byte[] body = "{\"response\":\"ok\",\"done\":true}".getBytes(StandardCharsets.UTF_8);
+            try (OutputStream out = exchange.getResponseBody()) {
+                exchange.sendResponseHeaders(200, body.length);
+                out.write(body);
+            } catch (IOException ignored) {
+                // the client gave up on this request
+            }
+        });
+        server.start();
+        String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/api/generate";
+        return new AIUtils(url, HttpClient.newHttpClient(), inFlight, timeout);
+    }
+
+    @AfterEach
+    void stopServer() {
+        answer.countDown();
+        if (server != null) {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    void testConcurrencyLimitRejectsExtraRequests() throws Exception {
+        Semaphore inFlight = new Semaphore(2);
+        AIUtils client = clientForStub(inFlight, Duration.ofSeconds(10));
+
+        CompletableFuture<String> first = client.getResponseAsync(new Prompt());
+        CompletableFuture<String> second = client.getResponseAsync(new Prompt());
+        CompletableFuture<String> third = client.getResponseAsync(new Prompt());
+        ExecutionException rejected = assertThrows(ExecutionException.class, () -> third.get(1, TimeUnit.SECONDS));
+        assertInstanceOf(RejectedExecutionException.class, rejected.getCause());
+
+        answer.countDown();
+        assertEquals("ok", first.get(5, TimeUnit.SECONDS));
+        assertEquals("ok", second.get(5, TimeUnit.SECONDS));
+        assertEquals(2, inFlight.availablePermits(), "Finished requests give their permits back");
+    }
+
+    @Test
+    void testCancelReleasesPermit() throws Exception {
+        Semaphore inFlight = new Semaphore(1);
+        AIUtils client = clientForStub(inFlight, Duration.ofSeconds(10));
+
+        CompletableFuture<String> reply = client.getResponseAsync(new Prompt());
+        assertEquals(0, inFlight.availablePermits());
+        reply.cancel(true);
+        assertEquals(1, inFlight.availablePermits());
+    }
+
+    @Test
+    void testRequestTimeout() throws Exception {
+        AIUtils client = clientForStub(new Semaphore(1), Duration.ofMillis(200));
+
+        ExecutionException failure = assertThrows(ExecutionException.class,
+                () -> client.getResponseAsync(new Prompt()).get(5, TimeUnit.SECONDS));
+        assertInstanceOf(HttpTimeoutException.class, failure.getCause());
+    }
+
+    @Test
+    void testStreamDeliversFragmentsBeforeTheAnswerIsComplete() throws Exception {
+        CountDownLatch firstFragmentSeen = new CountDownLatch(1);
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/api/generate", exchange -> {
+            exchange.sendResponseHeaders(200, 0); // chunked
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write("{\"response\":\"Hel\",\"done\":false}\n".getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                firstFragmentSeen.await(10, TimeUnit.SECONDS);
+                out.write(("{\"response\":\"lo 你好\",\"done\":false}\n"
+                        + "{\"response\":\"\",\"done\":true}\n").getBytes(StandardCharsets.UTF_8));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        server.start();
+        AIUtils client = new AIUtils("http://127.0.0.1:" + server.getAddress().getPort() + "/api/generate",
+                HttpClient.newHttpClient(), new Semaphore(1), Duration.ofSeconds(10));
+
+        List<String> fragments = new CopyOnWriteArrayList<>();
+        CompletableFuture<String> reply = client.streamResponseAsync(new Prompt(), fragment -> {
+            fragments.add(fragment);
+            firstFragmentSeen.countDown();
+        });
+
+        assertTrue(firstFragmentSeen.await(5, TimeUnit.SECONDS), "The first fragment arrives on its own");
+        assertEquals("Hello 你好", reply.get(5, TimeUnit.SECONDS));
+        assertEquals(List.of("Hel", "lo 你好"), fragments);
+    }
+
+    @Test
+    void testStreamReportsModelErrors() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/api/generate", exchange -> {
+            byte[] body = "{\"error\":\"model 'x' not found\"}".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(404, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        AIUtils client = new AIUtils("http://127.0.0.1:" + server.getAddress().getPort() + "/api/generate",
+                HttpClient.newHttpClient(), new Semaphore(1), Duration.ofSeconds(10));
+
+        ExecutionException failure = assertThrows(ExecutionException.class,
+                () -> client.streamResponseAsync(new Prompt(), fragment -> fail("No fragments expected")).get(5, TimeUnit.SECONDS));
+        assertInstanceOf(IOException.class, failure.getCause());
+        assertTrue(failure.getCause().getMessage().contains("404"));
+    }
+
+    @Test
+    void testChatStreamsMessageContentAndReportsCounts() throws Exception {
+        List<String> requests = new CopyOnWriteArrayList<>();
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/api/chat", exchange -> {
+            requests.add(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+            byte[] body = ("{\"message\":{\"role\":\"assistant\",\"content\":\"Spend \"},\"done\":false}\n"
+                    + "{\"message\":{\"role\":\"assistant\",\"content\":\"less.\"},\"done\":false}\n"
+                    + "{\"message\":{\"role\":\"assistant\",\"content\":\"\"},\"done\":true,\"prompt_eval_count\":42,"
+                    + "\"eval_count\":7,\"prompt_eval_duration\":250000000,\"total_duration\":1500000000}\n")
+                    .getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        AIUtils client = new AIUtils("http://127.0.0.1:" + server.getAddress().getPort() + "/api/generate",
+                HttpClient.newHttpClient(), new Semaphore(1), Duration.ofSeconds(10));
+
+        ChatPrompt prompt = new ChatPrompt();
+        prompt.getMessages().add(new ChatMessage("system", "summary"));
+        prompt.getMessages().add(new ChatMessage("user", "What should I do?"));
+        List<String> fragments = new CopyOnWriteArrayList<>();
+        AiBackend.ChatReply reply = client.streamChatAsync(prompt, fragments::add).get(5, TimeUnit.SECONDS);
+
+        assertEquals(new AiBackend.ChatReply("Spend less.", 42, 7, 250, 1500), reply);
+        assertEquals(List.of("Spend ", "less."), fragments);
+        assertTrue(requests.get(0).contains("\"messages\":[{\"role\":\"system\",\"content\":\"summary\"}"), requests.get(0));
+        assertTrue(requests.get(0).contains("\"stream\":true"));
+        assertFalse(requests.get(0).contains("options"), "empty options are not sent");
+    }
+}
@@ -0,0 +1,93 @@
+package com.bxtz;
+
+import javafx.beans.property.SimpleStringProperty;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntFunction;
+
+/**
+ * Manual heap-footprint measurement for bills. Not picked up by surefire; run with
+ * {@code java -cp target/test-classes:target/classes:<deps> com.bxtz.BillFootprintBenchmark [rows]}.
+ * <p>
+ * Compares the previous layout (five {@code SimpleStringProperty} objects per bill) with the
+ * compact {@link Bill}, both before and after a table has asked for the properties of a
+ * screenful of rows.
+ */
+public class BillFootprintBenchmark {
+
+    /** The layout {@link Bill} had before it was made compact. */
+    static final class LegacyBill {
+        final SimpleStringProperty date;
+        final SimpleStringProperty name;
+        final SimpleStringProperty details;
+        final SimpleStringProperty cost;
+        final SimpleStringProperty type;
+
+        LegacyBill(String date, String name, String details, String cost, String type) {
+            this.date = new SimpleStringProperty(date);
+            this.name = new SimpleStringProperty(name);
+            this.details = new SimpleStringProperty(details);
+            this.cost = new SimpleStringProperty(cost);
+            this.type = new SimpleStringProperty(type);
+        }
+    }
+
+    public static void main(String[] args) {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        String[] types = {"Food", "Shopping", "Entertainment", "Others"};
+        String[] merchants = new String[5000];
+        for (int i = 0; i < merchants.length; i++) {
+            merchants[i] = "Merchant " + i;
+        }
+
+        // Strings are created per row, as an importer would, so both layouts pay for them.
+        measure("legacy (5 properties)", rows, i -> new LegacyBill(date(i), merchants[i % 5000], "Order #" + i,
+                (i % 1000) + "." + (10 + i % 90) + " RMB", types[i % 4]));
+        measure("compact", rows, i -> new Bill(date(i), merchants[i % 5000], "Order #" + i,
+                (i % 1000) + "." + (10 + i % 90) + " RMB", types[i % 4]));
+        measure("compact, 50 rows shown", rows, i -> {
+            Bill bill = new Bill(date(i), merchants[i % 5000], "Order #" + i,
+                    (i % 1000) + "." + (10 + i % 90) + " RMB", types[i % 4]);
+            if (i < 50) {
+                bill.dateProperty();
+                bill.nameProperty();
+                bill.detailsProperty();
+                bill.costProperty();
+                bill.typeProperty();
+            }
+            return bill;
+        });
+    }
+
+    private static String date(int i) {
+        return String.format("2025-%02d-%02d %02d:%02d", 1 + i % 12, 1 + i % 28, i % 24, i % 60);
+    }
+
+    private static void measure(String label, int rows, IntFunction<Object> factory) {
+        long before = usedHeap();
+        List<Object> keep = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            keep.add(factory.apply(i));
+        }
+        long after = usedHeap();
+        System.out.printf("%-24s %,8.1f MB  %,6.1f bytes/row%n", label,
+                (after - before) / 1e6, (after - before) / (double) rows);
+        if (keep.size() != rows) {
+            throw new IllegalStateException();
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
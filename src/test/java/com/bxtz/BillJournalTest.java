@@ -0,0 +1,226 @@
+package com.bxtz;
+
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BillJournalTest {
+
+    @TempDir
+    Path dir;
+
+    private static ObservableList<Bill> sampleList() {
+        ObservableList<Bill> bills = FXCollections.observableArrayList(Bill.extractor());
+        bills.addAll(
+                new Bill("2025-02-01 12:00", "Mei Tuan", "Takeout", "50 RMB", "Food"),
+                new Bill("2025-02-01 20:45", "Amazon", "Shopping", "120.50 RMB", "Shopping"),
+                new Bill("2025-02-06 01:00", "ApplePay", "Online Pay", "648 RMB", "Entertainment")
+        );
+        return bills;
+    }
+
+    private static List<String> texts(List<Bill> bills) {
+        return bills.stream()
+                .map(b -> b.getDate() + "|" + b.getName() + "|" + b.getDetails() + "|" + b.getCost() + "|" + b.getType())
+                .toList();
+    }
+
+    /**
+     * Opens the saved ledger as the app does: saved bills if any, otherwise {@code initial}.
+     */
+    private ObservableList<Bill> open(BillJournal journal, List<Bill> initial) {
+        ObservableList<Bill> bills = FXCollections.observableArrayList(Bill.extractor());
+        bills.addAll(journal.hasSavedBills() ? journal.savedBills() : initial);
+        journal.attach(BillStore.mirror(bills));
+        return bills;
+    }
+
+    @Test
+    void testChangesSurviveRestart() {
+        BillJournal journal = new BillJournal(dir);
+        assertFalse(journal.hasSavedBills());
+        ObservableList<Bill> bills = open(journal, sampleList());
+
+        bills.add(1, new Bill("2025-02-03 09:00", "Cafe", "Latte, large", "25 RMB", "Food"));
+        bills.get(0).setCost("60.5 RMB");
+        bills.get(2).setType(null);
+        bills.remove(3);
+        bills.add(new Bill("not a date", "Odd", null, "about 5", "Others"));
+        FXCollections.sort(bills, Comparator.comparing(Bill::getName));
+        journal.close();
+
+        BillJournal reopened = new BillJournal(dir);
+        assertTrue(reopened.hasSavedBills());
+        assertEquals(texts(bills), texts(reopened.savedBills()));
+        assertEquals(BillStore.mirror(bills).contentHash(),
+                BillStore.mirror(FXCollections.observableArrayList(reopened.savedBills())).contentHash());
+        reopened.close();
+    }
+
+    @Test
+    void testEmptiedLedgerStaysEmpty() {
+        BillJournal journal = new BillJournal(dir);
+        ObservableList<Bill> bills = open(journal, sampleList());
+        bills.clear();
+        journal.close();
+
+        BillJournal reopened = new BillJournal(dir);
+        assertTrue(reopened.hasSavedBills());
+        assertTrue(reopened.savedBills().isEmpty());
+        reopened.close();
+    }
+
+    @Test
+    void testJournalIsCompactedIntoSnapshot() throws IOException {
+        BillJournal journal = new BillJournal(dir, 2048);
+        ObservableList<Bill> bills = open(journal, sampleList());
+        for (int i = 0; i < 500; i++) {
+            bills.add(new Bill("2025-03-01 10:00", "Shop " + i, "Item " + i, i + " RMB", "Shopping"));
+            if (i % 7 == 0) {
+                bills.remove(i / 2);
+            }
+        }
+        journal.sync();
+        assertTrue(Files.size(dir.resolve("ledger.journal")) < Files.size(dir.resolve("ledger.snapshot")),
+                "journal compacted while it grew");
+        journal.close();
+
+        BillJournal reopened = new BillJournal(dir);
+        assertEquals(texts(bills), texts(reopened.savedBills()));
+        reopened.close();
+    }
+
+    @Test
+    void testTornRecordIsDroppedAndJournalContinues() throws IOException {
+        BillJournal journal = new BillJournal(dir);
+        ObservableList<Bill> bills = open(journal, sampleList());
+        bills.add(new Bill("2025-02-07 08:00", "Metro", "Ticket", "4 RMB", "Transport"));
+        journal.sync();
+        List<String> beforeLast = texts(bills);
+        bills.get(0).setName("Torn");
+        journal.close();
+
+        // A crash in the middle of writing the last record
+        Path file = dir.resolve("ledger.journal");
+        byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 5));
+
+        BillJournal reopened = new BillJournal(dir);
+        assertEquals(beforeLast, texts(reopened.savedBills()));
+        ObservableList<Bill> again = open(reopened, List.of());
+        again.add(new Bill("2025-02-08 08:00", "Bakery", "Bread", "12 RMB", "Food"));
+        reopened.close();
+
+        BillJournal third = new BillJournal(dir);
+        assertEquals(texts(again), texts(third.savedBills()));
+        third.close();
+    }
+
+    @Test
+    void testJournalOfEarlierSnapshotIsIgnored() throws IOException {
+        BillJournal journal = new BillJournal(dir);
+        ObservableList<Bill> bills = open(journal, sampleList());
+        bills.add(new Bill("2025-02-07 08:00", "Metro", "Ticket", "4 RMB", "Transport"));
+        journal.sync();
+        byte[] oldJournal = Files.readAllBytes(dir.resolve("ledger.journal"));
+        journal.compact();
+        journal.close();
+
+        // A crash after the new snapshot was written but before the journal was replaced
+        Files.write(dir.resolve("ledger.journal"), oldJournal);
+
+        BillJournal reopened = new BillJournal(dir);
+        assertEquals(texts(bills), texts(reopened.savedBills()));
+        reopened.close();
+    }
+
+    @Test
+    void testCorruptSnapshotIsSetAside() throws IOException {
+        BillJournal journal = new BillJournal(dir);
+        open(journal, sampleList());
+        journal.close();
+        Path snapshot = dir.resolve("ledger.snapshot");
+        byte[] bytes = Files.readAllBytes(snapshot);
+        bytes[bytes.length / 2] ^= 1;
+        Files.write(snapshot, bytes);
+
+        BillJournal reopened = new BillJournal(dir);
+        assertFalse(reopened.hasSavedBills());
+        assertTrue(Files.exists(dir.resolve("ledger.snapshot.bad")));
+        reopened.close();
+    }
+
+    @Test
+    void testRecordsShareFsyncs() {
+        BillJournal journal = new BillJournal(dir);
+        ObservableList<Bill> bills = open(journal, sampleList());
+        journal.sync();
+        for (int i = 0; i < 2000; i++) {
+            bills.add(new Bill("2025-03-01 10:00", "Shop", "Item " + i, "1 RMB", "Shopping"));
+        }
+        journal.sync();
+        assertTrue(journal.commitCount() < 2000, journal.commitCount() + " fsyncs for 2000 records");
+        journal.close();
+
+        BillJournal reopened = new BillJournal(dir);
+        assertEquals(2003, reopened.savedBills().size());
+        reopened.close();
+    }
+
+    @Test
+    void testSortIsJournaledAsNewOrderOnly() throws IOException {
+        BillJournal journal = new BillJournal(dir);
+        List<Bill> initial = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            initial.add(new Bill("2025-03-01 10:00", "Shop " + (i * 7919 % 1000), "Item " + i, i + " RMB", "Shopping"));
+        }
+        ObservableList<Bill> bills = open(journal, initial);
+        journal.sync();
+        long before = Files.size(dir.resolve("ledger.journal"));
+        FXCollections.sort(bills, Comparator.comparing(Bill::getName));
+        journal.sync();
+        // one int per row, not the bills themselves
+        assertTrue(Files.size(dir.resolve("ledger.journal")) - before < 4100);
+        journal.close();
+
+        BillJournal reopened = new BillJournal(dir);
+        assertEquals(texts(bills), texts(reopened.savedBills()));
+        reopened.close();
+    }
+
+    @Test
+    void testFailedFirstSnapshotIsReportedAndRetried() throws IOException {
+        Path blocked = dir.resolve("blocked");
+        Files.writeString(blocked, ""); // a file where the directory should be
+        BillJournal journal = new BillJournal(blocked);
+        List<String> failures = new CopyOnWriteArrayList<>();
+        journal.setOnFailure(failures::add);
+        ObservableList<Bill> bills = open(journal, sampleList());
+        journal.sync();
+        assertEquals(1, failures.size(), failures.toString());
+
+        bills.add(new Bill("2025-02-07 08:00", "Metro", "Ticket", "4 RMB", "Transport"));
+        journal.sync();
+        assertEquals(1, failures.size(), "reported once while it keeps failing");
+
+        Files.delete(blocked);
+        bills.add(new Bill("2025-02-08 08:00", "Bakery", "Bread", "12 RMB", "Food"));
+        journal.close();
+
+        BillJournal reopened = new BillJournal(blocked);
+        assertEquals(texts(bills), texts(reopened.savedBills()));
+        reopened.close();
+    }
+}
@@ -0,0 +1,163 @@
+package com.bxtz;
+
+import com.bxtz.utils.VectorIndex;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BillRetrieverTest {
+
+    @TempDir
+    Path dir;
+
+    /** Embeds a text as its letter counts, so texts sharing letters are close; counts texts seen */
+    private static class LetterEmbedder implements BillRetriever.Embedder {
+        final AtomicInteger texts = new AtomicInteger();
+        volatile boolean failing;
+
+        @Override
+        public float[][] embed(List<String> batch) throws Exception {
+            if (failing) {
+                throw new IOException("model offline");
+            }
+            assertTrue(batch.size() <= BillRetriever.BATCH_SIZE);
+            texts.addAndGet(batch.size());
+            float[][] vectors = new float[batch.size()][26];
+            for (int i = 0; i < batch.size(); i++) {
+                for (char c : batch.get(i).toLowerCase(Locale.ROOT).toCharArray()) {
+                    if (c >= 'a' && c <= 'z') {
+                        vectors[i][c - 'a']++;
+                    }
+                }
+            }
+            return vectors;
+        }
+    }
+
+    private static BillStore ledger(int bills) {
+        BillStore store = new BillStore();
+        List<Bill> list = new ArrayList<>();
+        for (int i = 0; i < bills; i++) {
+            list.add(new Bill("2025-01-01 10:00", "shop" + i % 100, "item", (i + 1) + " RMB", "Others"));
+        }
+        store.addAll(list);
+        return store;
+    }
+
+    @Test
+    void testEmbedsDistinctTextsAndFollowsChanges() throws Exception {
+        BillStore store = ledger(250);
+        LetterEmbedder embedder = new LetterEmbedder();
+        BillRetriever retriever = new BillRetriever(store, embedder, "letters", VectorIndex::flat, null);
+        retriever.awaitIdle();
+        assertEquals(100, retriever.indexedCount());
+        assertEquals(100, embedder.texts.get());
+
+        store.add(new Bill("2025-01-02 10:00", "zzz", "quiz", "5 RMB", "Food"));
+        store.add(new Bill("2025-01-02 11:00", "shop1", "item", "5 RMB", "Food"));
+        store.set(0, new Bill("2025-01-01 10:00", "vvv", "jazz", "1 RMB", "Food"));
+        retriever.awaitIdle();
+        assertEquals(102, retriever.indexedCount());
+        assertEquals(102, embedder.texts.get());
+
+        List<String> similar = retriever.similarTextsAsync("zzz quiz", 1).get();
+        assertEquals(List.of("zzz\nquiz"), similar);
+        assertEquals(List.of(250), retriever.rowsFor(similar));
+    }
+
+    @Test
+    void testRowsForOrdersByRankThenAmount() throws Exception {
+        BillStore store = ledger(300);
+        BillRetriever retriever = new BillRetriever(store, new LetterEmbedder(), "letters", VectorIndex::flat, null);
+        retriever.awaitIdle();
+        List<Integer> rows = retriever.rowsFor(List.of("shop2\nitem", "shop1\nitem", "not in the ledger"));
+        assertEquals(List.of(202, 102, 2, 201, 101, 1), rows);
+        assertTrue(retriever.rowsFor(List.of()).isEmpty());
+    }
+
+    @Test
+    void testSavedVectorsAreNotEmbeddedAgain() throws Exception {
+        Path file = dir.resolve("embeddings.bin");
+        LetterEmbedder first = new LetterEmbedder();
+        BillRetriever retriever = new BillRetriever(ledger(100), first, "letters", VectorIndex::flat, file);
+        retriever.awaitIdle();
+        assertEquals(100, first.texts.get());
+
+        BillStore store = ledger(100);
+        store.add(new Bill("2025-01-02 10:00", "new shop", "new item", "5 RMB", "Food"));
+        LetterEmbedder second = new LetterEmbedder();
+        BillRetriever reloaded = new BillRetriever(store, second, "letters", VectorIndex::hnsw, file);
+        reloaded.awaitIdle();
+        assertEquals(101, reloaded.indexedCount());
+        assertEquals(1, second.texts.get());
+
+        // Vectors of another model are not reused
+        LetterEmbedder other = new LetterEmbedder();
+        BillRetriever otherModel = new BillRetriever(ledger(100), other, "other", VectorIndex::flat, file);
+        otherModel.awaitIdle();
+        assertEquals(100, other.texts.get());
+    }
+
+    @Test
+    void testUnreachableModelLeavesIndexUsable() throws Exception {
+        BillStore store = ledger(10);
+        LetterEmbedder embedder = new LetterEmbedder();
+        BillRetriever retriever = new BillRetriever(store, embedder, "letters", VectorIndex::flat, null);
+        retriever.awaitIdle();
+
+        embedder.failing = true;
+        store.add(new Bill("2025-01-02 10:00", "lost", "lost", "5 RMB", "Food"));
+        retriever.awaitIdle();
+        assertEquals(10, retriever.indexedCount());
+        assertThrows(Exception.class, () -> retriever.similarTextsAsync("shop", 3).get());
+
+        // The text is queued again once its bill changes
+        embedder.failing = false;
+        store.set(10, new Bill("2025-01-02 10:00", "lost", "lost", "6 RMB", "Food"));
+        retriever.awaitIdle();
+        assertEquals(11, retriever.indexedCount());
+        assertEquals(3, retriever.similarTextsAsync("shop", 3).get().size());
+    }
+
+    @Test
+    void testTextsNoBillCarriesLeaveTheIndex() throws Exception {
+        Path file = dir.resolve("embeddings.bin");
+        BillStore store = ledger(200); // shop0 to shop99, two rows each
+        LetterEmbedder embedder = new LetterEmbedder();
+        BillRetriever retriever = new BillRetriever(store, embedder, "letters", VectorIndex::flat, file);
+        retriever.awaitIdle();
+
+        store.set(0, new Bill("2025-01-01 10:00", "zzz", "quiz", "1 RMB", "Food"));
+        retriever.awaitIdle();
+        assertEquals(101, retriever.indexedCount(), "shop0 is still on row 100");
+
+        store.set(100, new Bill("2025-01-01 10:00", "zzz", "quiz", "1 RMB", "Food"));
+        store.remove(150, 200); // the second rows of shop50 to shop99
+        store.remove(50, 51);   // the last row of shop50
+        retriever.awaitIdle();
+        assertEquals(99, retriever.indexedCount(), "shop0 and shop50 are gone, zzz came");
+        assertFalse(retriever.similarTextsAsync("shop0 item", 100).get().contains("shop0\nitem"));
+
+        // A text that comes back reuses its vector
+        store.add(new Bill("2025-01-02 10:00", "shop0", "item", "5 RMB", "Food"));
+        retriever.awaitIdle();
+        assertEquals(100, retriever.indexedCount());
+        assertEquals(102, embedder.texts.get(), "100 shops, zzz and the question");
+        assertTrue(retriever.similarTextsAsync("shop0 item", 100).get().contains("shop0\nitem"));
+
+        // Unused vectors stay in the file
+        LetterEmbedder second = new LetterEmbedder();
+        BillRetriever reloaded = new BillRetriever(ledger(200), second, "letters", VectorIndex::flat, file);
+        reloaded.awaitIdle();
+        assertEquals(100, reloaded.indexedCount());
+        assertEquals(0, second.texts.get());
+    }
+}
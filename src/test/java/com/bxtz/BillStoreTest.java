@@ -0,0 +1,222 @@
+package com.bxtz;
+
+import javafx.collections.FXCollections;
+import javafx.collections.ListChangeListener;
+import javafx.collections.ObservableList;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BillStoreTest {
+
+    private static ObservableList<Bill> sampleList() {
+        ObservableList<Bill> bills = FXCollections.observableArrayList(Bill.extractor());
+        bills.addAll(
+                new Bill("2025-02-01 12:00", "Mei Tuan", "Takeout", "50 RMB", "Food"),
+                new Bill("2025-02-01 20:45", "Amazon", "Shopping", "120.50 RMB", "Shopping"),
+                new Bill("2025-02-06 01:00", "ApplePay", "Online Pay", "648 RMB", "Entertainment")
+        );
+        return bills;
+    }
+
+    @Test
+    void testMirrorFollowsAddsRemovesAndEdits() {
+        ObservableList<Bill> bills = sampleList();
+        BillStore store = BillStore.mirror(bills);
+        assertEquals(3, store.size());
+        assertEquals(81850, store.totalMinor());
+
+        bills.add(1, new Bill("2025-02-03 09:00", "Cafe", "Latte", "25 RMB", "Food"));
+        assertEquals("Cafe", store.name(1));
+        assertEquals("Amazon", store.name(2));
+
+        bills.get(0).setCost("60 RMB");
+        assertEquals(6000, store.amount(0));
+
+        bills.remove(2);
+        assertEquals(3, store.size());
+        assertEquals(6000 + 2500 + 64800, store.totalMinor());
+
+        bills.setAll(new Bill("2025-03-01 10:00", "Only", "One", "1 RMB", "Others"));
+        assertEquals(1, store.size());
+        assertEquals(100, store.totalMinor());
+    }
+
+    @Test
+    void testContentHashFollowsContentsNotHistory() {
+        ObservableList<Bill> bills = sampleList();
+        BillStore store = BillStore.mirror(bills);
+        long original = store.contentHash();
+        assertEquals(original, BillStore.mirror(sampleList()).contentHash());
+
+        bills.get(1).setDetails("Books");
+        assertNotEquals(original, store.contentHash());
+        bills.get(1).setDetails("Shopping");
+        assertEquals(original, store.contentHash());
+
+        bills.add(new Bill("2025-02-01 12:00", "Mei Tuan", "Takeout", "50 RMB", "Food"));
+        assertNotEquals(original, store.contentHash(), "a duplicate row must count");
+        bills.remove(3);
+        FXCollections.reverse(bills);
+        assertEquals(original, store.contentHash(), "order does not matter");
+
+        bills.clear();
+        assertEquals(0, store.contentHash());
+    }
+
+    @Test
+    void testAggregationsScanColumns() {
+        BillStore store = BillStore.mirror(sampleList());
+
+        TreeMap<Integer, Long> byDay = store.sumByDay();
+        assertEquals(2, byDay.size());
+        assertEquals(17050L, byDay.firstEntry().getValue(), "Two bills on 2025-02-01");
+
+        long[] byType = store.sumByType();
+        assertEquals(5000, byType[Bill.TYPES.lookup("Food")]);
+        assertEquals(64800, byType[Bill.TYPES.lookup("Entertainment")]);
+    }
+
+    @Test
+    void testListenersReceiveOldValues() {
+        ObservableList<Bill> bills = sampleList();
+        BillStore store = BillStore.mirror(bills);
+        List<String> events = new ArrayList<>();
+        store.addListener(new BillStore.Listener() {
+            @Override
+            public void rowsAdded(BillStore s, int from, int to) {
+                events.add("add " + from + "-" + to);
+            }
+
+            @Override
+            public void rowsRemoved(BillStore s, int from, BillStore removed) {
+                events.add("remove " + from + " " + removed.name(0) + " " + removed.amount(0));
+            }
+
+            @Override
+            public void rowUpdated(BillStore s, int row, long oldAmount, int oldMinute, int oldTypeId, String oldName, String oldDetails) {
+                events.add("update " + row + " " + oldAmount + "->" + s.amount(row));
+            }
+        });
+
+        bills.get(2).setCost("700 RMB");
+        bills.remove(0);
+        bills.add(new Bill("2025-02-07 01:00", "Taxi", "Ride", "30 RMB", "Others"));
+
+        assertEquals(List.of("update 2 64800->70000", "remove 0 Mei Tuan 5000", "add 2-3"), events);
+    }
+
+    @Test
+    void testSortIsReportedAsPermutation() {
+        ObservableList<Bill> bills = sampleList();
+        BillStore store = BillStore.mirror(bills);
+        long hash = store.contentHash();
+        List<String> events = new ArrayList<>();
+        store.addListener(new BillStore.Listener() {
+            @Override
+            public void rowsAdded(BillStore s, int from, int to) {
+                events.add("add");
+            }
+
+            @Override
+            public void rowsRemoved(BillStore s, int from, BillStore removed) {
+                events.add("remove");
+            }
+
+            @Override
+            public void rowsPermuted(BillStore s, int from, int[] newRows) {
+                events.add("permute " + from + " " + Arrays.toString(newRows));
+            }
+        });
+
+        FXCollections.sort(bills, Comparator.comparing(Bill::getName));
+
+        assertEquals(List.of("permute 0 [2, 0, 1]"), events);
+        assertEquals(List.of("Amazon", "ApplePay", "Mei Tuan"), List.of(store.name(0), store.name(1), store.name(2)));
+        assertEquals("Online Pay", store.bill(1).getDetails());
+        assertEquals(64800, store.amount(1));
+        assertEquals(hash, store.contentHash());
+        assertThrows(IllegalArgumentException.class, () -> store.permute(0, new int[]{0, 0, 1}));
+    }
+
+    @Test
+    void testCopyIsIndependentOfTheStore() {
+        BillStore store = new BillStore();
+        for (int i = 0; i < 40_000; i++) { // spans several segments
+            store.add(new Bill("2025-01-01 10:00", "Shop " + i, "Order " + i, i + " RMB", "Others"));
+        }
+        BillStore copy = store.copy(10_000, 30_000);
+        store.set(10_000, new Bill("2025-01-02 10:00", "Changed", null, "1 RMB", "Food"));
+        store.remove(0, 20_000);
+
+        assertEquals(20_000, copy.size());
+        assertEquals("Shop 10000", copy.name(0));
+        assertEquals("Order 29999", copy.details(19_999));
+        assertEquals(2_999_900, copy.amount(19_999));
+
+        copy.add(new Bill("2025-01-03 10:00", "Grown", null, "2 RMB", "Food"));
+        assertEquals("Grown", copy.name(20_000));
+        assertEquals("Shop 29999", copy.name(19_999));
+    }
+
+    @Test
+    void testReadOnlyViewMaterializesRowsAndReportsChanges() {
+        BillStore store = new BillStore();
+        for (int i = 0; i < 40_000; i++) { // spans several segments
+            store.add(new Bill("2025-01-01 10:00", "Shop " + i, "Order " + i, i + " RMB", "Others"));
+        }
+        ObservableList<Bill> view = store.asList();
+        assertEquals(40_000, view.size());
+        assertEquals("Shop 39999", view.get(39_999).getName());
+        assertEquals("39999 RMB", view.get(39_999).getCost());
+        assertSame(view.get(5), view.get(5), "Recently used rows are cached");
+        assertThrows(UnsupportedOperationException.class, () -> view.add(new Bill("d", "n", "d", "1 RMB", "t")));
+
+        List<String> changes = new ArrayList<>();
+        view.addListener((ListChangeListener<Bill>) c -> {
+            while (c.next()) {
+                changes.add(c.wasRemoved() ? "removed " + c.getRemoved().get(0).getName() : "added " + c.getFrom());
+            }
+        });
+        store.remove(0, 1);
+        store.add(new Bill("x", "Raw", "Row", "abc", null));
+
+        assertEquals(List.of("removed Shop 0", "added 39999"), changes);
+        assertEquals("Shop 1", view.get(0).getName());
+        assertEquals("x", view.get(39_999).getDate());
+        assertEquals("abc", view.get(39_999).getCost());
+    }
+
+    @Test
+    void testSortReordersStoreAndReportsPermutationToView() {
+        BillStore store = new BillStore();
+        store.add(new Bill("2025-01-03 10:00", "C", "", "3 RMB", "Food"));
+        store.add(new Bill("2025-01-01 10:00", "A", "", "1 RMB", "Food"));
+        store.add(new Bill("2025-01-02 10:00", "B", "", "2 RMB", "Food"));
+        ObservableList<Bill> view = store.asList();
+        view.get(0); // cached before the sort
+
+        List<Integer> permutation = new ArrayList<>();
+        view.addListener((ListChangeListener<Bill>) c -> {
+            while (c.next()) {
+                assertTrue(c.wasPermutated());
+                for (int i = c.getFrom(); i < c.getTo(); i++) {
+                    permutation.add(c.getPermutation(i));
+                }
+            }
+        });
+        store.sort(Comparator.comparing(Bill::getName));
+
+        assertEquals(List.of(2, 0, 1), permutation);
+        assertEquals(List.of("A", "B", "C"), view.stream().map(Bill::getName).toList());
+        long version = store.version();
+        store.sort(Comparator.comparing(Bill::getName));
+        assertEquals(version, store.version(), "An already sorted store is left alone");
+    }
+}
@@ -39,4 +39,60 @@ class BillTest {
         assertEquals(billData[3], bill.getCost());
         assertEquals(billData[4], bill.getType());
     }
-}
\ No newline at end of file
+
+    @Test
+    void testCompactEncodingRoundTripsOriginalStrings() {
+        String[][] samples = {
+                {"2025-05-23 10:00", "50 RMB"},
+                {"2025-05-23 10:00", "10.50 RMB"},
+                {"2025-05-23 10:00", "10.5 RMB"},
+                {"2025-02-30 10:00", "050 RMB"},  // invalid day, leading zero
+                {"d1", ""},
+                {"2025/05/23", "12.345 RMB"},
+                {null, null},
+                {"2025-05-23 10:00", "-0 RMB"},
+        };
+        for (String[] sample : samples) {
+            Bill bill = new Bill(sample[0], "n", "d", sample[1], null);
+            assertEquals(sample[0], bill.getDate());
+            assertEquals(sample[1], bill.getCost());
+            assertNull(bill.getType());
+        }
+    }
+
+    @Test
+    void testPrimitiveAccessors() {
+        Bill bill = new Bill("1970-01-02 00:01", "n", "d", "10.50 RMB", "Food");
+        assertEquals(24 * 60 + 1, bill.getEpochMinute());
+        assertEquals(1050, bill.getCostMinor());
+        assertEquals("Food", Bill.TYPES.valueOf(bill.getTypeId()));
+        assertEquals(bill.getTypeId(), new Bill("x", "n", "d", "1 RMB", "Food").getTypeId());
+
+        Bill lenient = new Bill("not a date", "n", "d", "12.345rmb", "Food");
+        assertEquals(Bill.NO_MINUTE, lenient.getEpochMinute());
+        assertEquals(1235, lenient.getCostMinor(), "Extra decimals round half up");
+        assertEquals(0, new Bill("x", "n", "d", "abc", "Food").getCostMinor());
+    }
+
+    @Test
+    void testPropertiesAndSettersStayInSync() {
+        Bill bill = new Bill("2025-05-23 10:00", "n", "d", "50 RMB", "Food");
+        int[] notifications = {0};
+        bill.addListener(observable -> notifications[0]++);
+
+        bill.setCost("75.25 RMB");
+        assertEquals(7525, bill.getCostMinor());
+        assertEquals("75.25 RMB", bill.costProperty().get());
+
+        bill.costProperty().set("80 RMB");
+        assertEquals(8000, bill.getCostMinor());
+        assertEquals("80 RMB", bill.getCost());
+
+        bill.setType("Shopping");
+        assertEquals("Shopping", bill.typeProperty().get());
+        bill.dateProperty().set("2025-05-24 11:00");
+        assertEquals("2025-05-24 11:00", bill.getDate());
+
+        assertEquals(4, notifications[0]);
+    }
+}
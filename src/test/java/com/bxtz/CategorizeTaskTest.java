@@ -0,0 +1,139 @@
+package com.bxtz.utils;
+
+import com.bxtz.Bill;
+import com.bxtz.BillStore;
+import com.bxtz.entity.Prompt;
+import javafx.application.Platform;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CategorizeTaskTest {
+
+    @BeforeAll
+    static void initJavaFX() {
+        try {
+            new javafx.embed.swing.JFXPanel(); // Categories are applied on the FX thread
+        } catch (Exception e) {
+            System.err.println("Could not initialize JavaFX Toolkit for testing: " + e.getMessage());
+        }
+    }
+
+    /** A stand-in model that files merchants containing "cafe" under Food and the rest under Shopping */
+    private static Function<Prompt, CompletableFuture<String>> stubModel(List<String> prompts) {
+        Pattern line = Pattern.compile("(?m)^(\\d+)\\. (\\S+)");
+        return prompt -> {
+            prompts.add(prompt.getPrompt());
+            assertEquals("json", prompt.getFormat());
+            StringBuilder json = new StringBuilder("Sure! {");
+            Matcher m = line.matcher(prompt.getPrompt());
+            while (m.find()) {
+                json.append(json.length() > 7 ? "," : "").append('"').append(m.group(1)).append("\":\"")
+                        .append(m.group(2).contains("cafe") ? "food" : "Shopping").append('"');
+            }
+            return CompletableFuture.completedFuture(json.append('}').toString());
+        };
+    }
+
+    private static void waitForFxThread() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(1);
+        Platform.runLater(latch::countDown);
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void testBatchesAndMemoizesPerMerchant() throws Exception {
+        List<Bill> bills = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            bills.add(new Bill("2025-01-01 10:00", (i % 100 % 3 == 0 ? "cafe" : "store") + (i % 100), "item", "1 RMB",
+                    i % 2 == 0 ? "Others" : null));
+        }
+        bills.add(new Bill("2025-01-01 10:00", "cafe1", "item", "1 RMB", "Entertainment"));
+        List<String> prompts = new ArrayList<>();
+        Map<String, String> memo = new ConcurrentHashMap<>();
+
+        CategorizeTask task = new CategorizeTask(bills, memo, stubModel(prompts));
+        assertEquals(300, task.billCount());
+        task.run();
+        assertEquals(300, task.get());
+        waitForFxThread();
+
+        assertEquals(3, prompts.size(), "100 merchants in batches of " + CategorizeTask.BATCH_SIZE);
+        assertEquals("Food", bills.get(0).getType());
+        assertEquals("Shopping", bills.get(1).getType());
+        assertEquals("Entertainment", bills.get(300).getType(), "categorised bills are left alone");
+        assertEquals(100, memo.size());
+
+        bills.add(new Bill("2025-01-02 10:00", "cafe0", "again", "1 RMB", null));
+        CategorizeTask again = new CategorizeTask(bills, memo, stubModel(prompts));
+        again.run();
+        assertEquals(1, again.get());
+        assertEquals(3, prompts.size(), "a known merchant never goes to the model");
+        waitForFxThread();
+        assertEquals("Food", bills.get(301).getType());
+    }
+
+    @Test
+    void testRetriesWhileModelIsBusyAndSkipsBadAnswers() throws Exception {
+        List<Bill> bills = List.of(new Bill("2025-01-01 10:00", "a", "", "1 RMB", null),
+                new Bill("2025-01-01 10:00", "b", "", "1 RMB", null));
+        AtomicInteger calls = new AtomicInteger();
+        Map<String, String> memo = new ConcurrentHashMap<>();
+        CategorizeTask task = new CategorizeTask(bills, memo, prompt -> calls.incrementAndGet() == 1
+                ? CompletableFuture.failedFuture(new RejectedExecutionException("busy"))
+                : CompletableFuture.completedFuture("{\"1\": \"Groceries\", \"2\": \"Entertainment\"}"));
+        task.run();
+        assertEquals(1, task.get());
+        assertEquals(2, calls.get());
+        assertEquals(Map.of("b", "Entertainment"), memo, "unknown categories are not remembered");
+    }
+
+    @Test
+    void testParseAnswer() {
+        List<String> names = List.of("x", "y", "z");
+        assertEquals(Map.of("x", "Food", "z", "Others"),
+                CategorizeTask.parseAnswer("```json\n{\"1\":\" FOOD \",\"2\":\"\",\"3\":\"others\"}\n```", names));
+        assertTrue(CategorizeTask.parseAnswer("no idea", names).isEmpty());
+        assertTrue(CategorizeTask.parseAnswer("{broken", names).isEmpty());
+    }
+
+    @Test
+    void testAppliesAnswersThroughTheStore() throws Exception {
+        BillStore ledger = new BillStore();
+        ledger.add(new Bill("2025-01-01 10:00", "cafe1", "latte", "1 RMB", null));
+        ledger.add(new Bill("2025-01-01 11:00", "store1", "pens", "2 RMB", "Others"));
+        ledger.add(new Bill("2025-01-01 12:00", "cafe1", "tea", "3 RMB", "Entertainment"));
+        List<String> updated = new ArrayList<>();
+        ledger.addListener(new BillStore.Listener() {
+            @Override
+            public void rowUpdated(BillStore store, int row, long oldAmount, int oldMinute, int oldTypeId, String oldName, String oldDetails) {
+                updated.add(store.name(row));
+            }
+        });
+
+        CategorizeTask task = new CategorizeTask(ledger, new ConcurrentHashMap<>(), stubModel(new ArrayList<>()));
+        assertEquals(2, task.billCount());
+        task.run();
+        assertEquals(2, task.get());
+        waitForFxThread();
+
+        assertEquals("Food", ledger.bill(0).getType());
+        assertEquals("Shopping", ledger.bill(1).getType());
+        assertEquals("Entertainment", ledger.bill(2).getType(), "categorised bills are left alone");
+        assertEquals(List.of("cafe1", "store1"), updated);
+    }
+}
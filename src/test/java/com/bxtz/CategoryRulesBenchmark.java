@@ -0,0 +1,86 @@
+package com.bxtz.utils;
+
+import com.bxtz.Bill;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+/**
+ * Manual benchmark for {@link CategoryRules}. Not picked up by surefire; run with
+ * {@code java -cp target/test-classes:target/classes:<deps> com.bxtz.utils.CategoryRulesBenchmark}.
+ * <p>
+ * Categorises the same bills with growing rule sets, once through the compiled automaton and
+ * once with a loop that tries every rule in turn, and prints bills per second for each.
+ */
+public class CategoryRulesBenchmark {
+    private static final int BILLS = 20_000;
+
+    public static void main(String[] args) {
+        Random random = new Random(1);
+        List<Bill> bills = new ArrayList<>();
+        for (int i = 0; i < BILLS; i++) {
+            bills.add(new Bill("2025-01-01 10:00", "Merchant " + word(random) + " " + random.nextInt(5000),
+                    "order of " + word(random) + " and " + word(random), "1 RMB", null));
+        }
+        for (int size : new int[]{10, 100, 1_000, 5_000}) {
+            List<CategoryRules.Rule> rules = new ArrayList<>();
+            for (int r = 0; r < size; r++) {
+                boolean regex = r % 20 == 19;
+                String pattern = regex ? "^merchant " + word(random) + "\\b" : word(random) + " " + random.nextInt(5000);
+                rules.add(new CategoryRules.Rule("c" + r % 7, CategoryRules.Field.values()[r % 3], pattern, regex));
+            }
+            CategoryRules compiled = new CategoryRules(rules);
+            run(size, "automaton", bills, bill -> compiled.categorize(bill.getName(), bill.getDetails()));
+            Pattern[] patterns = rules.stream().map(rule -> rule.regex()
+                    ? Pattern.compile(rule.pattern(), Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE) : null).toArray(Pattern[]::new);
+            run(size, "loop over rules", bills, bill -> loop(rules, patterns, bill));
+        }
+    }
+
+    /** Tries every rule in order, with patterns compiled and fields lower-cased once per bill */
+    private static String loop(List<CategoryRules.Rule> rules, Pattern[] patterns, Bill bill) {
+        String name = bill.getName().toLowerCase(Locale.ROOT);
+        String details = bill.getDetails().toLowerCase(Locale.ROOT);
+        for (int r = 0; r < rules.size(); r++) {
+            CategoryRules.Rule rule = rules.get(r);
+            boolean inName = rule.field() != CategoryRules.Field.DETAILS;
+            boolean inDetails = rule.field() != CategoryRules.Field.NAME;
+            boolean match = patterns[r] != null
+                    ? inName && patterns[r].matcher(name).find() || inDetails && patterns[r].matcher(details).find()
+                    : inName && name.contains(rule.pattern()) || inDetails && details.contains(rule.pattern());
+            if (match) {
+                return rule.category();
+            }
+        }
+        return null;
+    }
+
+    private static String word(Random random) {
+        char[] word = new char[4 + random.nextInt(4)];
+        for (int i = 0; i < word.length; i++) {
+            word[i] = (char) ('a' + random.nextInt(26));
+        }
+        return new String(word);
+    }
+
+    private static void run(int rules, String label, List<Bill> bills, Function<Bill, String> categorize) {
+        long hits = 0;
+        for (Bill bill : bills) { // warm-up
+            hits += categorize.apply(bill) == null ? 0 : 1;
+        }
+        long start = System.nanoTime();
+        int done = 0;
+        while (System.nanoTime() - start < 1_000_000_000L) {
+            for (Bill bill : bills) {
+                hits += categorize.apply(bill) == null ? 0 : 1;
+            }
+            done += bills.size();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%,6d rules  %-16s %,14.0f bills/s   (%d)%n", rules, label, done / seconds, hits & 1);
+    }
+}
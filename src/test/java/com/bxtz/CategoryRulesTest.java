@@ -0,0 +1,125 @@
+package com.bxtz.utils;
+
+import com.bxtz.Bill;
+import org.junit.jupiter.api.Test;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CategoryRulesTest {
+
+    /** Tries every rule in order, the way the automaton must agree with */
+    static String naive(List<CategoryRules.Rule> rules, String name, String details) {
+        for (CategoryRules.Rule rule : rules) {
+            for (String field : new String[]{rule.field() != CategoryRules.Field.DETAILS ? name : null,
+                    rule.field() != CategoryRules.Field.NAME ? details : null}) {
+                if (field == null) {
+                    continue;
+                }
+                boolean match = rule.regex()
+                        ? Pattern.compile(rule.pattern(), Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE).matcher(field).find()
+                        : !rule.pattern().isEmpty() && field.toLowerCase(Locale.ROOT).contains(rule.pattern());
+                if (match) {
+                    return rule.category();
+                }
+            }
+        }
+        return null;
+    }
+
+    @Test
+    void testFirstMatchingRuleWins() {
+        CategoryRules rules = CategoryRules.of("""
+                # comment
+                Transport = name:didi
+                Food = name:re:^kfc\\b
+                Food = coffee
+                Shopping = details:coffee beans
+                Entertainment = 游戏
+                Others = re:\\d{4}
+                """);
+        assertEquals(6, rules.size());
+        assertEquals("Transport", rules.categorize("DiDi Chuxing", "coffee"));
+        assertEquals("Food", rules.categorize("KFC Shanghai", null));
+        assertNull(rules.categorize("Mr KFC", "x"), "regex is anchored");
+        assertEquals("Food", rules.categorize("Shop", "Coffee beans"), "earlier rule beats the longer keyword");
+        assertNull(rules.categorize("x", "didi"), "name-only rule");
+        assertEquals("Entertainment", rules.categorize("Steam", "买游戏"));
+        assertEquals("Others", rules.categorize("Order 2025", ""));
+        assertNull(rules.categorize(null, null));
+    }
+
+    @Test
+    void testAgreesWithNaiveLoopOnRandomRules() {
+        Random random = new Random(13);
+        String alphabet = "abcab咖啡 ";
+        for (int round = 0; round < 30; round++) {
+            List<CategoryRules.Rule> list = new ArrayList<>();
+            for (int r = 0; r < 60; r++) {
+                CategoryRules.Field field = CategoryRules.Field.values()[random.nextInt(3)];
+                String word = randomText(random, alphabet, 1 + random.nextInt(3)).toLowerCase(Locale.ROOT);
+                boolean regex = random.nextInt(6) == 0;
+                String pattern = regex ? (random.nextBoolean() ? "^" : "") + word + (random.nextBoolean() ? "b?c" : "") : word;
+                list.add(new CategoryRules.Rule("c" + r, field, pattern, regex));
+            }
+            CategoryRules rules = new CategoryRules(list);
+            for (int i = 0; i < 300; i++) {
+                String name = randomText(random, alphabet + "ABC", random.nextInt(12));
+                String details = random.nextInt(5) == 0 ? null : randomText(random, alphabet, random.nextInt(12));
+                assertEquals(naive(list, name, details), rules.categorize(name, details), name + " / " + details);
+            }
+        }
+    }
+
+    private static String randomText(Random random, String alphabet, int length) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            text.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return text.toString();
+    }
+
+    @Test
+    void testOnlyUncategorizedBillsChange() {
+        CategoryRules rules = CategoryRules.of("Food = name:mei tuan");
+        List<Bill> bills = List.of(new Bill("2025-01-01 10:00", "Mei Tuan", "", "1 RMB", null),
+                new Bill("2025-01-01 10:00", "Mei Tuan", "", "1 RMB", "Others"),
+                new Bill("2025-01-01 10:00", "Mei Tuan", "", "1 RMB", "Shopping"),
+                new Bill("2025-01-01 10:00", "Amazon", "", "1 RMB", null));
+        assertEquals(2, rules.apply(bills));
+        assertEquals("Food", bills.get(0).getType());
+        assertEquals("Food", bills.get(1).getType());
+        assertEquals("Shopping", bills.get(2).getType());
+        assertNull(bills.get(3).getType());
+    }
+
+    @Test
+    void testRequiredLiteral() {
+        assertEquals("kfc", CategoryRules.requiredLiteral("^kfc\\b"));
+        assertEquals("ele.me", CategoryRules.requiredLiteral("ele\\.me"));
+        assertEquals("shop", CategoryRules.requiredLiteral("[0-9]+shops?"));
+        assertNull(CategoryRules.requiredLiteral("kfc|mcd"));
+        assertNull(CategoryRules.requiredLiteral("\\d+"));
+        assertNull(CategoryRules.requiredLiteral("(?i)abc"));
+    }
+
+    @Test
+    void testMalformedRulesAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> CategoryRules.parse(new StringReader("no equals sign")));
+        assertThrows(IllegalArgumentException.class, () -> CategoryRules.parse(new StringReader("Food = re:([")));
+    }
+
+    @Test
+    void testBuiltInRulesLoad() {
+        CategoryRules rules = CategoryRules.loadDefault();
+        assertTrue(rules.size() > 10);
+        assertEquals("Food", rules.categorize("Mei Tuan", "Takeout"));
+        assertEquals("Shopping", rules.categorize("Amazon", "Shopping"));
+    }
+}
@@ -0,0 +1,192 @@
+package com.bxtz;
+
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import javafx.scene.chart.PieChart;
+import javafx.scene.chart.XYChart;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChartAggregatorTest {
+
+    private final XYChart.Series<String, Number> series = new XYChart.Series<>();
+    private final ObservableList<PieChart.Data> pie = FXCollections.observableArrayList();
+
+    private static ObservableList<Bill> sampleList() {
+        ObservableList<Bill> bills = FXCollections.observableArrayList(Bill.extractor());
+        bills.addAll(
+                new Bill("2025-02-06 01:00", "ApplePay", "Online Pay", "648 RMB", "Entertainment"),
+                new Bill("2025-02-01 12:00", "Mei Tuan", "Takeout", "50 RMB", "Food"),
+                new Bill("2025-02-01 20:45", "Amazon", "Shopping", "120 RMB", "Shopping")
+        );
+        return bills;
+    }
+
+    /** Runs FX-thread and background work inline, so every change is visible immediately. */
+    private ChartAggregator aggregator(BillStore ledger) {
+        return new ChartAggregator(ledger, series, pie, Runnable::run, Runnable::run);
+    }
+
+    private List<String> barLabels() {
+        return series.getData().stream().map(XYChart.Data::getXValue).toList();
+    }
+
+    @Test
+    void testInitialBucketsAreSortedByDay() {
+        aggregator(BillStore.mirror(sampleList()));
+
+        assertEquals(List.of("2025-02-01", "2025-02-06"), barLabels());
+        assertEquals(170.0, series.getData().get(0).getYValue().doubleValue());
+        assertEquals(3, pie.size());
+    }
+
+    @Test
+    void testEditUpdatesExistingDataInPlace() {
+        ObservableList<Bill> bills = sampleList();
+        ChartAggregator aggregator = aggregator(BillStore.mirror(bills));
+        XYChart.Data<String, Number> bar = series.getData().get(0);
+        PieChart.Data foodSlice = pie.stream().filter(d -> d.getName().equals("Food")).findFirst().orElseThrow();
+
+        bills.get(1).setCost("80 RMB");
+
+        assertSame(bar, series.getData().get(0), "The bar is updated, not replaced");
+        assertEquals(200.0, bar.getYValue().doubleValue());
+        assertTrue(pie.contains(foodSlice));
+        assertEquals(80.0, foodSlice.getPieValue());
+        assertEquals(8000, aggregator.typeSum("Food"));
+    }
+
+    @Test
+    void testBucketsAppearAndDisappear() {
+        ObservableList<Bill> bills = sampleList();
+        ChartAggregator aggregator = aggregator(BillStore.mirror(bills));
+
+        bills.add(new Bill("2025-02-03 08:00", "Taxi", "Ride", "30 RMB", "Transport"));
+        assertEquals(List.of("2025-02-01", "2025-02-03", "2025-02-06"), barLabels());
+        assertEquals(4, pie.size());
+
+        bills.get(0).setDate("2025-02-01 09:00"); // moves the only 02-06 bill to 02-01
+        assertEquals(List.of("2025-02-01", "2025-02-03"), barLabels());
+        assertEquals(81800, aggregator.daySum(LocalDate.of(2025, 2, 1)));
+
+        bills.remove(3);
+        assertEquals(List.of("2025-02-01"), barLabels());
+        assertEquals(3, pie.size());
+    }
+
+    @Test
+    void testBurstOfEditsIsFlushedOnce() {
+        ObservableList<Bill> bills = sampleList();
+        Queue<Runnable> fxQueue = new ArrayDeque<>();
+        new ChartAggregator(BillStore.mirror(bills), series, pie, fxQueue::add, Runnable::run);
+        drain(fxQueue);
+
+        for (int i = 1; i <= 100; i++) {
+            bills.get(1).setCost(i + " RMB");
+        }
+        assertEquals(1, fxQueue.size(), "100 edits schedule a single chart update");
+        assertEquals(170.0, series.getData().get(0).getYValue().doubleValue(), "Charts change only when it runs");
+
+        drain(fxQueue);
+        assertEquals(220.0, series.getData().get(0).getYValue().doubleValue());
+    }
+
+    @Test
+    void testBulkImportIsAggregatedInTheBackground() {
+        ObservableList<Bill> bills = sampleList();
+        Queue<Runnable> fxQueue = new ArrayDeque<>();
+        Queue<Runnable> backgroundQueue = new ArrayDeque<>();
+        new ChartAggregator(BillStore.mirror(bills), series, pie, fxQueue::add, backgroundQueue::add);
+        drain(backgroundQueue);
+        drain(fxQueue);
+
+        List<Bill> imported = new ArrayList<>();
+        for (int i = 0; i < ChartAggregator.BULK_ROWS + 1; i++) {
+            imported.add(new Bill("2025-03-0" + (1 + i % 3) + " 10:00", "Shop", "d", "1 RMB", "Food"));
+        }
+        bills.setAll(imported);
+        bills.get(0).setCost("2 RMB"); // arrives while the rebuild is running
+        assertEquals(1, backgroundQueue.size(), "The late edit waits for the running rebuild");
+        drain(fxQueue);
+        assertEquals(List.of("2025-02-01", "2025-02-06"), barLabels(), "Nothing is applied row by row");
+
+        drain(backgroundQueue);
+        drain(fxQueue);     // publishes the first rebuild, which starts one more for the late edit
+        drain(backgroundQueue);
+        drain(fxQueue);
+
+        assertEquals(List.of("2025-03-01", "2025-03-02", "2025-03-03"), barLabels());
+        assertEquals(1, pie.size());
+        assertEquals(ChartAggregator.BULK_ROWS + 2, pie.get(0).getPieValue());
+    }
+
+    @Test
+    void testZoomSwitchesResolution() {
+        ObservableList<Bill> bills = sampleList();
+        ChartAggregator aggregator = aggregator(BillStore.mirror(bills));
+        assertEquals(TimeRollup.Resolution.DAY, aggregator.getResolution());
+
+        int day = (int) (LocalDate.of(2025, 2, 1).toEpochDay() * 24 * 60);
+        aggregator.setWindow(day, day + 24 * 60 - 1);
+        assertEquals(TimeRollup.Resolution.HOUR, aggregator.getResolution());
+        assertEquals(List.of("2025-02-01 12:00", "2025-02-01 20:00"), barLabels());
+
+        bills.add(new Bill("2025-02-01 20:10", "Taxi", "Ride", "30 RMB", "Transport"));
+        bills.add(new Bill("2025-02-03 08:00", "Taxi", "Ride", "30 RMB", "Transport"));
+        assertEquals(List.of("2025-02-01 12:00", "2025-02-01 20:00"), barLabels(), "Bills outside the window are not drawn");
+        assertEquals(150.0, series.getData().get(1).getYValue().doubleValue());
+
+        aggregator.zoom(100);
+        assertFalse(aggregator.isZoomed(), "Zooming out past the ledger shows all of it");
+        assertEquals(List.of("2025-02-01", "2025-02-03", "2025-02-06"), barLabels());
+    }
+
+    @Test
+    void testLongLedgerIsShownAtCoarserResolution() {
+        ObservableList<Bill> bills = sampleList();
+        ChartAggregator aggregator = aggregator(BillStore.mirror(bills));
+
+        bills.add(new Bill("2028-06-01 10:00", "Shop", "d", "1 RMB", "Food"));
+        assertEquals(TimeRollup.Resolution.MONTH, aggregator.getResolution());
+        assertEquals(List.of("2025-02", "2028-06"), barLabels());
+        assertTrue(series.getData().size() <= ChartAggregator.TARGET_BARS);
+
+        bills.remove(3);
+        assertEquals(TimeRollup.Resolution.DAY, aggregator.getResolution());
+        assertEquals(List.of("2025-02-01", "2025-02-06"), barLabels());
+    }
+
+    @Test
+    void testWindowScopesPieAndTotal() {
+        ObservableList<Bill> bills = sampleList();
+        ChartAggregator aggregator = aggregator(BillStore.mirror(bills));
+        assertEquals(81800, aggregator.getWindowTotalMinor());
+
+        int day = (int) (LocalDate.of(2025, 2, 1).toEpochDay() * 24 * 60);
+        aggregator.setWindow(day, day + 24 * 60 - 1);
+        assertEquals(17000, aggregator.getWindowTotalMinor());
+        assertEquals(List.of("Food", "Shopping"), pie.stream().map(PieChart.Data::getName).sorted().toList());
+
+        bills.get(0).setDate("2025-02-01 08:00"); // moves into the window
+        assertEquals(81800, aggregator.getWindowTotalMinor());
+        assertEquals(3, pie.size());
+
+        aggregator.resetWindow();
+        bills.add(new Bill("bad date", "Taxi", "Ride", "30 RMB", "Transport"));
+        assertEquals(84800, aggregator.getWindowTotalMinor(), "Undated bills count towards the whole ledger");
+        assertEquals(4, pie.size());
+    }
+
+    private static void drain(Queue<Runnable> queue) {
+        while (!queue.isEmpty()) {
+            queue.poll().run();
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.bxtz.utils;
+
+import com.bxtz.entity.ChatMessage;
+import com.bxtz.entity.ChatPrompt;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChatSessionTest {
+
+    private static ChatSession.Turn turn(String question, String answer) {
+        return new ChatSession.Turn(question, answer, 100, new AiBackend.ChatReply(answer, 10, 5, 20, 900), 300, 900);
+    }
+
+    private static List<String> roles(ChatPrompt prompt) {
+        return prompt.getMessages().stream().map(ChatMessage::getRole).toList();
+    }
+
+    @Test
+    void testHistoryIsSentAfterTheSummaryAndRelatedBillsAreNot() {
+        ChatSession session = new ChatSession("m");
+        ChatPrompt first = session.prepare("summary", "Where did I spend most?", "Bills related: A");
+        assertEquals("m", first.getModel());
+        assertEquals(ChatSession.CONTEXT_WINDOW, first.getOptions().get("num_ctx"));
+        assertEquals(List.of("system", "user"), roles(first));
+        assertEquals("Bills related: A\nQuestion: Where did I spend most?", first.getMessages().get(1).getContent());
+
+        session.record(turn("Where did I spend most?", "On food."));
+        ChatPrompt second = session.prepare("summary", "And the month before?", "");
+        assertEquals(List.of("system", "user", "assistant", "user"), roles(second));
+        assertEquals("Where did I spend most?", second.getMessages().get(1).getContent());
+        assertEquals("On food.", second.getMessages().get(2).getContent());
+        assertEquals("And the month before?", second.getMessages().get(3).getContent());
+        // Each request starts with the previous one, so the model can reuse what it evaluated
+        assertEquals(first.getMessages().get(0), second.getMessages().get(0));
+
+        session.clear();
+        assertTrue(session.isEmpty());
+        assertEquals(List.of("system", "user"), roles(session.prepare("summary", "Hi", "")));
+    }
+
+    @Test
+    void testOldestTurnsAreDroppedToStayWithinBudget() {
+        ChatSession session = new ChatSession("m", 600);
+        String answer = "x".repeat(400); // about 100 tokens
+        for (int i = 0; i < 20; i++) {
+            session.record(turn("question " + i, answer));
+            ChatPrompt prompt = session.prepare("summary", "next", "");
+            assertTrue(ChatSession.estimateTokens(prompt) <= 600, i + ": " + ChatSession.estimateTokens(prompt));
+        }
+        ChatPrompt prompt = session.prepare("summary", "next", "");
+        assertTrue(session.droppedTurns() > 0);
+        assertEquals(20, session.turns().size());
+        assertEquals("system", prompt.getMessages().get(1).getRole());
+        String note = prompt.getMessages().get(1).getContent();
+        assertTrue(note.startsWith("Earlier in this conversation the user asked: "), note);
+        assertTrue(note.endsWith("question " + (session.droppedTurns() - 1)), note);
+        assertEquals("question " + session.droppedTurns(), prompt.getMessages().get(2).getContent());
+        assertEquals("next", prompt.getMessages().get(prompt.getMessages().size() - 1).getContent());
+
+        // Dropped turns stay dropped even when a short question would let them fit again
+        int dropped = session.droppedTurns();
+        session.prepare("s", "?", "");
+        assertEquals(dropped, session.droppedTurns());
+    }
+
+    @Test
+    void testDescribe() {
+        assertEquals("10 prompt tokens evaluated (~100 sent), 5 answer tokens, first words 0.3 s, 0.9 s total",
+                turn("q", "a").describe());
+    }
+}
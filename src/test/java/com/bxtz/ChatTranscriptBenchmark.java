@@ -0,0 +1,122 @@
+package com.bxtz;
+
+import com.bxtz.utils.MarkdownUtils;
+import javafx.application.Platform;
+import javafx.scene.Scene;
+import javafx.scene.control.ScrollPane;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.VBox;
+import javafx.scene.web.WebView;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Manual memory measurement for the chat transcript. Not picked up by surefire; run once per
+ * layout, each in a fresh JVM, with
+ * {@code java -cp target/test-classes:target/classes:<deps> com.bxtz.ChatTranscriptBenchmark [transcript|webviews] [messages]}.
+ * <p>
+ * Plays a session of question and markdown answer messages (500 by default) and prints the
+ * Java heap after a GC and the process's resident set size every 50 messages. "webviews" is
+ * the previous layout, one {@code WebView} per message in a scrolling {@code VBox};
+ * "transcript" is the shared {@link ChatTranscript}. Most of a web view's memory is native, so
+ * the resident set size is the number that matters; it is read from {@code /proc} and only
+ * shown on Linux.
+ */
+public class ChatTranscriptBenchmark {
+
+    private static final String ANSWER = """
+            AI: Your spending on **Food** rose by 12%% in %d compared with the month before.
+
+            | Category | Total |
+            |----------|-------|
+            | Food | 1,204.50 |
+            | Shopping | 860.00 |
+
+            - Eat out less often on weekdays
+            - Compare prices before large purchases
+
+            ```
+            total = sum(food) + sum(shopping)
+            ```
+            """;
+
+    public static void main(String[] args) throws Exception {
+        String layout = args.length > 0 ? args[0] : "transcript";
+        int messages = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+        CompletableFuture<Void> started = new CompletableFuture<>();
+        Platform.startup(() -> started.complete(null));
+        started.get();
+
+        MarkdownUtils markdownUtils = new MarkdownUtils();
+        VBox column = new VBox(8);
+        ChatTranscript transcript = onFxThread(() -> {
+            if (layout.equals("webviews")) {
+                new Scene(new ScrollPane(column), 500, 400);
+                return null;
+            }
+            ChatTranscript shared = new ChatTranscript(markdownUtils);
+            new Scene(shared.getView(), 500, 400);
+            return shared;
+        });
+        report(layout, 0);
+        long start = System.nanoTime();
+        for (int i = 0; i < messages; i++) {
+            int n = i;
+            onFxThread(() -> {
+                String text = n % 2 == 0 ? "You: How did my spending change in month " + n + "?" : ANSWER.formatted(n);
+                if (transcript == null) {
+                    WebView view = new WebView(); // what each message used to cost
+                    view.getEngine().loadContent("<html><body>" + markdownUtils.markdownToHtml(text) + "</body></html>");
+                    column.getChildren().add(new HBox(view));
+                } else if (n % 2 == 0) {
+                    transcript.addText(text, ChatTranscript.Style.QUESTION);
+                } else {
+                    transcript.addMarkdown(text, ChatTranscript.Style.ANSWER);
+                }
+                return null;
+            });
+            if ((i + 1) % 50 == 0) {
+                report(layout, i + 1);
+            }
+        }
+        System.out.printf("%s: %,d messages in %,d ms%n", layout, messages, (System.nanoTime() - start) / 1_000_000);
+        Platform.exit();
+    }
+
+    private static <T> T onFxThread(Callable<T> action) throws Exception {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Platform.runLater(() -> {
+            try {
+                result.complete(action.call());
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result.get(60, TimeUnit.SECONDS);
+    }
+
+    private static void report(String layout, int messages) throws Exception {
+        onFxThread(() -> null); // let pending page loads finish their FX-thread work
+        System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        long heap = runtime.totalMemory() - runtime.freeMemory();
+        System.out.printf("%-10s %4d messages  heap %,7d KB  rss %s%n", layout, messages, heap / 1024, rss());
+    }
+
+    private static String rss() throws Exception {
+        Path status = Path.of("/proc/self/status");
+        if (!Files.exists(status)) {
+            return "n/a";
+        }
+        for (String line : Files.readAllLines(status)) {
+            if (line.startsWith("VmRSS:")) {
+                return line.substring("VmRSS:".length()).strip();
+            }
+        }
+        return "n/a";
+    }
+}
@@ -0,0 +1,125 @@
+package com.bxtz;
+
+import com.bxtz.utils.MarkdownUtils;
+import javafx.application.Platform;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChatTranscriptTest {
+
+    @BeforeAll
+    static void initJavaFX() {
+        new javafx.embed.swing.JFXPanel(); // The web view lives on the FX thread
+    }
+
+    private static <T> T onFxThread(Supplier<T> action) throws Exception {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Platform.runLater(() -> {
+            try {
+                result.complete(action.get());
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result.get(10, TimeUnit.SECONDS);
+    }
+
+    private static void awaitLoaded(ChatTranscript transcript) throws Exception {
+        for (int i = 0; i < 500 && onFxThread(transcript::shownCount) < 0; i++) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    void testMessagesAreAddedStreamedAndReplaced() throws Exception {
+        ChatTranscript transcript = onFxThread(() -> new ChatTranscript(new MarkdownUtils()));
+        int answer = onFxThread(() -> {
+            // Queued until the page has loaded
+            transcript.addText("You: is <b>this</b> 'quoted'?\n\\", ChatTranscript.Style.QUESTION);
+            int id = transcript.addText("AI: ", ChatTranscript.Style.ANSWER);
+            transcript.appendText(id, "Hello");
+            return id;
+        });
+        awaitLoaded(transcript);
+        assertEquals(2, onFxThread(transcript::shownCount));
+        String text = onFxThread(transcript::shownText);
+        assertTrue(text.contains("You: is <b>this</b> 'quoted'?\n\\"), text);
+        assertTrue(text.contains("AI: Hello"), text);
+
+        onFxThread(() -> {
+            transcript.appendText(answer, " world");
+            transcript.setMarkdown(answer, "AI: **Hello** world", ChatTranscript.Style.ANSWER);
+            return null;
+        });
+        text = onFxThread(transcript::shownText);
+        assertTrue(text.contains("AI: Hello world"), text);
+        assertFalse(text.contains("**"), text);
+
+        onFxThread(() -> {
+            transcript.remove(answer);
+            transcript.addText("AI: failed", ChatTranscript.Style.ERROR);
+            return null;
+        });
+        assertEquals(2, onFxThread(transcript::shownCount));
+        assertFalse(onFxThread(transcript::shownText).contains("Hello"));
+    }
+
+    @Test
+    void testOldMessagesAreTrimmed() throws Exception {
+        ChatTranscript transcript = onFxThread(() -> new ChatTranscript(new MarkdownUtils(), 5));
+        awaitLoaded(transcript);
+        int first = onFxThread(() -> {
+            int id = transcript.addText("message 0", ChatTranscript.Style.QUESTION);
+            for (int i = 1; i < 12; i++) {
+                transcript.addMarkdown("message " + i, ChatTranscript.Style.ANSWER);
+            }
+            return id;
+        });
+        assertEquals(5, onFxThread(transcript::shownCount));
+        String text = onFxThread(transcript::shownText);
+        assertTrue(text.startsWith("7 earlier messages not shown"), text);
+        assertFalse(text.contains("message 6"));
+        assertTrue(text.contains("message 7") && text.contains("message 11"));
+
+        // A trimmed message is not brought back
+        onFxThread(() -> {
+            transcript.setMarkdown(first, "message 0 again", ChatTranscript.Style.ANSWER);
+            return null;
+        });
+        assertFalse(onFxThread(transcript::shownText).contains("message 0"));
+    }
+
+    @Test
+    void testStreamedAnswerIsRenderedAsItGrows() throws Exception {
+        ChatTranscript transcript = onFxThread(() -> new ChatTranscript(new MarkdownUtils()));
+        awaitLoaded(transcript);
+        int answer = onFxThread(() -> {
+            int id = transcript.addStreaming("AI: ", ChatTranscript.Style.ANSWER);
+            transcript.appendMarkdown(id, "**Food** is up.\n\n| a | b |\n|---|---|\n| 1 | 2 |\n");
+            return id;
+        });
+        assertEquals(1, (Integer) onFxThread(() -> transcript.evaluate("document.getElementsByTagName('strong').length")));
+        assertEquals(1, (Integer) onFxThread(() -> transcript.evaluate("document.getElementsByTagName('table').length")));
+        onFxThread(() -> {
+            transcript.appendMarkdown(answer, "| 3 | 4 |\n");
+            transcript.appendText(answer, " (stopped)");
+            transcript.appendMarkdown(answer, "ignored");
+            return null;
+        });
+        assertEquals(3, (Integer) onFxThread(() -> transcript.evaluate("document.getElementsByTagName('tr').length")));
+        String text = onFxThread(transcript::shownText);
+        assertTrue(text.contains("AI: Food is up.") && text.strip().endsWith("(stopped)"), text);
+        assertFalse(text.contains("ignored"));
+    }
+
+    @Test
+    void testQuote() {
+        assertEquals("'a\\'b\\\\c\\nd\\u003c/script>\\u2028'", ChatTranscript.quote("a'b\\c\nd</script> "));
+    }
+}
@@ -0,0 +1,112 @@
+package com.bxtz.utils;
+
+import com.bxtz.Bill;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExportTaskTest {
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeAll
+    static void initJavaFX() {
+        try {
+            new javafx.embed.swing.JFXPanel(); // Task progress updates go through the FX thread
+        } catch (Exception e) {
+            System.err.println("Could not initialize JavaFX Toolkit for testing: " + e.getMessage());
+        }
+    }
+
+    private static List<Bill> sampleBills(int count) {
+        List<Bill> bills = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            bills.add(new Bill("2025-01-01 10:00", "Shop \"" + i + "\"", "Details, " + i, i + " RMB", "Food"));
+        }
+        return bills;
+    }
+
+    @Test
+    void testExportWritesAllRowsAndRoundTrips() throws Exception {
+        File target = tempDir.resolve("export.csv").toFile();
+        ExportTask task = new ExportTask(sampleBills(25_000), target);
+
+        task.run();
+
+        assertEquals(25_000, task.get());
+        List<Bill> imported = BillUtils.importFromCSV(target);
+        assertEquals(25_000, imported.size());
+        assertEquals("Shop \"24999\"", imported.get(24_999).getName());
+        assertEquals("Details, 24999", imported.get(24_999).getDetails());
+        assertNoTempFiles();
+    }
+
+    @Test
+    void testLedgerExportRoundTrips() throws Exception {
+        File target = tempDir.resolve("export.bxl").toFile();
+        ExportTask task = new ExportTask(sampleBills(25_000), target);
+
+        task.run();
+
+        assertEquals(25_000, task.get());
+        List<Bill> imported = BillUtils.importFile(target);
+        assertEquals(25_000, imported.size());
+        assertEquals("Shop \"24999\"", imported.get(24_999).getName());
+        assertEquals("24999 RMB", imported.get(24_999).getCost());
+        assertNoTempFiles();
+    }
+
+    @Test
+    void testCancelledLedgerExportLeavesNoFile() throws IOException {
+        File target = tempDir.resolve("cancelled.bxl").toFile();
+        ExportTask task = new ExportTask(sampleBills(100), target);
+
+        task.cancel();
+        task.call();
+
+        assertFalse(target.exists());
+        assertNoTempFiles();
+    }
+
+    @Test
+    void testCancelledExportLeavesNoFile() throws IOException {
+        File target = tempDir.resolve("cancelled.csv").toFile();
+        ExportTask task = new ExportTask(sampleBills(100), target);
+
+        task.cancel();
+        task.call();
+
+        assertFalse(target.exists(), "A cancelled export must not create the target file");
+        assertNoTempFiles();
+    }
+
+    @Test
+    void testCancelledExportKeepsPreviousFile() throws IOException {
+        File target = tempDir.resolve("existing.csv").toFile();
+        Files.writeString(target.toPath(), "previous contents");
+        ExportTask task = new ExportTask(sampleBills(100), target);
+
+        task.cancel();
+        task.call();
+
+        assertEquals("previous contents", Files.readString(target.toPath()));
+        assertNoTempFiles();
+    }
+
+    private void assertNoTempFiles() throws IOException {
+        try (Stream<Path> files = Files.list(tempDir)) {
+            assertTrue(files.noneMatch(p -> p.getFileName().toString().endsWith(".part")), "Temporary file left behind");
+        }
+    }
+}
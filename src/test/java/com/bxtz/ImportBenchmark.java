@@ -0,0 +1,69 @@
+package com.bxtz.utils;
+
+import com.bxtz.Bill;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Manual benchmark for CSV import throughput. Not picked up by surefire; run with
+ * {@code java -cp target/test-classes:target/classes:<deps> com.bxtz.utils.ImportBenchmark [rows]}.
+ * <p>
+ * Prints rows/sec for the old row-by-row opencsv reader and for {@link ParallelCsvImporter}
+ * at every pool size from 1 up to the number of available cores.
+ */
+public class ImportBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        File file = File.createTempFile("bills-bench", ".csv");
+        file.deleteOnExit();
+        writeSample(file, rows);
+        System.out.printf("%,d rows, %,d bytes%n", rows, file.length());
+
+        time("opencsv (sequential)", rows, () -> BillUtils.importFromCSVStreaming(file));
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads <= cores; threads *= 2) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            ParallelCsvImporter importer = new ParallelCsvImporter(pool);
+            time("mapped, " + threads + " thread(s)", rows, () -> importer.importFile(file));
+            pool.shutdown();
+        }
+    }
+
+    private interface Import {
+        List<Bill> run() throws IOException;
+    }
+
+    private static void time(String label, int rows, Import importer) throws IOException {
+        // One warm-up pass, then the best of three.
+        importer.run();
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < 3; i++) {
+            long start = System.nanoTime();
+            List<Bill> bills = importer.run();
+            best = Math.min(best, System.nanoTime() - start);
+            if (bills.size() != rows) {
+                throw new IllegalStateException(label + " imported " + bills.size() + " rows");
+            }
+        }
+        System.out.printf("%-24s %8.1f ms  %,14.0f rows/s%n", label, best / 1e6, rows / (best / 1e9));
+    }
+
+    static void writeSample(File file, int rows) throws IOException {
+        String[] types = {"Food", "Shopping", "Entertainment", "Others"};
+        try (BufferedWriter writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            for (int i = 0; i < rows; i++) {
+                writer.write("\"2025-" + String.format("%02d-%02d %02d:%02d", 1 + i % 12, 1 + i % 28, i % 24, i % 60)
+                        + "\",\"Merchant " + (i % 5000) + "\",\"Order #" + i + (i % 50 == 0 ? "\nsplit line" : "")
+                        + "\",\"" + (i % 1000) + "." + (i % 100) + " RMB\",\"" + types[i % types.length] + "\"\n");
+            }
+        }
+    }
+}
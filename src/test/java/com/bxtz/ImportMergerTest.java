@@ -0,0 +1,113 @@
+package com.bxtz.utils;
+
+import com.bxtz.Bill;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ImportMergerTest {
+
+    private static Bill bill(String date, String name, String details, String cost, String type) {
+        return new Bill(date, name, details, cost, type);
+    }
+
+    private static List<Bill> statement(int from, int to) {
+        List<Bill> bills = new ArrayList<>();
+        for (int day = from; day < to; day++) {
+            bills.add(bill(String.format("2025-03-%02d 12:00", day), "Cafe", "Latte", "25 RMB", "Food"));
+            bills.add(bill(String.format("2025-03-%02d 18:30", day), "Metro", "Day " + day, "4 RMB", "Transport"));
+        }
+        return bills;
+    }
+
+    @Test
+    void testOverlappingStatementAddsOnlyNewBills() {
+        List<Bill> ledger = statement(1, 16);
+        ImportMerger.Result result = ImportMerger.merge(ledger, statement(10, 29));
+
+        assertEquals(12, result.skipped());
+        assertEquals(0, result.conflicting());
+        assertEquals(26, result.inserted().size());
+        assertEquals("2025-03-16 12:00", result.inserted().get(0).getDate());
+    }
+
+    @Test
+    void testReimportAddsNothing() {
+        List<Bill> ledger = statement(1, 29);
+        ImportMerger.Result result = ImportMerger.merge(ledger, statement(1, 29));
+
+        assertTrue(result.inserted().isEmpty());
+        assertEquals(56, result.skipped());
+    }
+
+    @Test
+    void testSameKeyWithOtherCategoryIsAConflict() {
+        List<Bill> ledger = List.of(bill("2025-03-01 12:00", "Cafe", "Latte", "25 RMB", "Food"));
+        ImportMerger.Result result = ImportMerger.merge(ledger, List.of(
+                bill("2025-03-01 12:00", "Cafe", "Latte", "25.00 RMB", "Others"),
+                bill("2025-03-01 12:00", "Cafe", "Latte", "26 RMB", "Food"),
+                bill("2025-03-01 12:01", "Cafe", "Latte", "25 RMB", "Food"),
+                bill("2025-03-01 12:00", "Cafe", "Mocha", "25 RMB", "Food")));
+
+        assertEquals(1, result.conflicting());
+        assertEquals(0, result.skipped());
+        assertEquals(3, result.inserted().size());
+    }
+
+    @Test
+    void testIdenticalPaymentsMatchOneToOne() {
+        Bill coffee = bill("2025-03-01 12:00", "Cafe", "Latte", "25 RMB", "Food");
+        List<Bill> ledger = List.of(coffee);
+        ImportMerger merger = new ImportMerger(ledger);
+        ImportMerger.Result result = merger.merge(List.of(
+                bill("2025-03-01 12:00", "Cafe", "Latte", "25 RMB", "Food"),
+                bill("2025-03-01 12:00", "Cafe", "Latte", "25 RMB", "Food")));
+
+        assertEquals(1, result.skipped());
+        assertEquals(1, result.inserted().size());
+        // The ledger bill has been matched already
+        assertEquals(1, merger.merge(List.of(bill("2025-03-01 12:00", "Cafe", "Latte", "25 RMB", "Food"))).inserted().size());
+    }
+
+    @Test
+    void testNullsAndInvalidDates() {
+        List<Bill> ledger = List.of(
+                bill("yesterday", "Shop", null, "10 RMB", null),
+                bill("2025-03-01 12:00", null, "Cash", "5 RMB", "Others"));
+        ImportMerger.Result result = ImportMerger.merge(ledger, List.of(
+                bill("yesterday", "Shop", null, "10 RMB", null),
+                bill("tomorrow", "Shop", null, "10 RMB", null),
+                bill("2025-03-01 12:00", null, "Cash", "5 RMB", "Others")));
+
+        assertEquals(2, result.skipped());
+        assertEquals(1, result.inserted().size());
+        assertEquals("tomorrow", result.inserted().get(0).getDate());
+    }
+
+    @Test
+    void testFingerprintCollisionsAreCheckedAgainstTheBill() {
+        // "Aa" and "BB" have the same String.hashCode, so these fingerprints are equal
+        Bill a = bill("2025-03-01 12:00", "Aa", "x", "1 RMB", "Food");
+        Bill b = bill("2025-03-01 12:00", "BB", "x", "1 RMB", "Food");
+        assertEquals(ImportMerger.fingerprint(a), ImportMerger.fingerprint(b));
+
+        ImportMerger.Result result = ImportMerger.merge(List.of(a), List.of(b));
+        assertEquals(1, result.inserted().size());
+        assertEquals(0, result.skipped());
+    }
+
+    @Test
+    void testLargeMergeAgainstEmptyLedger() {
+        List<Bill> incoming = new ArrayList<>();
+        for (int i = 0; i < 50_000; i++) {
+            incoming.add(bill("2025-03-01 12:00", "Shop " + i, null, i + " RMB", "Food"));
+        }
+        assertEquals(50_000, ImportMerger.merge(List.of(), incoming).inserted().size());
+        ImportMerger.Result again = ImportMerger.merge(incoming, incoming);
+        assertEquals(50_000, again.skipped());
+        assertTrue(again.describe().startsWith("Inserted 0 bills, skipped 50,000"));
+    }
+}
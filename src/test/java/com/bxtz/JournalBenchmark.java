@@ -0,0 +1,72 @@
+package com.bxtz;
+
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Manual measurement of {@link BillJournal}. Not picked up by surefire; run with
+ * {@code java -cp target/test-classes:target/classes:<deps> com.bxtz.JournalBenchmark [rows] [edits]}.
+ * <p>
+ * Saves a ledger of {@code rows} bills as the first snapshot, makes {@code edits} single-bill
+ * edits as fast as they come (reporting how many fsyncs they needed), and times loading the
+ * snapshot with the journal replayed on top. Edits go to the store directly: through the
+ * table's list, JavaFX looks up each edited bill by scanning the list, which would dominate.
+ */
+public class JournalBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 500_000;
+        int edits = args.length > 1 ? Integer.parseInt(args[1]) : 20_000;
+        String[] types = {"Food", "Shopping", "Entertainment", "Others"};
+        Path dir = Files.createTempDirectory("journal-benchmark");
+        try {
+            ObservableList<Bill> bills = FXCollections.observableArrayList(Bill.extractor());
+            for (int i = 0; i < rows; i++) {
+                bills.add(new Bill(String.format("2024-%02d-%02d %02d:%02d", 1 + i % 12, 1 + i % 28, i % 24, i % 60),
+                        "Merchant " + (i % 5000), "Order #" + i, (i % 1000) + "." + (10 + i % 90) + " RMB", types[i % 4]));
+            }
+
+            long start = System.nanoTime();
+            BillJournal journal = new BillJournal(dir);
+            BillStore ledger = BillStore.mirror(bills);
+            journal.attach(ledger);
+            journal.sync();
+            System.out.printf("first snapshot: %,d rows, %,d bytes, %.0f ms%n",
+                    rows, Files.size(dir.resolve("ledger.snapshot")), (System.nanoTime() - start) / 1e6);
+
+            long commitsBefore = journal.commitCount();
+            start = System.nanoTime();
+            for (int i = 0; i < edits; i++) {
+                int row = i * 7919 % rows;
+                Bill bill = ledger.bill(row);
+                bill.setCost((i % 500) + " RMB");
+                ledger.set(row, bill);
+            }
+            long queued = System.nanoTime() - start;
+            journal.sync();
+            long total = System.nanoTime() - start;
+            System.out.printf("%,d edits: %.1f us each on the caller, %.0f ms until on disk, %,d fsyncs, journal %,d bytes%n",
+                    edits, queued / 1e3 / edits, total / 1e6, journal.commitCount() - commitsBefore,
+                    Files.size(dir.resolve("ledger.journal")));
+            journal.close();
+
+            for (int run = 0; run < 3; run++) {
+                start = System.nanoTime();
+                BillJournal reopened = new BillJournal(dir);
+                System.out.printf("load snapshot + replay %,d edits: %,d bills in %.0f ms%n",
+                        edits, reopened.savedBills().size(), (System.nanoTime() - start) / 1e6);
+                reopened.close();
+            }
+        } finally {
+            try (Stream<Path> files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+}
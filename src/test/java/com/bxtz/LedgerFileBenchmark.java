@@ -0,0 +1,69 @@
+package com.bxtz;
+
+import com.bxtz.utils.BillUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Manual comparison of the ledger file with CSV. Not picked up by surefire; run with
+ * {@code java -Xmx4g -cp target/test-classes:target/classes:<deps> com.bxtz.LedgerFileBenchmark [rows]}.
+ * <p>
+ * Writes the same bills as CSV and as a {@link LedgerFile}, prints both sizes, then times
+ * loading each: the CSV through {@link BillUtils#importFromCSV}, the ledger file by mapping
+ * and verifying it, by reading a column straight from the mapping, and by building the bills.
+ */
+public class LedgerFileBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        String[] types = {"Food", "Shopping", "Entertainment", "Transport", "Others"};
+        List<Bill> bills = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            bills.add(new Bill(String.format("2024-%02d-%02d %02d:%02d", 1 + i % 12, 1 + i % 28, i % 24, i % 60),
+                    "Merchant " + (i % 5000), "Order #" + i, (i % 1000) + "." + (10 + i % 90) + " RMB", types[i % 5]));
+        }
+        File csv = File.createTempFile("bills-bench", ".csv");
+        File ledger = File.createTempFile("bills-bench", BillUtils.LEDGER_EXTENSION);
+        csv.deleteOnExit();
+        ledger.deleteOnExit();
+        time("write csv", () -> {
+            BillUtils.exportToCSV(bills, csv);
+            return rows;
+        });
+        time("write ledger", () -> {
+            BillUtils.exportToLedger(bills, ledger);
+            return rows;
+        });
+        System.out.printf("%,d rows: csv %,d bytes, ledger %,d bytes (%.0f%%)%n",
+                rows, csv.length(), ledger.length(), 100.0 * ledger.length() / csv.length());
+        bills.clear();
+
+        for (int run = 0; run < 3; run++) {
+            time("csv import", () -> BillUtils.importFromCSV(csv).size());
+            time("ledger open + verify", () -> open(ledger).size());
+            time("ledger open + sum amounts", () -> {
+                LedgerFile file = open(ledger);
+                return (int) (file.sumAmounts(Integer.MIN_VALUE, Integer.MAX_VALUE) % 1000);
+            });
+            time("ledger open + bills()", () -> open(ledger).bills().size());
+        }
+    }
+
+    private static LedgerFile open(File file) {
+        try {
+            return LedgerFile.open(file.toPath());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void time(String label, Supplier<Integer> work) {
+        long start = System.nanoTime();
+        int result = work.get();
+        System.out.printf("%-28s %,8.0f ms  (%,d)%n", label, (System.nanoTime() - start) / 1e6, result);
+    }
+}
@@ -0,0 +1,158 @@
+package com.bxtz;
+
+import com.bxtz.utils.BillUtils;
+import com.bxtz.utils.LedgerFormat;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LedgerFileTest {
+
+    @TempDir
+    Path dir;
+
+    private static String text(Bill b) {
+        return b.getDate() + "|" + b.getName() + "|" + b.getDetails() + "|" + b.getCost() + "|" + b.getType();
+    }
+
+    /**
+     * Bills in date order, ten minutes apart.
+     */
+    private static List<Bill> manyBills(int count) {
+        List<Bill> bills = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int minute = 28_000_000 + i * 10;
+            bills.add(new Bill(LedgerFormat.formatMinute(minute), "Shop " + (i % 100), "Order #" + i,
+                    (i % 997) + "." + (i % 100) + " RMB", i % 3 == 0 ? "Food" : "Shopping"));
+        }
+        return bills;
+    }
+
+    @Test
+    void testRoundTripKeepsEveryField() throws IOException {
+        List<Bill> bills = List.of(
+                new Bill("2025-02-01 12:00", "Mei Tuan", "Takeout", "50 RMB", "Food"),
+                new Bill("2025-02-01 20:45", "Amazon", null, "120.50 RMB", null),
+                new Bill("yesterday", "咖啡店", "Latte \"large\"", "about 5", "Others"),
+                new Bill("2025-02-06 01:00", null, "x".repeat(100_000), "648.000 RMB", "Entertainment"));
+        Path file = dir.resolve("bills.bxl");
+        LedgerFile.write(bills, file);
+
+        LedgerFile ledger = LedgerFile.open(file);
+        assertEquals(4, ledger.size());
+        assertEquals(bills.stream().map(LedgerFileTest::text).toList(), ledger.bills().stream().map(LedgerFileTest::text).toList());
+        assertEquals(12050, ledger.amount(1));
+        assertEquals(Bill.NO_MINUTE, ledger.minute(2));
+        assertEquals("咖啡店", ledger.name(2));
+        assertNull(ledger.type(1));
+        assertNull(ledger.details(1));
+    }
+
+    @Test
+    void testEmptyLedger() throws IOException {
+        Path file = dir.resolve("empty.bxl");
+        LedgerFile.write(List.of(), file);
+        LedgerFile ledger = LedgerFile.open(file);
+        assertEquals(0, ledger.size());
+        assertEquals(0, ledger.blockCount());
+        assertTrue(ledger.bills().isEmpty());
+    }
+
+    @Test
+    void testColumnsAcrossBlocksAndSharedStrings() throws IOException {
+        List<Bill> bills = manyBills(150_000);
+        Path file = dir.resolve("many.bxl");
+        LedgerFile.write(bills, file);
+
+        LedgerFile ledger = LedgerFile.open(file);
+        assertEquals(3, ledger.blockCount());
+        for (int row : new int[]{0, LedgerFile.BLOCK_ROWS - 1, LedgerFile.BLOCK_ROWS, 149_999}) {
+            assertEquals(bills.get(row).getCostMinor(), ledger.amount(row));
+            assertEquals(bills.get(row).getEpochMinute(), ledger.minute(row));
+            assertEquals(bills.get(row).getDetails(), ledger.details(row));
+            assertEquals(bills.get(row).getType(), ledger.type(row));
+        }
+        List<Bill> loaded = ledger.bills();
+        assertEquals(text(bills.get(149_999)), text(loaded.get(149_999)));
+        assertSame(loaded.get(1).getName(), loaded.get(101).getName());
+    }
+
+    @Test
+    void testQueriesUseBlockStatistics() throws IOException {
+        List<Bill> bills = manyBills(150_000);
+        bills.set(5, new Bill("someday", "Shop 5", "Order #5", "7 RMB", "Food"));
+        bills.set(100_005, new Bill("someday", "Shop 5", "Order #100005", "9 RMB", "Food"));
+        Path file = dir.resolve("many.bxl");
+        LedgerFile.write(bills, file);
+        LedgerFile ledger = LedgerFile.open(file);
+
+        int from = bills.get(70_000).getEpochMinute();
+        int to = bills.get(80_000).getEpochMinute();
+        long expected = 0;
+        for (Bill bill : bills) {
+            if (bill.getEpochMinute() >= from && bill.getEpochMinute() < to) {
+                expected += bill.getCostMinor();
+            }
+        }
+        assertEquals(expected, ledger.sumAmounts(from, to));
+        assertEquals(1, ledger.blocksScanned(from, to));
+
+        // Undated bills are in no range, even the widest
+        long total = bills.stream().filter(b -> b.getEpochMinute() != Bill.NO_MINUTE).mapToLong(Bill::getCostMinor).sum();
+        assertEquals(total, ledger.sumAmounts(Integer.MIN_VALUE, Integer.MAX_VALUE));
+        assertEquals(0, ledger.blocksScanned(Integer.MIN_VALUE, Integer.MAX_VALUE));
+        assertEquals(0, ledger.sumAmounts(Integer.MIN_VALUE, bills.get(0).getEpochMinute()));
+
+        long atLeast = bills.stream().filter(b -> b.getCostMinor() >= 50_000).count();
+        assertEquals(atLeast, ledger.countAmountsAtLeast(50_000));
+        assertEquals(bills.size(), ledger.countAmountsAtLeast(0));
+    }
+
+    @Test
+    void testDamagedFileIsRejected() throws IOException {
+        Path file = dir.resolve("damaged.bxl");
+        LedgerFile.write(manyBills(1000), file);
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[200] ^= 1; // inside the first block
+        Files.write(file, bytes);
+
+        IOException error = assertThrows(IOException.class, () -> LedgerFile.open(file));
+        assertTrue(error.getMessage().contains("damaged block 0"), error.getMessage());
+        assertTrue(BillUtils.importFromLedger(file.toFile()).isEmpty());
+
+        Files.writeString(file, "\"2025-02-01 12:00\",\"Mei Tuan\",\"Takeout\",\"50 RMB\",\"Food\"\n".repeat(3));
+        assertThrows(IOException.class, () -> LedgerFile.open(file));
+    }
+
+    @Test
+    void testUnfinishedWriterLeavesTargetAlone() throws IOException {
+        Path file = dir.resolve("bills.bxl");
+        LedgerFile.write(manyBills(10), file);
+        byte[] before = Files.readAllBytes(file);
+
+        try (LedgerFile.Writer writer = new LedgerFile.Writer(file)) {
+            for (Bill bill : manyBills(LedgerFile.BLOCK_ROWS + 5)) {
+                writer.add(bill);
+            }
+            // e.g. an exception or a cancelled export before finish()
+        }
+        assertArrayEquals(before, Files.readAllBytes(file));
+        try (var files = Files.list(dir)) {
+            assertEquals(List.of(file), files.toList(), "the partial file is deleted");
+        }
+
+        LedgerFile.Writer finished = new LedgerFile.Writer(file);
+        finished.add(manyBills(1).get(0));
+        finished.finish();
+        finished.close();
+        assertEquals(1, LedgerFile.open(file).size());
+        assertThrows(IllegalStateException.class, () -> finished.add(manyBills(1).get(0)));
+    }
+}
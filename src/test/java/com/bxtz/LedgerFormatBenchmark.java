@@ -0,0 +1,64 @@
+package com.bxtz.utils;
+
+import java.lang.management.ManagementFactory;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.function.ToLongFunction;
+
+/**
+ * Manual micro-benchmark for {@link LedgerFormat}. Not picked up by surefire; run with
+ * {@code java -cp target/test-classes:target/classes:<deps> com.bxtz.utils.LedgerFormatBenchmark}.
+ * <p>
+ * Compares the hand-written parsers against the code they replace (a formatter built per call
+ * for validation, {@code toLowerCase/replace/split/parseDouble} for totals, {@code BigDecimal}
+ * for exact amounts) and prints ns and allocated bytes per parse.
+ */
+public class LedgerFormatBenchmark {
+    private static final int SAMPLES = 4096;
+    private static final int ROUNDS = 200;
+
+    public static void main(String[] args) {
+        String[] dates = new String[SAMPLES];
+        String[] costs = new String[SAMPLES];
+        for (int i = 0; i < SAMPLES; i++) {
+            dates[i] = String.format("2025-%02d-%02d %02d:%02d", 1 + i % 12, 1 + i % 28, i % 24, i % 60);
+            costs[i] = (i % 1000) + "." + (i % 100) + " RMB";
+        }
+
+        DateTimeFormatter shared = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+        run("date: ofPattern per call", dates, s -> {
+            LocalDateTime.parse(s, DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm"));
+            return 1;
+        });
+        run("date: shared formatter", dates, s -> LocalDateTime.parse(s, shared).getMinute());
+        run("date: LedgerFormat", dates, LedgerFormat::parseMinute);
+
+        run("cost: lower/replace/split/double", costs,
+                s -> (long) (Double.parseDouble(s.toLowerCase().replace("rmb", "").trim().split(" ")[0]) * 100));
+        run("cost: BigDecimal", costs, s -> new java.math.BigDecimal(s.toLowerCase().replace("rmb", "").trim())
+                .setScale(2, java.math.RoundingMode.HALF_UP).unscaledValue().longValue());
+        run("cost: LedgerFormat", costs, LedgerFormat::parseAmount);
+    }
+
+    private static void run(String label, String[] inputs, ToLongFunction<String> parser) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long sink = 0;
+        for (int round = 0; round < ROUNDS; round++) { // warm-up
+            for (String input : inputs) {
+                sink += parser.applyAsLong(input);
+            }
+        }
+        long allocated = threads.getCurrentThreadAllocatedBytes();
+        long start = System.nanoTime();
+        for (int round = 0; round < ROUNDS; round++) {
+            for (String input : inputs) {
+                sink += parser.applyAsLong(input);
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        allocated = threads.getCurrentThreadAllocatedBytes() - allocated;
+        long parses = (long) ROUNDS * inputs.length;
+        System.out.printf("%-34s %8.1f ns/op %8.1f B/op   (%d)%n",
+                label, (double) elapsed / parses, (double) allocated / parses, sink & 1);
+    }
+}
@@ -0,0 +1,71 @@
+package com.bxtz.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LedgerFormatTest {
+    private static final DateTimeFormatter FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+
+    @Test
+    void testTimestampsAgreeWithJavaTime() {
+        Random random = new Random(3);
+        for (int i = 0; i < 20_000; i++) {
+            LocalDateTime time = LocalDateTime.of(1 + random.nextInt(5000), 1 + random.nextInt(12), 1, 0, 0)
+                    .plusDays(random.nextInt(31)).plusMinutes(random.nextInt(24 * 60));
+            String text = FORMAT.format(time);
+            int minute = LedgerFormat.parseMinute(text);
+            assertEquals(time.toEpochSecond(ZoneOffset.UTC) / 60, minute, text);
+            assertEquals(text, LedgerFormat.formatMinute(minute));
+        }
+    }
+
+    @Test
+    void testInvalidTimestamps() {
+        for (String text : new String[]{"2025-02-29 10:00", "2025-13-01 10:00", "2025-04-31 10:00", "2025-01-01 24:00",
+                "2025-01-01 10:60", "2025/01/01 10:00", "2025-01-01", "2025-01-01 10:00 ", "0000-01-01 00:00",
+                "2025-0a-01 10:00", "", "not a date"}) {
+            assertEquals(LedgerFormat.INVALID_MINUTE, LedgerFormat.parseMinute(text), text);
+        }
+        assertEquals(LedgerFormat.INVALID_MINUTE, LedgerFormat.parseMinute(null));
+        assertNotEquals(LedgerFormat.INVALID_MINUTE, LedgerFormat.parseMinute("2024-02-29 23:59"));
+        assertTrue(LedgerFormat.isValidDate("  2025-01-01 10:00 "));
+        assertFalse(LedgerFormat.isValidDate("   "));
+    }
+
+    @Test
+    void testAmountsAreExactAndRoundLikeBigDecimal() {
+        assertEquals(10, LedgerFormat.parseAmount("0.1 RMB"));
+        assertEquals(1250, LedgerFormat.parseAmount(" 12.5rmb "));
+        assertEquals(-1201, LedgerFormat.parseAmount("-12.005 Rmb"));
+        assertEquals(1200, LedgerFormat.parseAmount("12."));
+        assertEquals(50, LedgerFormat.parseAmount(".5"));
+        assertEquals(0, LedgerFormat.parseAmount("+0 RMB"));
+
+        Random random = new Random(5);
+        for (int i = 0; i < 20_000; i++) {
+            String number = (random.nextBoolean() ? "-" : "") + random.nextInt(1_000_000) + "." + random.nextInt(100_000);
+            long expected = new BigDecimal(number).setScale(2, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+            assertEquals(expected, LedgerFormat.parseAmount(number + " RMB"), number);
+            assertEquals(expected, LedgerFormat.parseNumber(number), number);
+        }
+    }
+
+    @Test
+    void testInvalidAmounts() {
+        for (String text : new String[]{"", " RMB", "abc", "1,5", "1.2.3", "--1", "1e3", ".", "-", "RMB 12",
+                "99999999999999999999 RMB"}) {
+            assertEquals(LedgerFormat.INVALID_AMOUNT, LedgerFormat.parseAmount(text), text);
+        }
+        assertEquals(LedgerFormat.INVALID_AMOUNT, LedgerFormat.parseNumber("100 RMB"));
+        assertTrue(LedgerFormat.hasCurrencySuffix("12 rmb "));
+        assertFalse(LedgerFormat.hasCurrencySuffix("12"));
+    }
+}
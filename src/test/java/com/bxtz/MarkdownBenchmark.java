@@ -0,0 +1,76 @@
+package com.bxtz.utils;
+
+import com.vladsch.flexmark.ext.tables.TablesExtension;
+import com.vladsch.flexmark.html.HtmlRenderer;
+import com.vladsch.flexmark.parser.Parser;
+import com.vladsch.flexmark.util.data.MutableDataSet;
+
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Manual benchmark for {@link MarkdownUtils}. Not picked up by surefire; run with
+ * {@code java -cp target/test-classes:target/classes:<deps> com.bxtz.utils.MarkdownBenchmark}.
+ * <p>
+ * Renders a long answer the way the chat does while it streams in, once per fragment of a few
+ * characters: with a parser and renderer built for every call (as before), re-rendering the
+ * whole text with the shared ones, and with {@link MarkdownUtils.Incremental}.
+ */
+public class MarkdownBenchmark {
+    private static final int FRAGMENT = 4;
+
+    public static void main(String[] args) {
+        StringBuilder answer = new StringBuilder("AI: Here is a breakdown of your spending.\n\n");
+        for (int i = 0; i < 30; i++) {
+            answer.append("## Month ").append(i + 1).append("\n\nYou spent **").append(1000 + i * 37)
+                    .append(" RMB**, mostly on food and transport.\n\n| Category | Total |\n|---|---:|\n")
+                    .append("| Food | ").append(400 + i).append(" |\n| Transport | ").append(200 + i).append(" |\n\n")
+                    .append("- Cook at home more often\n- Take the bus\n\n");
+        }
+        String text = answer.toString();
+        System.out.printf("%,d characters in fragments of %d%n", text.length(), FRAGMENT);
+        for (int round = 0; round < 3; round++) {
+            run("new parser per call", text, () -> new Streamer() {
+                final StringBuilder sofar = new StringBuilder();
+
+                @Override
+                public int append(String fragment) {
+                    MutableDataSet options = new MutableDataSet().set(Parser.EXTENSIONS, List.of(TablesExtension.create()));
+                    sofar.append(fragment);
+                    return HtmlRenderer.builder(options).build().render(Parser.builder(options).build().parse(sofar.toString())).length();
+                }
+            });
+            run("shared, whole text", text, () -> new Streamer() {
+                final StringBuilder sofar = new StringBuilder();
+
+                @Override
+                public int append(String fragment) {
+                    return MarkdownUtils.render(sofar.append(fragment).toString()).length();
+                }
+            });
+            run("incremental", text, () -> new Streamer() {
+                final MarkdownUtils.Incremental stream = new MarkdownUtils().incremental();
+
+                @Override
+                public int append(String fragment) {
+                    MarkdownUtils.Update update = stream.append(fragment);
+                    return update.completed().length() + update.tail().length();
+                }
+            });
+        }
+    }
+
+    private interface Streamer {
+        int append(String fragment);
+    }
+
+    private static void run(String label, String text, Supplier<Streamer> streamer) {
+        long start = System.nanoTime();
+        Streamer s = streamer.get();
+        long sink = 0;
+        for (int i = 0; i < text.length(); i += FRAGMENT) {
+            sink += s.append(text.substring(i, Math.min(text.length(), i + FRAGMENT)));
+        }
+        System.out.printf("%-22s %,8d ms  %,d KB of HTML%n", label, (System.nanoTime() - start) / 1_000_000, sink / 1024);
+    }
+}
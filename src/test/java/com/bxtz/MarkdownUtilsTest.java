@@ -1,6 +1,9 @@
 package com.bxtz.utils;
 
 import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 class MarkdownUtilsTest {
@@ -29,4 +32,72 @@ class MarkdownUtilsTest {
         String actualHtml = markdownUtils.markdownToHtml(markdown);
         assertEquals(expectedHtml.trim(), actualHtml.trim(), "HTML output for empty markdown should be empty");
     }
-}
\ No newline at end of file
+
+    private static final String ANSWER = """
+            AI: Here is how your **spending** changed:
+
+            | Month | Total |
+            |-------|------:|
+            | 2025-01 | 1,204.50 |
+            | 2025-02 | ~~860.00~~ 910.00 |
+
+            1. Eat out less often
+
+            2. Compare prices
+               before large purchases
+
+            - [x] check subscriptions
+
+            ```
+            total = food
+
+            + shopping
+            ```
+
+            > Note: amounts are in RMB.
+            Continued quote.
+
+                indented code
+
+            # Summary
+            See https://example.com for more.
+            """;
+
+    @Test
+    void testTablesAndOtherExtensions() {
+        String html = markdownUtils.markdownToHtml(ANSWER);
+        assertTrue(html.contains("<table>"), html);
+        assertTrue(html.contains("<del>860.00</del>"), html);
+        assertTrue(html.contains("<a href=\"https://example.com\">"), html);
+        assertTrue(html.contains("checkbox"), html);
+    }
+
+    @Test
+    void testRenderedHtmlIsCached() {
+        String markdown = "cached " + System.nanoTime();
+        String html = markdownUtils.markdownToHtml(markdown);
+        assertSame(html, new MarkdownUtils().markdownToHtml(markdown));
+    }
+
+    @Test
+    void testIncrementalMatchesWholeRendering() {
+        Random random = new Random(7);
+        for (int run = 0; run < 20; run++) {
+            MarkdownUtils.Incremental stream = markdownUtils.incremental();
+            StringBuilder completed = new StringBuilder();
+            String tail = "";
+            int maxTail = 0;
+            for (int i = 0; i < ANSWER.length(); ) {
+                int end = Math.min(ANSWER.length(), i + 1 + random.nextInt(12));
+                MarkdownUtils.Update update = stream.append(ANSWER.substring(i, end));
+                completed.append(update.completed());
+                tail = update.tail();
+                maxTail = Math.max(maxTail, tail.length());
+                i = end;
+            }
+            assertEquals(ANSWER, stream.text());
+            assertEquals(markdownUtils.markdownToHtml(ANSWER), completed + tail);
+            assertTrue(maxTail < completed.length(), "only the last block is rendered again");
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.bxtz.utils;
+
+import com.bxtz.Bill;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Manual benchmark for merge imports. Not picked up by surefire; run with
+ * {@code java -Xmx4g -cp target/test-classes:target/classes:<deps> com.bxtz.utils.MergeBenchmark [rows]}.
+ * <p>
+ * Merges a statement of {@code rows} bills, half of them already in a ledger of {@code rows}
+ * bills, and prints the time to index the ledger and to check each imported bill.
+ */
+public class MergeBenchmark {
+
+    public static void main(String[] args) {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        List<Bill> ledger = bills(0, rows);
+        List<Bill> statement = bills(rows / 2, rows + rows / 2);
+
+        for (int run = 0; run < 3; run++) {
+            long start = System.nanoTime();
+            ImportMerger merger = new ImportMerger(ledger);
+            long indexed = System.nanoTime();
+            ImportMerger.Result result = merger.merge(statement);
+            long merged = System.nanoTime();
+            System.out.printf("index %,d bills: %.0f ms; merge %,d bills: %.0f ms (%.0f ns each); %s%n",
+                    rows, (indexed - start) / 1e6, rows, (merged - indexed) / 1e6,
+                    (double) (merged - indexed) / rows, result.describe());
+        }
+    }
+
+    private static List<Bill> bills(int from, int to) {
+        String[] types = {"Food", "Shopping", "Entertainment", "Others"};
+        List<Bill> bills = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            bills.add(new Bill(String.format("2024-%02d-%02d %02d:%02d", 1 + i % 12, 1 + i % 28, i % 24, i % 60),
+                    "Merchant " + (i % 5000), "Order #" + i, (i % 1000) + "." + (10 + i % 90) + " RMB", types[i % 4]));
+        }
+        return bills;
+    }
+}
@@ -0,0 +1,122 @@
+package com.bxtz.utils;
+
+import com.bxtz.entity.ChatMessage;
+import com.bxtz.entity.ChatPrompt;
+import com.bxtz.entity.Prompt;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OllamaStandInTest {
+
+    private OllamaStandIn standIn;
+    private AIUtils aiUtils;
+
+    @BeforeEach
+    void start() throws IOException {
+        standIn = new OllamaStandIn(0, 42);
+        standIn.setTokensPerSecond(0);
+        standIn.setLatencyMillis(0);
+        standIn.setAnswerTokens(5);
+        aiUtils = new AIUtils(standIn.url() + "/api/generate", AIUtils.sharedClient(), new Semaphore(4), Duration.ofSeconds(10));
+    }
+
+    @AfterEach
+    void stop() {
+        standIn.close();
+    }
+
+    @Test
+    void testGenerateAnswersInOnePieceOrStreamed() throws Exception {
+        Prompt prompt = new Prompt();
+        prompt.setPrompt("How much did I spend?");
+        String whole = aiUtils.getResponseAsync(prompt).get(10, TimeUnit.SECONDS);
+        assertEquals(5, whole.split(" ").length);
+
+        List<String> fragments = new CopyOnWriteArrayList<>();
+        String streamed = aiUtils.streamResponseAsync(prompt, fragments::add).get(10, TimeUnit.SECONDS);
+        assertEquals(whole, streamed);
+        assertEquals(5, fragments.size());
+        assertEquals(2, standIn.requestCount());
+    }
+
+    @Test
+    void testChatReportsTokenCounts() throws Exception {
+        ChatPrompt prompt = new ChatPrompt();
+        prompt.getMessages().add(new ChatMessage("system", "Bills: lunch 25, taxi 40, rent 3000"));
+        prompt.getMessages().add(new ChatMessage("user", "Where does my money go?"));
+        List<String> fragments = new CopyOnWriteArrayList<>();
+        AiBackend.ChatReply reply = aiUtils.streamChatAsync(prompt, fragments::add).get(10, TimeUnit.SECONDS);
+        assertEquals(String.join("", fragments), reply.content());
+        assertEquals(5, reply.answerTokens());
+        assertTrue(reply.promptTokens() > 0);
+    }
+
+    @Test
+    void testLatencyAndTokenRateAreApplied() throws Exception {
+        standIn.setLatencyMillis(150);
+        standIn.setTokensPerSecond(100); // 10 ms per token
+        long start = System.nanoTime();
+        long[] first = {-1};
+        aiUtils.streamResponseAsync(new Prompt(), fragment -> {
+            if (first[0] < 0) {
+                first[0] = System.nanoTime();
+            }
+        }).get(10, TimeUnit.SECONDS);
+        long total = System.nanoTime() - start;
+        assertTrue(first[0] - start >= TimeUnit.MILLISECONDS.toNanos(150));
+        assertTrue(total >= TimeUnit.MILLISECONDS.toNanos(200));
+    }
+
+    @Test
+    void testInjectedFailuresAreServerErrors() {
+        standIn.setFailureRate(1);
+        ExecutionException e = assertThrows(ExecutionException.class,
+                () -> aiUtils.streamChatAsync(new ChatPrompt(), fragment -> {
+                }).get(10, TimeUnit.SECONDS));
+        assertInstanceOf(IOException.class, e.getCause());
+        assertTrue(e.getCause().getMessage().contains("500"), e.getCause().getMessage());
+        assertEquals(1, standIn.failureCount());
+    }
+
+    @Test
+    void testNextQuestionMaySendAsSoonAsTheAnswerIsComplete() throws Exception {
+        AIUtils oneAtATime = new AIUtils(standIn.url() + "/api/generate", AIUtils.sharedClient(), new Semaphore(1), Duration.ofSeconds(10));
+        for (int i = 0; i < 20; i++) {
+            oneAtATime.streamChatAsync(new ChatPrompt(), fragment -> {
+                    })
+                    .thenCompose(reply -> oneAtATime.streamChatAsync(new ChatPrompt(), fragment -> {
+                    }))
+                    .get(10, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    void testEmbeddingsOfSimilarTextsAreCloser() throws Exception {
+        EmbeddingClient embeddings = new EmbeddingClient(standIn.url() + "/api/embed", "stand-in", AIUtils.sharedClient());
+        float[][] vectors = embeddings.embed(List.of("Starbucks coffee", "starbucks coffee beans", "Monthly rent"));
+        assertEquals(3, vectors.length);
+        assertEquals(OllamaStandIn.EMBEDDING_DIMENSIONS, vectors[0].length);
+        assertTrue(cosine(vectors[0], vectors[1]) > cosine(vectors[0], vectors[2]));
+    }
+
+    private static double cosine(float[] a, float[] b) {
+        double dot = 0, na = 0, nb = 0;
+        for (int i = 0; i < a.length; i++) {
+            dot += a[i] * b[i];
+            na += a[i] * a[i];
+            nb += b[i] * b[i];
+        }
+        return dot / Math.sqrt(na * nb);
+    }
+}
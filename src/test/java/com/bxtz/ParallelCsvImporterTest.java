@@ -0,0 +1,89 @@
+package com.bxtz.utils;
+
+import com.bxtz.Bill;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ParallelCsvImporterTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testQuotedNewlinesAndEscapedQuotes() throws IOException {
+        String csv = "\"2025-01-01 10:00\",\"Lunch\",\"line one\nline two\",\"50 RMB\",\"Food\"\r\n"
+                + "\"2025-01-02 15:00\",\"Say \"\"hi\"\"\",\"Shop, Inc\",\"150 RMB\",\"Shopping\"\r\n";
+        List<Bill> bills = new ParallelCsvImporter().parse(ByteBuffer.wrap(csv.getBytes(StandardCharsets.UTF_8)));
+
+        assertEquals(2, bills.size());
+        assertEquals("line one\nline two", bills.get(0).getDetails());
+        assertEquals("Food", bills.get(0).getType(), "Trailing \\r should be stripped");
+        assertEquals("Say \"hi\"", bills.get(1).getName());
+        assertEquals("Shop, Inc", bills.get(1).getDetails());
+    }
+
+    @Test
+    void testSkipsHeaderBlankAndShortRows() throws IOException {
+        String csv = "NAME,DATE,DETAILS,COST,TYPE\n"
+                + "\n"
+                + "only,three,columns\n"
+                + "2025-01-03 09:00,Coffee,Cafe,25 RMB,Food";
+        List<Bill> bills = new ParallelCsvImporter().parse(ByteBuffer.wrap(csv.getBytes(StandardCharsets.UTF_8)));
+
+        assertEquals(1, bills.size());
+        assertEquals("Coffee", bills.get(0).getName());
+        assertEquals("Food", bills.get(0).getType());
+    }
+
+    @Test
+    void testChunkBoundariesInsideQuotedFieldsKeepOrder() throws IOException {
+        StringBuilder csv = new StringBuilder();
+        int rows = 2000;
+        for (int i = 0; i < rows; i++) {
+            csv.append("\"2025-01-01 10:00\",\"Shop ").append(i)
+                    .append("\",\"multi\nline \"\"details\"\"\",\"").append(i).append(" RMB\",\"Others\"\n");
+        }
+        File file = tempDir.resolve("many.csv").toFile();
+        Files.writeString(file.toPath(), csv.toString());
+
+        // Tiny chunks force every kind of boundary: inside quotes, on escaped quotes, on newlines.
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            List<Bill> bills = new ParallelCsvImporter(pool, 7).importFile(file);
+            assertEquals(rows, bills.size());
+            for (int i = 0; i < rows; i++) {
+                assertEquals("Shop " + i, bills.get(i).getName());
+                assertEquals("multi\nline \"details\"", bills.get(i).getDetails());
+                assertEquals(i + " RMB", bills.get(i).getCost());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void testUtf8BomAndMultibyteText() throws IOException {
+        byte[] body = "2025-02-01 12:00,美团,外卖,50 RMB,Food\n".getBytes(StandardCharsets.UTF_8);
+        byte[] withBom = new byte[body.length + 3];
+        withBom[0] = (byte) 0xEF;
+        withBom[1] = (byte) 0xBB;
+        withBom[2] = (byte) 0xBF;
+        System.arraycopy(body, 0, withBom, 3, body.length);
+
+        List<Bill> bills = new ParallelCsvImporter().parse(ByteBuffer.wrap(withBom));
+        assertEquals(1, bills.size());
+        assertEquals("2025-02-01 12:00", bills.get(0).getDate());
+        assertEquals("美团", bills.get(0).getName());
+    }
+}
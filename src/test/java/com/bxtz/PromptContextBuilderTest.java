@@ -0,0 +1,102 @@
+package com.bxtz.utils;
+
+import com.bxtz.Bill;
+import com.bxtz.BillStore;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PromptContextBuilderTest {
+
+    private static BillStore ledger(int rows) {
+        ObservableList<Bill> bills = FXCollections.observableArrayList(Bill.extractor());
+        for (int i = 0; i < rows; i++) {
+            bills.add(new Bill(String.format("2025-%02d-%02d 12:00", 1 + i % 12, 1 + i % 28), "Shop" + i % 7,
+                    "item " + i, (10 + i % 50) + ".50 RMB", i % 2 == 0 ? "Food" : "Transport"));
+        }
+        bills.add(new Bill("2025-03-14 09:30", "Apple Store", "laptop", "9999 RMB", "Shopping"));
+        return BillStore.mirror(bills);
+    }
+
+    @Test
+    void testContextHasAggregatesInsteadOfEveryBill() {
+        String context = new PromptContextBuilder().build(ledger(1000), "What can I cut back on?");
+        assertTrue(context.startsWith("Ledger: 1001 bills, 2025-01-01 to 2025-12-28, total "));
+        assertTrue(context.contains("By category: "));
+        assertTrue(context.contains("By month: 2025-01 "));
+        assertTrue(context.contains("Top merchants: Apple Store 9999.00 (1);"));
+        assertTrue(context.contains("2025-03-14 09:30 | Apple Store | laptop | 9999.00 | Shopping"), "outlier listed");
+        assertFalse(context.contains("item 500"));
+        assertTrue(PromptContextBuilder.estimateTokens(context) <= PromptContextBuilder.DEFAULT_TOKEN_BUDGET);
+    }
+
+    @Test
+    void testQuestionPullsInRelevantBills() {
+        BillStore ledger = ledger(1000);
+        String byWord = new PromptContextBuilder().build(ledger, "How much did the laptop cost?");
+        assertTrue(byWord.contains("Bills related to the question"));
+        assertTrue(byWord.contains("| Apple Store | laptop |"));
+        assertFalse(byWord.contains("| item "), "stop words must not match every bill");
+
+        String byDay = new PromptContextBuilder().build(ledger, "What did I buy on 2025-02-02?");
+        assertTrue(byDay.contains("2025-02-02 12:00 | Shop"));
+        assertFalse(byDay.contains("2025-02-03 12:00"));
+    }
+
+    @Test
+    void testSimilarRowsComeFirst() {
+        BillStore ledger = ledger(1000);
+        // Row 4 ("item 4") shares no word with the question, but was found similar to it
+        String context = new PromptContextBuilder().build(ledger, "How much did the laptop cost?", List.of(4, 1000, 4));
+        String related = context.substring(context.indexOf("Bills related to the question"));
+        int similar = related.indexOf("| Shop4 | item 4 |");
+        int laptop = related.indexOf("| Apple Store | laptop |");
+        assertTrue(similar > 0 && laptop > similar, related);
+        assertEquals(laptop, related.lastIndexOf("| Apple Store | laptop |"), "listed once");
+        assertEquals(similar, related.lastIndexOf("| Shop4 | item 4 |"), "listed once");
+    }
+
+    @Test
+    void testSummaryAndRelatedBillsSeparately() {
+        BillStore ledger = ledger(1000);
+        PromptContextBuilder builder = new PromptContextBuilder();
+        String summary = builder.buildSummary(ledger);
+        String related = builder.buildRelated(ledger, "How much did the laptop cost?", List.of());
+        assertTrue(summary.startsWith("Ledger: 1001 bills"));
+        assertFalse(summary.contains("Bills related"));
+        assertTrue(related.startsWith("Bills related to the question"));
+        assertEquals(summary + related, builder.build(ledger, "How much did the laptop cost?"));
+        assertEquals("", builder.buildRelated(ledger, "Any advice?", List.of()));
+    }
+
+    @Test
+    void testBudgetIsRespected() {
+        BillStore ledger = ledger(5000);
+        for (int budget : new int[]{20, 60, 200, 400}) {
+            String context = new PromptContextBuilder(budget).build(ledger, "Show me everything at shop3 in 2025-05");
+            assertTrue(PromptContextBuilder.estimateTokens(context) <= budget, budget + ": " + context);
+        }
+        String cut = new PromptContextBuilder(400).build(ledger, "Show me everything at shop3 in 2025-05");
+        assertTrue(cut.contains("more not shown)"));
+    }
+
+    @Test
+    void testEmptyLedger() {
+        String context = new PromptContextBuilder().build(ledger(0), "anything?");
+        assertTrue(context.startsWith("Ledger: 1 bills"));
+        assertEquals("Ledger: 0 bills, total 0.00 RMB\n",
+                new PromptContextBuilder().build(BillStore.mirror(FXCollections.observableArrayList()), ""));
+    }
+
+    @Test
+    void testTokenEstimate() {
+        assertEquals(0, PromptContextBuilder.estimateTokens(""));
+        assertEquals(1, PromptContextBuilder.estimateTokens("abcd"));
+        assertEquals(2, PromptContextBuilder.estimateTokens("abcde"));
+        assertEquals(3, PromptContextBuilder.estimateTokens("账单a"));
+    }
+}
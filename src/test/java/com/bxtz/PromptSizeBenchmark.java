@@ -0,0 +1,64 @@
+package com.bxtz.utils;
+
+import com.bxtz.Bill;
+import com.bxtz.BillStore;
+import com.bxtz.entity.Message;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.Callable;
+
+/**
+ * Manual benchmark for {@link PromptContextBuilder}. Not picked up by surefire; run with
+ * {@code java -cp target/test-classes:target/classes:<deps> com.bxtz.utils.PromptSizeBenchmark}.
+ * <p>
+ * Builds the prompt for one question over ledgers of growing size, once the old way (every
+ * bill serialised as JSON) and once as an aggregate context, and prints the prompt size in
+ * characters and estimated tokens together with the time to build it.
+ */
+public class PromptSizeBenchmark {
+    private static final String[] TYPES = {"Food", "Shopping", "Transport", "Housing", "Entertainment"};
+    private static final String QUESTION = "How much did I spend on taxi in 2025-05?";
+
+    public static void main(String[] args) throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        for (int rows : new int[]{1_000, 10_000, 50_000}) {
+            ObservableList<Bill> bills = FXCollections.observableArrayList(Bill.extractor());
+            Random random = new Random(rows);
+            for (int i = 0; i < rows; i++) {
+                bills.add(new Bill(String.format("%d-%02d-%02d %02d:%02d", 2023 + random.nextInt(3), 1 + random.nextInt(12),
+                        1 + random.nextInt(28), random.nextInt(24), random.nextInt(60)), "Merchant" + random.nextInt(200),
+                        random.nextInt(20) == 0 ? "taxi ride" : "order " + i, random.nextInt(500) + "." + random.nextInt(100) + " RMB",
+                        TYPES[random.nextInt(TYPES.length)]));
+            }
+            BillStore ledger = BillStore.mirror(bills);
+            PromptContextBuilder builder = new PromptContextBuilder();
+
+            run(rows, "JSON of every bill", () -> {
+                Message message = new Message();
+                message.setBills(mapper.writeValueAsString(new ArrayList<>(bills)));
+                message.setMsg(QUESTION);
+                return mapper.writeValueAsString(message);
+            });
+            run(rows, "aggregate context", () -> builder.buildPrompt(new Message().getPrompt(), ledger, QUESTION));
+        }
+    }
+
+    private static void run(int rows, String label, Callable<String> build) throws Exception {
+        String prompt = null;
+        for (int i = 0; i < 5; i++) { // warm-up
+            prompt = build.call();
+        }
+        int rounds = 10;
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            prompt = build.call();
+        }
+        long elapsed = (System.nanoTime() - start) / rounds;
+        System.out.printf("%6d rows  %-20s %10d chars %9d tokens %8.2f ms%n",
+                rows, label, prompt.length(), PromptContextBuilder.estimateTokens(prompt), elapsed / 1e6);
+    }
+}
@@ -0,0 +1,60 @@
+package com.bxtz.utils;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResponseCacheTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void testNormalizedQuestionHits() {
+        ResponseCache cache = new ResponseCache(8);
+        cache.put("qwen", "Which category did I spend most on?", 1, "Food");
+        assertEquals("Food", cache.get("qwen", "  which  category did i spend most on ", 1));
+        assertEquals("Food", cache.get("qwen", "Which category did I spend most on？", 1));
+        assertNull(cache.get("llama", "Which category did I spend most on?", 1), "other model");
+        assertEquals("which category", ResponseCache.normalize("Which\tCategory?!"));
+    }
+
+    @Test
+    void testLedgerChangeInvalidatesAndLruEvicts() {
+        ResponseCache cache = new ResponseCache(2);
+        cache.put("m", "a", 1, "A");
+        cache.put("m", "b", 1, "B");
+        assertEquals("A", cache.get("m", "a", 1));
+        cache.put("m", "c", 1, "C");
+        assertNull(cache.get("m", "b", 1), "least recently used is evicted");
+        assertEquals("A", cache.get("m", "a", 1));
+
+        assertNull(cache.get("m", "a", 2));
+        assertEquals(0, cache.size(), "answers for the old bills are dropped");
+        assertNull(cache.get("m", "a", 1));
+    }
+
+    @Test
+    void testDiskTierSurvivesRestartAndIsPruned() throws Exception {
+        ResponseCache cache = new ResponseCache(4, dir, 3);
+        cache.put("m", "Total?", 7, "100 RMB\nsecond line");
+        cache.flush();
+
+        ResponseCache restarted = new ResponseCache(4, dir, 3);
+        assertEquals("100 RMB\nsecond line", restarted.get("m", "total", 7));
+        assertNull(restarted.get("m", "total", 8), "different bills");
+
+        for (int i = 0; i < 5; i++) {
+            cache.put("m", "q" + i, 7, "a" + i);
+        }
+        cache.flush();
+        try (Stream<Path> files = Files.list(dir)) {
+            assertEquals(3, files.count());
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.bxtz;
+
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RunningTotalTest {
+
+    @Test
+    void testTracksEditsAddsRemovesAndImportsInVerifyMode() {
+        ObservableList<Bill> bills = FXCollections.observableArrayList(Bill.extractor());
+        for (int i = 0; i < 1000; i++) {
+            bills.add(new Bill("2025-01-01 10:00", "Shop " + i, "d", (i % 50) + ".25 RMB", "Food"));
+        }
+        BillStore ledger = BillStore.mirror(bills);
+        RunningTotal total = new RunningTotal(ledger, true); // throws if it ever drifts from a rescan
+
+        Random random = new Random(42);
+        for (int step = 0; step < 2000; step++) {
+            switch (random.nextInt(4)) {
+                case 0 -> bills.get(random.nextInt(bills.size())).setCost(random.nextInt(10_000) + ".0" + random.nextInt(10) + " RMB");
+                case 1 -> bills.add(new Bill("2025-01-02 10:00", "New", "d", random.nextInt(500) + " RMB", "Others"));
+                case 2 -> bills.remove(random.nextInt(bills.size()));
+                default -> bills.get(random.nextInt(bills.size())).costProperty().set("0.1 RMB");
+            }
+        }
+        List<Bill> imported = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            imported.add(new Bill("2025-02-01 10:00", "Import " + i, "d", "1.01 RMB", "Food"));
+        }
+        bills.setAll(imported);
+
+        assertEquals(10100, total.getTotalMinor());
+    }
+
+    @Test
+    void testExactMinorUnits() {
+        ObservableList<Bill> bills = FXCollections.observableArrayList(Bill.extractor());
+        for (int i = 0; i < 10; i++) {
+            bills.add(new Bill("2025-01-01 10:00", "n", "d", "0.1 RMB", "Food")); // 0.1 is inexact as a double
+        }
+        RunningTotal total = new RunningTotal(BillStore.mirror(bills));
+        assertEquals(100, total.getTotalMinor());
+        assertEquals("Total Cost: 1.00 RMB", Commons.formatTotalCost(total.getTotalMinor()));
+        assertEquals("Total Cost: -0.05 RMB", Commons.formatTotalCost(-5));
+    }
+}
@@ -0,0 +1,108 @@
+package com.bxtz.utils;
+
+import com.bxtz.entity.ChatMessage;
+import com.bxtz.entity.ChatPrompt;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SpringAiBackendTest {
+
+    private OllamaStandIn standIn;
+    private final Semaphore inFlight = new Semaphore(1);
+
+    @BeforeEach
+    void start() throws IOException {
+        standIn = new OllamaStandIn(0, 42);
+        standIn.setTokensPerSecond(0);
+        standIn.setLatencyMillis(0);
+    }
+
+    @AfterEach
+    void stop() {
+        standIn.close();
+    }
+
+    private SpringAiBackend backend(Duration stallTimeout) {
+        return new SpringAiBackend(standIn.url(), inFlight, stallTimeout);
+    }
+
+    private static ChatPrompt question() {
+        ChatPrompt prompt = new ChatPrompt();
+        prompt.getOptions().put("num_ctx", 4096);
+        prompt.getMessages().add(new ChatMessage("system", "Bills: lunch 25, taxi 40, rent 3000"));
+        prompt.getMessages().add(new ChatMessage("user", "Where does my money go?"));
+        return prompt;
+    }
+
+    @Test
+    void testStreamsTheAnswerInBatchesAndReportsCounts() throws Exception {
+        standIn.setAnswerTokens(300);
+        List<String> batches = new CopyOnWriteArrayList<>();
+        AiBackend.ChatReply reply = backend(Duration.ofSeconds(10)).streamChatAsync(question(), batches::add)
+                .get(10, TimeUnit.SECONDS);
+        assertEquals(String.join("", batches), reply.content());
+        assertEquals(300, reply.answerTokens());
+        assertTrue(reply.promptTokens() > 0);
+        // tokens arriving together reach the consumer together
+        assertTrue(batches.size() < 300, batches.size() + " batches");
+        assertEquals(1, inFlight.availablePermits());
+    }
+
+    @Test
+    void testCancellingStopsTheGeneration() throws Exception {
+        standIn.setTokensPerSecond(20);
+        standIn.setAnswerTokens(200);
+        SpringAiBackend backend = backend(Duration.ofSeconds(10));
+        CountDownLatch firstBatch = new CountDownLatch(1);
+        var reply = backend.streamChatAsync(question(), batch -> firstBatch.countDown());
+        assertTrue(firstBatch.await(10, TimeUnit.SECONDS));
+        assertThrows(RejectedExecutionException.class, () -> {
+            try {
+                backend.streamChatAsync(question(), batch -> {
+                }).get(1, TimeUnit.SECONDS);
+            } catch (ExecutionException e) {
+                throw e.getCause();
+            }
+        });
+
+        reply.cancel(true);
+        assertEquals(1, inFlight.availablePermits());
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (standIn.abandonedCount() == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(1, standIn.abandonedCount());
+    }
+
+    @Test
+    void testServerErrorsAndStallsFailLikeTheHttpBackend() {
+        standIn.setFailureRate(1);
+        ExecutionException failed = assertThrows(ExecutionException.class,
+                () -> backend(Duration.ofSeconds(10)).streamChatAsync(question(), batch -> {
+                }).get(10, TimeUnit.SECONDS));
+        assertInstanceOf(IOException.class, failed.getCause());
+        assertTrue(failed.getCause().getMessage().contains("500"), failed.getCause().getMessage());
+
+        standIn.setFailureRate(0);
+        standIn.setLatencyMillis(2000);
+        ExecutionException stalled = assertThrows(ExecutionException.class,
+                () -> backend(Duration.ofMillis(200)).streamChatAsync(question(), batch -> {
+                }).get(10, TimeUnit.SECONDS));
+        assertInstanceOf(HttpTimeoutException.class, stalled.getCause());
+        assertEquals(1, inFlight.availablePermits());
+    }
+}
@@ -0,0 +1,101 @@
+package com.bxtz;
+
+import com.bxtz.utils.LedgerFormat;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TimeIndexTest {
+    private static final String[] TYPES = {"Food", "Shopping", "Transport"};
+
+    private static Bill randomBill(Random random) {
+        String date = String.format("2025-%02d-%02d %02d:%02d",
+                1 + random.nextInt(3), 1 + random.nextInt(28), random.nextInt(24), random.nextInt(4) * 15);
+        return new Bill(date, "n", "d", random.nextInt(1000) + "." + random.nextInt(10) + " RMB",
+                TYPES[random.nextInt(TYPES.length)]);
+    }
+
+    /** Sums by scanning every bill, the way the index must agree with */
+    private static long[] scan(List<Bill> bills, String type, int from, int to) {
+        long sum = 0;
+        long count = 0;
+        for (Bill bill : bills) {
+            int minute = bill.getEpochMinute();
+            if (minute != Bill.NO_MINUTE && minute >= from && minute <= to && (type == null || type.equals(bill.getType()))) {
+                sum += bill.getCostMinor();
+                count++;
+            }
+        }
+        return new long[]{sum, count};
+    }
+
+    private static void assertMatchesScan(TimeIndex index, List<Bill> bills, Random random) {
+        int base = bills.isEmpty() ? 0 : LedgerFormat.parseMinute("2025-01-01 00:00");
+        for (int query = 0; query < 20; query++) {
+            int from = base + random.nextInt(90 * 24 * 60);
+            int to = from + random.nextInt(30 * 24 * 60);
+            long[] expected = scan(bills, null, from, to);
+            assertEquals(expected[0], index.sum(from, to));
+            assertEquals(expected[1], index.count(from, to));
+            String type = TYPES[random.nextInt(TYPES.length)];
+            assertEquals(scan(bills, type, from, to)[0], index.sum(type, from, to));
+        }
+    }
+
+    @Test
+    void testRangeSumsMatchAScanThroughEditsAddsAndRemoves() {
+        Random random = new Random(7);
+        ObservableList<Bill> bills = FXCollections.observableArrayList(Bill.extractor());
+        for (int i = 0; i < 500; i++) {
+            bills.add(randomBill(random));
+        }
+        TimeIndex index = new TimeIndex(BillStore.mirror(bills));
+        assertMatchesScan(index, bills, random);
+
+        for (int step = 0; step < 2000; step++) {
+            switch (random.nextInt(5)) {
+                case 0 -> bills.add(randomBill(random));
+                case 1 -> bills.remove(random.nextInt(bills.size()));
+                case 2 -> bills.get(random.nextInt(bills.size())).setCost(random.nextInt(100) + " RMB");
+                case 3 -> bills.get(random.nextInt(bills.size())).setType(TYPES[random.nextInt(TYPES.length)]);
+                default -> bills.get(random.nextInt(bills.size())).setDate(randomBill(random).getDate());
+            }
+            if (step % 100 == 0) {
+                assertMatchesScan(index, bills, random);
+            }
+        }
+        assertMatchesScan(index, bills, random);
+    }
+
+    @Test
+    void testBulkLoadAfterClear() {
+        Random random = new Random(11);
+        ObservableList<Bill> bills = FXCollections.observableArrayList(Bill.extractor());
+        bills.add(randomBill(random));
+        TimeIndex index = new TimeIndex(BillStore.mirror(bills));
+
+        List<Bill> imported = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            imported.add(randomBill(random));
+        }
+        imported.add(new Bill("not a date", "n", "d", "5 RMB", "Food"));
+        bills.setAll(imported);
+        assertMatchesScan(index, bills, random);
+
+        bills.get(0).setCost("12345 RMB");
+        bills.remove(1, 100);
+        assertMatchesScan(index, bills, random);
+        assertEquals(bills.stream().mapToInt(Bill::getEpochMinute).filter(m -> m != Bill.NO_MINUTE).min().orElseThrow(),
+                index.firstMinute());
+
+        bills.clear();
+        assertTrue(index.isEmpty());
+        assertEquals(0, index.sum(Integer.MIN_VALUE, Integer.MAX_VALUE));
+    }
+}
@@ -0,0 +1,73 @@
+package com.bxtz;
+
+import com.bxtz.TimeRollup.Resolution;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TimeRollupTest {
+
+    private static int minute(String dateTime) {
+        return (int) (LocalDateTime.parse(dateTime).toEpochSecond(ZoneOffset.UTC) / 60);
+    }
+
+    @Test
+    void testBucketStartsAndLabels() {
+        int m = minute("2025-02-05T13:47"); // a Wednesday
+        assertEquals("2025-02-05 13:00", Resolution.HOUR.label(Resolution.HOUR.bucketStart(m)));
+        assertEquals("2025-02-05", Resolution.DAY.label(Resolution.DAY.bucketStart(m)));
+        assertEquals("Week of 2025-02-03", Resolution.WEEK.label(Resolution.WEEK.bucketStart(m)));
+        assertEquals("2025-02", Resolution.MONTH.label(Resolution.MONTH.bucketStart(m)));
+        assertEquals("2025", Resolution.YEAR.label(Resolution.YEAR.bucketStart(m)));
+        assertEquals(minute("1969-12-29T00:00"), Resolution.WEEK.bucketStart(minute("1970-01-01T00:00")));
+    }
+
+    @Test
+    void testEveryLevelStaysConsistentWithIncrementalChanges() {
+        TimeRollup rollup = new TimeRollup();
+        rollup.add(minute("2025-01-31T23:30"), 1000, 1);
+        rollup.add(minute("2025-02-01T00:15"), 250, 1);
+        rollup.add(minute("2025-02-01T00:45"), 50, 1);
+
+        assertEquals(300, rollup.sum(Resolution.HOUR, minute("2025-02-01T00:00")));
+        assertEquals(300, rollup.sum(Resolution.MONTH, minute("2025-02-01T00:00")));
+        assertEquals(1300, rollup.sum(Resolution.WEEK, minute("2025-01-27T00:00")));
+        assertEquals(1300, rollup.sum(Resolution.YEAR, minute("2025-01-01T00:00")));
+
+        rollup.add(minute("2025-01-31T23:30"), -1000, -1);
+        assertEquals(List.of(minute("2025-02-01T00:00")),
+                List.copyOf(rollup.buckets(Resolution.DAY, Integer.MIN_VALUE, Integer.MAX_VALUE).keySet()),
+                "Emptied buckets are dropped");
+        assertEquals(minute("2025-02-01T00:00"), rollup.firstMinute());
+        assertEquals(minute("2025-02-01T00:59"), rollup.lastMinute());
+
+        rollup.add(Bill.NO_MINUTE, 99, 1);
+        assertEquals(300, rollup.sum(Resolution.YEAR, minute("2025-01-01T00:00")), "Undated bills are ignored");
+    }
+
+    @Test
+    void testBucketsCoverThePartialFirstBucketOfAWindow() {
+        TimeRollup rollup = new TimeRollup();
+        rollup.add(minute("2025-03-02T10:00"), 100, 1);
+        rollup.add(minute("2025-03-20T10:00"), 200, 1);
+        rollup.add(minute("2025-04-02T10:00"), 400, 1);
+
+        assertEquals(List.of(minute("2025-03-01T00:00")), List.copyOf(
+                rollup.buckets(Resolution.MONTH, minute("2025-03-15T00:00"), minute("2025-03-31T00:00")).keySet()));
+    }
+
+    @Test
+    void testPickKeepsBarCountWithinTarget() {
+        int from = minute("2025-01-01T00:00");
+        assertEquals(Resolution.HOUR, TimeRollup.pick(from, minute("2025-01-02T00:00"), 60, Resolution.HOUR));
+        assertEquals(Resolution.DAY, TimeRollup.pick(from, minute("2025-01-02T00:00"), 60, Resolution.DAY));
+        assertEquals(Resolution.DAY, TimeRollup.pick(from, minute("2025-02-15T00:00"), 60, Resolution.HOUR));
+        assertEquals(Resolution.WEEK, TimeRollup.pick(from, minute("2025-12-31T00:00"), 60, Resolution.HOUR));
+        assertEquals(Resolution.MONTH, TimeRollup.pick(from, minute("2029-12-31T00:00"), 60, Resolution.HOUR));
+        assertEquals(Resolution.YEAR, TimeRollup.pick(from, minute("2099-12-31T00:00"), 60, Resolution.HOUR));
+    }
+}
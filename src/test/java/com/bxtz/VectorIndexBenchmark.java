@@ -0,0 +1,96 @@
+package com.bxtz.utils;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Manual benchmark for {@link VectorIndex}. Not picked up by surefire; run with
+ * {@code java -cp target/test-classes:target/classes:<deps> com.bxtz.utils.VectorIndexBenchmark}.
+ * <p>
+ * Fills a flat and an HNSW index with the same vectors (the size of a typical local embedding
+ * model's output) and prints build time, query latency and the HNSW recall of the exact top 10.
+ * Like real embeddings, the vectors lie near a low-dimensional subspace: a random projection of
+ * {@link #LATENT_DIMS} random coordinates plus noise. Fully random vectors are all about equally
+ * far apart, which no approximate index handles well and no embedding model produces.
+ */
+public class VectorIndexBenchmark {
+    private static final int DIMS = 384;
+    private static final int LATENT_DIMS = 24;
+    private static final int QUERIES = 200;
+    private static final int K = 10;
+
+    public static void main(String[] args) {
+        for (int size : new int[]{5_000, 50_000}) {
+            Random random = new Random(1);
+            float[][] projection = new float[LATENT_DIMS][];
+            for (int l = 0; l < LATENT_DIMS; l++) {
+                projection[l] = noise(random, 1);
+            }
+            float[][] vectors = new float[size][];
+            for (int i = 0; i < size; i++) {
+                vectors[i] = vector(random, projection);
+            }
+            float[][] queries = new float[QUERIES][];
+            for (int q = 0; q < QUERIES; q++) {
+                queries[q] = vector(random, projection);
+            }
+            VectorIndex flat = build(size, "flat", VectorIndex.flat(DIMS), vectors);
+            VectorIndex hnsw = build(size, "hnsw", VectorIndex.hnsw(DIMS), vectors);
+            query(size, "flat", flat, queries);
+            query(size, "hnsw", hnsw, queries);
+
+            int found = 0;
+            for (float[] query : queries) {
+                Set<Integer> exact = new HashSet<>();
+                flat.search(query, K).forEach(hit -> exact.add(hit.key()));
+                for (VectorIndex.Hit hit : hnsw.search(query, K)) {
+                    found += exact.contains(hit.key()) ? 1 : 0;
+                }
+            }
+            System.out.printf("%,7d vectors  hnsw recall@%d: %.3f%n", size, K, found / (double) (QUERIES * K));
+        }
+    }
+
+    private static float[] vector(Random random, float[][] projection) {
+        float[] vector = noise(random, 0.1);
+        for (float[] axis : projection) {
+            float weight = (float) random.nextGaussian();
+            for (int d = 0; d < DIMS; d++) {
+                vector[d] += weight * axis[d];
+            }
+        }
+        return vector;
+    }
+
+    private static float[] noise(Random random, double scale) {
+        float[] vector = new float[DIMS];
+        for (int d = 0; d < DIMS; d++) {
+            vector[d] = (float) (random.nextGaussian() * scale);
+        }
+        return vector;
+    }
+
+    private static VectorIndex build(int size, String label, VectorIndex index, float[][] vectors) {
+        long start = System.nanoTime();
+        for (int i = 0; i < vectors.length; i++) {
+            index.add(i, vectors[i]);
+        }
+        System.out.printf("%,7d vectors  %-5s build %,8d ms%n", size, label, (System.nanoTime() - start) / 1_000_000);
+        return index;
+    }
+
+    private static void query(int size, String label, VectorIndex index, float[][] queries) {
+        for (int warmup = 0; warmup < 3; warmup++) {
+            for (float[] query : queries) {
+                index.search(query, K);
+            }
+        }
+        long start = System.nanoTime();
+        for (float[] query : queries) {
+            index.search(query, K);
+        }
+        double micros = (System.nanoTime() - start) / 1e3 / queries.length;
+        System.out.printf("%,7d vectors  %-5s query %,10.1f us%n", size, label, micros);
+    }
+}
@@ -0,0 +1,105 @@
+package com.bxtz.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.IntFunction;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VectorIndexTest {
+
+    private static float[] randomVector(Random random, int dims) {
+        float[] vector = new float[dims];
+        for (int d = 0; d < dims; d++) {
+            vector[d] = (float) random.nextGaussian();
+        }
+        return vector;
+    }
+
+    /** The {@code k} best keys by comparing against every vector */
+    private static List<Integer> exact(float[][] vectors, float[] query, int k) {
+        float[] unit = VectorIndex.normalize(query);
+        Integer[] keys = new Integer[vectors.length];
+        float[] scores = new float[vectors.length];
+        for (int i = 0; i < vectors.length; i++) {
+            keys[i] = i;
+            scores[i] = VectorIndex.dot(unit, VectorIndex.normalize(vectors[i]), 0);
+        }
+        Arrays.sort(keys, (a, b) -> Float.compare(scores[b], scores[a]));
+        return List.of(keys).subList(0, k);
+    }
+
+    @Test
+    void testFlatSearchIsExact() {
+        Random random = new Random(3);
+        float[][] vectors = new float[500][];
+        VectorIndex index = VectorIndex.flat(13);
+        for (int i = 0; i < vectors.length; i++) {
+            vectors[i] = randomVector(random, 13);
+            index.add(i, vectors[i]);
+        }
+        for (int q = 0; q < 20; q++) {
+            float[] query = randomVector(random, 13);
+            List<VectorIndex.Hit> hits = index.search(query, 10);
+            assertEquals(exact(vectors, query, 10), hits.stream().map(VectorIndex.Hit::key).toList());
+            for (int i = 1; i < hits.size(); i++) {
+                assertTrue(hits.get(i - 1).score() >= hits.get(i).score());
+            }
+        }
+        assertTrue(index.search(vectors[0], 0).isEmpty());
+        assertEquals(1, index.search(vectors[0], 1).size());
+        assertEquals(0, index.search(vectors[0], 1).get(0).key());
+    }
+
+    @Test
+    void testHnswRecallAgainstExactSearch() {
+        Random random = new Random(5);
+        float[][] vectors = new float[3000][];
+        VectorIndex index = VectorIndex.hnsw(32);
+        for (int i = 0; i < vectors.length; i++) {
+            vectors[i] = randomVector(random, 32);
+            index.add(i, vectors[i]);
+        }
+        int found = 0;
+        int queries = 50;
+        for (int q = 0; q < queries; q++) {
+            float[] query = randomVector(random, 32);
+            Set<Integer> expected = new HashSet<>(exact(vectors, query, 10));
+            for (VectorIndex.Hit hit : index.search(query, 10)) {
+                found += expected.contains(hit.key()) ? 1 : 0;
+            }
+        }
+        double recall = found / (queries * 10.0);
+        assertTrue(recall >= 0.9, "recall " + recall);
+    }
+
+    @Test
+    void testReplaceAndRemove() {
+        for (IntFunction<VectorIndex> factory : List.<IntFunction<VectorIndex>>of(VectorIndex::flat, VectorIndex::hnsw)) {
+            VectorIndex index = factory.apply(3);
+            for (int i = 0; i < 50; i++) {
+                index.add(i, new float[]{1, i, 0});
+            }
+            index.add(7, new float[]{0, 0, 1});
+            assertEquals(50, index.size());
+            assertEquals(7, index.search(new float[]{0, 0, 1}, 1).get(0).key());
+            assertArrayEquals(new float[]{0, 0, 1}, index.vector(7));
+
+            index.remove(7);
+            index.remove(7);
+            assertEquals(49, index.size());
+            assertFalse(index.contains(7));
+            assertNull(index.vector(7));
+            for (VectorIndex.Hit hit : index.search(new float[]{0, 0, 1}, 50)) {
+                assertNotEquals(7, hit.key());
+            }
+            assertEquals(49, index.search(new float[]{0, 0, 1}, 100).size());
+            assertThrows(IllegalArgumentException.class, () -> index.add(1, new float[2]));
+        }
+    }
+}